@@ -1,12 +1,17 @@
 package net.hesterberg.budget.budget;
 
+import net.hesterberg.budget.Date;
 import net.hesterberg.budget.transaction.Purchase;
 import net.hesterberg.budget.transaction.Transaction;
 import net.hesterberg.budget.utility.CategoryException;
 
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -14,8 +19,25 @@ import java.util.Map;
  * Stores the overall budget amount
  * Stores the current spent amount
  * Stores a hash map containing <Category, Budget> for each method
- * Stores a hash map containing <Category, ArrayList<Purchases>>
+ * Stores the purchases in a columnar PurchaseStore, with each category given an integer id
+ * Gives every purchase a stable id when it is added, or when its archive is set, so a purchase can be found and
+ * removed without searching for it
+ * Stores running spent totals and purchase counts for each category and overall in SpendCounters, as 64 bit values
+ * that can be read without blocking threads adding purchases
+ * Stores running largest purchases in a StatsAggregator, so PurchaseStats cost O(1)
+ * Stores a DayIndex for each category and overall so spending over a date range is answered in O(log n)
+ * Answers PurchaseFilters from a PurchaseIndex built by the first filter and kept up to date as purchases change
+ * Keeps a DescriptionIndex of the words in the descriptions, once it has been searched, for searches as the user types
+ * Keeps a PurchaseOrder of purchase ids for each PurchaseSort that has been asked for, updated as purchases are
+ * added, removed and moved
+ * Can leave older months in a PurchaseArchive - their totals are counted straight away but their purchases are only
+ * decoded when something looks at them, and only moved into the store when they need to change
+ * Counts its changes as a version, and hands out BudgetSnapshots - read only views of one version that share the
+ * purchase columns instead of copying them, for reading from other threads while the budget keeps changing
+ * Can be forked into copies for what-if scenarios, which share the purchase columns a segment at a time with the
+ * parent and report their changes as a BudgetDiff
  * All monetary amounts are stored in CENTS to avoid floating point precision errors
+ * Not thread safe - several threads can add purchases at once through a PurchaseIngest, which locks on the budget
  *
  * @author Nikolai Hesterberg
  */
@@ -31,9 +53,110 @@ public class Budget {
     private HashMap<String, Integer> budget;
 
     /**
-     * Stores the categories and a list of purchases for each category
+     * Stores the purchases as primitive columns
      */
-    private HashMap<String, ArrayList<Transaction>> purchases;
+    private PurchaseStore purchases;
+
+    /**
+     * Stores the category name for each category id
+     */
+    private ArrayList<String> categoryNames;
+
+    /**
+     * Stores the category id for each category name
+     * Ids are kept when a category is removed so re-adding the category reuses its id
+     */
+    private HashMap<String, Integer> categoryIds;
+
+    /**
+     * Stores the running amount spent and number of purchases in each category and overall
+     * Kept up to date by every method that adds or removes purchases so totals never need a rescan
+     */
+    private SpendCounters spending;
+
+    /**
+     * Stores the largest purchase for each category and overall
+     */
+    private StatsAggregator stats;
+
+    /**
+     * Stores the spending by day for each category, indexed by category id
+     */
+    private DayIndex[] categoryDays;
+
+    /**
+     * Stores the spending by day across all categories
+     */
+    private DayIndex totalDays;
+
+    /**
+     * Stores the months of purchases that haven't been loaded into the store, or null if there are none
+     */
+    private PurchaseArchive archive;
+
+    /**
+     * Stores the category id of each archive category
+     */
+    private int[] archiveCategories;
+
+    /**
+     * Stores whether each archived month has been moved into the store
+     */
+    private boolean[] archiveLoaded;
+
+    /**
+     * Stores the row number of the first purchase of each archived month, with moved months holding no rows
+     * The extra last entry is the number of archived purchases, which are numbered before the stored purchases
+     */
+    private int[] archiveRows;
+
+    /**
+     * Stores the first purchase id of each archived month, reserved when the archive is set
+     * The extra last entry is the first id after the archive's ids
+     */
+    private int[] archiveIds;
+
+    /**
+     * Stores the decoded archived months that have been looked at
+     * Soft references let the garbage collector drop months under memory pressure - they are decoded again if needed
+     */
+    private ArrayList<SoftReference<PurchaseBatch>> archiveCache;
+
+    /**
+     * Reads the purchases by row and id over the store and the archive, rebuilt whenever either is replaced
+     */
+    private PurchaseRows purchaseRows;
+
+    /**
+     * Stores the indexes used to answer filters, or null until the first filter
+     */
+    private PurchaseIndex index;
+
+    /**
+     * Stores the words of every description for searching, or null until the first search
+     * Kept up to date as purchases are added and removed once it has been built
+     */
+    private DescriptionIndex descriptionIndex;
+
+    /**
+     * Stores the purchase ids sorted by each PurchaseSort, or null for a sort not asked for since it was dropped
+     */
+    private PurchaseOrder[] orders;
+
+    /**
+     * Stores the number of changes made to the budget, which is the version of the next snapshot
+     */
+    private long version;
+
+    /**
+     * Stores the last snapshot handed out, which is handed out again until the budget changes
+     */
+    private BudgetSnapshot snapshot;
+
+    /**
+     * Stores the parent budget as it was when this budget was forked from it, or null if this budget isn't a fork
+     */
+    private BudgetSnapshot forkBase;
 
     /**
      * Null constructor - builds a new budget with an initial total budget of $0
@@ -50,7 +173,54 @@ public class Budget {
     public Budget(int totalBudget) {
         this.totalBudget = totalBudget;
         this.budget = new HashMap<String, Integer>();
-        this.purchases = new HashMap<String, ArrayList<Transaction>>();
+        this.purchases = new PurchaseStore();
+        this.categoryNames = new ArrayList<String>();
+        this.categoryIds = new HashMap<String, Integer>();
+        this.spending = new SpendCounters();
+        this.stats = new StatsAggregator();
+        this.categoryDays = new DayIndex[8];
+        this.totalDays = new DayIndex();
+        this.orders = new PurchaseOrder[PurchaseSort.values().length];
+        this.version = 0;
+        this.snapshot = null;
+        this.forkBase = null;
+        this.purchaseRows = readRows();
+    }
+
+    /**
+     * Fork constructor - builds a budget that starts as a copy of another and can then be changed on its own
+     * The purchase columns, day indexes and archive are shared and only copied a segment or index at a time as either
+     * budget changes them
+     *
+     * @param parent - budget to fork
+     */
+    private Budget(Budget parent) {
+        this.forkBase = parent.snapshot();
+        this.totalBudget = parent.totalBudget;
+        this.budget = new HashMap<String, Integer>(parent.budget);
+        this.purchases = parent.purchases.fork();
+        this.categoryNames = new ArrayList<String>(parent.categoryNames);
+        this.categoryIds = new HashMap<String, Integer>(parent.categoryIds);
+        this.spending = new SpendCounters(parent.spending);
+        this.stats = new StatsAggregator(parent.stats);
+        this.categoryDays = new DayIndex[parent.categoryDays.length];
+        for(int id = 0; id < categoryNames.size(); id++) {
+            categoryDays[id] = parent.categoryDays[id].fork();
+        }
+        this.totalDays = parent.totalDays.fork();
+        this.orders = new PurchaseOrder[PurchaseSort.values().length];
+        this.version = parent.version;
+        this.snapshot = forkBase;
+
+        if(parent.archive != null) {
+            this.archive = parent.archive;
+            this.archiveCategories = parent.archiveCategories;
+            this.archiveIds = parent.archiveIds;
+            this.archiveCache = parent.archiveCache;
+            this.archiveLoaded = parent.archiveLoaded.clone();
+            this.archiveRows = parent.archiveRows.clone();
+        }
+        this.purchaseRows = readRows();
     }
 
     /**
@@ -69,6 +239,7 @@ public class Budget {
      */
     public void setTotalBudget(int totalBudget) {
         this.totalBudget = totalBudget;
+        version++;
     }
 
     /**
@@ -82,12 +253,30 @@ public class Budget {
     public void addBudgetBucket(String bucket, int categoryBudget) {
         if(this.budget.get(bucket) == null) {
             this.budget.put(bucket, categoryBudget);
+            categoryId(bucket);
+            version++;
         }
         else {
             throw new IllegalArgumentException("Budget already exists");
         }
     }
 
+    /**
+     * Changes the budget of an existing category
+     *
+     * @param category - the name of the budget category
+     * @param categoryBudget - the new dollar amount (in cents) for the category
+     * @throws CategoryException if category doesn't exist in the budget
+     */
+    public void setCategoryBudget(String category, int categoryBudget) throws CategoryException {
+        if(budget.get(category) == null) {
+            throw new CategoryException(category + " does not currently exist in the budget!");
+        }
+
+        budget.put(category, categoryBudget);
+        version++;
+    }
+
     /**
      * Returns the budget hashmap that contains the budget categories and their dollar limit
      *
@@ -99,129 +288,1168 @@ public class Budget {
 
     /**
      * Returns the total amount spent in each budget category
-     * Loops through each category and then loops through each list of purchases
-     * May need to store this dynamically in the future for faster lookups
+     * Reads the running category totals so categories without purchases are reported as $0
      *
      * @return map with category and total budget for that category
      */
-    public HashMap<String, Integer> getCategoryTotalSpent() {
-        ArrayList<Transaction> txs;
-        HashMap<String, Integer> categoryTotals = new HashMap<String, Integer>();
-        Integer total = 0;
-
-        for(Map.Entry<String, ArrayList<Transaction>> entry: purchases.entrySet()) {
-            txs = entry.getValue();
-            total = 0;
-            for(Transaction tx: txs) {
-                total += tx.getPrice();
-            }
-            categoryTotals.put(entry.getKey(), total);
-        }
+    public HashMap<String, Long> getCategoryTotalSpent() {
+        HashMap<String, Long> categoryTotals = new HashMap<String, Long>();
 
-        //Loops through and sets the category spent to $0 for any category without purchases
         for(Map.Entry<String, Integer> entry: budget.entrySet()) {
-            if(categoryTotals.get(entry.getKey()) == null) {
-                categoryTotals.put(entry.getKey(), 0);
-            }
+            categoryTotals.put(entry.getKey(), spending.getSpent(categoryIds.get(entry.getKey())));
         }
 
         return categoryTotals;
     }
 
     /**
-     * Adds a new purchase to the purchases map
+     * Returns the budget, spending, purchase count, mean and largest purchase across every category
+     * Read from running totals - only the largest purchase may need the purchases looked at again, after the largest
+     * one is removed or while archived months haven't been decoded
+     *
+     * @return statistics of the whole budget
+     */
+    public PurchaseStats getStats() {
+        if(stats.isTotalLargestStale()) {
+            recountLargest();
+        }
+
+        return new PurchaseStats(totalBudget, spending.getTotalSpent(), spending.getTotalCount(),
+                stats.getTotalLargest());
+    }
+
+    /**
+     * Returns the budget, spending, purchase count, mean and largest purchase of one category
+     * Read from running totals in the same way as getStats()
+     *
+     * @param category - category to look up
+     * @return statistics of the category
+     * @throws CategoryException if category doesn't exist in the budget
+     */
+    public PurchaseStats getStats(String category) throws CategoryException {
+        Integer categoryBudget = budget.get(category);
+
+        if(categoryBudget == null) {
+            throw new CategoryException(category + " does not currently exist in the budget!");
+        }
+
+        int id = categoryIds.get(category);
+        if(stats.isLargestStale(id)) {
+            recountLargest();
+        }
+
+        return new PurchaseStats(categoryBudget, spending.getSpent(id), spending.getCount(id), stats.getLargest(id));
+    }
+
+    /**
+     * Returns the total amount spent in one budget category
+     * Reads the running total for the category so the cost doesn't depend on the number of categories
+     *
+     * @param category - category to look up
+     * @return amount spent in cents, or 0 if the category doesn't exist in the budget
+     */
+    public long getCategorySpent(String category) {
+        if(budget.get(category) == null) {
+            return 0;
+        }
+
+        return spending.getSpent(categoryIds.get(category));
+    }
+
+    /**
+     * Adds a new purchase to the purchase store
+     * Only the date, price, description and category are stored - the transaction object itself is not kept
      * Throws a Category Exception if the category doesn't currently exist in the budget
      *
-     * @param purchase - purchase to add to the map
+     * @param purchase - purchase to add to the store
      * @throws CategoryException if category doesn't exist in the budget
      */
     public void addPurchase(Transaction purchase) throws CategoryException {
-        String category = purchase.getCategory();
+        addPurchase(purchase.getDate(), purchase.getDescription(), purchase.getPrice(), purchase.getCategory());
+    }
 
+    /**
+     * Adds a new purchase to the purchase store without building a Transaction first
+     * Used by the file loaders to feed purchases straight into the store
+     * Throws a Category Exception if the category doesn't currently exist in the budget
+     *
+     * @param date - date of the purchase
+     * @param description - description of the purchase
+     * @param price - price of the purchase in cents
+     * @param category - category of the purchase
+     * @throws CategoryException if category doesn't exist in the budget
+     */
+    public void addPurchase(Date date, String description, int price, String category) throws CategoryException {
         Integer categoryTotal = budget.get(category);
 
         if(categoryTotal == null) {
             throw new CategoryException(category + " does not currently exist in the budget!");
         }
 
-        //Retrieve the purchase list from the purchases map
-        ArrayList<Transaction> p = purchases.get(category);
+        int id = categoryIds.get(category);
+        int day = date.toEpochDay();
 
-        if(p == null) {
-            p = new ArrayList<Transaction>();
+        int code = purchases.encodeDescription(description);
+        int purchaseId = purchases.add(day, price, id, code);
+        if(index != null) {
+            index.add(purchaseId, day, price, id, description);
+        }
+        if(descriptionIndex != null) {
+            descriptionIndex.add(description, purchaseId);
+        }
+        for(PurchaseSort sort: PurchaseSort.values()) {
+            if(orders[sort.ordinal()] != null) {
+                orders[sort.ordinal()].insert(purchaseId, sortKey(sort, day, price, id, code));
+            }
         }
-        p.add(purchase);
 
-        purchases.put(category, p);
+        spending.add(id, price, 1);
+        stats.add(id, price);
+        categoryDays[id].add(day, price);
+        version++;
+        totalDays.add(day, price);
+    }
+
+    /**
+     * Adds every purchase in the batch to the purchase store, in batch order
+     * The store grows once and each distinct category and description of the batch is looked up once, so a large
+     * batch is much cheaper to add than the same purchases one at a time
+     * Nothing is added if any category in the batch doesn't exist in the budget
+     *
+     * @param batch - purchases to add
+     * @throws CategoryException if a category in the batch doesn't exist in the budget
+     */
+    public void addPurchases(PurchaseBatch batch) throws CategoryException {
+        addPurchases(batch, true);
+    }
+
+    /**
+     * Adds every purchase in the batch to the purchase store, leaving the amounts spent and purchase counts to the
+     * caller if they have already been added to the SpendCounters
+     *
+     * @param batch - purchases to add
+     * @param count - true to add the purchases to the amounts spent and purchase counts
+     * @throws CategoryException if a category in the batch doesn't exist in the budget
+     */
+    void addPurchases(PurchaseBatch batch, boolean count) throws CategoryException {
+        addBatch(batch, -1, count);
+    }
+
+    /**
+     * Adds every purchase in the batch to the purchase store
+     * Used directly when an archived month moves into the store - its purchases keep the ids they had in the archive,
+     * so the indexes and sort orders, which already hold them, are left as they are
+     *
+     * @param batch - purchases to add
+     * @param firstId - id of the first purchase of the batch, reserved for it, or -1 to give the purchases new ids
+     * @param count - true to add the purchases to the amounts spent and purchase counts
+     * @throws CategoryException if a category in the batch doesn't exist in the budget
+     */
+    private void addBatch(PurchaseBatch batch, int firstId, boolean count) throws CategoryException {
+        List<String> batchCategories = batch.getCategories();
+        int[] categoryMap = new int[batchCategories.size()];
+
+        for(int i = 0; i < categoryMap.length; i++) {
+            String category = batchCategories.get(i);
+            if(budget.get(category) == null) {
+                throw new CategoryException(category + " does not currently exist in the budget!");
+            }
+            categoryMap[i] = categoryIds.get(category);
+        }
+
+        List<String> batchDescriptions = batch.getDescriptionNames();
+        int[] descriptionMap = new int[batchDescriptions.size()];
+
+        for(int i = 0; i < descriptionMap.length; i++) {
+            descriptionMap[i] = purchases.encodeDescription(batchDescriptions.get(i));
+        }
+
+        purchases.ensureCapacity(purchases.size() + batch.size());
+        if(firstId == -1) {
+            Arrays.fill(orders, null);
+        }
+        version++;
+
+        for(int row = 0; row < batch.size(); row++) {
+            int id = categoryMap[batch.getCategory(row)];
+            int day = batch.getDay(row);
+            int price = batch.getCents(row);
+
+            if(firstId == -1) {
+                int purchaseId = purchases.add(day, price, id, descriptionMap[batch.getDescription(row)]);
+                String description = batchDescriptions.get(batch.getDescription(row));
+                if(index != null) {
+                    index.add(purchaseId, day, price, id, description);
+                }
+                if(descriptionIndex != null) {
+                    descriptionIndex.add(description, purchaseId);
+                }
+            }
+            else {
+                purchases.add(firstId + row, day, price, id, descriptionMap[batch.getDescription(row)]);
+            }
+
+            if(count) {
+                spending.add(id, price, 1);
+            }
+            stats.add(id, price);
+            categoryDays[id].add(day, price);
+            totalDays.add(day, price);
+        }
+    }
+
+    /**
+     * Leaves the months of the archive outside the purchase store until they are needed
+     * The spending of every archived month is counted in the totals straight away, using the archive's monthly
+     * totals - the spending of a month is placed on its first day until the month is loaded
+     * Reading an archived purchase decodes its month, removing one moves its month into the store, and a date range
+     * query moves in the months it only partly covers
+     *
+     * @param archive - months of purchases that aren't in the budget yet
+     * @throws CategoryException if a category of the archive doesn't exist in the budget
+     * @throws IllegalStateException if the budget already has an archive
+     */
+    public void setArchive(PurchaseArchive archive) throws CategoryException {
+        if(this.archive != null) {
+            throw new IllegalStateException("Budget already has an archive");
+        }
+
+        List<String> categories = archive.getCategories();
+        int[] ids = new int[categories.size()];
+
+        for(int i = 0; i < ids.length; i++) {
+            String category = categories.get(i);
+            if(budget.get(category) == null) {
+                throw new CategoryException(category + " does not currently exist in the budget!");
+            }
+            ids[i] = categoryIds.get(category);
+        }
+
+        int months = archive.getMonthCount();
+
+        this.archive = archive;
+        this.archiveCategories = ids;
+        this.archiveLoaded = new boolean[months];
+        this.archiveRows = new int[months + 1];
+        this.archiveIds = new int[months + 1];
+        this.archiveCache = new ArrayList<SoftReference<PurchaseBatch>>(months);
+        this.purchaseRows = readRows();
+        this.index = null;
+        this.descriptionIndex = null;
+        Arrays.fill(orders, null);
+        version++;
+
+        for(int month = 0; month < months; month++) {
+            archiveCache.add(null);
+            addArchivedSpending(month, 1);
+            archiveIds[month + 1] = archiveIds[month] + archive.getPurchaseCount(month);
+        }
+        countArchivedRows();
+
+        int firstId = purchases.reserveIds(archiveIds[months]);
+        for(int month = 0; month <= months; month++) {
+            archiveIds[month] += firstId;
+        }
     }
 
     /**
      * Returns the total amount of money spent thus far
-     * Need to update this to be dynamically stored later
      *
      * @return the total amount spent
      */
-    public int getBudgetTotalSpent() {
-        Map<String, Integer> categoryTotals = getCategoryTotalSpent();
-        int total = 0;
+    public long getBudgetTotalSpent() {
+        return spending.getTotalSpent();
+    }
+
+    /**
+     * Removes a purchase from the purchase store
+     * The first stored purchase with the same date, price, description and category is removed
+     * Returns the description of the purchase that was removed
+     * Returns null if the purchase didn't exist in the purchase store
+     *
+     * @param purchase - purchase that needs to be removed from the store
+     * @return description of the removed purchase
+     */
+    public String removeTransaction(Transaction purchase) {
+        int id = findPurchase(purchase);
+        return id == -1 ? null : removePurchase(id);
+    }
+
+    /**
+     * Returns the id of the oldest stored purchase with the same date, price, description and category
+     * Only checks the purchases with the same description, read by id from the description index, so replaying
+     * edits that were recorded by value doesn't search every purchase
+     *
+     * @param purchase - purchase to look for
+     * @return id of the matching purchase, or -1 if no purchase matches
+     */
+    public int findPurchase(Transaction purchase) {
+        loadArchivedMonth(purchase.getDate());
 
-        for(Map.Entry<String, Integer> cat: categoryTotals.entrySet()) {
-            total += cat.getValue();
+        Integer id = categoryIds.get(purchase.getCategory());
+
+        if(id == null || budget.get(purchase.getCategory()) == null) {
+            return -1;
         }
 
-        return total;
+        int day = purchase.getDate().toEpochDay();
+        int[] matches = descriptionIndex().latestPurchases(purchase.getDescription(), Integer.MAX_VALUE);
+
+        for(int i = matches.length - 1; i >= 0; i--) {
+            int slot = purchases.slotOf(matches[i]);
+            if(slot != -1 && purchases.getDay(slot) == day && purchases.getCents(slot) == purchase.getPrice()
+                    && purchases.getCategory(slot) == id) {
+                return matches[i];
+            }
+        }
+
+        return -1;
     }
 
     /**
-     * Removes a purchase from the purchases list
+     * Removes the purchase with the id
+     * Only leaves a tombstone in the purchase store, so removing a purchase doesn't move the purchases after it
      * Returns the description of the purchase that was removed
-     * Returns null if the purchase didn't exist in the purchases list
+     * Returns null if there is no purchase with the id
      *
-     * @param purchase - purchase that needs to be removed from the list
+     * @param id - id of the purchase, from getPurchaseId
      * @return description of the removed purchase
      */
-    public String removeTransaction(Transaction purchase) {
-        String category = purchase.getCategory();
-        String description = purchase.getDescription();
-        ArrayList<Transaction> txs = purchases.get(category);
+    public String removePurchase(int id) {
+        int[] ids = {id};
+        int slot = slotsOf(ids)[0];
 
-        boolean removed = txs.remove(purchase);
+        if(slot == -1) {
+            return null;
+        }
 
-        if(removed) {
-            return description;
+        return removeSlot(slot);
+    }
+
+    /**
+     * Removes every purchase with one of the ids in one pass, skipping ids with no purchase
+     * Archived months holding any of the purchases are moved into the store first, so the purchases are only
+     * renumbered once
+     *
+     * @param ids - ids of the purchases, from getPurchaseId
+     * @return number of purchases removed
+     */
+    public int removePurchases(int[] ids) {
+        slotsOf(ids);
+
+        //removing can sweep out the tombstones, which moves the slots, so each slot is looked up again
+        int removed = 0;
+        for(int id: ids) {
+            int slot = purchases.slotOf(id);
+            if(slot != -1) {
+                removeSlot(slot);
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Moves every purchase with one of the ids into another category, in one pass
+     * Purchases keep their ids and rows, and ids with no purchase are skipped
+     * Throws a Category Exception if the category doesn't currently exist in the budget
+     *
+     * @param ids - ids of the purchases, from getPurchaseId
+     * @param category - category to move the purchases to
+     * @return number of purchases that changed category
+     * @throws CategoryException if category doesn't exist in the budget
+     */
+    public int recategorize(int[] ids, String category) throws CategoryException {
+        if(budget.get(category) == null) {
+            throw new CategoryException(category + " does not currently exist in the budget!");
+        }
+
+        int to = categoryIds.get(category);
+        int changed = 0;
+        PurchaseOrder order = orders[PurchaseSort.CATEGORY.ordinal()];
+
+        for(int slot: slotsOf(ids)) {
+            int from = slot == -1 ? to : purchases.getCategory(slot);
+            if(from == to) {
+                continue;
+            }
+
+            int day = purchases.getDay(slot);
+            int price = purchases.getCents(slot);
+
+            int id = purchases.getId(slot);
+            purchases.setCategory(slot, to);
+            if(index != null) {
+                index.setCategory(id, to);
+            }
+            if(order != null) {
+                order.remove(id);
+                order.insert(id, to);
+            }
+            spending.add(from, -price, -1);
+            spending.add(to, price, 1);
+            stats.remove(from, price);
+            stats.add(to, price);
+            categoryDays[from].add(day, -price);
+            categoryDays[to].add(day, price);
+            changed++;
+        }
+
+        if(changed > 0) {
+            version++;
         }
 
-        return null;
+        return changed;
     }
 
     /**
      * Removes a category from the budget
+     * Holds the budget's lock, the same lock a PurchaseIngest holds while it adds a batch, so the category's counters
+     * are never cleared while a batch holding its purchases is being added or taken back out of the totals
      *
      * @param category - category to be removed
      */
-    public void removeCategory(String category) {
+    public synchronized void removeCategory(String category) {
+        if(budget.get(category) == null) {
+            return;
+        }
+
+        loadArchive();
         budget.remove(category);
 
-        purchases.remove(category);
+        int id = categoryIds.get(category);
+        purchases.removeCategory(id);
+        index = null;
+        descriptionIndex = null;
+        Arrays.fill(orders, null);
+
+        spending.clear(id);
+        stats.removeCategory(id);
+        totalDays.subtract(categoryDays[id]);
+        categoryDays[id] = new DayIndex();
+        version++;
+    }
+
+    /**
+     * Returns the amount spent in the category between the two dates, including both end dates
+     *
+     * @param category - category to total
+     * @param fromDate - first date of the period
+     * @param toDate - last date of the period
+     * @return amount spent in cents during the period
+     * @throws CategoryException if category doesn't exist in the budget
+     */
+    public long spent(String category, Date fromDate, Date toDate) throws CategoryException {
+        if(budget.get(category) == null) {
+            throw new CategoryException(category + " does not currently exist in the budget!");
+        }
+
+        loadPartialMonths(fromDate, toDate);
+        return categoryDays[categoryIds.get(category)].sum(fromDate.toEpochDay(), toDate.toEpochDay());
+    }
+
+    /**
+     * Returns the amount spent across all categories between the two dates, including both end dates
+     *
+     * @param fromDate - first date of the period
+     * @param toDate - last date of the period
+     * @return amount spent in cents during the period
+     */
+    public long spent(Date fromDate, Date toDate) {
+        loadPartialMonths(fromDate, toDate);
+        return totalDays.sum(fromDate.toEpochDay(), toDate.toEpochDay());
+    }
+
+    /**
+     * Returns the rows of the purchases that match the filter, for reading with getPurchase
+     * The first filter builds the indexes, which decodes every archived month - they are then kept up to date as
+     * purchases are added, removed and moved, and each filter only looks at the purchases allowed by its most
+     * selective condition
+     *
+     * @param filter - conditions the purchases must meet
+     * @return matching rows in row order
+     */
+    public int[] filter(PurchaseFilter filter) {
+        if(filter.isEmpty()) {
+            int[] rows = new int[getPurchaseCount()];
+            for(int row = 0; row < rows.length; row++) {
+                rows[row] = row;
+            }
+            return rows;
+        }
+
+        int[] rows = purchaseIndex().query(filter, categoryIds);
+        for(int i = 0; i < rows.length; i++) {
+            rows[i] = getPurchaseRow(rows[i]);
+        }
+        Arrays.sort(rows);
+
+        return rows;
+    }
+
+    /**
+     * Returns the distinct descriptions matching every word of the query, best match first
+     * Each word matches a description word it equals or starts, ignoring case, so the query can be searched as it
+     * is typed
+     *
+     * @param query - words to search for
+     * @param limit - most descriptions to return
+     * @return matching descriptions of purchases in the budget
+     */
+    public List<String> searchDescriptions(String query, int limit) {
+        return descriptionIndex().search(query, limit);
+    }
+
+    /**
+     * Returns the rows of the purchases whose descriptions match every word of the query
+     * Purchases are ranked by how well their description matches, as searchDescriptions does, and the latest added
+     * purchase of each description comes first
+     * Each description's purchases are read from the description index, so only the rows returned are looked up
+     *
+     * @param query - words to search for
+     * @param limit - most rows to return
+     * @return matching rows, best match first
+     */
+    public int[] search(String query, int limit) {
+        int[] rows = new int[Math.min(limit, getPurchaseCount())];
+        int found = 0;
+
+        //every description has at least one purchase, so the best limit descriptions fill the rows
+        for(String description: searchDescriptions(query, limit)) {
+            if(found == rows.length) {
+                break;
+            }
+
+            for(int id: descriptionIndex.latestPurchases(description, rows.length - found)) {
+                rows[found++] = getPurchaseRow(id);
+            }
+        }
+
+        return found == rows.length ? rows : Arrays.copyOf(rows, found);
+    }
+
+    /**
+     * Returns the row at a position of the purchases sorted by a field, for reading with getPurchase
+     * Purchases with equal fields are in id order
+     * The first call sorts every purchase - after that the order is kept up to date as purchases are added, removed
+     * and moved, so each call only finds the purchase's block and row
+     *
+     * @param sort - field to sort by
+     * @param position - position in the sorted purchases, between 0 and getPurchaseCount() - 1
+     * @return row of the purchase at the position
+     */
+    public int getSortedRow(PurchaseSort sort, int position) {
+        return getPurchaseRow(purchaseOrder(sort).get(position));
+    }
+
+    /**
+     * Puts rows into the order of the purchases sorted by a field, for sorting the results of a filter or search
+     * Takes time in proportion to the number of purchases, without comparing any of them
+     *
+     * @param sort - field to sort by
+     * @param rows - distinct rows to sort
+     * @return the rows in sorted order
+     */
+    public int[] sortRows(PurchaseSort sort, int[] rows) {
+        PurchaseOrder order = purchaseOrder(sort);
+        boolean[] wanted = new boolean[purchases.idCount()];
+        int[] sorted = new int[rows.length];
+        int found = 0;
+
+        for(int row: rows) {
+            wanted[getPurchaseId(row)] = true;
+        }
+        for(int position = 0; position < order.size() && found < sorted.length; position++) {
+            int id = order.get(position);
+            if(wanted[id]) {
+                sorted[found++] = getPurchaseRow(id);
+            }
+        }
+
+        return sorted;
     }
 
     /**
      * Returns the list of purchases
+     * Builds a new Purchase for each stored row
      *
      * @return list of purchases
      */
     public ArrayList<Purchase> getPurchaseList() {
-        ArrayList<Purchase> purchaseList = new ArrayList<>();
+        int count = getPurchaseCount();
+        ArrayList<Purchase> purchaseList = new ArrayList<>(count);
 
-        for(String key: purchases.keySet()) {
-            ArrayList<Transaction> pList = purchases.get(key);
-            for(int i = 0; i < pList.size(); i++) {
-                purchaseList.add((Purchase)(pList.get(i)));
-            }
+        for(int row = 0; row < count; row++) {
+            purchaseList.add(getPurchase(row));
         }
 
         Collections.sort(purchaseList);
 
         return purchaseList;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the number of purchases stored in the budget
+     *
+     * @return number of purchases
+     */
+    public int getPurchaseCount() {
+        return purchaseRows.getPurchaseCount();
+    }
+
+    /**
+     * Returns the number of purchases still in the archive, which are numbered before the other purchases
+     * Goes down when an archived month is moved into the store, which renumbers the purchases
+     *
+     * @return number of archived purchases
+     */
+    public int getArchivedPurchaseCount() {
+        return purchaseRows.getArchivedPurchaseCount();
+    }
+
+    /**
+     * Returns the stable id of the purchase in a row
+     * The id stays the same when other purchases are added or removed and when the purchases are renumbered
+     *
+     * @param row - index of the purchase, between 0 and getPurchaseCount() - 1
+     * @return id of the purchase
+     */
+    public int getPurchaseId(int row) {
+        return purchaseRows.getPurchaseId(row);
+    }
+
+    /**
+     * Returns the row the purchase with the id is in, for reading with getPurchase
+     *
+     * @param id - id of the purchase
+     * @return row of the purchase, or -1 if there is no purchase with the id
+     */
+    public int getPurchaseRow(int id) {
+        return purchaseRows.getPurchaseRow(id);
+    }
+
+    /**
+     * Calls the visitor once for every stored purchase, in row order
+     * Reads straight from the purchase columns so no Purchase or Date objects are built
+     *
+     * @param visitor - visitor to call for each purchase
+     */
+    public void forEachPurchase(PurchaseVisitor visitor) {
+        purchaseRows.forEachPurchase(visitor);
+    }
+
+    /**
+     * Builds a Purchase view of a stored purchase
+     * Archived purchases come first, by month, followed by the purchases in the store
+     * The purchase is a copy - changing it does not change the budget
+     *
+     * @param row - index of the purchase, between 0 and getPurchaseCount() - 1
+     * @return purchase holding the stored values
+     */
+    public Purchase getPurchase(int row) {
+        return purchaseRows.getPurchase(row);
+    }
+
+    /**
+     * Returns a read only view of the budget as it is now, which stays the same while the budget keeps changing
+     * Costs O(categories + archived months + n / PurchaseStore.SEGMENT_SIZE) - the segments of the purchase columns
+     * are shared, and the budget only copies a segment the first time it writes to it after the snapshot was taken
+     * Must be called by the thread changing the budget, or while holding its lock during a PurchaseIngest
+     *
+     * @return snapshot of the current version of the budget
+     */
+    public BudgetSnapshot snapshot() {
+        if(snapshot != null && snapshot.getVersion() == version) {
+            return snapshot;
+        }
+
+        int categoryCount = categoryNames.size();
+        long[] spent = new long[categoryCount];
+        long[] counts = new long[categoryCount];
+        int[] largest = new int[categoryCount + 1];
+
+        boolean stale = stats.isTotalLargestStale();
+
+        for(int id = 0; id < categoryCount; id++) {
+            spent[id] = spending.getSpent(id);
+            counts[id] = spending.getCount(id);
+            largest[id] = stats.getLargest(id);
+            stale |= stats.isLargestStale(id);
+        }
+        largest[categoryCount] = stats.getTotalLargest();
+
+        String[] names = categoryNames.toArray(new String[0]);
+        PurchaseRows rows = new PurchaseRows(purchases.view(), Arrays.asList(names), archive, archiveCache,
+                archive == null ? null : archiveLoaded.clone(), archive == null ? null : archiveRows.clone(),
+                archiveIds);
+        snapshot = new BudgetSnapshot(version, totalBudget, new HashMap<String, Integer>(budget), names, spent,
+                counts, stale ? null : largest, rows);
+
+        return snapshot;
+    }
+
+    /**
+     * Returns a copy of the budget that can be changed without changing this budget, for trying out what-if scenarios
+     * Costs O(categories + archived months + n / PurchaseStore.SEGMENT_SIZE) - the purchases are shared until either
+     * budget changes them, and then only the changed segments are copied
+     *
+     * @return forked budget
+     */
+    public Budget fork() {
+        return new Budget(this);
+    }
+
+    /**
+     * Returns the changes made to a forked budget since it was forked from its parent
+     *
+     * @return changes from the parent as it was when forked
+     * @throws IllegalStateException if the budget isn't a fork
+     */
+    public BudgetDiff diff() {
+        if(forkBase == null) {
+            throw new IllegalStateException("Budget is not a fork");
+        }
+
+        return new BudgetDiff(forkBase, snapshot());
+    }
+
+    /**
+     * Returns the id of a category in the budget, for counting purchases in the SpendCounters
+     *
+     * @param category - category name
+     * @return category id, or -1 if the category doesn't exist in the budget
+     */
+    int getCategoryId(String category) {
+        return budget.get(category) == null ? -1 : categoryIds.get(category);
+    }
+
+    /**
+     * Returns the running amounts spent and purchase counts, which may be added to from any thread
+     *
+     * @return the counters
+     */
+    SpendCounters getSpending() {
+        return spending;
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Works out the largest purchase of every category again by looking at every purchase
+     */
+    private void recountLargest() {
+        int[] largest = new int[categoryNames.size()];
+        int[] largestCount = new int[categoryNames.size()];
+
+        forEachPurchase((day, description, price, category) -> {
+            int id = categoryIds.get(category);
+            if(largestCount[id] == 0 || price > largest[id]) {
+                largest[id] = price;
+                largestCount[id] = 1;
+            }
+            else if(price == largest[id]) {
+                largestCount[id]++;
+            }
+        });
+
+        stats.setLargest(largest, largestCount);
+    }
+
+    /**
+     * Returns the indexes used to answer filters, building them the first time they are needed
+     * Once built they are kept up to date as purchases are added, removed and moved
+     *
+     * @return indexes over every purchase
+     */
+    private PurchaseIndex purchaseIndex() {
+        if(index == null) {
+            PurchaseIndex built = new PurchaseIndex();
+            purchaseRows.forEachPurchase((id, day, description, price, category) ->
+                    built.add(id, day, price, categoryIds.get(category), description));
+            index = built;
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the index used to search descriptions, building it the first time it is needed
+     * Once built it is kept up to date as purchases are added and removed
+     *
+     * @return index over every purchase's description
+     */
+    private DescriptionIndex descriptionIndex() {
+        if(descriptionIndex == null) {
+            DescriptionIndex built = new DescriptionIndex();
+            purchaseRows.forEachPurchase((id, day, description, price, category) -> built.add(description, id));
+            descriptionIndex = built;
+        }
+
+        return descriptionIndex;
+    }
+
+    /**
+     * Returns the purchase ids sorted by a field, sorting them the first time the order is asked for
+     * The order is built with a radix sort - dates and amounts are sorted as they are, and categories and
+     * descriptions by their place in an alphabetical list of the distinct names
+     * The order keeps each purchase's date, amount, category id or description code as its key
+     * Descriptions only used by archived purchases aren't added to the store's dictionary - they are given negative
+     * codes from a list kept by the order's comparator, so building the order never changes the store
+     *
+     * @param sort - field to sort by
+     * @return purchase ids sorted by the field
+     */
+    private PurchaseOrder purchaseOrder(PurchaseSort sort) {
+        if(orders[sort.ordinal()] == null) {
+            int[] keys = new int[purchases.idCount()];
+            boolean[] present = new boolean[keys.length];
+            HashMap<String, Integer> archivedCodes = new HashMap<String, Integer>();
+            ArrayList<String> archivedNames = new ArrayList<String>();
+
+            purchaseRows.forEachPurchase((id, day, description, price, category) -> {
+                int code = 0;
+                if(sort == PurchaseSort.DESCRIPTION) {
+                    code = purchases.lookupDescription(description);
+                    if(code == -1) {
+                        code = archivedCodes.computeIfAbsent(description, name -> {
+                            archivedNames.add(name);
+                            return -archivedNames.size();
+                        });
+                    }
+                }
+                keys[id] = sortKey(sort, day, price, categoryIds.get(category), code);
+                present[id] = true;
+            });
+
+            int[] ranks = null;
+            if(sort == PurchaseSort.CATEGORY) {
+                ranks = ranks(categoryNames);
+            }
+            else if(sort == PurchaseSort.DESCRIPTION) {
+                //ranks of the store's codes, then of the archived codes -1, -2 and so on
+                ArrayList<String> names = new ArrayList<String>(purchases.getDescriptionCount() + archivedNames.size());
+                for(int code = 0; code < purchases.getDescriptionCount(); code++) {
+                    names.add(purchases.getDescriptionName(code));
+                }
+                names.addAll(archivedNames);
+                ranks = ranks(names);
+            }
+
+            int[] ids = new int[getPurchaseCount()];
+            int[] sortKeys = new int[ids.length];
+            int count = 0;
+            for(int id = 0; id < keys.length; id++) {
+                if(present[id]) {
+                    ids[count] = id;
+                    int key = keys[id] < 0 ? purchases.getDescriptionCount() - keys[id] - 1 : keys[id];
+                    sortKeys[count++] = ranks == null ? key : ranks[key];
+                }
+            }
+
+            orders[sort.ordinal()] = new PurchaseOrder(ids, sortKeys, count, keys, keyComparator(sort, archivedNames));
+        }
+
+        return orders[sort.ordinal()];
+    }
+
+    /**
+     * Returns the key a PurchaseOrder keeps for a purchase
+     *
+     * @param sort - field the order sorts by
+     * @param day - epoch day of the purchase
+     * @param price - price of the purchase in cents
+     * @param category - category id of the purchase
+     * @param description - description code of the purchase in the store
+     * @return key of the purchase
+     */
+    private static int sortKey(PurchaseSort sort, int day, int price, int category, int description) {
+        switch(sort) {
+            case DATE:
+                return day;
+            case AMOUNT:
+                return price;
+            case CATEGORY:
+                return category;
+            default:
+                return description;
+        }
+    }
+
+    /**
+     * Returns the comparator of the keys a PurchaseOrder keeps, comparing names by their ids without building any
+     * purchases
+     *
+     * @param sort - field the order sorts by
+     * @param archivedNames - descriptions given negative codes while the order was built, -1 first
+     * @return comparator of two keys
+     */
+    private PurchaseOrder.KeyComparator keyComparator(PurchaseSort sort, List<String> archivedNames) {
+        switch(sort) {
+            case DATE:
+            case AMOUNT:
+                return Integer::compare;
+            case CATEGORY:
+                return (a, b) -> categoryNames.get(a).compareTo(categoryNames.get(b));
+            default:
+                return (a, b) -> descriptionName(a, archivedNames).compareTo(descriptionName(b, archivedNames));
+        }
+    }
+
+    /**
+     * Returns the description a PurchaseOrder key stands for
+     *
+     * @param code - description code in the store, or a negative code from the archived names
+     * @param archivedNames - descriptions given negative codes, -1 first
+     * @return description of the code
+     */
+    private String descriptionName(int code, List<String> archivedNames) {
+        return code < 0 ? archivedNames.get(-code - 1) : purchases.getDescriptionName(code);
+    }
+
+    /**
+     * Returns the place of each name in the alphabetical order of the names
+     *
+     * @param names - distinct names
+     * @return rank of each name, indexed like the names
+     */
+    private static int[] ranks(List<String> names) {
+        Integer[] byName = new Integer[names.size()];
+        int[] ranks = new int[names.size()];
+
+        for(int i = 0; i < byName.length; i++) {
+            byName[i] = i;
+        }
+        Arrays.sort(byName, (a, b) -> names.get(a).compareTo(names.get(b)));
+        for(int rank = 0; rank < byName.length; rank++) {
+            ranks[byName[rank]] = rank;
+        }
+
+        return ranks;
+    }
+
+    /**
+     * Adds or takes away the monthly totals of an archived month, placing each total on the month's first day
+     *
+     * @param month - number of the month in the archive
+     * @param sign - 1 to add the totals, -1 to take them away
+     */
+    private void addArchivedSpending(int month, int sign) {
+        int key = archive.getMonthKey(month);
+        int day = Date.of(1, key % 12 + 1, key / 12).toEpochDay();
+
+        for(int category = 0; category < archiveCategories.length; category++) {
+            long amount = sign * archive.getCategorySpent(month, category);
+            int count = sign * archive.getCategoryCount(month, category);
+            int id = archiveCategories[category];
+
+            spending.add(id, amount, count);
+            if(count > 0) {
+                stats.addUnpriced(id);
+            }
+            if(amount != 0) {
+                categoryDays[id].add(day, amount);
+                totalDays.add(day, amount);
+            }
+        }
+    }
+
+    /**
+     * Numbers the purchases of the archived months that haven't been moved into the store
+     */
+    private void countArchivedRows() {
+        for(int month = 0; month < archiveLoaded.length; month++) {
+            int rows = archiveLoaded[month] ? 0 : archive.getPurchaseCount(month);
+            archiveRows[month + 1] = archiveRows[month] + rows;
+        }
+    }
+
+    /**
+     * Returns the slots of the purchases with the ids, moving any archived months holding them into the store first
+     * An id repeated in the array, or with no purchase, gets slot -1
+     *
+     * @param ids - ids of the purchases
+     * @return slot of each purchase, or -1
+     */
+    private int[] slotsOf(int[] ids) {
+        int[] slots = new int[ids.length];
+
+        for(int id: ids) {
+            int month = purchaseRows.archivedMonthOfId(id);
+            if(month != -1) {
+                moveArchivedMonth(month);
+            }
+        }
+
+        HashSet<Integer> seen = new HashSet<Integer>();
+        for(int i = 0; i < ids.length; i++) {
+            slots[i] = seen.add(ids[i]) ? purchases.slotOf(ids[i]) : -1;
+        }
+
+        return slots;
+    }
+
+    /**
+     * Removes the purchase in a store slot and takes it out of the totals, the indexes and the sort orders
+     *
+     * @param slot - slot holding the purchase
+     * @return description of the removed purchase
+     */
+    private String removeSlot(int slot) {
+        int day = purchases.getDay(slot);
+        int price = purchases.getCents(slot);
+        int category = purchases.getCategory(slot);
+        String description = purchases.getDescription(slot);
+
+        if(descriptionIndex != null) {
+            descriptionIndex.remove(description, purchases.getId(slot));
+        }
+        if(index != null) {
+            index.remove(purchases.getId(slot));
+        }
+        for(PurchaseOrder order: orders) {
+            if(order != null) {
+                order.remove(purchases.getId(slot));
+            }
+        }
+        purchases.remove(slot);
+        version++;
+        spending.add(category, -price, -1);
+        stats.remove(category, price);
+        categoryDays[category].add(day, -price);
+        totalDays.add(day, -price);
+
+        return description;
+    }
+
+    /**
+     * Moves an archived month into the purchase store, replacing its monthly totals with its purchases
+     *
+     * @param month - number of the month in the archive
+     */
+    private void moveArchivedMonth(int month) {
+        if(archiveLoaded[month]) {
+            return;
+        }
+
+        PurchaseBatch batch = purchaseRows.archivedMonth(month);
+
+        addArchivedSpending(month, -1);
+        archiveLoaded[month] = true;
+        synchronized(archiveCache) {
+            archiveCache.set(month, null);
+        }
+        countArchivedRows();
+
+        try {
+            addBatch(batch, archiveIds[month], true);
+        } catch (CategoryException unreachable) {
+            //the archive's categories were all checked when it was set and can't be removed while it is in use
+            throw new IllegalStateException(unreachable);
+        }
+    }
+
+    /**
+     * Moves the archived month holding the date, if there is one, into the purchase store
+     *
+     * @param date - date in the month
+     */
+    private void loadArchivedMonth(Date date) {
+        if(archive == null) {
+            return;
+        }
+
+        int key = date.getYear() * 12 + date.getMonth() - 1;
+        int low = 0;
+        int high = archiveLoaded.length - 1;
+
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleKey = archive.getMonthKey(middle);
+
+            if(middleKey < key) {
+                low = middle + 1;
+            }
+            else if(middleKey > key) {
+                high = middle - 1;
+            }
+            else {
+                moveArchivedMonth(middle);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the archived months a date range only partly covers into the purchase store
+     * Months the range covers completely are summed correctly from their monthly totals
+     *
+     * @param fromDate - first date of the range
+     * @param toDate - last date of the range
+     */
+    private void loadPartialMonths(Date fromDate, Date toDate) {
+        if(archive == null) {
+            return;
+        }
+
+        if(fromDate.getDay() != 1) {
+            loadArchivedMonth(fromDate);
+        }
+        if(toDate.getDay() != Date.daysInMonth(toDate.getMonth(), toDate.getYear())) {
+            loadArchivedMonth(toDate);
+        }
+    }
+
+    /**
+     * Moves every archived month into the purchase store and drops the archive
+     */
+    private void loadArchive() {
+        if(archive == null) {
+            return;
+        }
+
+        for(int month = 0; month < archiveLoaded.length; month++) {
+            moveArchivedMonth(month);
+        }
+
+        archive = null;
+        archiveCategories = null;
+        archiveLoaded = null;
+        archiveRows = null;
+        archiveIds = null;
+        archiveCache = null;
+        purchaseRows = readRows();
+    }
+
+    /**
+     * Builds the reader of the purchases over the current store and archive
+     *
+     * @return reader of the purchases by row and id
+     */
+    private PurchaseRows readRows() {
+        return new PurchaseRows(purchases, categoryNames, archive, archiveCache, archiveLoaded, archiveRows,
+                archiveIds);
+    }
+
+    /**
+     * Returns the id for the category, assigning the next free id if the category has never been seen
+     *
+     * @param category - category name
+     * @return category id
+     */
+    private int categoryId(String category) {
+        Integer id = categoryIds.get(category);
+
+        if(id == null) {
+            id = categoryNames.size();
+            categoryNames.add(category);
+            categoryIds.put(category, id);
+
+            if(id == categoryDays.length) {
+                categoryDays = Arrays.copyOf(categoryDays, id * 2);
+            }
+            categoryDays[id] = new DayIndex();
+        }
+
+        return id;
+    }
+}
@@ -0,0 +1,296 @@
+package net.hesterberg.budget.budget;
+
+import net.hesterberg.budget.transaction.Purchase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes made to a forked budget since it was forked, from Budget.diff()
+ * Compares the parent as it was at the fork with the fork as it is now
+ * Category budgets and totals are compared by name, and purchases by their stable ids - a purchase kept under the
+ * same id but moved to another category is reported as recategorized rather than as removed and added
+ * Segments of purchases the fork still shares with the parent are skipped without being looked at, so the cost
+ * depends on how much the fork changed rather than on the size of the budget
+ * All monetary amounts are in CENTS
+ *
+ * @author Nikolai Hesterberg
+ */
+public final class BudgetDiff {
+    /**
+     * Parent budget as it was when it was forked
+     */
+    private final BudgetSnapshot before;
+
+    /**
+     * Forked budget
+     */
+    private final BudgetSnapshot after;
+
+    /**
+     * Purchases only in the fork
+     */
+    private final ArrayList<Purchase> added;
+
+    /**
+     * Purchases only in the parent
+     */
+    private final ArrayList<Purchase> removed;
+
+    /**
+     * Purchases moved to another category, as they are in the fork
+     */
+    private final ArrayList<Purchase> recategorized;
+
+    /**
+     * Category each recategorized purchase was in before, in the same order
+     */
+    private final ArrayList<String> previousCategories;
+
+    /**
+     * Works out the changes between the parent and the fork
+     *
+     * @param before - parent budget when it was forked
+     * @param after - forked budget now
+     */
+    BudgetDiff(BudgetSnapshot before, BudgetSnapshot after) {
+        this.before = before;
+        this.after = after;
+        this.added = new ArrayList<Purchase>();
+        this.removed = new ArrayList<Purchase>();
+        this.recategorized = new ArrayList<Purchase>();
+        this.previousCategories = new ArrayList<String>();
+
+        compareStores();
+        compareArchives();
+    }
+
+    /**
+     * Returns whether the fork has any change from the parent
+     *
+     * @return true if nothing changed
+     */
+    public boolean isEmpty() {
+        return before.getTotalBudget() == after.getTotalBudget() && before.getBudget().equals(after.getBudget())
+                && added.isEmpty() && removed.isEmpty() && recategorized.isEmpty();
+    }
+
+    /**
+     * Returns the change to the total budgeted amount
+     *
+     * @return fork's total budget minus the parent's, in cents
+     */
+    public long getTotalBudgetChange() {
+        return (long) after.getTotalBudget() - before.getTotalBudget();
+    }
+
+    /**
+     * Returns the change to the amount spent across every category
+     *
+     * @return fork's amount spent minus the parent's, in cents
+     */
+    public long getTotalSpentChange() {
+        return after.getBudgetTotalSpent() - before.getBudgetTotalSpent();
+    }
+
+    /**
+     * Returns the change to the budget of a category, counting a missing category as a budget of 0
+     *
+     * @param category - category to compare
+     * @return fork's budget for the category minus the parent's, in cents
+     */
+    public long getBudgetChange(String category) {
+        return (long) budgetOf(after, category) - budgetOf(before, category);
+    }
+
+    /**
+     * Returns the change to the amount spent in a category, counting a missing category as nothing spent
+     *
+     * @param category - category to compare
+     * @return fork's amount spent in the category minus the parent's, in cents
+     */
+    public long getSpentChange(String category) {
+        return after.getCategorySpent(category) - before.getCategorySpent(category);
+    }
+
+    /**
+     * Returns the categories only in the fork
+     *
+     * @return sorted category names
+     */
+    public List<String> getAddedCategories() {
+        return missingFrom(after.getBudget(), before.getBudget());
+    }
+
+    /**
+     * Returns the categories only in the parent
+     *
+     * @return sorted category names
+     */
+    public List<String> getRemovedCategories() {
+        return missingFrom(before.getBudget(), after.getBudget());
+    }
+
+    /**
+     * Returns the categories in both budgets whose budget or amount spent changed
+     *
+     * @return sorted category names
+     */
+    public List<String> getChangedCategories() {
+        ArrayList<String> changed = new ArrayList<String>();
+
+        for(String category: after.getBudget().keySet()) {
+            if(before.getBudget().containsKey(category)
+                    && (getBudgetChange(category) != 0 || getSpentChange(category) != 0)) {
+                changed.add(category);
+            }
+        }
+        Collections.sort(changed);
+
+        return changed;
+    }
+
+    /**
+     * Returns the purchases only in the fork
+     *
+     * @return purchases added to the fork
+     */
+    public List<Purchase> getAddedPurchases() {
+        return Collections.unmodifiableList(added);
+    }
+
+    /**
+     * Returns the purchases only in the parent
+     *
+     * @return purchases removed from the fork
+     */
+    public List<Purchase> getRemovedPurchases() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * Returns the purchases the fork moved to another category, in their new category
+     *
+     * @return recategorized purchases
+     */
+    public List<Purchase> getRecategorizedPurchases() {
+        return Collections.unmodifiableList(recategorized);
+    }
+
+    /**
+     * Returns the category each recategorized purchase was in, in the same order as getRecategorizedPurchases()
+     *
+     * @return previous category names
+     */
+    public List<String> getPreviousCategories() {
+        return Collections.unmodifiableList(previousCategories);
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Compares the purchase stores slot by slot, skipping segments both stores still share
+     * A slot of the fork whose id the parent doesn't have was added, and a slot of the parent whose id the fork
+     * doesn't have was removed
+     */
+    private void compareStores() {
+        PurchaseStore parent = before.getStore();
+        PurchaseStore fork = after.getStore();
+        int shared = Math.min(parent.slotCount(), fork.slotCount());
+        int end = Math.max(parent.slotCount(), fork.slotCount());
+
+        for(int start = 0; start < end; start += PurchaseStore.SEGMENT_SIZE) {
+            int segment = start >>> PurchaseStore.SEGMENT_SHIFT;
+            int from = start;
+            if(fork.sharesSegment(parent, segment)) {
+                from = Math.max(start, Math.min(start + PurchaseStore.SEGMENT_SIZE, shared));
+            }
+
+            for(int slot = from; slot < Math.min(start + PurchaseStore.SEGMENT_SIZE, end); slot++) {
+                if(slot < fork.slotCount() && fork.isLive(slot)) {
+                    comparePurchase(fork.getId(slot));
+                }
+                if(slot < parent.slotCount() && parent.isLive(slot)) {
+                    int id = parent.getId(slot);
+                    if(after.getPurchaseRow(id) == -1) {
+                        removed.add(before.getPurchase(before.getPurchaseRow(id)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the archived months the fork moved into its store for purchases it removed
+     * Months still archived in both budgets are the same purchases, and purchases the fork kept are compared by
+     * compareStores
+     */
+    private void compareArchives() {
+        for(int month = 0; month < before.getArchivedMonthCount(); month++) {
+            if(before.isArchivedMonthLoaded(month) || !after.isArchivedMonthLoaded(month)) {
+                continue;
+            }
+
+            int last = before.getArchivedMonthFirstId(month + 1);
+            for(int id = before.getArchivedMonthFirstId(month); id < last; id++) {
+                if(after.getPurchaseRow(id) == -1) {
+                    removed.add(before.getPurchase(before.getPurchaseRow(id)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the fork's purchase with an id as added or recategorized if it isn't in the parent unchanged
+     *
+     * @param id - id of a purchase in the fork
+     */
+    private void comparePurchase(int id) {
+        int afterRow = after.getPurchaseRow(id);
+        int beforeRow = before.getPurchaseRow(id);
+
+        if(beforeRow == -1) {
+            added.add(after.getPurchase(afterRow));
+            return;
+        }
+
+        String previous = before.getCategory(beforeRow);
+        if(!previous.equals(after.getCategory(afterRow))) {
+            recategorized.add(after.getPurchase(afterRow));
+            previousCategories.add(previous);
+        }
+    }
+
+    /**
+     * Returns the budget of a category, or 0 if it isn't in the budget
+     *
+     * @param snapshot - budget to look in
+     * @param category - category to look up
+     * @return budget of the category in cents
+     */
+    private static int budgetOf(BudgetSnapshot snapshot, String category) {
+        Integer amount = snapshot.getBudget().get(category);
+        return amount == null ? 0 : amount;
+    }
+
+    /**
+     * Returns the categories of one budget that aren't in another
+     *
+     * @param from - categories to look through
+     * @param other - categories to leave out
+     * @return sorted category names
+     */
+    private static List<String> missingFrom(Map<String, Integer> from, Map<String, Integer> other) {
+        ArrayList<String> missing = new ArrayList<String>();
+
+        for(String category: from.keySet()) {
+            if(!other.containsKey(category)) {
+                missing.add(category);
+            }
+        }
+        Collections.sort(missing);
+
+        return missing;
+    }
+}
@@ -0,0 +1,370 @@
+package net.hesterberg.budget.budget;
+
+import net.hesterberg.budget.transaction.Purchase;
+import net.hesterberg.budget.utility.CategoryException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read only view of one version of a budget, from Budget.snapshot()
+ * Stays the same while the budget keeps changing, so a long report can read every purchase and total consistently
+ * from any thread without locking the budget
+ * Shares the budget's purchase columns and archive rather than copying them - only the category totals and the
+ * numbering of the archived months are copied, which are small
+ * While a PurchaseIngest is running its purchases are counted in the totals as they are added, so a snapshot taken
+ * then may count purchases that aren't in its rows yet
+ * All monetary amounts are in CENTS
+ *
+ * @author Nikolai Hesterberg
+ */
+public final class BudgetSnapshot {
+    /**
+     * Version of the budget the snapshot was taken at
+     */
+    private final long version;
+
+    /**
+     * Total budgeted amount
+     */
+    private final int totalBudget;
+
+    /**
+     * Budget of each category
+     */
+    private final Map<String, Integer> budget;
+
+    /**
+     * Category name of each category id
+     */
+    private final String[] categoryNames;
+
+    /**
+     * Amount spent in each category, indexed by category id
+     */
+    private final long[] spent;
+
+    /**
+     * Number of purchases in each category, indexed by category id
+     */
+    private final long[] counts;
+
+    /**
+     * Largest purchase of each category id, with the largest overall last, or null until it is worked out
+     */
+    private int[] largest;
+
+    /**
+     * Reads the purchases over a view of the budget's purchase store and copies of the archive's month numbering
+     */
+    private final PurchaseRows rows;
+
+    /**
+     * Builds a snapshot from a copy of the budget's totals and views of its purchases
+     *
+     * @param version - version of the budget
+     * @param totalBudget - total budgeted amount
+     * @param budget - copy of the budget of each category
+     * @param categoryNames - category name of each category id
+     * @param spent - amount spent in each category id
+     * @param counts - number of purchases in each category id
+     * @param largest - largest purchase of each category id and overall, or null if they need working out
+     * @param rows - reader of the purchases over a view of the store and copies of the archive's month numbering
+     */
+    BudgetSnapshot(long version, int totalBudget, HashMap<String, Integer> budget, String[] categoryNames,
+                   long[] spent, long[] counts, int[] largest, PurchaseRows rows) {
+        this.version = version;
+        this.totalBudget = totalBudget;
+        this.budget = Collections.unmodifiableMap(budget);
+        this.categoryNames = categoryNames;
+        this.spent = spent;
+        this.counts = counts;
+        this.largest = largest;
+        this.rows = rows;
+    }
+
+    /**
+     * Returns the version of the budget the snapshot was taken at
+     * Goes up with every change to the budget, so two snapshots with the same version hold the same budget
+     *
+     * @return version number
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the total budgeted amount in cents
+     *
+     * @return total budgeted amount in cents
+     */
+    public int getTotalBudget() {
+        return totalBudget;
+    }
+
+    /**
+     * Returns the budget categories and their dollar limit
+     *
+     * @return unmodifiable map of category to budget in cents
+     */
+    public Map<String, Integer> getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the total amount spent in each budget category
+     *
+     * @return map with category and amount spent in cents
+     */
+    public HashMap<String, Long> getCategoryTotalSpent() {
+        HashMap<String, Long> categoryTotals = new HashMap<String, Long>();
+
+        for(int id = 0; id < categoryNames.length; id++) {
+            if(budget.containsKey(categoryNames[id])) {
+                categoryTotals.put(categoryNames[id], spent[id]);
+            }
+        }
+
+        return categoryTotals;
+    }
+
+    /**
+     * Returns the total amount spent in one budget category
+     *
+     * @param category - category to look up
+     * @return amount spent in cents, or 0 if the category isn't in the budget
+     */
+    public long getCategorySpent(String category) {
+        int id = categoryId(category);
+        return id == -1 ? 0 : spent[id];
+    }
+
+    /**
+     * Returns the total amount spent across every category
+     *
+     * @return amount spent in cents
+     */
+    public long getBudgetTotalSpent() {
+        long total = 0;
+
+        for(long amount: spent) {
+            total += amount;
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns the budget, spending, purchase count, mean and largest purchase across every category
+     *
+     * @return statistics of the whole budget
+     */
+    public PurchaseStats getStats() {
+        long count = 0;
+
+        for(long categoryCount: counts) {
+            count += categoryCount;
+        }
+
+        return new PurchaseStats(totalBudget, getBudgetTotalSpent(), count, largest()[categoryNames.length]);
+    }
+
+    /**
+     * Returns the budget, spending, purchase count, mean and largest purchase of one category
+     *
+     * @param category - category to look up
+     * @return statistics of the category
+     * @throws CategoryException if category isn't in the budget
+     */
+    public PurchaseStats getStats(String category) throws CategoryException {
+        int id = categoryId(category);
+
+        if(id == -1) {
+            throw new CategoryException(category + " does not currently exist in the budget!");
+        }
+
+        return new PurchaseStats(budget.get(category), spent[id], counts[id], largest()[id]);
+    }
+
+    /**
+     * Returns the number of purchases in the snapshot
+     *
+     * @return number of purchases
+     */
+    public int getPurchaseCount() {
+        return rows.getPurchaseCount();
+    }
+
+    /**
+     * Returns the stable id of the purchase in a row, the same id the budget uses
+     *
+     * @param row - index of the purchase, between 0 and getPurchaseCount() - 1
+     * @return id of the purchase
+     */
+    public int getPurchaseId(int row) {
+        return rows.getPurchaseId(row);
+    }
+
+    /**
+     * Returns the row the purchase with the id is in, for reading with getPurchase
+     *
+     * @param id - id of the purchase
+     * @return row of the purchase, or -1 if there was no purchase with the id
+     */
+    public int getPurchaseRow(int id) {
+        return rows.getPurchaseRow(id);
+    }
+
+    /**
+     * Builds a Purchase view of a purchase, numbered the same as the budget's rows were at the snapshot
+     *
+     * @param row - index of the purchase, between 0 and getPurchaseCount() - 1
+     * @return purchase holding the stored values
+     */
+    public Purchase getPurchase(int row) {
+        return rows.getPurchase(row);
+    }
+
+    /**
+     * Returns the list of purchases sorted by date
+     * Builds a new Purchase for each row
+     *
+     * @return list of purchases
+     */
+    public ArrayList<Purchase> getPurchaseList() {
+        int count = getPurchaseCount();
+        ArrayList<Purchase> purchaseList = new ArrayList<>(count);
+
+        for(int row = 0; row < count; row++) {
+            purchaseList.add(getPurchase(row));
+        }
+
+        Collections.sort(purchaseList);
+
+        return purchaseList;
+    }
+
+    /**
+     * Calls the visitor once for every purchase, in row order, without building Purchase or Date objects
+     *
+     * @param visitor - visitor to call for each purchase
+     */
+    public void forEachPurchase(PurchaseVisitor visitor) {
+        rows.forEachPurchase(visitor);
+    }
+
+    /**
+     * Returns the category of the purchase in a row without building a Purchase
+     *
+     * @param row - index of the purchase, between 0 and getPurchaseCount() - 1
+     * @return category of the purchase
+     */
+    String getCategory(int row) {
+        return rows.getCategory(row);
+    }
+
+    /**
+     * Returns the read only view of the budget's purchase store
+     *
+     * @return purchase store at the snapshot
+     */
+    PurchaseStore getStore() {
+        return rows.getStore();
+    }
+
+    /**
+     * Returns the number of purchases that were still in the archive, which are numbered before the other purchases
+     *
+     * @return number of archived purchases
+     */
+    int getArchivedPurchaseCount() {
+        return rows.getArchivedPurchaseCount();
+    }
+
+    /**
+     * Returns the number of months in the archive
+     *
+     * @return number of archived months, 0 if the budget had no archive
+     */
+    int getArchivedMonthCount() {
+        return rows.getArchivedMonthCount();
+    }
+
+    /**
+     * Returns whether an archived month had been moved into the purchase store
+     *
+     * @param month - number of the month in the archive
+     * @return true if the month's purchases were in the store
+     */
+    boolean isArchivedMonthLoaded(int month) {
+        return rows.isArchivedMonthLoaded(month);
+    }
+
+    /**
+     * Returns the first purchase id of an archived month
+     *
+     * @param month - number of the month in the archive, or the month count for the first id after the archive
+     * @return first purchase id of the month
+     */
+    int getArchivedMonthFirstId(int month) {
+        return rows.getArchivedMonthFirstId(month);
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Returns the id of a category in the budget
+     *
+     * @param category - category name
+     * @return category id, or -1 if the category isn't in the budget
+     */
+    private int categoryId(String category) {
+        if(!budget.containsKey(category)) {
+            return -1;
+        }
+
+        for(int id = 0; id < categoryNames.length; id++) {
+            if(categoryNames[id].equals(category)) {
+                return id;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the largest purchase of each category id and overall, working them out from the purchases if the
+     * budget hadn't when the snapshot was taken
+     * Locked so several threads reading the snapshot only work them out once
+     *
+     * @return largest purchase of each category id, with the largest overall last
+     */
+    private synchronized int[] largest() {
+        if(largest == null) {
+            HashMap<String, Integer> ids = new HashMap<String, Integer>();
+            for(int id = 0; id < categoryNames.length; id++) {
+                ids.put(categoryNames[id], id);
+            }
+
+            int[] built = new int[categoryNames.length + 1];
+            Arrays.fill(built, Integer.MIN_VALUE);
+            forEachPurchase((day, description, price, category) -> {
+                int id = ids.get(category);
+                built[id] = Math.max(built[id], price);
+                built[built.length - 1] = Math.max(built[built.length - 1], price);
+            });
+
+            //categories with no purchases have no largest purchase
+            for(int i = 0; i < built.length; i++) {
+                if(built[i] == Integer.MIN_VALUE) {
+                    built[i] = 0;
+                }
+            }
+            largest = built;
+        }
+
+        return largest;
+    }
+}
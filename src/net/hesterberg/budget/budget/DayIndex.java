@@ -0,0 +1,291 @@
+package net.hesterberg.budget.budget;
+
+import java.util.Arrays;
+
+/**
+ * Prefix sum index of spending keyed by epoch day
+ * Sparse - days are grouped into blocks of BLOCK_DAYS, and only blocks with spending are stored, kept sorted by
+ * block number, so a purchase dated far from the others costs one more block rather than every day in between
+ * Each block is a Fenwick (binary indexed) tree over its days, and a second Fenwick tree over the block totals is
+ * built when the first sum is asked for, so adding to a day and summing a range of days are both
+ * O(log BLOCK_DAYS + log b), where b is the number of blocks
+ * A fork shares the blocks until either index next adds to them, and then copies only the block it adds to
+ *
+ * @author Nikolai Hesterberg
+ */
+class DayIndex {
+    /**
+     * Shift from an epoch day to its block number
+     */
+    private static final int BLOCK_SHIFT = 9;
+
+    /**
+     * Number of days in each block
+     */
+    private static final int BLOCK_DAYS = 1 << BLOCK_SHIFT;
+
+    /**
+     * Mask from an epoch day to its position in its block
+     */
+    private static final int BLOCK_MASK = BLOCK_DAYS - 1;
+
+    /**
+     * Block number of each stored block, sorted
+     */
+    private int[] keys;
+
+    /**
+     * Fenwick tree of each stored block over its days, 1 indexed, in the same order as keys
+     */
+    private long[][] blocks;
+
+    /**
+     * Whether each block is shared with a fork, and has to be copied before it is added to
+     */
+    private boolean[] blockShared;
+
+    /**
+     * Number of stored blocks
+     */
+    private int count;
+
+    /**
+     * Fenwick tree over the block totals, 1 indexed by position in keys
+     * Null until the first sum, and again whenever a block is inserted
+     */
+    private long[] tree;
+
+    /**
+     * Whether the arrays of blocks are shared with a fork, and have to be copied before they are added to
+     */
+    private boolean shared;
+
+    /**
+     * Builds an empty index that covers no days
+     */
+    DayIndex() {
+        this.keys = new int[4];
+        this.blocks = new long[4][];
+        this.blockShared = new boolean[4];
+        this.count = 0;
+        this.tree = null;
+        this.shared = false;
+    }
+
+    /**
+     * Returns a copy of the index that shares its blocks until either index is added to
+     *
+     * @return copy of the index
+     */
+    DayIndex fork() {
+        DayIndex copy = new DayIndex();
+
+        copy.keys = keys;
+        copy.blocks = blocks;
+        copy.blockShared = blockShared;
+        copy.count = count;
+        copy.tree = tree;
+        copy.shared = true;
+        shared = true;
+
+        return copy;
+    }
+
+    /**
+     * Adds an amount to the total for the day - use a negative amount to remove spending
+     *
+     * @param day - epoch day of the purchase
+     * @param amount - amount in cents
+     */
+    void add(int day, long amount) {
+        if(shared) {
+            unshare();
+        }
+
+        int key = day >> BLOCK_SHIFT;
+        int position = find(key);
+        if(position < 0) {
+            position = insert(-position - 1, key);
+        }
+        else if(blockShared[position]) {
+            blocks[position] = blocks[position].clone();
+            blockShared[position] = false;
+        }
+
+        long[] block = blocks[position];
+        for(int i = (day & BLOCK_MASK) + 1; i <= BLOCK_DAYS; i += i & -i) {
+            block[i] += amount;
+        }
+
+        if(tree != null) {
+            for(int i = position + 1; i <= count; i += i & -i) {
+                tree[i] += amount;
+            }
+        }
+    }
+
+    /**
+     * Returns the amount spent between the two days, including both end days
+     *
+     * @param fromDay - first epoch day of the range
+     * @param toDay - last epoch day of the range
+     * @return amount spent in cents, 0 if the range is empty
+     */
+    long sum(int fromDay, int toDay) {
+        if(fromDay > toDay) {
+            return 0;
+        }
+
+        return prefix(toDay) - prefix(fromDay - 1L);
+    }
+
+    /**
+     * Subtracts every daily amount of the other index from this index
+     * Used when all purchases of a category are removed at once
+     *
+     * @param other - index holding the amounts to subtract
+     */
+    void subtract(DayIndex other) {
+        for(int position = 0; position < other.count; position++) {
+            long[] block = other.blocks[position];
+            int first = other.keys[position] << BLOCK_SHIFT;
+
+            for(int offset = 0; offset < BLOCK_DAYS; offset++) {
+                long amount = blockPrefix(block, offset + 1) - blockPrefix(block, offset);
+                if(amount != 0) {
+                    add(first + offset, -amount);
+                }
+            }
+        }
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Returns the amount spent on every day up to and including the given day
+     *
+     * @param day - last epoch day to include, which may be one before the earliest int day
+     * @return amount spent in cents
+     */
+    private long prefix(long day) {
+        if(count == 0) {
+            return 0;
+        }
+
+        if(tree == null) {
+            build();
+        }
+
+        int key = (int) (day >> BLOCK_SHIFT);
+        int position = find(key);
+        int before = position < 0 ? -position - 1 : position;
+
+        long total = 0;
+        for(int i = before; i > 0; i -= i & -i) {
+            total += tree[i];
+        }
+        if(position >= 0) {
+            total += blockPrefix(blocks[position], (int) (day & BLOCK_MASK) + 1);
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns the sum of the first days of a block
+     *
+     * @param block - Fenwick tree of the block
+     * @param days - number of days from the start of the block to include
+     * @return amount spent in cents
+     */
+    private static long blockPrefix(long[] block, int days) {
+        long total = 0;
+
+        for(int i = days; i > 0; i -= i & -i) {
+            total += block[i];
+        }
+
+        return total;
+    }
+
+    /**
+     * Finds a block by binary search
+     *
+     * @param key - block number
+     * @return position of the block, or -(insertion point) - 1 if it isn't stored
+     */
+    private int find(int key) {
+        int low = 0;
+        int high = count - 1;
+
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+
+            if(keys[middle] < key) {
+                low = middle + 1;
+            }
+            else if(keys[middle] > key) {
+                high = middle - 1;
+            }
+            else {
+                return middle;
+            }
+        }
+
+        return -low - 1;
+    }
+
+    /**
+     * Inserts an empty block, growing the arrays if needed
+     * The tree is dropped and rebuilt by the next sum
+     *
+     * @param position - position to insert the block at
+     * @param key - block number
+     * @return position of the new block
+     */
+    private int insert(int position, int key) {
+        if(count == keys.length) {
+            keys = Arrays.copyOf(keys, count * 2);
+            blocks = Arrays.copyOf(blocks, count * 2);
+            blockShared = Arrays.copyOf(blockShared, count * 2);
+        }
+
+        System.arraycopy(keys, position, keys, position + 1, count - position);
+        System.arraycopy(blocks, position, blocks, position + 1, count - position);
+        System.arraycopy(blockShared, position, blockShared, position + 1, count - position);
+
+        keys[position] = key;
+        blocks[position] = new long[BLOCK_DAYS + 1];
+        blockShared[position] = false;
+        count++;
+        tree = null;
+
+        return position;
+    }
+
+    /**
+     * Copies the arrays of blocks shared with a fork, marking every block as shared until it is written
+     */
+    private void unshare() {
+        keys = keys.clone();
+        blocks = blocks.clone();
+        blockShared = new boolean[blockShared.length];
+        Arrays.fill(blockShared, 0, count, true);
+        tree = tree == null ? null : tree.clone();
+        shared = false;
+    }
+
+    /**
+     * Builds the tree over the block totals in O(b log BLOCK_DAYS)
+     */
+    private void build() {
+        tree = new long[count + 1];
+
+        for(int i = 1; i <= count; i++) {
+            tree[i] += blockPrefix(blocks[i - 1], BLOCK_DAYS);
+            int parent = i + (i & -i);
+            if(parent <= count) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+}
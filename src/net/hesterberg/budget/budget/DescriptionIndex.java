@@ -0,0 +1,423 @@
+package net.hesterberg.budget.budget;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index from the words of purchase descriptions to the distinct descriptions that contain them, and from
+ * each distinct description to the ids of its purchases
+ * Each description is split into lower case tokens of letters and digits, and each token keeps a postings list of the
+ * descriptions it appears in - tokens are kept sorted so every token starting with a typed prefix is found with one
+ * range lookup
+ * Adding a purchase appends its id to its description's postings, and only touches the word postings if the
+ * description is new
+ * Removing a purchase marks its id as removed - ids are never reused, so the mark is permanent, and a description's
+ * postings are swept once removed ids fill half of them
+ *
+ * @author Nikolai Hesterberg
+ */
+class DescriptionIndex {
+    /**
+     * Score for a query token that equals a description token
+     */
+    private static final int EXACT_SCORE = 3;
+
+    /**
+     * Score for a query token that only starts a description token
+     */
+    private static final int PREFIX_SCORE = 2;
+
+    /**
+     * Extra score for a description that starts with the first query token
+     */
+    private static final int LEADING_SCORE = 1;
+
+    /**
+     * Id of each distinct description
+     */
+    private final HashMap<String, Integer> ids;
+
+    /**
+     * Each distinct description, indexed by id
+     */
+    private final ArrayList<String> names;
+
+    /**
+     * Tokens of each distinct description, indexed by id
+     */
+    private final ArrayList<String[]> tokens;
+
+    /**
+     * Number of purchases with each description, indexed by id - descriptions with no purchases left aren't returned
+     */
+    private int[] counts;
+
+    /**
+     * Ids of the purchases with each description, in the order they were added, indexed by description id
+     * May still hold removed purchases until the list is next swept
+     */
+    private final ArrayList<Postings> purchases;
+
+    /**
+     * Ids of the purchases that have been removed
+     */
+    private final BitSet removed;
+
+    /**
+     * Ids of the descriptions containing each token, in id order
+     */
+    private final HashMap<String, Postings> postings;
+
+    /**
+     * The same postings lists sorted by token, so the tokens starting with a prefix form one range
+     * Only new tokens are inserted, which stops happening once most words have been seen
+     */
+    private final TreeMap<String, Postings> sortedPostings;
+
+    /**
+     * Number of the search in progress, marking the descriptions it has looked at in seen
+     */
+    private int searchNumber;
+
+    /**
+     * Number of the last search to look at each description, indexed by id
+     */
+    private int[] seen;
+
+    /**
+     * Builds an empty index
+     */
+    DescriptionIndex() {
+        this.ids = new HashMap<String, Integer>();
+        this.names = new ArrayList<String>();
+        this.tokens = new ArrayList<String[]>();
+        this.counts = new int[64];
+        this.purchases = new ArrayList<Postings>();
+        this.removed = new BitSet();
+        this.postings = new HashMap<String, Postings>();
+        this.sortedPostings = new TreeMap<String, Postings>();
+        this.searchNumber = 0;
+        this.seen = new int[64];
+    }
+
+    /**
+     * Adds a purchase with the description, indexing the description if it is new
+     *
+     * @param description - description of the purchase
+     * @param purchase - id of the purchase
+     */
+    void add(String description, int purchase) {
+        Integer id = ids.get(description);
+
+        if(id == null) {
+            id = names.size();
+            ids.put(description, id);
+            names.add(description);
+            purchases.add(new Postings());
+            if(id == counts.length) {
+                counts = Arrays.copyOf(counts, counts.length * 2);
+            }
+
+            String[] words = tokenize(description);
+            tokens.add(words);
+            for(String word: words) {
+                Postings list = postings.get(word);
+                if(list == null) {
+                    list = new Postings();
+                    postings.put(word, list);
+                    sortedPostings.put(word, list);
+                }
+                list.add(id);
+            }
+        }
+
+        counts[id]++;
+        purchases.get(id).add(purchase);
+    }
+
+    /**
+     * Removes a purchase with the description
+     * The description stays indexed so adding it again is cheap
+     *
+     * @param description - description of the purchase removed
+     * @param purchase - id of the purchase removed
+     */
+    void remove(String description, int purchase) {
+        Integer id = ids.get(description);
+
+        if(id == null || counts[id] == 0 || removed.get(purchase)) {
+            return;
+        }
+
+        counts[id]--;
+        removed.set(purchase);
+
+        Postings list = purchases.get(id);
+        if(list.size > 2 * counts[id] + 1) {
+            int kept = 0;
+            for(int i = 0; i < list.size; i++) {
+                if(!removed.get(list.ids[i])) {
+                    list.ids[kept++] = list.ids[i];
+                }
+            }
+            list.size = kept;
+        }
+    }
+
+    /**
+     * Returns the ids of the latest added purchases with the description
+     *
+     * @param description - description to look up
+     * @param limit - most ids to return
+     * @return ids of the purchases, latest added first
+     */
+    int[] latestPurchases(String description, int limit) {
+        Integer id = ids.get(description);
+        if(id == null) {
+            return new int[0];
+        }
+
+        Postings list = purchases.get(id);
+        int[] latest = new int[Math.min(limit, counts[id])];
+        int found = 0;
+
+        for(int i = list.size - 1; i >= 0 && found < latest.length; i--) {
+            if(!removed.get(list.ids[i])) {
+                latest[found++] = list.ids[i];
+            }
+        }
+
+        return found == latest.length ? latest : Arrays.copyOf(latest, found);
+    }
+
+    /**
+     * Returns the descriptions that match every word of the query, best match first
+     * Each query word matches a description word it equals or starts - so "planet smo" finds "Planet Smoothie"
+     * An exact word scores more than a prefix, descriptions starting with the first word score more, and equal
+     * scores are ordered by the number of purchases
+     * Only the descriptions allowed by the query word with the fewest postings are looked at
+     *
+     * @param query - words to look for
+     * @param limit - most descriptions to return
+     * @return matching descriptions that still have purchases, best first
+     */
+    List<String> search(String query, int limit) {
+        String[] words = tokenize(query);
+        ArrayList<String> results = new ArrayList<String>();
+        if(words.length == 0 || limit <= 0) {
+            return results;
+        }
+
+        //finds the word whose prefix range holds the fewest postings
+        int rarest = 0;
+        long fewest = Long.MAX_VALUE;
+        for(int i = 0; i < words.length; i++) {
+            long count = 0;
+            for(Postings list: prefixRange(words[i]).values()) {
+                count += list.size;
+            }
+            if(count < fewest) {
+                fewest = count;
+                rarest = i;
+            }
+        }
+
+        if(seen.length < names.size()) {
+            seen = Arrays.copyOf(seen, Math.max(names.size(), seen.length * 2));
+        }
+        searchNumber++;
+
+        //min-heap of the best matches so far, each packed into a long so better matches compare larger
+        long[] best = new long[(int) Math.min(limit, fewest)];
+        int bestSize = 0;
+
+        for(Postings list: prefixRange(words[rarest]).values()) {
+            for(int i = 0; i < list.size; i++) {
+                int id = list.ids[i];
+
+                //a description with several words sharing the prefix is in several postings lists
+                if(seen[id] == searchNumber || counts[id] == 0) {
+                    continue;
+                }
+                seen[id] = searchNumber;
+
+                int score = score(tokens.get(id), words);
+                if(score > 0) {
+                    long match = pack(score, counts[id], id);
+                    if(bestSize < best.length) {
+                        best[bestSize++] = match;
+                        siftUp(best, bestSize - 1);
+                    }
+                    else if(match > best[0]) {
+                        best[0] = match;
+                        siftDown(best, bestSize);
+                    }
+                }
+            }
+        }
+
+        Arrays.sort(best, 0, bestSize);
+        for(int i = bestSize - 1; i >= 0; i--) {
+            results.add(names.get(Integer.MAX_VALUE - (int) (best[i] & Integer.MAX_VALUE)));
+        }
+
+        return results;
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Returns the tokens that start with the prefix
+     *
+     * @param prefix - start of the tokens
+     * @return sorted view of the matching tokens and their postings
+     */
+    private Map<String, Postings> prefixRange(String prefix) {
+        return sortedPostings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    /**
+     * Scores how well a description's words match the query words
+     *
+     * @param description - tokens of the description
+     * @param words - tokens of the query
+     * @return score, or 0 if some query word matches no description word
+     */
+    private static int score(String[] description, String[] words) {
+        int score = 0;
+
+        for(String word: words) {
+            int wordScore = 0;
+            for(String token: description) {
+                if(token.equals(word)) {
+                    wordScore = EXACT_SCORE;
+                    break;
+                }
+                if(token.startsWith(word)) {
+                    wordScore = PREFIX_SCORE;
+                }
+            }
+            if(wordScore == 0) {
+                return 0;
+            }
+            score += wordScore;
+        }
+
+        if(description.length > 0 && description[0].startsWith(words[0])) {
+            score += LEADING_SCORE;
+        }
+
+        return score;
+    }
+
+    /**
+     * Packs a match into a long that orders matches by score, then number of purchases, then the earlier description
+     *
+     * @param score - score of the match
+     * @param count - number of purchases with the description
+     * @param id - description id
+     * @return the packed match
+     */
+    private static long pack(int score, int count, int id) {
+        return ((long) Math.min(score, 0x3FF) << 53) | ((long) Math.min(count, 0x3FFFFF) << 31)
+                | (Integer.MAX_VALUE - id);
+    }
+
+    /**
+     * Moves a new entry of a min-heap up to its place
+     *
+     * @param heap - heap of packed matches
+     * @param index - position of the new entry
+     */
+    private static void siftUp(long[] heap, int index) {
+        long entry = heap[index];
+
+        while(index > 0 && heap[(index - 1) >> 1] > entry) {
+            heap[index] = heap[(index - 1) >> 1];
+            index = (index - 1) >> 1;
+        }
+        heap[index] = entry;
+    }
+
+    /**
+     * Moves a replaced root of a min-heap down to its place
+     *
+     * @param heap - heap of packed matches
+     * @param size - number of entries in the heap
+     */
+    private static void siftDown(long[] heap, int size) {
+        long entry = heap[0];
+        int index = 0;
+
+        while(2 * index + 1 < size) {
+            int child = 2 * index + 1;
+            if(child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if(heap[child] >= entry) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = entry;
+    }
+
+    /**
+     * Splits text into distinct lower case tokens of letters and digits
+     *
+     * @param text - text to split
+     * @return tokens in the order they first appear
+     */
+    static String[] tokenize(String text) {
+        ArrayList<String> words = new ArrayList<String>();
+        int start = -1;
+
+        for(int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if(letter && start == -1) {
+                start = i;
+            }
+            else if(!letter && start != -1) {
+                String word = text.substring(start, i).toLowerCase();
+                if(!words.contains(word)) {
+                    words.add(word);
+                }
+                start = -1;
+            }
+        }
+
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * Growable list of description or purchase ids
+     */
+    private static class Postings {
+        /**
+         * Ids in the list, in the order they were added
+         */
+        private int[] ids = new int[4];
+
+        /**
+         * Number of ids in the list
+         */
+        private int size = 0;
+
+        /**
+         * Appends an id
+         *
+         * @param id - id to append
+         */
+        void add(int id) {
+            if(size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
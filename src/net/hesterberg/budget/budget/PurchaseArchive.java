@@ -0,0 +1,69 @@
+package net.hesterberg.budget.budget;
+
+import java.util.List;
+
+/**
+ * Months of purchases kept outside a budget and decoded only when the budget needs them
+ * A budget given an archive counts every archived purchase in its totals straight away from the monthly totals,
+ * then asks the archive for a month's purchases the first time something looks at them
+ * Months are numbered from 0 in date order
+ *
+ * @author Nikolai Hesterberg
+ */
+public interface PurchaseArchive {
+    /**
+     * Returns the categories the archived purchases can belong to
+     *
+     * @return category names, indexed by the category numbers used by getCategorySpent
+     */
+    public List<String> getCategories();
+
+    /**
+     * Returns the number of archived months
+     *
+     * @return number of months
+     */
+    public int getMonthCount();
+
+    /**
+     * Returns the year and month of an archived month as year * 12 + month - 1
+     *
+     * @param month - number of the month in the archive
+     * @return month key
+     */
+    public int getMonthKey(int month);
+
+    /**
+     * Returns the number of purchases in an archived month
+     *
+     * @param month - number of the month in the archive
+     * @return number of purchases
+     */
+    public int getPurchaseCount(int month);
+
+    /**
+     * Returns the amount spent in one category during an archived month
+     *
+     * @param month - number of the month in the archive
+     * @param category - index of the category in getCategories()
+     * @return amount spent in cents
+     */
+    public long getCategorySpent(int month, int category);
+
+    /**
+     * Returns the number of purchases in one category during an archived month
+     *
+     * @param month - number of the month in the archive
+     * @param category - index of the category in getCategories()
+     * @return number of purchases
+     */
+    public int getCategoryCount(int month, int category);
+
+    /**
+     * Decodes the purchases of an archived month
+     *
+     * @param month - number of the month in the archive
+     * @return a new batch holding the month's purchases
+     */
+    public PurchaseBatch readMonth(int month);
+}
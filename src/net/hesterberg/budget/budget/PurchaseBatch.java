@@ -0,0 +1,197 @@
+package net.hesterberg.budget.budget;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Buffer of purchases collected away from a budget and added to it in one step with Budget.addPurchases
+ * Purchases are kept in the same columnar form as the budget's own store, with categories and descriptions encoded
+ * against dictionaries local to the batch, so filling a batch never touches the budget and several batches can be
+ * filled on different threads at once
+ * A batch is not thread safe itself - each thread fills its own
+ *
+ * @author Nikolai Hesterberg
+ */
+public class PurchaseBatch implements PurchaseVisitor {
+    /**
+     * Starting capacity of the column arrays
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Number of purchases in the batch
+     */
+    private int size;
+
+    /**
+     * Epoch day of each purchase
+     */
+    private int[] days;
+
+    /**
+     * Cost of each purchase in cents
+     */
+    private int[] cents;
+
+    /**
+     * Batch category id of each purchase
+     */
+    private int[] categories;
+
+    /**
+     * Batch description id of each purchase
+     */
+    private int[] descriptions;
+
+    /**
+     * Category names, indexed by batch category id
+     */
+    private ArrayList<String> categoryNames;
+
+    /**
+     * Reverse lookup from category name to batch category id
+     */
+    private HashMap<String, Integer> categoryIds;
+
+    /**
+     * Descriptions, indexed by batch description id
+     */
+    private ArrayList<String> descriptionNames;
+
+    /**
+     * Reverse lookup from description to batch description id
+     */
+    private HashMap<String, Integer> descriptionIds;
+
+    /**
+     * Builds an empty batch
+     */
+    public PurchaseBatch() {
+        this.size = 0;
+        this.days = new int[INITIAL_CAPACITY];
+        this.cents = new int[INITIAL_CAPACITY];
+        this.categories = new int[INITIAL_CAPACITY];
+        this.descriptions = new int[INITIAL_CAPACITY];
+        this.categoryNames = new ArrayList<String>();
+        this.categoryIds = new HashMap<String, Integer>();
+        this.descriptionNames = new ArrayList<String>();
+        this.descriptionIds = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Adds a purchase to the end of the batch
+     *
+     * @param epochDay - date of the purchase as days since 1-Jan-1970
+     * @param description - description of the purchase
+     * @param price - price of the purchase in cents
+     * @param category - category of the purchase
+     */
+    @Override
+    public void visit(int epochDay, String description, int price, String category) {
+        if(size == days.length) {
+            int capacity = size + (size >> 1);
+            days = Arrays.copyOf(days, capacity);
+            cents = Arrays.copyOf(cents, capacity);
+            categories = Arrays.copyOf(categories, capacity);
+            descriptions = Arrays.copyOf(descriptions, capacity);
+        }
+
+        days[size] = epochDay;
+        cents[size] = price;
+        categories[size] = encode(category, categoryNames, categoryIds);
+        descriptions[size] = encode(description, descriptionNames, descriptionIds);
+        size++;
+    }
+
+    /**
+     * Returns the number of purchases in the batch
+     *
+     * @return number of purchases
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns each distinct category used by the purchases in the batch
+     *
+     * @return unmodifiable list of category names
+     */
+    public List<String> getCategories() {
+        return Collections.unmodifiableList(categoryNames);
+    }
+
+    //----------------PACKAGE METHODS USED BY BUDGET-----------------//
+    /**
+     * Returns the epoch day of a purchase
+     *
+     * @param row - position of the purchase in the batch
+     * @return epoch day of the purchase
+     */
+    int getDay(int row) {
+        return days[row];
+    }
+
+    /**
+     * Returns the cost in cents of a purchase
+     *
+     * @param row - position of the purchase in the batch
+     * @return cost of the purchase in cents
+     */
+    int getCents(int row) {
+        return cents[row];
+    }
+
+    /**
+     * Returns the batch category id of a purchase
+     *
+     * @param row - position of the purchase in the batch
+     * @return index into getCategories()
+     */
+    int getCategory(int row) {
+        return categories[row];
+    }
+
+    /**
+     * Returns the batch description id of a purchase
+     *
+     * @param row - position of the purchase in the batch
+     * @return index into getDescriptionNames()
+     */
+    int getDescription(int row) {
+        return descriptions[row];
+    }
+
+    /**
+     * Returns each distinct description used by the purchases in the batch
+     *
+     * @return descriptions indexed by batch description id
+     */
+    List<String> getDescriptionNames() {
+        return descriptionNames;
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Returns the batch id for a value, adding it to the dictionary if it hasn't been seen before
+     *
+     * @param value - value to encode
+     * @param names - values indexed by id
+     * @param ids - reverse lookup from value to id
+     * @return id of the value
+     */
+    private static int encode(String value, ArrayList<String> names, HashMap<String, Integer> ids) {
+        Integer id = ids.get(value);
+
+        if(id == null) {
+            id = names.size();
+            names.add(value);
+            ids.put(value, id);
+        }
+
+        return id;
+    }
+}
@@ -0,0 +1,179 @@
+package net.hesterberg.budget.budget;
+
+import net.hesterberg.budget.Date;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Conditions a purchase must meet to be shown in a filtered view
+ * Each condition is optional - a purchase matches when it meets every condition that has been set
+ * Passed to Budget.filter, which answers it from per-field indexes instead of checking every purchase
+ *
+ * @author Nikolai Hesterberg
+ */
+public class PurchaseFilter {
+    /**
+     * Categories the purchase must be in, or empty for any category
+     */
+    private HashSet<String> categories;
+
+    /**
+     * Epoch day of the earliest date allowed
+     */
+    private int fromDay;
+
+    /**
+     * Epoch day of the latest date allowed
+     */
+    private int toDay;
+
+    /**
+     * Smallest cost allowed in cents
+     */
+    private int minCents;
+
+    /**
+     * Largest cost allowed in cents
+     */
+    private int maxCents;
+
+    /**
+     * Lower case text the description must contain, or null for any description
+     */
+    private String description;
+
+    /**
+     * Builds a filter that every purchase matches
+     */
+    public PurchaseFilter() {
+        this.categories = new HashSet<String>();
+        this.fromDay = Integer.MIN_VALUE;
+        this.toDay = Integer.MAX_VALUE;
+        this.minCents = Integer.MIN_VALUE;
+        this.maxCents = Integer.MAX_VALUE;
+        this.description = null;
+    }
+
+    /**
+     * Allows purchases in the category - once any category is added, purchases in other categories don't match
+     *
+     * @param category - category to allow
+     */
+    public void addCategory(String category) {
+        categories.add(category);
+    }
+
+    /**
+     * Only allows purchases made between the two dates, including both end dates
+     *
+     * @param fromDate - earliest date allowed, or null for no earliest date
+     * @param toDate - latest date allowed, or null for no latest date
+     */
+    public void setDateRange(Date fromDate, Date toDate) {
+        this.fromDay = fromDate == null ? Integer.MIN_VALUE : fromDate.toEpochDay();
+        this.toDay = toDate == null ? Integer.MAX_VALUE : toDate.toEpochDay();
+    }
+
+    /**
+     * Only allows purchases costing between the two amounts, including both ends
+     *
+     * @param minCents - smallest cost allowed in cents
+     * @param maxCents - largest cost allowed in cents
+     */
+    public void setAmountRange(int minCents, int maxCents) {
+        this.minCents = minCents;
+        this.maxCents = maxCents;
+    }
+
+    /**
+     * Only allows purchases whose description contains the text, ignoring case
+     *
+     * @param text - text to look for, or null or empty for any description
+     */
+    public void setDescription(String text) {
+        this.description = text == null || text.isEmpty() ? null : text.toLowerCase();
+    }
+
+    /**
+     * Returns whether no condition has been set, so every purchase matches
+     *
+     * @return true if the filter allows every purchase
+     */
+    public boolean isEmpty() {
+        return categories.isEmpty() && !hasDateRange() && !hasAmountRange() && description == null;
+    }
+
+    /**
+     * Returns the categories allowed
+     *
+     * @return read only set of categories, empty for any category
+     */
+    Set<String> getCategories() {
+        return Collections.unmodifiableSet(categories);
+    }
+
+    /**
+     * Returns whether the date is limited
+     *
+     * @return true if setDateRange was given at least one date
+     */
+    boolean hasDateRange() {
+        return fromDay != Integer.MIN_VALUE || toDay != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the epoch day of the earliest date allowed
+     *
+     * @return first epoch day allowed
+     */
+    int getFromDay() {
+        return fromDay;
+    }
+
+    /**
+     * Returns the epoch day of the latest date allowed
+     *
+     * @return last epoch day allowed
+     */
+    int getToDay() {
+        return toDay;
+    }
+
+    /**
+     * Returns whether the cost is limited
+     *
+     * @return true if setAmountRange narrowed the costs allowed
+     */
+    boolean hasAmountRange() {
+        return minCents != Integer.MIN_VALUE || maxCents != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the smallest cost allowed
+     *
+     * @return smallest cost in cents
+     */
+    int getMinCents() {
+        return minCents;
+    }
+
+    /**
+     * Returns the largest cost allowed
+     *
+     * @return largest cost in cents
+     */
+    int getMaxCents() {
+        return maxCents;
+    }
+
+    /**
+     * Returns the lower case text the description must contain
+     *
+     * @return text, or null for any description
+     */
+    String getDescription() {
+        return description;
+    }
+}
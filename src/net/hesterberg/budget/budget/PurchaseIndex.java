@@ -0,0 +1,520 @@
+package net.hesterberg.budget.budget;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Per-field indexes over the purchases of a budget, used to answer a PurchaseFilter without checking every purchase
+ * Keyed by the stable purchase ids, so the index stays valid as purchases are added, removed and renumbered
+ * Holds the ids of each category and each description as postings lists, and the ids sorted by date and by cost
+ * so a date or cost range is found with two binary searches
+ * A query counts how many purchases each condition allows, walks the smallest of those candidate sets and checks the
+ * other conditions against the indexed columns, so the cost follows the most selective condition
+ *
+ * The index is kept up to date in place rather than rebuilt
+ * An added purchase is appended to its postings lists and to a short list of purchases not yet in the sorted
+ * orders, which is scanned by each query and merged into the orders once it holds MERGE_SIZE purchases
+ * A removed purchase is only marked dead, and a moved purchase is appended to its new category's postings, so the
+ * lists hold stale entries that queries skip - once stale entries outnumber the live purchases they are swept out
+ *
+ * @author Nikolai Hesterberg
+ */
+class PurchaseIndex {
+    /**
+     * Number of added purchases gathered before they are merged into the sorted orders
+     */
+    private static final int MERGE_SIZE = 1024;
+
+    /**
+     * Epoch day of each purchase, indexed by id
+     */
+    private int[] days;
+
+    /**
+     * Cost in cents of each purchase, indexed by id
+     */
+    private int[] cents;
+
+    /**
+     * Budget category id of each purchase, indexed by id
+     */
+    private int[] categories;
+
+    /**
+     * Index description id of each purchase, indexed by id
+     */
+    private int[] descriptions;
+
+    /**
+     * Whether each id is a purchase in the budget
+     */
+    private boolean[] live;
+
+    /**
+     * Number of purchases in the budget
+     */
+    private int liveCount;
+
+    /**
+     * Number of entries in the postings lists and sorted orders that no longer belong there
+     */
+    private int staleCount;
+
+    /**
+     * Index description id of each distinct description
+     */
+    private final HashMap<String, Integer> descriptionIds;
+
+    /**
+     * Lower case text of each distinct description, indexed by description id
+     */
+    private final ArrayList<String> descriptionText;
+
+    /**
+     * Ids of the purchases of each category, indexed by budget category id
+     * May hold purchases that were removed or moved to another category
+     */
+    private final ArrayList<Postings> categoryPostings;
+
+    /**
+     * Ids of the purchases of each description, indexed by description id
+     * May hold purchases that were removed
+     */
+    private final ArrayList<Postings> descriptionPostings;
+
+    /**
+     * Number of ids in the sorted orders
+     */
+    private int sortedSize;
+
+    /**
+     * Ids sorted by date
+     */
+    private int[] dateOrder;
+
+    /**
+     * Epoch day of each id of dateOrder, for binary searches
+     */
+    private int[] sortedDays;
+
+    /**
+     * Ids sorted by cost
+     */
+    private int[] amountOrder;
+
+    /**
+     * Cost of each id of amountOrder, for binary searches
+     */
+    private int[] sortedCents;
+
+    /**
+     * Ids added since the sorted orders were last merged
+     */
+    private final Postings pending;
+
+    /**
+     * Builds an empty index
+     */
+    PurchaseIndex() {
+        this.days = new int[64];
+        this.cents = new int[64];
+        this.categories = new int[64];
+        this.descriptions = new int[64];
+        this.live = new boolean[64];
+        this.liveCount = 0;
+        this.staleCount = 0;
+        this.descriptionIds = new HashMap<String, Integer>();
+        this.descriptionText = new ArrayList<String>();
+        this.categoryPostings = new ArrayList<Postings>();
+        this.descriptionPostings = new ArrayList<Postings>();
+        this.sortedSize = 0;
+        this.dateOrder = new int[0];
+        this.sortedDays = new int[0];
+        this.amountOrder = new int[0];
+        this.sortedCents = new int[0];
+        this.pending = new Postings();
+    }
+
+    /**
+     * Adds a purchase
+     *
+     * @param id - id of the purchase, which isn't in the index
+     * @param day - epoch day of the purchase
+     * @param price - cost of the purchase in cents
+     * @param category - budget category id of the purchase
+     * @param description - description of the purchase
+     */
+    void add(int id, int day, int price, int category, String description) {
+        if(id >= live.length) {
+            int capacity = Math.max(id + 1, live.length + (live.length >> 1));
+            days = Arrays.copyOf(days, capacity);
+            cents = Arrays.copyOf(cents, capacity);
+            categories = Arrays.copyOf(categories, capacity);
+            descriptions = Arrays.copyOf(descriptions, capacity);
+            live = Arrays.copyOf(live, capacity);
+        }
+
+        Integer descriptionId = descriptionIds.get(description);
+        if(descriptionId == null) {
+            descriptionId = descriptionText.size();
+            descriptionIds.put(description, descriptionId);
+            descriptionText.add(description.toLowerCase());
+            descriptionPostings.add(new Postings());
+        }
+
+        days[id] = day;
+        cents[id] = price;
+        categories[id] = category;
+        descriptions[id] = descriptionId;
+        live[id] = true;
+        liveCount++;
+
+        categoryPostings(category).add(id);
+        descriptionPostings.get(descriptionId).add(id);
+        pending.add(id);
+    }
+
+    /**
+     * Removes a purchase, leaving its entries to be skipped by queries until they are swept out
+     *
+     * @param id - id of the purchase
+     */
+    void remove(int id) {
+        if(id < live.length && live[id]) {
+            live[id] = false;
+            liveCount--;
+            staleCount++;
+            sweepIfStale();
+        }
+    }
+
+    /**
+     * Moves a purchase into another category
+     *
+     * @param id - id of the purchase
+     * @param category - budget category id it moves to
+     */
+    void setCategory(int id, int category) {
+        if(id < live.length && live[id] && categories[id] != category) {
+            categories[id] = category;
+            categoryPostings(category).add(id);
+            staleCount++;
+            sweepIfStale();
+        }
+    }
+
+    /**
+     * Returns the ids of the purchases that match every condition of the filter
+     *
+     * @param filter - conditions to match, which mustn't be empty
+     * @param categoryIds - budget category id of each category name
+     * @return ids of the matching purchases, sorted
+     */
+    int[] query(PurchaseFilter filter, HashMap<String, Integer> categoryIds) {
+        if(pending.size >= MERGE_SIZE) {
+            merge();
+        }
+
+        //categories allowed, or null for any
+        boolean[] allowedCategories = null;
+        int categoryMatches = Integer.MAX_VALUE;
+        Set<String> names = filter.getCategories();
+        if(!names.isEmpty()) {
+            allowedCategories = new boolean[categoryPostings.size()];
+            categoryMatches = 0;
+            for(String name: names) {
+                Integer id = categoryIds.get(name);
+                if(id != null && id < allowedCategories.length && !allowedCategories[id]) {
+                    allowedCategories[id] = true;
+                    categoryMatches += categoryPostings.get(id).size;
+                }
+            }
+        }
+
+        //descriptions allowed, or null for any
+        boolean[] allowedDescriptions = null;
+        int descriptionMatches = Integer.MAX_VALUE;
+        String text = filter.getDescription();
+        if(text != null) {
+            allowedDescriptions = new boolean[descriptionText.size()];
+            descriptionMatches = 0;
+            for(int id = 0; id < allowedDescriptions.length; id++) {
+                if(descriptionText.get(id).contains(text)) {
+                    allowedDescriptions[id] = true;
+                    descriptionMatches += descriptionPostings.get(id).size;
+                }
+            }
+        }
+
+        int dateFrom = 0;
+        int dateTo = sortedSize;
+        if(filter.hasDateRange()) {
+            dateFrom = lowerBound(sortedDays, filter.getFromDay());
+            dateTo = Math.max(dateFrom, upperBound(sortedDays, filter.getToDay()));
+        }
+
+        int amountFrom = 0;
+        int amountTo = sortedSize;
+        if(filter.hasAmountRange()) {
+            amountFrom = lowerBound(sortedCents, filter.getMinCents());
+            amountTo = Math.max(amountFrom, upperBound(sortedCents, filter.getMaxCents()));
+        }
+
+        //walks the smallest candidate set - the unmerged ids are candidates of either range
+        int[] candidates;
+        int dateMatches = dateTo - dateFrom + pending.size;
+        int amountMatches = amountTo - amountFrom + pending.size;
+        int smallest = Math.min(Math.min(categoryMatches, descriptionMatches), Math.min(dateMatches, amountMatches));
+        if(smallest == categoryMatches) {
+            candidates = collect(allowedCategories, categoryPostings, categoryMatches);
+        }
+        else if(smallest == descriptionMatches) {
+            candidates = collect(allowedDescriptions, descriptionPostings, descriptionMatches);
+        }
+        else if(smallest == dateMatches) {
+            candidates = Arrays.copyOfRange(dateOrder, dateFrom, dateFrom + dateMatches);
+            System.arraycopy(pending.ids, 0, candidates, dateTo - dateFrom, pending.size);
+        }
+        else {
+            candidates = Arrays.copyOfRange(amountOrder, amountFrom, amountFrom + amountMatches);
+            System.arraycopy(pending.ids, 0, candidates, amountTo - amountFrom, pending.size);
+        }
+        Arrays.sort(candidates);
+
+        //checks the other conditions against the columns, dropping stale and repeated entries
+        int matches = 0;
+        for(int i = 0; i < candidates.length; i++) {
+            int id = candidates[i];
+            if(live[id] && (i == 0 || candidates[i - 1] != id)
+                    && (allowedCategories == null || allowedCategories[categories[id]])
+                    && (allowedDescriptions == null || allowedDescriptions[descriptions[id]])
+                    && days[id] >= filter.getFromDay() && days[id] <= filter.getToDay()
+                    && cents[id] >= filter.getMinCents() && cents[id] <= filter.getMaxCents()) {
+                candidates[matches++] = id;
+            }
+        }
+
+        return matches == candidates.length ? candidates : Arrays.copyOf(candidates, matches);
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Returns the postings list of a category, adding lists for categories not seen before
+     *
+     * @param category - budget category id
+     * @return ids of the category's purchases
+     */
+    private Postings categoryPostings(int category) {
+        while(categoryPostings.size() <= category) {
+            categoryPostings.add(new Postings());
+        }
+
+        return categoryPostings.get(category);
+    }
+
+    /**
+     * Sweeps the stale entries out of every list once they outnumber the live purchases
+     */
+    private void sweepIfStale() {
+        if(staleCount <= liveCount + MERGE_SIZE) {
+            return;
+        }
+
+        for(int category = 0; category < categoryPostings.size(); category++) {
+            Postings list = categoryPostings.get(category);
+            int kept = 0;
+            for(int i = 0; i < list.size; i++) {
+                int id = list.ids[i];
+                //a purchase moved back to a category it was in before is listed twice
+                if(live[id] && categories[id] == category && (kept == 0 || list.ids[kept - 1] != id)) {
+                    list.ids[kept++] = id;
+                }
+            }
+            list.size = kept;
+        }
+        for(Postings list: descriptionPostings) {
+            list.size = keepLive(list.ids, list.size);
+        }
+
+        merge();
+        staleCount = 0;
+    }
+
+    /**
+     * Merges the ids added since the last merge into the sorted orders, dropping removed purchases from them
+     */
+    private void merge() {
+        int[] added = Arrays.copyOf(pending.ids, pending.size);
+        pending.size = 0;
+
+        dateOrder = mergeOrder(dateOrder, sortedSize, added, days);
+        amountOrder = mergeOrder(amountOrder, sortedSize, added, cents);
+        sortedSize = dateOrder.length;
+
+        sortedDays = new int[sortedSize];
+        sortedCents = new int[sortedSize];
+        for(int i = 0; i < sortedSize; i++) {
+            sortedDays[i] = days[dateOrder[i]];
+            sortedCents[i] = cents[amountOrder[i]];
+        }
+    }
+
+    /**
+     * Merges added ids into an order sorted by key, keeping only live purchases
+     * Equal keys are kept in id order
+     *
+     * @param order - ids sorted by key
+     * @param size - number of ids in the order
+     * @param added - ids to merge in
+     * @param keys - key of each id
+     * @return merged order, exactly as long as the number of ids in it
+     */
+    private int[] mergeOrder(int[] order, int size, int[] added, int[] keys) {
+        long[] packed = new long[added.length];
+        int count = 0;
+        for(int id: added) {
+            if(live[id]) {
+                packed[count++] = ((long) keys[id] << 32) | id;
+            }
+        }
+        Arrays.sort(packed, 0, count);
+
+        int[] merged = new int[size + count];
+        int next = 0;
+        int i = 0;
+        int j = 0;
+
+        while(i < size || j < count) {
+            if(i < size && !live[order[i]]) {
+                i++;
+            }
+            else if(j == count || (i < size && (((long) keys[order[i]] << 32) | order[i]) < packed[j])) {
+                merged[next++] = order[i++];
+            }
+            else {
+                merged[next++] = (int) packed[j++];
+            }
+        }
+
+        return next == merged.length ? merged : Arrays.copyOf(merged, next);
+    }
+
+    /**
+     * Moves the live ids to the front of an array, keeping their order
+     *
+     * @param ids - ids to sweep
+     * @param size - number of ids
+     * @return number of live ids
+     */
+    private int keepLive(int[] ids, int size) {
+        int kept = 0;
+
+        for(int i = 0; i < size; i++) {
+            if(live[ids[i]]) {
+                ids[kept++] = ids[i];
+            }
+        }
+
+        return kept;
+    }
+
+    /**
+     * Returns the ids in the postings lists of every allowed key
+     *
+     * @param allowed - whether each key is allowed
+     * @param postings - postings list of each key
+     * @param count - number of ids in the allowed lists
+     * @return ids of the allowed lists, unsorted
+     */
+    private static int[] collect(boolean[] allowed, ArrayList<Postings> postings, int count) {
+        int[] collected = new int[count];
+        int next = 0;
+
+        for(int key = 0; key < allowed.length; key++) {
+            if(allowed[key]) {
+                Postings list = postings.get(key);
+                System.arraycopy(list.ids, 0, collected, next, list.size);
+                next += list.size;
+            }
+        }
+
+        return collected;
+    }
+
+    /**
+     * Returns the first position whose value is at least the key
+     *
+     * @param values - sorted values
+     * @param key - value to look for
+     * @return position of the first value not below the key
+     */
+    private int lowerBound(int[] values, int key) {
+        int low = 0;
+        int high = sortedSize;
+
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(values[mid] < key) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the first position whose value is above the key
+     *
+     * @param values - sorted values
+     * @param key - value to look for
+     * @return position of the first value above the key
+     */
+    private int upperBound(int[] values, int key) {
+        int low = 0;
+        int high = sortedSize;
+
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(values[mid] <= key) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Growable list of purchase ids
+     */
+    private static class Postings {
+        /**
+         * Ids in the list, in the order they were added
+         */
+        private int[] ids = new int[4];
+
+        /**
+         * Number of ids in the list
+         */
+        private int size = 0;
+
+        /**
+         * Appends an id
+         *
+         * @param id - purchase id
+         */
+        void add(int id) {
+            if(size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package net.hesterberg.budget.budget;
+
+import net.hesterberg.budget.Date;
+import net.hesterberg.budget.transaction.Transaction;
+import net.hesterberg.budget.utility.CategoryException;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Adds purchases to a budget from several threads at once, such as the threads of an import
+ * Each thread appends to its own PurchaseBatch without taking any lock, and a full batch is added to the budget with
+ * Budget.addPurchases while holding the budget's lock, so the lock is taken once per batch rather than per purchase
+ * Categories are checked against a ConcurrentHashMap of the budget's categories, so a purchase in a missing category
+ * is rejected straight away by the thread that added it
+ * Each purchase is added to the budget's amounts spent and purchase counts by the thread that added it, without a
+ * lock, so the totals stay current while batches are still filling and can be read without waiting for a merge
+ *
+ * The budget itself is not thread safe - while purchases are being ingested, any other thread using the budget must
+ * synchronize on it
+ * A category must not be removed from the budget while purchases in it are being ingested - if it is, the batch
+ * holding its purchases is rejected by flush or by the addPurchase that filled it, and every purchase of that batch
+ * is taken back out of the totals
+ * Budget.removeCategory takes the budget's lock, so it waits for a batch being added and never runs during one
+ * Purchases from different threads are added in the order their batches fill, so the row order is not fixed, but
+ * every total is exact once flush has been called
+ *
+ * @author Nikolai Hesterberg
+ */
+public class PurchaseIngest {
+    /**
+     * Number of purchases a thread gathers before adding them to the budget
+     */
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    /**
+     * Budget the purchases are added to
+     */
+    private final Budget budget;
+
+    /**
+     * Number of purchases a thread gathers before adding them to the budget
+     */
+    private final int batchSize;
+
+    /**
+     * Ids of the categories known to exist in the budget
+     */
+    private final ConcurrentHashMap<String, Integer> categories;
+
+    /**
+     * Amounts spent and purchase counts of the budget
+     */
+    private final SpendCounters spending;
+
+    /**
+     * Batch of purchases being gathered by each thread
+     */
+    private final ThreadLocal<Buffer> buffers;
+
+    /**
+     * Every thread's buffer, so flush can add the purchases left in them
+     */
+    private final ConcurrentLinkedQueue<Buffer> allBuffers;
+
+    /**
+     * Builds an ingest that adds purchases to the budget in batches of DEFAULT_BATCH_SIZE
+     *
+     * @param budget - budget to add the purchases to
+     */
+    public PurchaseIngest(Budget budget) {
+        this(budget, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Builds an ingest that adds purchases to the budget in batches of the given size
+     *
+     * @param budget - budget to add the purchases to
+     * @param batchSize - number of purchases a thread gathers before adding them
+     */
+    public PurchaseIngest(Budget budget, int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+
+        this.budget = budget;
+        this.batchSize = batchSize;
+        this.categories = new ConcurrentHashMap<String, Integer>();
+        this.allBuffers = new ConcurrentLinkedQueue<Buffer>();
+        this.buffers = ThreadLocal.withInitial(() -> {
+            Buffer buffer = new Buffer();
+            allBuffers.add(buffer);
+            return buffer;
+        });
+
+        synchronized(budget) {
+            this.spending = budget.getSpending();
+            for(String category: budget.getBudget().keySet()) {
+                categories.put(category, budget.getCategoryId(category));
+            }
+        }
+    }
+
+    /**
+     * Adds a purchase from the calling thread
+     * Throws a Category Exception if the category doesn't currently exist in the budget
+     *
+     * @param purchase - purchase to add
+     * @throws CategoryException if category doesn't exist in the budget
+     */
+    public void addPurchase(Transaction purchase) throws CategoryException {
+        addPurchase(purchase.getDate(), purchase.getDescription(), purchase.getPrice(), purchase.getCategory());
+    }
+
+    /**
+     * Adds a purchase from the calling thread
+     * The purchase is counted in the budget's totals straight away, and reaches the purchase store when the thread's
+     * batch is full, or when flush is called
+     * Throws a Category Exception if the category doesn't currently exist in the budget
+     *
+     * @param date - date of the purchase
+     * @param description - description of the purchase
+     * @param price - price of the purchase in cents
+     * @param category - category of the purchase
+     * @throws CategoryException if category doesn't exist in the budget
+     */
+    public void addPurchase(Date date, String description, int price, String category) throws CategoryException {
+        spending.add(categoryId(category), price, 1);
+
+        Buffer buffer = buffers.get();
+        buffer.batch.visit(date.toEpochDay(), description, price, category);
+        if(buffer.batch.size() >= batchSize) {
+            PurchaseBatch full = buffer.batch;
+            buffer.batch = new PurchaseBatch();
+            merge(full);
+        }
+    }
+
+    /**
+     * Adds the purchases still waiting in every thread's batch to the budget
+     * Must only be called once the threads adding purchases have finished, for example after joining them
+     *
+     * @throws CategoryException if a category was removed from the budget while its purchases were waiting
+     */
+    public void flush() throws CategoryException {
+        for(Buffer buffer: allBuffers) {
+            if(buffer.batch.size() > 0) {
+                PurchaseBatch rest = buffer.batch;
+                buffer.batch = new PurchaseBatch();
+                merge(rest);
+            }
+        }
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Returns the id of a category, asking the budget only for categories not seen before
+     *
+     * @param category - category to look up
+     * @return category id
+     * @throws CategoryException if category doesn't exist in the budget
+     */
+    private int categoryId(String category) throws CategoryException {
+        Integer id = categories.get(category);
+        if(id != null) {
+            return id;
+        }
+
+        int found;
+        synchronized(budget) {
+            found = budget.getCategoryId(category);
+        }
+        if(found == -1) {
+            throw new CategoryException(category + " does not currently exist in the budget!");
+        }
+        categories.put(category, found);
+        return found;
+    }
+
+    /**
+     * Adds a batch to the budget while holding its lock, without counting the purchases again
+     * If the batch can't be added, none of its purchases reach the store, so they are taken back out of the amounts
+     * spent and purchase counts before the exception is thrown
+     * Purchases in a category removed from the budget are skipped, as removing it already cleared its counters
+     *
+     * @param batch - purchases to add
+     * @throws CategoryException if a category in the batch doesn't exist in the budget
+     */
+    private void merge(PurchaseBatch batch) throws CategoryException {
+        synchronized(budget) {
+            try {
+                budget.addPurchases(batch, false);
+            } catch (CategoryException ce) {
+                uncount(batch);
+                throw ce;
+            }
+        }
+    }
+
+    /**
+     * Removes the purchases of a batch that wasn't added from the amounts spent and purchase counts
+     * Must be called while holding the budget's lock
+     *
+     * @param batch - purchases that didn't reach the budget
+     */
+    private void uncount(PurchaseBatch batch) {
+        List<String> batchCategories = batch.getCategories();
+        int[] ids = new int[batchCategories.size()];
+
+        for(int i = 0; i < ids.length; i++) {
+            ids[i] = budget.getCategoryId(batchCategories.get(i));
+            if(ids[i] == -1) {
+                categories.remove(batchCategories.get(i));
+            }
+        }
+
+        for(int row = 0; row < batch.size(); row++) {
+            int id = ids[batch.getCategory(row)];
+            if(id != -1) {
+                spending.add(id, -batch.getCents(row), -1);
+            }
+        }
+    }
+
+    /**
+     * Batch being gathered by one thread
+     */
+    private static class Buffer {
+        /**
+         * Purchases gathered since the thread's last batch was added
+         */
+        PurchaseBatch batch = new PurchaseBatch();
+    }
+}
@@ -0,0 +1,329 @@
+package net.hesterberg.budget.budget;
+
+import java.util.Arrays;
+
+/**
+ * Cached order of the purchases of a budget sorted by one field, with ties kept in id order
+ * Built from scratch with a radix sort of primitive keys, then kept up to date as purchases are added and removed
+ * Holds stable purchase ids rather than rows, so the order stays valid when the purchases are renumbered
+ * Splits the order into blocks of at most 2 * BLOCK_SIZE ids, so a purchase is placed or taken out with two binary
+ * searches and a copy within one block, and never has to shift the whole order
+ * Keeps the primitive key of every purchase, such as its epoch day or category id, so placing a purchase only
+ * compares keys and never has to look at the purchases
+ *
+ * @author Nikolai Hesterberg
+ */
+class PurchaseOrder {
+    /**
+     * Number of ids a block is filled with when the order is built, and half the most a block holds
+     */
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+     * Blocks of ids in sorted order
+     */
+    private int[][] blocks;
+
+    /**
+     * Number of ids in each block
+     */
+    private int[] blockSizes;
+
+    /**
+     * Number of blocks in use
+     */
+    private int blockCount;
+
+    /**
+     * Position in the order of the first id of each block, or null if a block changed size since it was counted
+     */
+    private int[] blockStarts;
+
+    /**
+     * Key of each purchase, indexed by id
+     */
+    private int[] keys;
+
+    /**
+     * Number of ids in the order
+     */
+    private int size;
+
+    /**
+     * Compares two keys in the order the purchases are sorted
+     */
+    private final KeyComparator comparator;
+
+    /**
+     * Sorts the purchases by their keys
+     * Keys that are ids of names sort by the rank of each name rather than by the key itself, since ids are handed
+     * out in the order names are first seen
+     *
+     * @param ids - ids of the purchases, in increasing order
+     * @param sortKeys - key to sort each id of ids by, agreeing with the comparator
+     * @param size - number of purchases
+     * @param keys - key of each purchase, indexed by id
+     * @param comparator - compares two keys
+     */
+    PurchaseOrder(int[] ids, int[] sortKeys, int size, int[] keys, KeyComparator comparator) {
+        int[] sorted = radixSort(ids, sortKeys, size);
+
+        this.blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.blocks = new int[Math.max(1, blockCount)][];
+        this.blockSizes = new int[blocks.length];
+        for(int block = 0; block < blockCount; block++) {
+            int from = block * BLOCK_SIZE;
+            blockSizes[block] = Math.min(BLOCK_SIZE, size - from);
+            blocks[block] = Arrays.copyOfRange(sorted, from, from + 2 * BLOCK_SIZE);
+        }
+        this.blockStarts = null;
+        this.keys = keys;
+        this.size = size;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Returns the number of purchases
+     *
+     * @return number of purchases
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the id at a position of the order
+     *
+     * @param position - position in the order
+     * @return id of the purchase at the position
+     */
+    int get(int position) {
+        if(blockStarts == null) {
+            blockStarts = new int[blockCount];
+            for(int block = 1; block < blockCount; block++) {
+                blockStarts[block] = blockStarts[block - 1] + blockSizes[block - 1];
+            }
+        }
+
+        int block = Arrays.binarySearch(blockStarts, 0, blockCount, position);
+        if(block < 0) {
+            block = -block - 2;
+        }
+        //empty blocks share their start with the next block
+        while(position - blockStarts[block] >= blockSizes[block]) {
+            block++;
+        }
+
+        return blocks[block][position - blockStarts[block]];
+    }
+
+    /**
+     * Places a purchase that isn't in the order yet
+     *
+     * @param id - id of the purchase
+     * @param key - key of the purchase
+     */
+    void insert(int id, int key) {
+        if(id >= keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(16, Math.max(id + 1, keys.length + (keys.length >> 1))));
+        }
+        keys[id] = key;
+
+        if(blockCount == 0) {
+            blocks[0] = new int[2 * BLOCK_SIZE];
+            blockCount = 1;
+        }
+
+        //the first block whose last id sorts after the new one, or the last block
+        int low = 0;
+        int high = blockCount - 1;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(blockSizes[mid] > 0 && compare(blocks[mid][blockSizes[mid] - 1], id) > 0) {
+                high = mid;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+
+        int block = low;
+        if(blockSizes[block] == blocks[block].length) {
+            split(block);
+            if(compare(blocks[block][blockSizes[block] - 1], id) < 0) {
+                block++;
+            }
+        }
+
+        int[] ids = blocks[block];
+        int position = search(ids, blockSizes[block], id);
+        position = -position - 1;
+        System.arraycopy(ids, position, ids, position + 1, blockSizes[block] - position);
+        ids[position] = id;
+        blockSizes[block]++;
+        blockStarts = null;
+        size++;
+    }
+
+    /**
+     * Takes a purchase out of the order
+     *
+     * @param id - id of the purchase, which must be in the order with its key unchanged
+     */
+    void remove(int id) {
+        if(size == 0) {
+            return;
+        }
+
+        //the first block whose last id doesn't sort before the removed one
+        int low = 0;
+        int high = blockCount - 1;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(blockSizes[mid] > 0 && compare(blocks[mid][blockSizes[mid] - 1], id) >= 0) {
+                high = mid;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+
+        int[] ids = blocks[low];
+        int position = search(ids, blockSizes[low], id);
+        if(position < 0) {
+            return;
+        }
+
+        System.arraycopy(ids, position + 1, ids, position, blockSizes[low] - position - 1);
+        blockSizes[low]--;
+        if(blockSizes[low] == 0 && blockCount > 1) {
+            System.arraycopy(blocks, low + 1, blocks, low, blockCount - low - 1);
+            System.arraycopy(blockSizes, low + 1, blockSizes, low, blockCount - low - 1);
+            blockCount--;
+            blocks[blockCount] = null;
+            blockSizes[blockCount] = 0;
+        }
+        blockStarts = null;
+        size--;
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Compares two purchases in the order, by key and then by id
+     *
+     * @param a - id of the first purchase
+     * @param b - id of the second purchase
+     * @return negative, zero or positive as the first purchase sorts before, with or after the second
+     */
+    private int compare(int a, int b) {
+        int byKey = comparator.compare(keys[a], keys[b]);
+        return byKey != 0 ? byKey : Integer.compare(a, b);
+    }
+
+    /**
+     * Binary searches a block for a purchase
+     *
+     * @param ids - ids of the block
+     * @param count - number of ids in the block
+     * @param id - id to look for
+     * @return position of the id, or -(insertion point) - 1 if it isn't in the block
+     */
+    private int search(int[] ids, int count, int id) {
+        int low = 0;
+        int high = count;
+
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            int compared = compare(ids[mid], id);
+            if(compared == 0) {
+                return mid;
+            }
+            if(compared < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+
+        return -low - 1;
+    }
+
+    /**
+     * Splits a full block into two halves
+     *
+     * @param block - block to split
+     */
+    private void split(int block) {
+        if(blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+            blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+        }
+        System.arraycopy(blocks, block + 1, blocks, block + 2, blockCount - block - 1);
+        System.arraycopy(blockSizes, block + 1, blockSizes, block + 2, blockCount - block - 1);
+        blockCount++;
+
+        int[] ids = blocks[block];
+        blocks[block + 1] = new int[ids.length];
+        System.arraycopy(ids, BLOCK_SIZE, blocks[block + 1], 0, ids.length - BLOCK_SIZE);
+        blockSizes[block + 1] = ids.length - BLOCK_SIZE;
+        blockSizes[block] = BLOCK_SIZE;
+    }
+
+    /**
+     * Sorts the ids by key with a stable two pass radix sort of 16 bits at a time
+     *
+     * @param ids - ids to sort, in increasing order
+     * @param sortKeys - sort key of each id of ids
+     * @param size - number of ids
+     * @return ids in key order, ties in id order
+     */
+    private static int[] radixSort(int[] ids, int[] sortKeys, int size) {
+        int[] positions = new int[size];
+        int[] sorted = new int[size];
+        int[] counts = new int[(1 << 16) + 1];
+
+        //the low half first, then the high half with the sign bit flipped so negative keys come first
+        for(int i = 0; i < size; i++) {
+            counts[(sortKeys[i] & 0xFFFF) + 1]++;
+        }
+        for(int i = 1; i < counts.length; i++) {
+            counts[i] += counts[i - 1];
+        }
+        for(int i = 0; i < size; i++) {
+            sorted[counts[sortKeys[i] & 0xFFFF]++] = i;
+        }
+
+        Arrays.fill(counts, 0);
+        for(int i = 0; i < size; i++) {
+            counts[((sortKeys[i] >>> 16) ^ 0x8000) + 1]++;
+        }
+        for(int i = 1; i < counts.length; i++) {
+            counts[i] += counts[i - 1];
+        }
+        for(int i = 0; i < size; i++) {
+            int index = sorted[i];
+            positions[counts[(sortKeys[index] >>> 16) ^ 0x8000]++] = index;
+        }
+
+        for(int i = 0; i < size; i++) {
+            sorted[i] = ids[positions[i]];
+        }
+
+        return sorted;
+    }
+
+    /**
+     * Compares two keys by the sort field
+     */
+    interface KeyComparator {
+        /**
+         * Compares the sort fields of two purchases by their keys
+         *
+         * @param a - key of the first purchase
+         * @param b - key of the second purchase
+         * @return negative, zero or positive as the first purchase's field sorts before, with or after the second's
+         */
+        int compare(int a, int b);
+    }
+}
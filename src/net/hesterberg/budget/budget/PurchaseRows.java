@@ -0,0 +1,337 @@
+package net.hesterberg.budget.budget;
+
+import net.hesterberg.budget.Date;
+import net.hesterberg.budget.transaction.Purchase;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the purchases of a budget by row and by id, over a purchase store and the archived months that haven't been
+ * moved into it
+ * Archived purchases come first, by month, followed by the purchases in the store
+ * Used by the budget over its own store and archive, and by each snapshot over a view of the store and copies of
+ * the archive's month numbering, so rows and ids are worked out the same way for both
+ *
+ * @author Nikolai Hesterberg
+ */
+final class PurchaseRows {
+    /**
+     * Purchase store holding the purchases not in the archive
+     */
+    private final PurchaseStore purchases;
+
+    /**
+     * Category name of each category id of the store
+     */
+    private final List<String> categoryNames;
+
+    /**
+     * Months of purchases that aren't in the store, or null if there are none
+     */
+    private final PurchaseArchive archive;
+
+    /**
+     * Decoded archived months that have been looked at, or null if there is no archive
+     */
+    private final ArrayList<SoftReference<PurchaseBatch>> archiveCache;
+
+    /**
+     * Whether each archived month has been moved into the store, or null if there is no archive
+     */
+    private final boolean[] archiveLoaded;
+
+    /**
+     * Row number of the first purchase of each archived month, with the number of archived purchases last
+     */
+    private final int[] archiveRows;
+
+    /**
+     * First purchase id of each archived month, with the first id after the archive last
+     */
+    private final int[] archiveIds;
+
+    /**
+     * Builds a reader over a store and an archive
+     * The arrays are read as they are when each method is called, so a budget can keep changing them in place
+     *
+     * @param purchases - purchase store
+     * @param categoryNames - category name of each category id
+     * @param archive - archive, or null
+     * @param archiveCache - decoded archived months, or null
+     * @param archiveLoaded - whether each archived month was moved into the store, or null
+     * @param archiveRows - first row of each archived month, or null
+     * @param archiveIds - first purchase id of each archived month, or null
+     */
+    PurchaseRows(PurchaseStore purchases, List<String> categoryNames, PurchaseArchive archive,
+                 ArrayList<SoftReference<PurchaseBatch>> archiveCache, boolean[] archiveLoaded, int[] archiveRows,
+                 int[] archiveIds) {
+        this.purchases = purchases;
+        this.categoryNames = categoryNames;
+        this.archive = archive;
+        this.archiveCache = archiveCache;
+        this.archiveLoaded = archiveLoaded;
+        this.archiveRows = archiveRows;
+        this.archiveIds = archiveIds;
+    }
+
+    /**
+     * Returns the number of purchases
+     *
+     * @return number of purchases
+     */
+    int getPurchaseCount() {
+        return getArchivedPurchaseCount() + purchases.size();
+    }
+
+    /**
+     * Returns the number of purchases still in the archive, which are numbered before the other purchases
+     *
+     * @return number of archived purchases
+     */
+    int getArchivedPurchaseCount() {
+        return archive == null ? 0 : archiveRows[archiveRows.length - 1];
+    }
+
+    /**
+     * Returns the stable id of the purchase in a row
+     *
+     * @param row - index of the purchase, between 0 and getPurchaseCount() - 1
+     * @return id of the purchase
+     */
+    int getPurchaseId(int row) {
+        int archived = getArchivedPurchaseCount();
+
+        if(row < archived) {
+            int month = archivedMonthOfRow(row);
+            return archiveIds[month] + row - archiveRows[month];
+        }
+
+        return purchases.getId(purchases.slotAt(row - archived));
+    }
+
+    /**
+     * Returns the row the purchase with the id is in
+     *
+     * @param id - id of the purchase
+     * @return row of the purchase, or -1 if there is no purchase with the id
+     */
+    int getPurchaseRow(int id) {
+        int month = archivedMonthOfId(id);
+
+        if(month != -1) {
+            return archiveRows[month] + id - archiveIds[month];
+        }
+
+        int slot = purchases.slotOf(id);
+        return slot == -1 ? -1 : getArchivedPurchaseCount() + purchases.rowOf(slot);
+    }
+
+    /**
+     * Builds a Purchase view of a purchase
+     *
+     * @param row - index of the purchase, between 0 and getPurchaseCount() - 1
+     * @return purchase holding the stored values
+     */
+    Purchase getPurchase(int row) {
+        int archived = getArchivedPurchaseCount();
+
+        if(row < archived) {
+            int month = archivedMonthOfRow(row);
+            PurchaseBatch batch = archivedMonth(month);
+            row -= archiveRows[month];
+
+            return new Purchase(Date.ofEpochDay(batch.getDay(row)),
+                    batch.getDescriptionNames().get(batch.getDescription(row)), batch.getCents(row),
+                    batch.getCategories().get(batch.getCategory(row)), false);
+        }
+
+        int slot = purchases.slotAt(row - archived);
+        return new Purchase(Date.ofEpochDay(purchases.getDay(slot)), purchases.getDescription(slot),
+                purchases.getCents(slot), categoryNames.get(purchases.getCategory(slot)), false);
+    }
+
+    /**
+     * Returns the category of the purchase in a row without building a Purchase
+     *
+     * @param row - index of the purchase, between 0 and getPurchaseCount() - 1
+     * @return category of the purchase
+     */
+    String getCategory(int row) {
+        int archived = getArchivedPurchaseCount();
+
+        if(row < archived) {
+            int month = archivedMonthOfRow(row);
+            PurchaseBatch batch = archivedMonth(month);
+            return batch.getCategories().get(batch.getCategory(row - archiveRows[month]));
+        }
+
+        return categoryNames.get(purchases.getCategory(purchases.slotAt(row - archived)));
+    }
+
+    /**
+     * Calls the visitor once for every purchase, in row order, without building Purchase or Date objects
+     *
+     * @param visitor - visitor to call for each purchase
+     */
+    void forEachPurchase(PurchaseVisitor visitor) {
+        forEachPurchase((id, day, description, price, category) -> visitor.visit(day, description, price, category));
+    }
+
+    /**
+     * Calls the visitor once for every purchase, in row order, along with the id of each purchase
+     *
+     * @param visitor - visitor to call for each purchase
+     */
+    void forEachPurchase(IdVisitor visitor) {
+        for(int month = 0; archive != null && month < archiveLoaded.length; month++) {
+            if(!archiveLoaded[month]) {
+                PurchaseBatch batch = archivedMonth(month);
+                List<String> descriptions = batch.getDescriptionNames();
+                List<String> categories = batch.getCategories();
+
+                for(int row = 0; row < batch.size(); row++) {
+                    visitor.visit(archiveIds[month] + row, batch.getDay(row),
+                            descriptions.get(batch.getDescription(row)), batch.getCents(row),
+                            categories.get(batch.getCategory(row)));
+                }
+            }
+        }
+
+        for(int slot = 0; slot < purchases.slotCount(); slot++) {
+            if(purchases.isLive(slot)) {
+                visitor.visit(purchases.getId(slot), purchases.getDay(slot), purchases.getDescription(slot),
+                        purchases.getCents(slot), categoryNames.get(purchases.getCategory(slot)));
+            }
+        }
+    }
+
+    /**
+     * Returns the purchase store read by the rows after the archived ones
+     *
+     * @return purchase store
+     */
+    PurchaseStore getStore() {
+        return purchases;
+    }
+
+    /**
+     * Returns the number of months in the archive
+     *
+     * @return number of archived months, 0 if there is no archive
+     */
+    int getArchivedMonthCount() {
+        return archive == null ? 0 : archiveLoaded.length;
+    }
+
+    /**
+     * Returns whether an archived month has been moved into the purchase store
+     *
+     * @param month - number of the month in the archive
+     * @return true if the month's purchases are in the store
+     */
+    boolean isArchivedMonthLoaded(int month) {
+        return archiveLoaded[month];
+    }
+
+    /**
+     * Returns the first purchase id of an archived month
+     *
+     * @param month - number of the month in the archive, or the month count for the first id after the archive
+     * @return first purchase id of the month
+     */
+    int getArchivedMonthFirstId(int month) {
+        return archiveIds[month];
+    }
+
+    /**
+     * Returns the archived month holding the purchase with an id, if the month hasn't been moved into the store
+     *
+     * @param id - id of the purchase
+     * @return number of the month in the archive, or -1 if the purchase isn't in an archived month
+     */
+    int archivedMonthOfId(int id) {
+        if(archive == null || id < archiveIds[0] || id >= archiveIds[archiveIds.length - 1]) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = archiveLoaded.length - 1;
+
+        //finds the last month whose ids start at or before the id
+        while(low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if(archiveIds[middle] <= id) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+
+        return archiveLoaded[low] ? -1 : low;
+    }
+
+    /**
+     * Returns the decoded purchases of an archived month, decoding them if they aren't cached
+     * Locked on the cache because it is shared with the snapshots and forks, which may read it from other threads
+     *
+     * @param month - number of the month in the archive
+     * @return purchases of the month
+     */
+    PurchaseBatch archivedMonth(int month) {
+        synchronized(archiveCache) {
+            SoftReference<PurchaseBatch> cached = archiveCache.get(month);
+            PurchaseBatch batch = cached == null ? null : cached.get();
+
+            if(batch == null) {
+                batch = archive.readMonth(month);
+                archiveCache.set(month, new SoftReference<PurchaseBatch>(batch));
+            }
+
+            return batch;
+        }
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Returns the archived month holding an archived row
+     *
+     * @param row - row number, less than getArchivedPurchaseCount()
+     * @return number of the month in the archive
+     */
+    private int archivedMonthOfRow(int row) {
+        int low = 0;
+        int high = archiveLoaded.length - 1;
+
+        //finds the last month starting at or before the row - months moved into the store hold no rows
+        while(low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if(archiveRows[middle] <= row) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Callback used to walk the purchases along with their ids
+     */
+    interface IdVisitor {
+        /**
+         * Called once for each purchase
+         *
+         * @param id - id of the purchase
+         * @param epochDay - date of the purchase as days since 1-Jan-1970
+         * @param description - description of the purchase
+         * @param price - price of the purchase in cents
+         * @param category - category of the purchase
+         */
+        void visit(int id, int epochDay, String description, int price, String category);
+    }
+}
@@ -0,0 +1,18 @@
+package net.hesterberg.budget.budget;
+
+/**
+ * Fields the purchases of a budget can be sorted by
+ * Purchases with equal fields stay in the order they were added
+ *
+ * @author Nikolai Hesterberg
+ */
+public enum PurchaseSort {
+    /** Earliest purchase first */
+    DATE,
+    /** Cheapest purchase first */
+    AMOUNT,
+    /** Alphabetical by category name */
+    CATEGORY,
+    /** Alphabetical by description */
+    DESCRIPTION
+}
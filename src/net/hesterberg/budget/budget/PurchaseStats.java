@@ -0,0 +1,100 @@
+package net.hesterberg.budget.budget;
+
+/**
+ * Snapshot of the statistics of one category or of the whole budget
+ * Built from running totals the budget keeps as purchases are added and removed, so building one doesn't look at
+ * any purchases
+ * All monetary amounts are in CENTS
+ *
+ * @author Nikolai Hesterberg
+ */
+public final class PurchaseStats {
+    /**
+     * Amount budgeted
+     */
+    private final long budget;
+
+    /**
+     * Amount spent
+     */
+    private final long spent;
+
+    /**
+     * Number of purchases
+     */
+    private final long count;
+
+    /**
+     * Cost of the largest purchase, or 0 if there are none
+     */
+    private final int largest;
+
+    /**
+     * Builds a snapshot
+     *
+     * @param budget - amount budgeted
+     * @param spent - amount spent
+     * @param count - number of purchases
+     * @param largest - cost of the largest purchase, or 0 if there are none
+     */
+    PurchaseStats(long budget, long spent, long count, int largest) {
+        this.budget = budget;
+        this.spent = spent;
+        this.count = count;
+        this.largest = largest;
+    }
+
+    /**
+     * Returns the amount budgeted
+     *
+     * @return budget in cents
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the amount spent
+     *
+     * @return spent in cents
+     */
+    public long getSpent() {
+        return spent;
+    }
+
+    /**
+     * Returns the amount left to spend, which is negative once the budget is overspent
+     *
+     * @return budget minus spent in cents
+     */
+    public long getRemaining() {
+        return budget - spent;
+    }
+
+    /**
+     * Returns the number of purchases
+     *
+     * @return number of purchases
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean cost of a purchase
+     *
+     * @return mean in cents, or 0 if there are no purchases
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) spent / count;
+    }
+
+    /**
+     * Returns the cost of the largest purchase
+     *
+     * @return largest cost in cents, or 0 if there are no purchases
+     */
+    public int getLargest() {
+        return largest;
+    }
+}
@@ -0,0 +1,759 @@
+package net.hesterberg.budget.budget;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Columnar storage for the purchases in a budget
+ * Each purchase is a row spread across parallel int columns for the epoch day, cost in cents, category id and
+ * description id, so a row costs 16 bytes instead of a Purchase, Date and list slot
+ * Descriptions are dictionary encoded - each distinct description String is stored once and referenced by id
+ * Category ids are assigned by the owning budget
+ *
+ * Every purchase has a stable id that never changes or gets reused, and is kept in a slot of the columns found
+ * through an id to slot table
+ * Removing a purchase only leaves a tombstone in its slot, and the tombstones are swept out once they fill half of
+ * the slots, so a removal costs O(log n) plus an O(1) share of the sweep
+ * While there are tombstones each segment with any keeps a Fenwick tree counting them, so rows - the live slots
+ * numbered in order - are turned into slots and back in O(n / SEGMENT_SIZE + log SEGMENT_SIZE)
+ *
+ * The columns are split into segments of SEGMENT_SIZE rows, which can be shared between stores
+ * view() and fork() hand out a store sharing every segment, and a store copies a shared segment the first time it
+ * writes to it, so a copy only costs memory for the segments that change afterwards
+ *
+ * @author Nikolai Hesterberg
+ */
+class PurchaseStore {
+    /**
+     * Number of rows in a segment, as a power of two
+     */
+    static final int SEGMENT_SHIFT = 12;
+
+    /**
+     * Number of rows in a segment
+     */
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+    /**
+     * Mask giving the position of a row in its segment
+     */
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * Starting capacity of the columns
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Number of slots used, counting tombstones
+     */
+    private int used;
+
+    /**
+     * Number of tombstones
+     */
+    private int dead;
+
+    /**
+     * Epoch day of each purchase
+     */
+    private Column days;
+
+    /**
+     * Cost of each purchase in cents
+     */
+    private Column cents;
+
+    /**
+     * Category id of each purchase
+     */
+    private Column categories;
+
+    /**
+     * Description id of each purchase
+     */
+    private Column descriptions;
+
+    /**
+     * Purchase id of each slot, or -1 for a tombstone
+     */
+    private Column ids;
+
+    /**
+     * Slot of each purchase id, or -1 if the purchase isn't in the store
+     */
+    private Column slots;
+
+    /**
+     * Next purchase id to hand out
+     */
+    private int nextId;
+
+    /**
+     * Fenwick tree counting the tombstones in each range of slots of a segment, indexed from 1, or null for a
+     * segment with none
+     */
+    private int[][] deadTrees;
+
+    /**
+     * Whether each segment's tombstone tree is shared with another store
+     */
+    private boolean[] deadShared;
+
+    /**
+     * Number of tombstones in each segment
+     */
+    private int[] segmentDead;
+
+    /**
+     * Dictionary of descriptions, indexed by description id
+     * Only ever appended to, so a view can share it
+     */
+    private String[] descriptionNames;
+
+    /**
+     * Number of descriptions in the dictionary
+     */
+    private int descriptionCount;
+
+    /**
+     * Reverse lookup from description to description id
+     */
+    private HashMap<String, Integer> descriptionIds;
+
+    /**
+     * Whether the dictionary is shared with a fork, which would add different descriptions under the same ids
+     */
+    private boolean descriptionsShared;
+
+    /**
+     * Builds an empty store
+     */
+    PurchaseStore() {
+        this.used = 0;
+        this.dead = 0;
+        this.days = new Column(INITIAL_CAPACITY);
+        this.cents = new Column(INITIAL_CAPACITY);
+        this.categories = new Column(INITIAL_CAPACITY);
+        this.descriptions = new Column(INITIAL_CAPACITY);
+        this.ids = new Column(INITIAL_CAPACITY);
+        this.slots = new Column(INITIAL_CAPACITY);
+        this.nextId = 0;
+        this.deadTrees = new int[1][];
+        this.deadShared = new boolean[1];
+        this.segmentDead = new int[1];
+        this.descriptionNames = new String[INITIAL_CAPACITY];
+        this.descriptionCount = 0;
+        this.descriptionIds = new HashMap<String, Integer>();
+        this.descriptionsShared = false;
+    }
+
+    /**
+     * Builds a store sharing every segment of another store, marking them shared in both
+     *
+     * @param source - store to share
+     * @param fork - true if the new store will be changed, so the dictionary has to be shared too
+     */
+    private PurchaseStore(PurchaseStore source, boolean fork) {
+        this.used = source.used;
+        this.dead = source.dead;
+        this.days = source.days.share();
+        this.cents = source.cents.share();
+        this.categories = source.categories.share();
+        this.descriptions = source.descriptions.share();
+        this.ids = source.ids.share();
+        this.slots = source.slots.share();
+        this.nextId = source.nextId;
+        Arrays.fill(source.deadShared, true);
+        this.deadTrees = source.deadTrees.clone();
+        this.deadShared = source.deadShared.clone();
+        this.segmentDead = source.segmentDead.clone();
+        this.descriptionNames = source.descriptionNames;
+        this.descriptionCount = source.descriptionCount;
+        this.descriptionIds = source.descriptionIds;
+        if(fork) {
+            source.descriptionsShared = true;
+            this.descriptionsShared = true;
+        }
+    }
+
+    /**
+     * Returns the number of purchases in the store
+     *
+     * @return number of rows
+     */
+    int size() {
+        return used - dead;
+    }
+
+    /**
+     * Returns the number of slots, counting tombstones - slots run from 0 to slotCount() - 1
+     *
+     * @return number of slots
+     */
+    int slotCount() {
+        return used;
+    }
+
+    /**
+     * Returns the number of ids handed out - ids run from 0 to idCount() - 1
+     *
+     * @return number of ids
+     */
+    int idCount() {
+        return nextId;
+    }
+
+    /**
+     * Appends a purchase to the end of the store under a new id
+     *
+     * @param day - epoch day of the purchase
+     * @param cost - cost of the purchase in cents
+     * @param category - category id of the purchase
+     * @param description - description id of the purchase
+     * @return id of the purchase
+     */
+    int add(int day, int cost, int category, int description) {
+        return add(reserveIds(1), day, cost, category, description);
+    }
+
+    /**
+     * Appends a purchase to the end of the store under an id handed out by reserveIds
+     *
+     * @param id - id of the purchase, which must not be in the store
+     * @param day - epoch day of the purchase
+     * @param cost - cost of the purchase in cents
+     * @param category - category id of the purchase
+     * @param description - description id of the purchase
+     * @return id of the purchase
+     */
+    int add(int id, int day, int cost, int category, int description) {
+        if(used == days.capacity()) {
+            grow(used + 1);
+        }
+
+        //a segment's tombstone tree covers the whole segment, so the new live slot needs no change to it
+        days.set(used, day);
+        cents.set(used, cost);
+        categories.set(used, category);
+        descriptions.set(used, description);
+        ids.set(used, id);
+        slots.set(id, used);
+        used++;
+
+        return id;
+    }
+
+    /**
+     * Hands out a range of new ids for purchases that will be added later
+     *
+     * @param count - number of ids needed
+     * @return first id of the range
+     */
+    int reserveIds(int count) {
+        int first = nextId;
+
+        nextId += count;
+        if(nextId > slots.capacity()) {
+            slots.ensureCapacity(Math.max(nextId, slots.capacity() + (slots.capacity() >> 1)));
+        }
+        for(int id = first; id < nextId; id++) {
+            slots.set(id, -1);
+        }
+
+        return first;
+    }
+
+    /**
+     * Grows the columns once so the given number of rows fit without further copying
+     *
+     * @param capacity - number of rows the store should hold
+     */
+    void ensureCapacity(int capacity) {
+        if(capacity + dead > days.capacity()) {
+            grow(capacity + dead);
+        }
+    }
+
+    /**
+     * Removes the purchase in a slot by leaving a tombstone, sweeping out the tombstones once they fill half the slots
+     * Other slots only change in a sweep, but rows after the slot are numbered one lower straight away
+     *
+     * @param slot - slot to empty
+     */
+    void remove(int slot) {
+        int segment = slot >>> SEGMENT_SHIFT;
+        int[] tree = deadTrees[segment];
+
+        if(tree == null) {
+            tree = new int[SEGMENT_SIZE + 1];
+            deadTrees[segment] = tree;
+            deadShared[segment] = false;
+        }
+        else if(deadShared[segment]) {
+            tree = tree.clone();
+            deadTrees[segment] = tree;
+            deadShared[segment] = false;
+        }
+
+        slots.set(ids.get(slot), -1);
+        ids.set(slot, -1);
+        dead++;
+        segmentDead[segment]++;
+        for(int i = (slot & SEGMENT_MASK) + 1; i <= SEGMENT_SIZE; i += i & -i) {
+            tree[i]++;
+        }
+
+        if(dead > used >> 1) {
+            compact(-1);
+        }
+    }
+
+    /**
+     * Moves the purchase in a slot into another category
+     *
+     * @param slot - slot holding the purchase
+     * @param category - category id to move it to
+     */
+    void setCategory(int slot, int category) {
+        categories.set(slot, category);
+    }
+
+    /**
+     * Removes every row belonging to the category in a single compacting pass
+     *
+     * @param category - category id to remove
+     */
+    void removeCategory(int category) {
+        compact(category);
+    }
+
+    /**
+     * Returns whether a slot holds a purchase rather than a tombstone
+     *
+     * @param slot - slot to check
+     * @return true if the slot holds a purchase
+     */
+    boolean isLive(int slot) {
+        return ids.get(slot) != -1;
+    }
+
+    /**
+     * Returns the slot holding a purchase
+     *
+     * @param id - id of the purchase
+     * @return slot of the purchase, or -1 if it isn't in the store
+     */
+    int slotOf(int id) {
+        return id >= 0 && id < nextId ? slots.get(id) : -1;
+    }
+
+    /**
+     * Returns the slot holding a row
+     *
+     * @param row - row number, between 0 and size() - 1
+     * @return slot of the row
+     */
+    int slotAt(int row) {
+        if(dead == 0) {
+            return row;
+        }
+
+        //skips whole segments, then walks down the segment's tree to the last slot with fewer than row + 1 live
+        //slots up to it
+        int segment = 0;
+        int remaining = row;
+        while(SEGMENT_SIZE - segmentDead[segment] <= remaining) {
+            remaining -= SEGMENT_SIZE - segmentDead[segment];
+            segment++;
+        }
+
+        int[] tree = deadTrees[segment];
+        if(tree == null) {
+            return (segment << SEGMENT_SHIFT) + remaining;
+        }
+
+        int position = 0;
+        remaining++;
+        for(int step = SEGMENT_SIZE; step > 0; step >>= 1) {
+            int next = position + step;
+            if(next <= SEGMENT_SIZE && step - tree[next] < remaining) {
+                position = next;
+                remaining -= step - tree[next];
+            }
+        }
+
+        return (segment << SEGMENT_SHIFT) + position;
+    }
+
+    /**
+     * Returns the row of a live slot
+     *
+     * @param slot - slot holding a purchase
+     * @return row number of the slot
+     */
+    int rowOf(int slot) {
+        if(dead == 0) {
+            return slot;
+        }
+
+        int segment = slot >>> SEGMENT_SHIFT;
+        int before = 0;
+        for(int i = 0; i < segment; i++) {
+            before += segmentDead[i];
+        }
+
+        int[] tree = deadTrees[segment];
+        if(tree != null) {
+            for(int i = slot & SEGMENT_MASK; i > 0; i -= i & -i) {
+                before += tree[i];
+            }
+        }
+
+        return slot - before;
+    }
+
+    /**
+     * Returns the id of the purchase in a slot
+     *
+     * @param slot - slot to read
+     * @return id of the purchase
+     */
+    int getId(int slot) {
+        return ids.get(slot);
+    }
+
+    /**
+     * Returns the epoch day of the slot
+     *
+     * @param slot - slot to read
+     * @return epoch day of the purchase
+     */
+    int getDay(int slot) {
+        return days.get(slot);
+    }
+
+    /**
+     * Returns the cost in cents of the slot
+     *
+     * @param slot - slot to read
+     * @return cost of the purchase in cents
+     */
+    int getCents(int slot) {
+        return cents.get(slot);
+    }
+
+    /**
+     * Returns the category id of the slot
+     *
+     * @param slot - slot to read
+     * @return category id of the purchase
+     */
+    int getCategory(int slot) {
+        return categories.get(slot);
+    }
+
+    /**
+     * Returns the description of the slot
+     *
+     * @param slot - slot to read
+     * @return description of the purchase
+     */
+    String getDescription(int slot) {
+        return descriptionNames[descriptions.get(slot)];
+    }
+
+    /**
+     * Returns the description with a code handed out by encodeDescription
+     *
+     * @param code - description code
+     * @return the description
+     */
+    String getDescriptionName(int code) {
+        return descriptionNames[code];
+    }
+
+    /**
+     * Returns the number of description codes handed out, which run from 0 to getDescriptionCount() - 1
+     *
+     * @return number of distinct descriptions ever stored
+     */
+    int getDescriptionCount() {
+        return descriptionCount;
+    }
+
+    /**
+     * Returns whether a segment of slots has the same purchases, in the same categories, as in another store it
+     * shares segments with
+     * Only compares which arrays the segments are held in, so segments that were copied but not changed count as
+     * different
+     *
+     * @param other - store sharing segments with this one
+     * @param segment - number of the segment
+     * @return true if neither store has changed the segment's ids or categories since they were shared
+     */
+    boolean sharesSegment(PurchaseStore other, int segment) {
+        return ids.sameSegment(other.ids, segment) && categories.sameSegment(other.categories, segment);
+    }
+
+    /**
+     * Returns the id for a description, adding it to the dictionary if it hasn't been seen before
+     *
+     * @param description - description to encode
+     * @return description id
+     */
+    int encodeDescription(String description) {
+        Integer id = descriptionIds.get(description);
+
+        if(id == null) {
+            if(descriptionsShared) {
+                descriptionNames = descriptionNames.clone();
+                descriptionIds = new HashMap<String, Integer>(descriptionIds);
+                descriptionsShared = false;
+            }
+
+            id = descriptionCount;
+            if(id == descriptionNames.length) {
+                descriptionNames = Arrays.copyOf(descriptionNames, id * 2);
+            }
+            descriptionNames[id] = description;
+            descriptionCount++;
+            descriptionIds.put(description, id);
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns the id for a description without adding it to the dictionary
+     *
+     * @param description - description to look up
+     * @return description id, or -1 if no purchase has ever used the description
+     */
+    int lookupDescription(String description) {
+        Integer id = descriptionIds.get(description);
+
+        if(id == null) {
+            return -1;
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns a read only copy of the purchases as they are now, which later changes to the store don't affect
+     * Costs O(n / SEGMENT_SIZE) - the segments are shared until the store next writes to them
+     * The copy must not be changed, and reads the dictionary without locking, so only its getters may be used
+     *
+     * @return read only copy of the store
+     */
+    PurchaseStore view() {
+        return new PurchaseStore(this, false);
+    }
+
+    /**
+     * Returns a copy of the store that can be changed separately, sharing every segment until either store writes
+     * to it
+     * Costs O(n / SEGMENT_SIZE), plus a copy of each segment either store writes to afterwards
+     *
+     * @return copy of the store
+     */
+    PurchaseStore fork() {
+        return new PurchaseStore(this, true);
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Moves the live purchases down over the tombstones, keeping their order, and drops the purchases of a category
+     * Shared segments are copied as they are written, so stores sharing them keep their purchases
+     *
+     * @param category - category id whose purchases are dropped, or -1 to keep every category
+     */
+    private void compact(int category) {
+        int kept = 0;
+
+        for(int slot = 0; slot < used; slot++) {
+            int id = ids.get(slot);
+            if(id == -1) {
+                continue;
+            }
+            if(categories.get(slot) == category) {
+                slots.set(id, -1);
+                continue;
+            }
+
+            if(kept != slot) {
+                days.set(kept, days.get(slot));
+                cents.set(kept, cents.get(slot));
+                categories.set(kept, categories.get(slot));
+                descriptions.set(kept, descriptions.get(slot));
+                ids.set(kept, id);
+                slots.set(id, kept);
+            }
+            kept++;
+        }
+
+        used = kept;
+        dead = 0;
+        deadTrees = new int[deadTrees.length][];
+        deadShared = new boolean[deadTrees.length];
+        segmentDead = new int[deadTrees.length];
+    }
+
+    /**
+     * Grows the columns to hold at least the given number of rows
+     *
+     * @param minCapacity - number of rows needed
+     */
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, days.capacity() + (days.capacity() >> 1));
+
+        days.ensureCapacity(capacity);
+        cents.ensureCapacity(capacity);
+        categories.ensureCapacity(capacity);
+        descriptions.ensureCapacity(capacity);
+        ids.ensureCapacity(capacity);
+
+        int segments = days.segmentCount();
+        if(segments > deadTrees.length) {
+            deadTrees = Arrays.copyOf(deadTrees, segments);
+            deadShared = Arrays.copyOf(deadShared, segments);
+            segmentDead = Arrays.copyOf(segmentDead, segments);
+        }
+    }
+
+    /**
+     * Column of ints split into segments of SEGMENT_SIZE, each of which may be shared with columns of other stores
+     * The first segment starts small and grows until it is full size, so small stores stay small
+     */
+    private static final class Column {
+        /**
+         * Segments of the column
+         */
+        private int[][] segments;
+
+        /**
+         * Whether each segment is shared with another column, and has to be copied before it is written
+         */
+        private boolean[] shared;
+
+        /**
+         * Builds a column with one segment of the given capacity
+         *
+         * @param capacity - starting capacity, at most SEGMENT_SIZE
+         */
+        Column(int capacity) {
+            this.segments = new int[][] {new int[capacity]};
+            this.shared = new boolean[1];
+        }
+
+        /**
+         * Builds a column holding the given segments
+         *
+         * @param segments - segments of the column
+         * @param shared - whether each segment is shared
+         */
+        private Column(int[][] segments, boolean[] shared) {
+            this.segments = segments;
+            this.shared = shared;
+        }
+
+        /**
+         * Returns the value at an index
+         *
+         * @param index - index to read
+         * @return value at the index
+         */
+        int get(int index) {
+            return segments[index >>> SEGMENT_SHIFT][index & SEGMENT_MASK];
+        }
+
+        /**
+         * Sets the value at an index, copying its segment first if it is shared
+         *
+         * @param index - index to write
+         * @param value - value to store
+         */
+        void set(int index, int value) {
+            int segment = index >>> SEGMENT_SHIFT;
+            int[] values = segments[segment];
+
+            if(shared[segment]) {
+                values = values.clone();
+                segments[segment] = values;
+                shared[segment] = false;
+            }
+            values[index & SEGMENT_MASK] = value;
+        }
+
+        /**
+         * Returns the number of values the column can hold
+         *
+         * @return capacity of the column
+         */
+        int capacity() {
+            return segments.length == 1 ? segments[0].length : segments.length << SEGMENT_SHIFT;
+        }
+
+        /**
+         * Returns the number of segments
+         *
+         * @return number of segments
+         */
+        int segmentCount() {
+            return segments.length;
+        }
+
+        /**
+         * Grows the column to hold at least the given number of values
+         *
+         * @param capacity - number of values needed
+         */
+        void ensureCapacity(int capacity) {
+            if(capacity <= capacity()) {
+                return;
+            }
+
+            if(capacity <= SEGMENT_SIZE) {
+                segments[0] = Arrays.copyOf(segments[0], capacity);
+                shared[0] = false;
+                return;
+            }
+
+            if(segments[0].length < SEGMENT_SIZE) {
+                segments[0] = Arrays.copyOf(segments[0], SEGMENT_SIZE);
+                shared[0] = false;
+            }
+
+            int count = (capacity + SEGMENT_MASK) >>> SEGMENT_SHIFT;
+            int old = segments.length;
+            segments = Arrays.copyOf(segments, count);
+            shared = Arrays.copyOf(shared, count);
+            for(int segment = old; segment < count; segment++) {
+                segments[segment] = new int[SEGMENT_SIZE];
+            }
+        }
+
+        /**
+         * Marks every segment shared and returns a column sharing them
+         *
+         * @return column holding the same segments
+         */
+        Column share() {
+            Arrays.fill(shared, true);
+            return new Column(segments.clone(), shared.clone());
+        }
+
+        /**
+         * Returns whether a segment is held in the same array as the other column's segment
+         *
+         * @param other - column to compare with
+         * @param segment - number of the segment
+         * @return true if both columns hold the same array
+         */
+        boolean sameSegment(Column other, int segment) {
+            return segment < segments.length && segment < other.segments.length
+                    && segments[segment] == other.segments[segment];
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package net.hesterberg.budget.budget;
+
+/**
+ * Callback used to walk the purchases stored in a budget without building a Purchase for each one
+ * Used by the file writers and anything else that only needs to read the raw values
+ *
+ * @author Nikolai Hesterberg
+ */
+public interface PurchaseVisitor {
+    /**
+     * Called once for each stored purchase
+     *
+     * @param epochDay - date of the purchase as days since 1-Jan-1970
+     * @param description - description of the purchase
+     * @param price - price of the purchase in cents
+     * @param category - category of the purchase
+     */
+    public void visit(int epochDay, String description, int price, String category);
+}
@@ -0,0 +1,164 @@
+package net.hesterberg.budget.budget;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running amounts spent and purchase counts for each category and overall, as 64 bit cents
+ * Each total is a LongAdder, which spreads updates from several threads over separate cells, so threads adding to
+ * the same busy category don't queue behind each other, and reading a total never blocks a thread adding to it
+ * Safe to add to and read from any thread
+ *
+ * @author Nikolai Hesterberg
+ */
+class SpendCounters {
+    /**
+     * Counters of each category, indexed by category id
+     * Replaced by a longer copy holding the same counters when a new category id is used
+     */
+    private volatile Counter[] categories;
+
+    /**
+     * Amount spent in every category, in cents
+     */
+    private final LongAdder totalSpent;
+
+    /**
+     * Number of purchases in every category
+     */
+    private final LongAdder totalCount;
+
+    /**
+     * Builds counters with nothing spent
+     */
+    SpendCounters() {
+        this.categories = new Counter[0];
+        this.totalSpent = new LongAdder();
+        this.totalCount = new LongAdder();
+    }
+
+    /**
+     * Builds counters starting from the current totals of other counters
+     *
+     * @param other - counters to copy
+     */
+    SpendCounters(SpendCounters other) {
+        this();
+
+        Counter[] current = other.categories;
+        for(int category = current.length - 1; category >= 0; category--) {
+            add(category, current[category].spent.sum(), current[category].count.sum());
+        }
+    }
+
+    /**
+     * Adds to the amount spent and the number of purchases of a category
+     *
+     * @param category - category id
+     * @param cents - amount to add, negative to take away
+     * @param purchases - number of purchases to add, negative to take away
+     */
+    void add(int category, long cents, long purchases) {
+        Counter counter = counter(category);
+
+        counter.spent.add(cents);
+        counter.count.add(purchases);
+        totalSpent.add(cents);
+        totalCount.add(purchases);
+    }
+
+    /**
+     * Takes every amount of a category out of the totals
+     * Only correct when no thread is adding to the category at the same time
+     *
+     * @param category - category id
+     */
+    void clear(int category) {
+        Counter counter = counter(category);
+
+        totalSpent.add(-counter.spent.sumThenReset());
+        totalCount.add(-counter.count.sumThenReset());
+    }
+
+    /**
+     * Returns the amount spent in a category
+     *
+     * @param category - category id
+     * @return amount spent in cents
+     */
+    long getSpent(int category) {
+        Counter[] current = categories;
+        return category < current.length ? current[category].spent.sum() : 0;
+    }
+
+    /**
+     * Returns the number of purchases in a category
+     *
+     * @param category - category id
+     * @return number of purchases
+     */
+    long getCount(int category) {
+        Counter[] current = categories;
+        return category < current.length ? current[category].count.sum() : 0;
+    }
+
+    /**
+     * Returns the amount spent in every category
+     *
+     * @return amount spent in cents
+     */
+    long getTotalSpent() {
+        return totalSpent.sum();
+    }
+
+    /**
+     * Returns the number of purchases in every category
+     *
+     * @return number of purchases
+     */
+    long getTotalCount() {
+        return totalCount.sum();
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Returns the counters of a category, adding counters for any new category ids up to it
+     *
+     * @param category - category id
+     * @return counters of the category
+     */
+    private Counter counter(int category) {
+        Counter[] current = categories;
+
+        if(category >= current.length) {
+            synchronized(this) {
+                current = categories;
+                if(category >= current.length) {
+                    Counter[] grown = Arrays.copyOf(current, Math.max(category + 1, current.length * 2));
+                    for(int i = current.length; i < grown.length; i++) {
+                        grown[i] = new Counter();
+                    }
+                    categories = grown;
+                    current = grown;
+                }
+            }
+        }
+
+        return current[category];
+    }
+
+    /**
+     * Amount spent and number of purchases of one category
+     */
+    private static class Counter {
+        /**
+         * Amount spent in cents
+         */
+        final LongAdder spent = new LongAdder();
+
+        /**
+         * Number of purchases
+         */
+        final LongAdder count = new LongAdder();
+    }
+}
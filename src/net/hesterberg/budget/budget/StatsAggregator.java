@@ -0,0 +1,220 @@
+package net.hesterberg.budget.budget;
+
+import java.util.Arrays;
+
+/**
+ * Running largest purchases for each category and overall, kept up to date in O(1) per change
+ * The largest purchase is kept with the number of purchases that cost that much, so removing one of them only
+ * matters once the last is gone - the largest is then marked stale and the budget works it out again the next time
+ * it is read
+ * Archived purchases are counted from their month totals without their costs, so they also leave the largest stale
+ * The amounts spent and the purchase counts are kept in SpendCounters
+ *
+ * @author Nikolai Hesterberg
+ */
+class StatsAggregator {
+    /**
+     * Largest purchase in each category, indexed by category id
+     */
+    private int[] largest;
+
+    /**
+     * Number of purchases costing the largest amount in each category, indexed by category id
+     */
+    private int[] largestCount;
+
+    /**
+     * Whether the largest purchase of each category has to be worked out again, indexed by category id
+     */
+    private boolean[] largestStale;
+
+    /**
+     * Largest purchase in every category
+     */
+    private int totalLargest;
+
+    /**
+     * Number of purchases costing the largest amount in every category
+     */
+    private int totalLargestCount;
+
+    /**
+     * Whether the largest purchase overall has to be worked out again
+     */
+    private boolean totalLargestStale;
+
+    /**
+     * Builds the statistics of a budget with no purchases
+     */
+    StatsAggregator() {
+        this.largest = new int[8];
+        this.largestCount = new int[8];
+        this.largestStale = new boolean[8];
+    }
+
+    /**
+     * Builds a copy of other statistics
+     *
+     * @param other - statistics to copy
+     */
+    StatsAggregator(StatsAggregator other) {
+        this.largest = other.largest.clone();
+        this.largestCount = other.largestCount.clone();
+        this.largestStale = other.largestStale.clone();
+        this.totalLargest = other.totalLargest;
+        this.totalLargestCount = other.totalLargestCount;
+        this.totalLargestStale = other.totalLargestStale;
+    }
+
+    /**
+     * Takes a purchase into account
+     *
+     * @param category - category id of the purchase
+     * @param price - cost of the purchase in cents
+     */
+    void add(int category, int price) {
+        ensureCategory(category);
+
+        if(largestCount[category] == 0 || price > largest[category]) {
+            largest[category] = price;
+            largestCount[category] = 1;
+        }
+        else if(price == largest[category]) {
+            largestCount[category]++;
+        }
+
+        if(totalLargestCount == 0 || price > totalLargest) {
+            totalLargest = price;
+            totalLargestCount = 1;
+        }
+        else if(price == totalLargest) {
+            totalLargestCount++;
+        }
+    }
+
+    /**
+     * Takes into account purchases whose costs aren't known, such as those of an archived month, which leaves the
+     * largest purchases stale
+     *
+     * @param category - category id of the purchases
+     */
+    void addUnpriced(int category) {
+        ensureCategory(category);
+        largestStale[category] = true;
+        totalLargestStale = true;
+    }
+
+    /**
+     * Stops taking a purchase into account
+     *
+     * @param category - category id of the purchase
+     * @param price - cost of the purchase in cents
+     */
+    void remove(int category, int price) {
+        if(price == largest[category] && largestCount[category] > 0 && --largestCount[category] == 0) {
+            largestStale[category] = true;
+        }
+        if(price == totalLargest && totalLargestCount > 0 && --totalLargestCount == 0) {
+            totalLargestStale = true;
+        }
+    }
+
+    /**
+     * Stops taking every purchase of a category into account
+     *
+     * @param category - category id
+     */
+    void removeCategory(int category) {
+        ensureCategory(category);
+        if(largestCount[category] > 0 || largestStale[category]) {
+            totalLargestStale = true;
+        }
+
+        largest[category] = 0;
+        largestCount[category] = 0;
+        largestStale[category] = false;
+    }
+
+    /**
+     * Returns whether the largest purchase of a category has to be worked out again before it is read
+     *
+     * @param category - category id
+     * @return true if setLargest needs calling
+     */
+    boolean isLargestStale(int category) {
+        return category < largest.length && largestStale[category];
+    }
+
+    /**
+     * Returns whether the largest purchase overall has to be worked out again before it is read
+     *
+     * @return true if setLargest needs calling
+     */
+    boolean isTotalLargestStale() {
+        return totalLargestStale;
+    }
+
+    /**
+     * Returns the largest purchase in a category
+     *
+     * @param category - category id
+     * @return largest cost in cents, or 0 if the category has no purchases
+     */
+    int getLargest(int category) {
+        return category < largest.length && largestCount[category] > 0 ? largest[category] : 0;
+    }
+
+    /**
+     * Returns the largest purchase in every category
+     *
+     * @return largest cost in cents, or 0 if there are no purchases
+     */
+    int getTotalLargest() {
+        return totalLargestCount > 0 ? totalLargest : 0;
+    }
+
+    /**
+     * Replaces every largest purchase with ones worked out from the purchases themselves
+     *
+     * @param categoryLargest - largest purchase of each category id
+     * @param categoryLargestCount - number of purchases costing that much in each category id, 0 for none
+     */
+    void setLargest(int[] categoryLargest, int[] categoryLargestCount) {
+        totalLargest = 0;
+        totalLargestCount = 0;
+
+        for(int category = 0; category < categoryLargest.length; category++) {
+            ensureCategory(category);
+            largest[category] = categoryLargest[category];
+            largestCount[category] = categoryLargestCount[category];
+            largestStale[category] = false;
+
+            if(categoryLargestCount[category] == 0) {
+                continue;
+            }
+            if(totalLargestCount == 0 || categoryLargest[category] > totalLargest) {
+                totalLargest = categoryLargest[category];
+                totalLargestCount = categoryLargestCount[category];
+            }
+            else if(categoryLargest[category] == totalLargest) {
+                totalLargestCount += categoryLargestCount[category];
+            }
+        }
+        totalLargestStale = false;
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Grows the arrays to hold the category id
+     *
+     * @param category - category id
+     */
+    private void ensureCategory(int category) {
+        if(category >= largest.length) {
+            int capacity = Math.max(category + 1, largest.length * 2);
+            largest = Arrays.copyOf(largest, capacity);
+            largestCount = Arrays.copyOf(largestCount, capacity);
+            largestStale = Arrays.copyOf(largestStale, capacity);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package net.hesterberg.budget.manager;
+
+import net.hesterberg.budget.budget.Budget;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of changes delivered to BudgetListeners in one notification
+ * Either the whole budget was replaced, in which case listeners should read it again from scratch, or the events
+ * list the changes in the order they were made
+ *
+ * @author Nikolai Hesterberg
+ */
+public final class BudgetChange {
+    /**
+     * Budget the changes were made to
+     */
+    private final Budget budget;
+
+    /**
+     * Whether the whole budget was replaced or rebuilt
+     */
+    private final boolean reset;
+
+    /**
+     * Changes in the order they were made, empty when reset
+     */
+    private final List<BudgetEvent> events;
+
+    /**
+     * Builds a batch
+     *
+     * @param budget - budget the changes were made to
+     * @param reset - whether the whole budget was replaced
+     * @param events - changes in order
+     */
+    BudgetChange(Budget budget, boolean reset, List<BudgetEvent> events) {
+        this.budget = budget;
+        this.reset = reset;
+        this.events = Collections.unmodifiableList(events);
+    }
+
+    /**
+     * Returns the budget the changes were made to
+     *
+     * @return the budget being managed when the batch was delivered
+     */
+    public Budget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns whether the whole budget was replaced, such as by a load, so every view should be rebuilt
+     *
+     * @return true if the events should be ignored and the budget read again
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    /**
+     * Returns the changes in the order they were made
+     *
+     * @return read only list of events, empty when the batch is a reset
+     */
+    public List<BudgetEvent> getEvents() {
+        return events;
+    }
+}
@@ -0,0 +1,125 @@
+package net.hesterberg.budget.manager;
+
+/**
+ * A single change made to the budget through the BudgetManager
+ * Events are delivered to listeners in the order the changes were made, grouped into a BudgetChange
+ *
+ * @author Nikolai Hesterberg
+ */
+public final class BudgetEvent {
+    /**
+     * Kind of change an event describes
+     */
+    public enum Type {
+        /** The overall budget amount changed */
+        TOTAL_CHANGED,
+        /** A category was added - the category is set */
+        CATEGORY_ADDED,
+        /** The budget or spending of a category changed - the category is set */
+        CATEGORY_CHANGED,
+        /** A category was removed - the category is set */
+        CATEGORY_REMOVED,
+        /** A purchase was added - the row is set */
+        PURCHASE_ADDED,
+        /** A purchase was removed - the row is the row it was in */
+        PURCHASE_REMOVED,
+        /** Any purchase row may have changed, so views should read every row again */
+        PURCHASES_CHANGED
+    }
+
+    /**
+     * Kind of change
+     */
+    private final Type type;
+
+    /**
+     * Row of the purchase added or removed, or -1
+     */
+    private final int row;
+
+    /**
+     * Category added, changed or removed, or null
+     */
+    private final String category;
+
+    /**
+     * Builds an event
+     *
+     * @param type - kind of change
+     * @param row - row of the purchase, or -1
+     * @param category - category, or null
+     */
+    private BudgetEvent(Type type, int row, String category) {
+        this.type = type;
+        this.row = row;
+        this.category = category;
+    }
+
+    /**
+     * Builds an event for a change to a category
+     *
+     * @param type - CATEGORY_ADDED, CATEGORY_CHANGED or CATEGORY_REMOVED
+     * @param category - category that changed
+     * @return the event
+     */
+    static BudgetEvent category(Type type, String category) {
+        return new BudgetEvent(type, -1, category);
+    }
+
+    /**
+     * Builds an event for a purchase row
+     *
+     * @param type - PURCHASE_ADDED or PURCHASE_REMOVED
+     * @param row - row of the purchase
+     * @return the event
+     */
+    static BudgetEvent purchase(Type type, int row) {
+        return new BudgetEvent(type, row, null);
+    }
+
+    /**
+     * Builds an event that carries no row or category
+     *
+     * @param type - TOTAL_CHANGED or PURCHASES_CHANGED
+     * @return the event
+     */
+    static BudgetEvent of(Type type) {
+        return new BudgetEvent(type, -1, null);
+    }
+
+    /**
+     * Returns the kind of change
+     *
+     * @return type of the event
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the row of the purchase added or removed
+     *
+     * @return row, or -1 if the event isn't about a purchase row
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * Returns the category added, changed or removed
+     *
+     * @return category, or null if the event isn't about a category
+     */
+    public String getCategory() {
+        return category;
+    }
+
+    /**
+     * Returns whether the event is about purchase rows
+     *
+     * @return true for PURCHASE_ADDED, PURCHASE_REMOVED and PURCHASES_CHANGED
+     */
+    boolean isPurchaseEvent() {
+        return type == Type.PURCHASE_ADDED || type == Type.PURCHASE_REMOVED || type == Type.PURCHASES_CHANGED;
+    }
+}
@@ -0,0 +1,16 @@
+package net.hesterberg.budget.manager;
+
+/**
+ * Listener told about changes made to the budget through the BudgetManager
+ * Changes are delivered in batches, so a view updates once for a burst of edits rather than once per edit
+ *
+ * @author Nikolai Hesterberg
+ */
+public interface BudgetListener {
+    /**
+     * Called with the changes made since the last notification
+     *
+     * @param change - the batch of changes
+     */
+    public void budgetChanged(BudgetChange change);
+}
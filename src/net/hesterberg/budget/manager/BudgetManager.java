@@ -2,43 +2,128 @@ package net.hesterberg.budget.manager;
 
 import net.hesterberg.budget.Date;
 import net.hesterberg.budget.budget.Budget;
+import net.hesterberg.budget.budget.PurchaseFilter;
 import net.hesterberg.budget.transaction.Purchase;
-import net.hesterberg.budget.transaction.Transaction;
 import net.hesterberg.budget.utility.BudgetFileIO;
+import net.hesterberg.budget.utility.BudgetJournal;
 import net.hesterberg.budget.utility.CategoryException;
+import net.hesterberg.budget.utility.Money;
+import net.hesterberg.budget.utility.ProgressListener;
 import net.hesterberg.budget.utility.PurchaseFailureException;
 
-import javax.swing.*;
+import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 /**
  * Budget manager stores the budget and makes it accessible to the GUI
  * Uses the singleton design pattern to ensure only one instance of itself can be created
  *
+ * Every edit queues a BudgetEvent, and the queued events are delivered to the BudgetListeners as one BudgetChange
+ * when the outermost change ends, or on the dispatcher if one is set so a burst of edits is delivered once per
+ * frame. Views never need to be passed to the manager.
+ *
  * @author Nikolai Hesterberg
  */
 public class BudgetManager {
+    /**
+     * Number of journal edits after which the budget file is rewritten and the journal started again
+     */
+    private static final int COMPACT_ENTRIES = 1000;
+
+    /**
+     * Number of queued purchase events after which views are told to read every purchase row again instead
+     */
+    private static final int MAX_PURCHASE_EVENTS = 256;
+
     /**
      * The main budget class that models the overall system
      */
     private Budget budget;
 
     /**
-     * Stores a list of the purchases that are displayed to the user
+     * Journal of the edits made since the budget file was saved, null when the budget has no file yet
      */
-    private ArrayList<Purchase> purchaseList;
+    private BudgetJournal journal;
 
     /**
-     * Singleton instance of BudgetManager
+     * Stores a list of the purchases that are displayed to the user
      */
-    private static BudgetManager budgetManager;
+    private ArrayList<Purchase> purchaseList;
 
     /**
      * Stores whether the model is changed since last save
      */
     private boolean changed = false;
 
+    /**
+     * Listeners told about changes to the budget
+     */
+    private final ArrayList<BudgetListener> listeners = new ArrayList<BudgetListener>();
+
+    /**
+     * Runs the delivery of queued events, or null to deliver them when the outermost change ends
+     */
+    private Executor dispatcher = null;
+
+    /**
+     * Events queued since the last delivery
+     */
+    private ArrayList<BudgetEvent> pendingEvents = new ArrayList<BudgetEvent>();
+
+    /**
+     * Categories with a CATEGORY_CHANGED event queued, so a category is only reported changed once per batch
+     */
+    private final HashSet<String> pendingCategories = new HashSet<String>();
+
+    /**
+     * Number of queued PURCHASE_ADDED and PURCHASE_REMOVED events
+     */
+    private int pendingPurchaseEvents = 0;
+
+    /**
+     * Whether a PURCHASES_CHANGED event is queued, making further purchase events pointless
+     */
+    private boolean pendingPurchasesChanged = false;
+
+    /**
+     * Whether the whole budget was replaced since the last delivery
+     */
+    private boolean pendingReset = false;
+
+    /**
+     * Number of changes begun and not yet ended
+     */
+    private int changeDepth = 0;
+
+    /**
+     * Whether a delivery has been handed to the dispatcher and hasn't run yet
+     */
+    private boolean deliveryScheduled = false;
+
+    /**
+     * Runs the saves that compact the journal, or null to save on the thread making the edit
+     */
+    private Executor saveExecutor = null;
+
+    /**
+     * Told about a save compacting the journal that failed, or null
+     */
+    private Consumer<RuntimeException> saveFailureHandler = null;
+
+    /**
+     * Journal of the edits made since the running compaction took its copy of the budget, written alongside the
+     * journal so the edits survive a crash after the save replaces the file, or null if no compaction is running
+     */
+    private BudgetJournal nextJournal = null;
+
+    /**
+     * Number of journal edits at which the next compaction starts
+     */
+    private int compactAt = COMPACT_ENTRIES;
+
     /**
      * Constructor - builds the BudgetManager and initializes it
      * Private so it can't be freely built
@@ -54,13 +139,20 @@ public class BudgetManager {
 
     /**
      * Returns the copy of budget manager to be used by the GUI and other components
+     * Safe to call from any thread - the instance is built once, the first time it is asked for
      */
     public static BudgetManager getBudgetManager() {
-        if(budgetManager == null) {
-            budgetManager = new BudgetManager();
-        }
+        return Holder.INSTANCE;
+    }
 
-        return budgetManager;
+    /**
+     * Returns the budget for read only views such as PurchaseTableModel
+     * Edits should go through the manager so they are journaled
+     *
+     * @return the budget being managed
+     */
+    public Budget getBudget() {
+        return budget;
     }
 
     /**
@@ -71,6 +163,79 @@ public class BudgetManager {
     public void setBudget(int budget) {
         this.budget.setTotalBudget(budget);
         changed = true;
+        record(j -> j.totalBudgetSet(budget));
+        fire(BudgetEvent.of(BudgetEvent.Type.TOTAL_CHANGED));
+        deliver();
+    }
+
+    /**
+     * Adds a listener told about every change to the budget
+     *
+     * @param listener - listener to add
+     */
+    public void addBudgetListener(BudgetListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added by addBudgetListener
+     *
+     * @param listener - listener to remove
+     */
+    public void removeBudgetListener(BudgetListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets how queued events are delivered
+     * With a dispatcher such as SwingUtilities::invokeLater, every change made before the dispatcher runs is
+     * delivered in one batch - without one, changes are delivered as soon as the outermost change ends
+     *
+     * @param dispatcher - runs deliveries, or null to deliver straight away
+     */
+    public void setDispatcher(Executor dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Sets the executor that runs the saves compacting the journal, so an edit never waits for the whole file to be
+     * written
+     * The finished save is handed back through the dispatcher, which should be set to the thread making edits
+     *
+     * @param saveExecutor - runs compaction saves, or null to save on the thread making the edit
+     */
+    public void setSaveExecutor(Executor saveExecutor) {
+        this.saveExecutor = saveExecutor;
+    }
+
+    /**
+     * Sets the handler told when a save compacting the journal fails
+     * The edits are still in the journal, so nothing is lost - the compaction is tried again after COMPACT_ENTRIES
+     * more edits
+     *
+     * @param saveFailureHandler - told about the failure on the dispatcher, or null to ignore failures
+     */
+    public void setSaveFailureHandler(Consumer<RuntimeException> saveFailureHandler) {
+        this.saveFailureHandler = saveFailureHandler;
+    }
+
+    /**
+     * Starts a group of changes that listeners are told about together
+     * Every call must be matched by a call to endChanges, and groups may be nested
+     */
+    public void beginChanges() {
+        changeDepth++;
+    }
+
+    /**
+     * Ends a group of changes started by beginChanges, delivering them if it was the outermost group
+     */
+    public void endChanges() {
+        if(changeDepth == 0) {
+            throw new IllegalStateException("endChanges called without beginChanges");
+        }
+        changeDepth--;
+        deliver();
     }
 
     /**
@@ -86,8 +251,8 @@ public class BudgetManager {
      * @param category - category of the purchase
      * @throws PurchaseFailureException if there is a casting error or category exception
      */
-    public void addPurchase(String day, String month, String year, String description, String cost, String category,
-                            DefaultListModel purchaseListModel, DefaultListModel budgetListModel) throws PurchaseFailureException {
+    public void addPurchase(String day, String month, String year, String description, String cost, String category)
+            throws PurchaseFailureException {
         Date date;
         int intCost;
         Purchase newPurchase;
@@ -107,78 +272,89 @@ public class BudgetManager {
             throw new PurchaseFailureException(ce.getMessage());
         }
 
-        purchaseListModel.addElement(newPurchase);
-        updateBudgetListModel(budgetListModel);
         changed = true;
+        record(j -> j.purchaseAdded(newPurchase));
+        fire(BudgetEvent.purchase(BudgetEvent.Type.PURCHASE_ADDED, budget.getPurchaseCount() - 1));
+        fire(BudgetEvent.category(BudgetEvent.Type.CATEGORY_CHANGED, category));
+        deliver();
     }
 
     /**
-     * Updates the budget List model based on the budget categories and the amount left in each category
+     * Builds a filter from the user's inputs, leaving out any condition whose inputs are empty
+     * Dates are entered as DD/MM/YYYY and costs as dollar amounts
      *
-     * @param budgetListModel - model to be updated
+     * @param category - category the purchases must be in
+     * @param fromDate - earliest date allowed
+     * @param toDate - latest date allowed
+     * @param minCost - smallest cost allowed
+     * @param maxCost - largest cost allowed
+     * @param description - text the description must contain
+     * @return the filter, which is empty if every input is
+     * @throws IllegalArgumentException if a date or cost can't be read
      */
-    private void updateBudgetListModel(DefaultListModel budgetListModel) {
-        StringBuilder str;
-        Map.Entry amtEntry;
-        Map.Entry budgetEntry;
-        String category;
-        int remaining;
-        double remainingDbl;
-        int total;
-        double totalDbl;
-
-        budgetListModel.clear();
-
-        Iterator<Map.Entry<String, Integer>> budgetSpent = budget.getCategoryTotalSpent().entrySet().iterator();
-        Iterator<Map.Entry<String, Integer>> budgetAmounts= budget.getBudget().entrySet().iterator();
+    public PurchaseFilter createFilter(String category, String fromDate, String toDate, String minCost,
+                                       String maxCost, String description) {
+        PurchaseFilter filter = new PurchaseFilter();
 
-        while(budgetAmounts.hasNext()) {
-            budgetEntry = budgetAmounts.next();
-            amtEntry = budgetSpent.next();
-            category = (String) budgetEntry.getKey();
-
-            total = (int) budgetEntry.getValue();
-            remaining = total - (int) amtEntry.getValue();
-
-            totalDbl = (double)total / 100;
-            remainingDbl = (double)remaining / 100;
-
-            str = new StringBuilder();
+        if(!category.trim().isEmpty()) {
+            filter.addCategory(category.trim());
+        }
+        if(!fromDate.trim().isEmpty() || !toDate.trim().isEmpty()) {
+            filter.setDateRange(parseDate(fromDate), parseDate(toDate));
+        }
+        if(!minCost.trim().isEmpty() || !maxCost.trim().isEmpty()) {
+            filter.setAmountRange(minCost.trim().isEmpty() ? Integer.MIN_VALUE : validateCost(minCost.trim()),
+                    maxCost.trim().isEmpty() ? Integer.MAX_VALUE : validateCost(maxCost.trim()));
+        }
+        filter.setDescription(description.trim());
 
-            str.append(category);
-            str.append(" | $");
-            str.append(String.format ("%.2f", totalDbl));
-            str.append(" | $");
-            str.append(String.format ("%.2f", remainingDbl));
+        return filter;
+    }
 
-            budgetListModel.addElement(str.toString());
+    /**
+     * Reads a date entered as DD/MM/YYYY
+     *
+     * @param date - the date as a String
+     * @return the date, or null if the input is empty
+     * @throws IllegalArgumentException if the date can't be read
+     */
+    private Date parseDate(String date) {
+        if(date.trim().isEmpty()) {
+            return null;
+        }
 
+        String[] fields = date.trim().split("/");
+        if(fields.length != 3) {
+            throw new IllegalArgumentException("Date must be entered as DD/MM/YYYY");
         }
+
+        return validateDate(fields[0].trim(), fields[1].trim(), fields[2].trim());
     }
 
     /**
      * Validates the cost input
-     * Input is a double formatted as a String
-     * Casts to a double then coverts to an integer
+     * Input is an amount of dollars with up to two decimal places formatted as a String
+     * Parsed straight to cents so there are no rounding errors
      * Budget costs stored as ints for precision
      *
-     * @param cost - the cost as a String representing a double
-     * @return integer representation of the cost
+     * @param cost - the cost as a String representing dollars
+     * @return integer representation of the cost in cents
+     * @throws IllegalArgumentException if the cost isn't a valid amount or doesn't fit an int
      */
     private int validateCost(String cost) throws IllegalArgumentException {
-        double dblCost;
-        int intCost;
+        long cents;
 
         try {
-            dblCost = Double.parseDouble(cost);
+            cents = Money.parseCents(cost);
         } catch (NumberFormatException nfe) {
             throw new IllegalArgumentException("Cost is not a valid number!");
         }
 
-        //TODO: Figure out a way to make this more exact and not have rounding errors
-        intCost = (int) (dblCost * 100);
+        if(cents < Integer.MIN_VALUE || cents > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cost is not a valid number!");
+        }
 
-        return intCost;
+        return (int) cents;
     }
 
     /**
@@ -204,70 +380,147 @@ public class BudgetManager {
             throw new IllegalArgumentException("Date cannot be casted to integers");
         }
 
-        date = new Date(intDay, intMonth, intYear);
+        date = Date.of(intDay, intMonth, intYear);
         return date;
     }
 
     /**
      * Clear budget - clears the budget and starts it from scratch
      */
-    public void clearBudget(DefaultListModel budgetListModel, DefaultListModel purchaseListModel) {
+    public void clearBudget() {
+        closeJournal();
         budget = new Budget(budget.getTotalBudget());
-        updateBudgetListModel(budgetListModel);
-        updatePurchaseListModel(purchaseListModel);
         changed = false;
+        fireReset();
+        deliver();
     }
 
     /**
      * Delete purchase - removes the purchase provided from the budget
+     * Removing an archived purchase moves its month into the store, which renumbers the rows, so views are told every
+     * row may have changed - otherwise only the removed row is reported
      *
-     * @param index - index in the purchaseList of the purchase
+     * The purchase is found by its stable id, so the one chosen is removed even if another purchase is identical
+     *
+     * @param id - id of the purchase, from Budget.getPurchaseId
      */
-    public void deletePurchase(int index, DefaultListModel purchaseListModel) {
-        Purchase removePurchase = (Purchase) purchaseListModel.get(index);
-
-        budget.removeTransaction(removePurchase);
+    public void deletePurchase(int id) {
+        int index = budget.getPurchaseRow(id);
+        if(index == -1) {
+            return;
+        }
 
-        purchaseListModel.remove(index);
-        changed = true;
+        Purchase removePurchase = budget.getPurchase(index);
+        int archived = budget.getArchivedPurchaseCount();
+
+        if(budget.removePurchase(id) != null) {
+            changed = true;
+            record(j -> j.purchaseRemoved(removePurchase));
+
+            if(budget.getArchivedPurchaseCount() == archived) {
+                fire(BudgetEvent.purchase(BudgetEvent.Type.PURCHASE_REMOVED, index));
+            }
+            else {
+                fire(BudgetEvent.of(BudgetEvent.Type.PURCHASES_CHANGED));
+            }
+            fire(BudgetEvent.category(BudgetEvent.Type.CATEGORY_CHANGED, removePurchase.getCategory()));
+            deliver();
+        }
     }
 
     /**
-     * Returns the list of purchases to be shown on the GUI - depends on the filter and sorting view
+     * Removes several purchases in one pass over the budget, recording them in the journal together and telling the
+     * views once
+     * Ids with no purchase are skipped
+     *
+     * @param ids - ids of the purchases, from Budget.getPurchaseId
      */
-    public ArrayList<Purchase> getPurchaseList() {
-        return this.purchaseList;
+    public void deletePurchases(int[] ids) {
+        int[] rows = distinctRows(ids);
+        ArrayList<Purchase> removed = new ArrayList<Purchase>(rows.length);
+        int archived = budget.getArchivedPurchaseCount();
+
+        for(int row: rows) {
+            removed.add(budget.getPurchase(row));
+        }
+
+        if(budget.removePurchases(ids) == 0) {
+            return;
+        }
+        changed = true;
+        record(j -> j.purchasesRemoved(removed));
+
+        if(budget.getArchivedPurchaseCount() == archived) {
+            //last row first, so each row is still right when its event is read
+            for(int i = rows.length - 1; i >= 0; i--) {
+                fire(BudgetEvent.purchase(BudgetEvent.Type.PURCHASE_REMOVED, rows[i]));
+            }
+        }
+        else {
+            fire(BudgetEvent.of(BudgetEvent.Type.PURCHASES_CHANGED));
+        }
+        for(Purchase purchase: removed) {
+            fire(BudgetEvent.category(BudgetEvent.Type.CATEGORY_CHANGED, purchase.getCategory()));
+        }
+        deliver();
     }
 
     /**
-     * Removes the category from the budget
+     * Moves several purchases into another category in one pass over the budget, recording them in the journal
+     * together and telling the views once
+     * Ids with no purchase, and purchases already in the category, are skipped
      *
-     * @param index - category to remove from the budget
-     * @param budgetListModel - list of budget items that is displayed to the user
+     * @param ids - ids of the purchases, from Budget.getPurchaseId
+     * @param category - category to move the purchases to
+     * @throws PurchaseFailureException if the category doesn't exist
      */
-    public void removeCategory(int index, DefaultListModel budgetListModel, DefaultListModel purchaseListModel) {
-        String categoryEntry = (String) budgetListModel.get(index);
-        String[] tokens = null;
-        tokens = categoryEntry.split(" \\| ");
-
-        String category = tokens[0];
+    public void recategorize(int[] ids, String category) throws PurchaseFailureException {
+        ArrayList<Purchase> moved = new ArrayList<Purchase>();
+
+        for(int row: distinctRows(ids)) {
+            Purchase purchase = budget.getPurchase(row);
+            if(!purchase.getCategory().equals(category)) {
+                moved.add(purchase);
+            }
+        }
 
-        budget.removeCategory(category);
-        updateBudgetListModel(budgetListModel);
-        updatePurchaseListModel(purchaseListModel);
+        try {
+            if(budget.recategorize(ids, category) == 0) {
+                return;
+            }
+        } catch (CategoryException ce) {
+            throw new PurchaseFailureException(ce.getMessage());
+        }
         changed = true;
+        record(j -> j.purchasesRecategorized(moved, category));
+
+        fire(BudgetEvent.of(BudgetEvent.Type.PURCHASES_CHANGED));
+        fire(BudgetEvent.category(BudgetEvent.Type.CATEGORY_CHANGED, category));
+        for(Purchase purchase: moved) {
+            fire(BudgetEvent.category(BudgetEvent.Type.CATEGORY_CHANGED, purchase.getCategory()));
+        }
+        deliver();
+    }
+
+    /**
+     * Returns the list of purchases to be shown on the GUI - depends on the filter and sorting view
+     */
+    public ArrayList<Purchase> getPurchaseList() {
+        return this.purchaseList;
     }
 
     /**
-     * Updates the purchase list model based on the purchases
+     * Removes the category and its purchases from the budget
      *
-     * @param purchaseListModel - model to update
+     * @param category - category to remove from the budget
      */
-    private void updatePurchaseListModel(DefaultListModel purchaseListModel) {
-        purchaseListModel.clear();
-        for(Transaction purchase: budget.getPurchaseList()) {
-            purchaseListModel.addElement(purchase);
-        }
+    public void removeCategory(String category) {
+        budget.removeCategory(category);
+        changed = true;
+        record(j -> j.categoryRemoved(category));
+        fire(BudgetEvent.category(BudgetEvent.Type.CATEGORY_REMOVED, category));
+        fire(BudgetEvent.of(BudgetEvent.Type.PURCHASES_CHANGED));
+        deliver();
     }
 
     /**
@@ -277,15 +530,15 @@ public class BudgetManager {
      * @param amount - amount of the budget category
      * @throws IllegalArgumentException if the budget string is formatted incorrectly or category exists
      */
-    public void addCategory(String budgetName, String amount, DefaultListModel budgetListModel)
-            throws IllegalArgumentException {
+    public void addCategory(String budgetName, String amount) throws IllegalArgumentException {
 
         int budgetAmount = validateCost(amount);
 
         budget.addBudgetBucket(budgetName, budgetAmount);
-
-        updateBudgetListModel(budgetListModel);
         changed = true;
+        record(j -> j.categoryAdded(budgetName, budgetAmount));
+        fire(BudgetEvent.category(BudgetEvent.Type.CATEGORY_ADDED, budgetName));
+        deliver();
     }
 
     /**
@@ -316,26 +569,438 @@ public class BudgetManager {
     }
 
 
-    //TODO: Make a class to load and save text files for offline use
     /**
      * Saves the budget at the given filename
+     * Starts a new journal for the file so later edits are appended instead of rewriting the file
      *
      * @param filename - file to save the budget to
      */
     public void saveBudget(String filename) {
-        BudgetFileIO.SaveBudgetFile(filename, budget);
+        writeBudget(filename, null);
+        budgetSaved(filename);
+    }
+
+    /**
+     * Writes the budget to the given filename without changing the manager's state
+     * Safe to call off the event dispatch thread as long as the budget isn't edited until it returns - call
+     * budgetSaved on the event dispatch thread afterwards
+     *
+     * @param filename - file to save the budget to
+     * @param progress - listener told how many purchases have been written, or null
+     * @throws IllegalArgumentException if the file can't be saved
+     * @throws java.util.concurrent.CancellationException if the thread is interrupted before the save finishes
+     */
+    public void writeBudget(String filename, ProgressListener progress) {
+        BudgetFileIO.SaveBudgetFile(filename, budget, progress);
+    }
+
+    /**
+     * Records that writeBudget saved the budget to the given filename
+     * Starts a new journal for the file so later edits are appended instead of rewriting the file
+     *
+     * @param filename - file the budget was saved to
+     */
+    public void budgetSaved(String filename) {
+        this.filename = filename;
         changed = false;
+
+        closeJournal();
+        try {
+            journal = BudgetJournal.create(filename);
+        } catch (IOException ioe) {
+            journal = null;
+        }
     }
 
     /**
      * Loads a budget from the given filename
+     * Binary files are loaded lazily so months before the current one are only decoded when needed
+     * Replays any edits journaled since the file was last saved
      *
      * @param filename - file to load the budget from
      */
-    public void loadBudget(String filename, DefaultListModel budgetListModel, DefaultListModel purchaseListModel) {
-        budget = BudgetFileIO.LoadBudgetFile(filename);
+    public void loadBudget(String filename) {
+        loadBudget(readBudget(filename, null));
+    }
+
+    /**
+     * Reads a budget file and replays its journal without changing the budget being managed
+     * Binary files are loaded lazily so months before the current one are only decoded when needed
+     * Safe to call off the event dispatch thread - pass the result to loadBudget on the event dispatch thread
+     *
+     * @param filename - file to load the budget from
+     * @param progress - listener told how many bytes have been read, or null
+     * @return the loaded budget
+     * @throws IllegalArgumentException if the file can't be loaded
+     * @throws java.util.concurrent.CancellationException if the thread is interrupted before the load finishes
+     */
+    public LoadedBudget readBudget(String filename, ProgressListener progress) {
+        Budget loaded = BudgetFileIO.LoadBudgetFile(filename, true, progress);
+        BudgetJournal loadedJournal;
+
+        try {
+            loadedJournal = BudgetJournal.open(filename, loaded);
+        } catch (IOException ioe) {
+            loadedJournal = null;
+        }
+
+        return new LoadedBudget(filename, loaded, loadedJournal);
+    }
+
+    /**
+     * Replaces the budget being managed with one read by readBudget
+     *
+     * @param loaded - budget read by readBudget
+     */
+    public void loadBudget(LoadedBudget loaded) {
+        closeJournal();
+        budget = loaded.budget;
+        journal = loaded.journal;
+        this.filename = loaded.filename;
         changed = false;
-        updateBudgetListModel(budgetListModel);
-        updatePurchaseListModel(purchaseListModel);
+        fireReset();
+        deliver();
+    }
+
+    /**
+     * Appends an edit to the journal, if the budget has one
+     * Once the journal holds COMPACT_ENTRIES edits a compaction is started, which saves a fork of the budget on the
+     * save executor and then starts a new journal
+     * If the journal can't be written it is dropped and the budget is left marked as changed
+     *
+     * @param entry - writes the edit to the journal
+     */
+    private void record(JournalEntry entry) {
+        if(journal == null) {
+            return;
+        }
+
+        try {
+            entry.writeTo(journal);
+        } catch (IOException ioe) {
+            closeJournal();
+            return;
+        }
+
+        if(nextJournal != null) {
+            try {
+                entry.writeTo(nextJournal);
+            } catch (IOException ioe) {
+                //without the next journal the edit would be lost once the save replaces the file
+                closeJournal();
+            }
+        }
+        else if(journal.getEntryCount() >= compactAt) {
+            compact();
+        }
+    }
+
+    /**
+     * Saves a fork of the budget to its file on the save executor, so later edits can carry on while it is written
+     * Edits made during the save are also written to a next journal, which becomes the journal once the save
+     * finishes
+     */
+    private void compact() {
+        BudgetJournal next;
+        try {
+            next = journal.startNext(filename);
+        } catch (IOException ioe) {
+            compactAt = journal.getEntryCount() + COMPACT_ENTRIES;
+            return;
+        }
+
+        String file = filename;
+        Budget copy = budget.fork();
+        Executor finisher = dispatcher;
+        nextJournal = next;
+
+        Runnable save = () -> {
+            RuntimeException error = null;
+            try {
+                BudgetFileIO.SaveBudgetFile(file, copy);
+            } catch (RuntimeException re) {
+                error = re;
+            }
+
+            RuntimeException failure = error;
+            Runnable finish = () -> compacted(next, file, failure);
+            if(finisher == null) {
+                finish.run();
+            }
+            else {
+                finisher.execute(finish);
+            }
+        };
+
+        if(saveExecutor == null) {
+            save.run();
+        }
+        else {
+            saveExecutor.execute(save);
+        }
+    }
+
+    /**
+     * Finishes a compaction, making the next journal holding the edits made while the file was being written the
+     * journal
+     * Does nothing if the budget was saved, loaded or cleared since the compaction started, since that replaced the
+     * journal
+     *
+     * @param next - journal of the edits made since the compaction started
+     * @param file - file the budget was saved to
+     * @param error - exception thrown by the save, or null if it succeeded
+     */
+    private void compacted(BudgetJournal next, String file, RuntimeException error) {
+        if(nextJournal != next) {
+            return;
+        }
+        nextJournal = null;
+
+        if(error != null) {
+            discard(next);
+            compactAt = (journal == null ? 0 : journal.getEntryCount()) + COMPACT_ENTRIES;
+            if(saveFailureHandler != null) {
+                saveFailureHandler.accept(error);
+            }
+            return;
+        }
+
+        closeJournal();
+        try {
+            journal = next.promote(file);
+        } catch (IOException ioe) {
+            journal = null;
+            return;
+        }
+
+        if(journal.getEntryCount() == 0) {
+            changed = false;
+        }
+    }
+
+    /**
+     * Returns the rows of the purchases with the ids, skipping ids with no purchase
+     *
+     * @param ids - ids of the purchases
+     * @return distinct rows, sorted
+     */
+    private int[] distinctRows(int[] ids) {
+        int[] rows = new int[ids.length];
+        int count = 0;
+
+        for(int id: ids) {
+            int row = budget.getPurchaseRow(id);
+            if(row != -1) {
+                rows[count++] = row;
+            }
+        }
+        Arrays.sort(rows, 0, count);
+
+        int distinct = 0;
+        for(int i = 0; i < count; i++) {
+            if(distinct == 0 || rows[i] != rows[distinct - 1]) {
+                rows[distinct++] = rows[i];
+            }
+        }
+
+        return Arrays.copyOf(rows, distinct);
+    }
+
+    /**
+     * Queues an event for the listeners
+     * Purchase events are dropped once views have been told to read every row, and too many purchase events are
+     * replaced by a single PURCHASES_CHANGED, which is cheaper for views than replaying every row
+     *
+     * @param event - change to report
+     */
+    private void fire(BudgetEvent event) {
+        if(pendingReset) {
+            return;
+        }
+
+        switch(event.getType()) {
+            case CATEGORY_CHANGED:
+                if(!pendingCategories.add(event.getCategory())) {
+                    return;
+                }
+                break;
+            case CATEGORY_REMOVED:
+                pendingCategories.remove(event.getCategory());
+                break;
+            case PURCHASE_ADDED:
+            case PURCHASE_REMOVED:
+                if(pendingPurchasesChanged) {
+                    return;
+                }
+                if(++pendingPurchaseEvents > MAX_PURCHASE_EVENTS) {
+                    event = BudgetEvent.of(BudgetEvent.Type.PURCHASES_CHANGED);
+                }
+                break;
+            default:
+                break;
+        }
+
+        if(event.getType() == BudgetEvent.Type.PURCHASES_CHANGED) {
+            if(pendingPurchasesChanged) {
+                return;
+            }
+            pendingPurchasesChanged = true;
+            pendingEvents.removeIf(BudgetEvent::isPurchaseEvent);
+        }
+        pendingEvents.add(event);
+    }
+
+    /**
+     * Queues a reset, telling listeners the whole budget was replaced
+     * Any queued events are dropped since listeners read the budget again from scratch
+     */
+    private void fireReset() {
+        pendingReset = true;
+        pendingEvents.clear();
+        pendingCategories.clear();
+    }
+
+    /**
+     * Delivers the queued events unless a group of changes is still open
+     * With a dispatcher the delivery is scheduled once and picks up every change made before it runs
+     */
+    private void deliver() {
+        if(changeDepth > 0 || (!pendingReset && pendingEvents.isEmpty())) {
+            return;
+        }
+
+        if(dispatcher == null) {
+            deliverNow();
+        }
+        else if(!deliveryScheduled) {
+            deliveryScheduled = true;
+            dispatcher.execute(this::deliverNow);
+        }
+    }
+
+    /**
+     * Hands the queued events to every listener as one batch
+     */
+    private void deliverNow() {
+        deliveryScheduled = false;
+        if(changeDepth > 0 || (!pendingReset && pendingEvents.isEmpty())) {
+            //endChanges delivers the events once the open group ends
+            return;
+        }
+
+        BudgetChange change = new BudgetChange(budget, pendingReset, pendingEvents);
+        pendingEvents = new ArrayList<BudgetEvent>();
+        pendingCategories.clear();
+        pendingPurchaseEvents = 0;
+        pendingPurchasesChanged = false;
+        pendingReset = false;
+
+        for(BudgetListener listener: new ArrayList<BudgetListener>(listeners)) {
+            listener.budgetChanged(change);
+        }
+    }
+
+    /**
+     * Closes the journal, if the budget has one
+     * A running compaction is abandoned, since whatever replaces the journal also replaces what it would save
+     */
+    private void closeJournal() {
+        if(nextJournal != null) {
+            discard(nextJournal);
+            nextJournal = null;
+        }
+        compactAt = COMPACT_ENTRIES;
+
+        if(journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ioe) {
+                //The journal is being discarded so there's nothing left to recover
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Closes a next journal and deletes its file
+     *
+     * @param next - journal of the edits made during an abandoned or failed compaction
+     */
+    private static void discard(BudgetJournal next) {
+        try {
+            next.discard();
+        } catch (IOException ioe) {
+            //A next journal left behind is ignored, since it no longer matches the journal
+        }
+    }
+
+    /**
+     * A budget read by readBudget that hasn't replaced the managed budget yet
+     */
+    public static class LoadedBudget {
+        /**
+         * File the budget was read from
+         */
+        private final String filename;
+
+        /**
+         * The budget read from the file, with its journal replayed
+         */
+        private final Budget budget;
+
+        /**
+         * Journal opened for the file, or null if it couldn't be opened
+         */
+        private final BudgetJournal journal;
+
+        /**
+         * Builds the result of a read
+         *
+         * @param filename - file the budget was read from
+         * @param budget - budget read from the file
+         * @param journal - journal opened for the file, or null
+         */
+        private LoadedBudget(String filename, Budget budget, BudgetJournal journal) {
+            this.filename = filename;
+            this.budget = budget;
+            this.journal = journal;
+        }
+
+        /**
+         * Closes the journal of a budget that will never be loaded, such as when the load was cancelled
+         */
+        public void discard() {
+            if(journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException ioe) {
+                    //The journal is being discarded so there's nothing left to recover
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds the singleton so it is built lazily without locking on every call
+     */
+    private static class Holder {
+        /**
+         * Singleton instance of BudgetManager, built when Holder is first used - the JVM's class initialization
+         * lock makes sure only one thread builds it and every thread sees it fully built
+         */
+        static final BudgetManager INSTANCE = new BudgetManager();
+    }
+
+    /**
+     * Writes a single edit to the journal
+     */
+    private interface JournalEntry {
+        /**
+         * Appends the edit
+         *
+         * @param journal - journal to append to
+         * @throws IOException if the journal can't be written
+         */
+        void writeTo(BudgetJournal journal) throws IOException;
     }
 }
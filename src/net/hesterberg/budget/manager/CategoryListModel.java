@@ -0,0 +1,199 @@
+package net.hesterberg.budget.manager;
+
+import net.hesterberg.budget.budget.Budget;
+import net.hesterberg.budget.utility.Money;
+
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Swing list model showing each category of a budget with its budget and the amount left
+ * Rows are keyed by category so a change to one category updates and reformats only that row
+ * The text of each row is built the first time it is displayed and kept until the category changes
+ *
+ * @author Nikolai Hesterberg
+ */
+public class CategoryListModel extends AbstractListModel<String> implements BudgetListener {
+    /**
+     * Budget whose categories are shown, or null to show nothing
+     */
+    private Budget budget;
+
+    /**
+     * Category shown in each row
+     */
+    private ArrayList<String> categories;
+
+    /**
+     * Row of each category
+     */
+    private HashMap<String, Integer> rows;
+
+    /**
+     * Displayed text of each row, or null if it needs building
+     */
+    private ArrayList<String> text;
+
+    /**
+     * Builds a model that shows nothing until a budget is set
+     */
+    public CategoryListModel() {
+        this.budget = null;
+        this.categories = new ArrayList<String>();
+        this.rows = new HashMap<String, Integer>();
+        this.text = new ArrayList<String>();
+    }
+
+    /**
+     * Shows the categories of a different budget, or the same budget after many changes
+     *
+     * @param budget - budget to show
+     */
+    public void setBudget(Budget budget) {
+        int oldSize = categories.size();
+
+        categories.clear();
+        rows.clear();
+        text.clear();
+        if(oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+
+        this.budget = budget;
+        for(String category: budget.getBudget().keySet()) {
+            rows.put(category, categories.size());
+            categories.add(category);
+            text.add(null);
+        }
+        if(!categories.isEmpty()) {
+            fireIntervalAdded(this, 0, categories.size() - 1);
+        }
+    }
+
+    /**
+     * Updates the rows for a batch of changes from the BudgetManager
+     *
+     * @param change - the batch of changes
+     */
+    @Override
+    public void budgetChanged(BudgetChange change) {
+        if(change.isReset() || change.getBudget() != budget) {
+            setBudget(change.getBudget());
+            return;
+        }
+
+        List<BudgetEvent> events = change.getEvents();
+        for(BudgetEvent event: events) {
+            switch(event.getType()) {
+                case CATEGORY_ADDED:
+                    categoryAdded(event.getCategory());
+                    break;
+                case CATEGORY_CHANGED:
+                    categoryChanged(event.getCategory());
+                    break;
+                case CATEGORY_REMOVED:
+                    categoryRemoved(event.getCategory());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Adds a row for a category that was added to the budget
+     *
+     * @param category - category added
+     */
+    public void categoryAdded(String category) {
+        int row = categories.size();
+
+        rows.put(category, row);
+        categories.add(category);
+        text.add(null);
+        fireIntervalAdded(this, row, row);
+    }
+
+    /**
+     * Reformats the row of a category whose budget or spending changed
+     *
+     * @param category - category that changed
+     */
+    public void categoryChanged(String category) {
+        Integer row = rows.get(category);
+
+        if(row != null) {
+            text.set(row, null);
+            fireContentsChanged(this, row, row);
+        }
+    }
+
+    /**
+     * Removes the row of a category that was removed from the budget
+     *
+     * @param category - category removed
+     */
+    public void categoryRemoved(String category) {
+        Integer row = rows.remove(category);
+
+        if(row != null) {
+            categories.remove((int) row);
+            text.remove((int) row);
+            for(int i = row; i < categories.size(); i++) {
+                rows.put(categories.get(i), i);
+            }
+            fireIntervalRemoved(this, row, row);
+        }
+    }
+
+    /**
+     * Returns the category shown in a row
+     *
+     * @param row - row number
+     * @return category name
+     */
+    public String getCategoryAt(int row) {
+        return categories.get(row);
+    }
+
+    /**
+     * Returns the number of categories
+     *
+     * @return number of rows
+     */
+    @Override
+    public int getSize() {
+        return categories.size();
+    }
+
+    /**
+     * Returns the text of a row as category | $budget | $remaining, building it if it isn't cached
+     *
+     * @param row - row number
+     * @return text of the row
+     */
+    @Override
+    public String getElementAt(int row) {
+        String cached = text.get(row);
+
+        if(cached == null) {
+            String category = categories.get(row);
+            int total = budget.getBudget().get(category);
+            long remaining = total - budget.getCategorySpent(category);
+
+            StringBuilder str = new StringBuilder();
+            str.append(category);
+            str.append(" | $");
+            Money.appendDollars(str, total);
+            str.append(" | $");
+            Money.appendDollars(str, remaining);
+
+            cached = str.toString();
+            text.set(row, cached);
+        }
+
+        return cached;
+    }
+}
@@ -0,0 +1,488 @@
+package net.hesterberg.budget.manager;
+
+import net.hesterberg.budget.budget.Budget;
+import net.hesterberg.budget.budget.PurchaseFilter;
+import net.hesterberg.budget.budget.PurchaseSort;
+import net.hesterberg.budget.transaction.Purchase;
+import net.hesterberg.budget.utility.Money;
+
+import javax.swing.ListModel;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import javax.swing.table.AbstractTableModel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Swing model showing the purchases of a budget, usable by both a JList and a JTable
+ * Reads each row from the budget only when Swing asks for it, so only the visible rows are ever built and formatted
+ * and loading a budget with a million purchases costs the same as loading an empty one
+ * Changes are reported with events covering only the rows that changed, with runs of neighbouring rows added or
+ * removed in one batch reported as a single event
+ * With a filter set only the matching purchases are shown, and any change to the purchases runs the filter again
+ * With a search set only the purchases whose descriptions match are shown, best match first
+ * With a sort set the rows are read through the budget's cached order for that field, so changing the sort or the
+ * direction never sorts the purchases again, and any change to the purchases shows the new order
+ *
+ * @author Nikolai Hesterberg
+ */
+public class PurchaseTableModel extends AbstractTableModel implements ListModel<Purchase>, BudgetListener {
+    /**
+     * Column headings shown by a JTable
+     */
+    private static final String[] COLUMNS = {"Date", "Description", "Amount", "Category"};
+
+    /**
+     * Field each column sorts by
+     */
+    private static final PurchaseSort[] COLUMN_SORTS = {PurchaseSort.DATE, PurchaseSort.DESCRIPTION,
+            PurchaseSort.AMOUNT, PurchaseSort.CATEGORY};
+
+    /**
+     * Budget whose purchases are shown, or null to show nothing
+     */
+    private Budget budget;
+
+    /**
+     * Number of rows the views have been told about
+     * Kept apart from the budget so views never see a row before the event adding it has been delivered
+     */
+    private int size;
+
+    /**
+     * Filter the purchases must match to be shown, or null to show every purchase
+     */
+    private PurchaseFilter filter;
+
+    /**
+     * Words the descriptions of the shown purchases must match, or null to show every purchase
+     */
+    private String search;
+
+    /**
+     * Budget row of each shown row while a filter or search is set, otherwise null
+     */
+    private int[] filteredRows;
+
+    /**
+     * Field the rows are sorted by, or null to show them in budget order
+     */
+    private PurchaseSort sort;
+
+    /**
+     * Whether the sorted rows are shown smallest first
+     */
+    private boolean ascending;
+
+    /**
+     * Row of the purchase in lastPurchase, or -1 if there is none
+     */
+    private int lastRow;
+
+    /**
+     * Last purchase read from the budget, so the cells of one table row share a single read
+     */
+    private Purchase lastPurchase;
+
+    /**
+     * Builds a model that shows nothing until a budget is set
+     */
+    public PurchaseTableModel() {
+        this.budget = null;
+        this.size = 0;
+        this.filter = null;
+        this.search = null;
+        this.filteredRows = null;
+        this.sort = null;
+        this.ascending = true;
+        this.lastRow = -1;
+    }
+
+    /**
+     * Shows the purchases of a different budget
+     *
+     * @param budget - budget to show
+     */
+    public void setBudget(Budget budget) {
+        int oldSize = size;
+
+        this.budget = null;
+        size = 0;
+        filteredRows = null;
+        lastRow = -1;
+        if(oldSize > 0) {
+            fireIntervalRemoved(0, oldSize - 1);
+        }
+
+        this.budget = budget;
+        if(budget != null && search != null) {
+            filteredRows = budget.search(search, Integer.MAX_VALUE);
+            if(filter != null) {
+                filteredRows = keepMatches(filteredRows, budget.filter(filter));
+            }
+            size = filteredRows.length;
+        }
+        else if(budget != null && filter != null) {
+            filteredRows = budget.filter(filter);
+            size = filteredRows.length;
+        }
+        else {
+            size = budget == null ? 0 : budget.getPurchaseCount();
+        }
+        if(filteredRows != null && sort != null) {
+            filteredRows = budget.sortRows(sort, filteredRows);
+            if(!ascending) {
+                reverse(filteredRows);
+            }
+        }
+        if(size > 0) {
+            fireIntervalAdded(0, size - 1);
+        }
+    }
+
+    /**
+     * Shows only the purchases that match the filter
+     *
+     * @param filter - filter to apply, or null or an empty filter to show every purchase
+     */
+    public void setFilter(PurchaseFilter filter) {
+        this.filter = filter == null || filter.isEmpty() ? null : filter;
+        setBudget(budget);
+    }
+
+    /**
+     * Returns the filter the shown purchases match
+     *
+     * @return the filter, or null if every purchase is shown
+     */
+    public PurchaseFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Shows only the purchases whose descriptions match the words, as Budget.search does
+     * Cheap enough to call on every key press
+     *
+     * @param search - words to search for, or null or blank to stop searching
+     */
+    public void setSearch(String search) {
+        this.search = search == null || search.trim().isEmpty() ? null : search;
+        setBudget(budget);
+    }
+
+    /**
+     * Sorts the rows by a field, or shows them in budget order
+     *
+     * @param sort - field to sort by, or null for budget order
+     * @param ascending - true to show the smallest first
+     */
+    public void setSort(PurchaseSort sort, boolean ascending) {
+        this.sort = sort;
+        this.ascending = ascending;
+        setBudget(budget);
+    }
+
+    /**
+     * Sorts the rows by the field of a column - smallest first, or largest first if the rows are already sorted
+     * smallest first by that column
+     *
+     * @param column - column number
+     */
+    public void toggleSort(int column) {
+        PurchaseSort columnSort = COLUMN_SORTS[column];
+        setSort(columnSort, columnSort != sort || !ascending);
+    }
+
+    /**
+     * Returns the field the rows are sorted by
+     *
+     * @return the field, or null if the rows are in budget order
+     */
+    public PurchaseSort getSort() {
+        return sort;
+    }
+
+    /**
+     * Returns whether the sorted rows are shown smallest first
+     *
+     * @return true if smallest first
+     */
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    /**
+     * Returns the budget row of the purchase shown in a row
+     *
+     * @param row - row of the view
+     * @return row of the purchase in the budget
+     */
+    public int getBudgetRow(int row) {
+        if(filteredRows != null) {
+            return filteredRows[row];
+        }
+        if(sort != null) {
+            return budget.getSortedRow(sort, ascending ? row : size - 1 - row);
+        }
+        return row;
+    }
+
+    /**
+     * Returns the stable id of the purchase shown in a row, for BudgetManager.deletePurchase
+     *
+     * @param row - row of the view
+     * @return id of the purchase
+     */
+    public int getPurchaseId(int row) {
+        return budget.getPurchaseId(getBudgetRow(row));
+    }
+
+    /**
+     * Returns the stable ids of the purchases shown in several rows, for the BudgetManager's batch edits
+     *
+     * @param rows - rows of the view
+     * @return id of the purchase in each row
+     */
+    public int[] getPurchaseIds(int[] rows) {
+        int[] ids = new int[rows.length];
+
+        for(int i = 0; i < rows.length; i++) {
+            ids[i] = getPurchaseId(rows[i]);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Updates the rows for a batch of changes from the BudgetManager
+     *
+     * @param change - the batch of changes
+     */
+    @Override
+    public void budgetChanged(BudgetChange change) {
+        if(change.isReset() || change.getBudget() != budget) {
+            setBudget(change.getBudget());
+            return;
+        }
+
+        List<BudgetEvent> events = change.getEvents();
+        if(filter != null || search != null || sort != null) {
+            //budget rows don't map onto shown rows, so any purchase change runs the filter or reads the order again
+            for(BudgetEvent event: events) {
+                if(event.isPurchaseEvent()) {
+                    setBudget(budget);
+                    return;
+                }
+            }
+            return;
+        }
+
+        int i = 0;
+        while(i < events.size()) {
+            BudgetEvent event = events.get(i++);
+            int first = event.getRow();
+            int last = first;
+
+            switch(event.getType()) {
+                case PURCHASE_ADDED:
+                    //rows added one after another
+                    while(i < events.size() && events.get(i).getType() == BudgetEvent.Type.PURCHASE_ADDED
+                            && events.get(i).getRow() == last + 1) {
+                        last++;
+                        i++;
+                    }
+                    lastRow = -1;
+                    size += last - first + 1;
+                    fireIntervalAdded(first, last);
+                    break;
+                case PURCHASE_REMOVED:
+                    //rows removed from the same place, or each one above the last
+                    while(i < events.size() && events.get(i).getType() == BudgetEvent.Type.PURCHASE_REMOVED
+                            && (events.get(i).getRow() == first || events.get(i).getRow() == first - 1)) {
+                        if(events.get(i).getRow() == first) {
+                            last++;
+                        }
+                        else {
+                            first--;
+                        }
+                        i++;
+                    }
+                    lastRow = -1;
+                    size -= last - first + 1;
+                    fireIntervalRemoved(first, last);
+                    break;
+                case PURCHASES_CHANGED:
+                    setBudget(budget);
+                    return;
+                default:
+                    break;
+            }
+        }
+    }
+
+    //----------------LIST MODEL---------------------------------//
+    /**
+     * Returns the number of purchases
+     *
+     * @return number of purchases in the budget
+     */
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the purchase in a row, read from the budget
+     *
+     * @param row - row of the purchase
+     * @return copy of the purchase
+     */
+    @Override
+    public Purchase getElementAt(int row) {
+        if(row != lastRow) {
+            lastPurchase = budget.getPurchase(getBudgetRow(row));
+            lastRow = row;
+        }
+
+        return lastPurchase;
+    }
+
+    /**
+     * Adds a listener notified when rows are added, removed or changed
+     *
+     * @param listener - listener to add
+     */
+    @Override
+    public void addListDataListener(ListDataListener listener) {
+        listenerList.add(ListDataListener.class, listener);
+    }
+
+    /**
+     * Removes a listener added by addListDataListener
+     *
+     * @param listener - listener to remove
+     */
+    @Override
+    public void removeListDataListener(ListDataListener listener) {
+        listenerList.remove(ListDataListener.class, listener);
+    }
+
+    //----------------TABLE MODEL---------------------------------//
+    /**
+     * Returns the number of purchases
+     *
+     * @return number of purchases in the budget
+     */
+    @Override
+    public int getRowCount() {
+        return getSize();
+    }
+
+    /**
+     * Returns the number of columns - date, description, amount and category
+     *
+     * @return number of columns
+     */
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    /**
+     * Returns the heading of a column, marked with an arrow if the rows are sorted by it
+     *
+     * @param column - column number
+     * @return heading of the column
+     */
+    @Override
+    public String getColumnName(int column) {
+        if(COLUMN_SORTS[column] == sort) {
+            return COLUMNS[column] + (ascending ? " \u25B2" : " \u25BC");
+        }
+        return COLUMNS[column];
+    }
+
+    /**
+     * Returns one field of the purchase in a row, formatted for display
+     *
+     * @param row - row of the purchase
+     * @param column - column number
+     * @return the field
+     */
+    @Override
+    public Object getValueAt(int row, int column) {
+        Purchase purchase = getElementAt(row);
+
+        switch(column) {
+            case 0:
+                return purchase.getDate();
+            case 1:
+                return purchase.getDescription();
+            case 2:
+                return Money.toDollars(purchase.getPrice());
+            default:
+                return purchase.getCategory();
+        }
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Returns the rows that are also in the allowed rows, keeping their order
+     *
+     * @param rows - rows to keep or drop
+     * @param allowed - allowed rows, sorted
+     * @return the rows found in allowed
+     */
+    private static int[] keepMatches(int[] rows, int[] allowed) {
+        int kept = 0;
+
+        for(int row: rows) {
+            if(Arrays.binarySearch(allowed, row) >= 0) {
+                rows[kept++] = row;
+            }
+        }
+
+        return Arrays.copyOf(rows, kept);
+    }
+
+    /**
+     * Reverses the rows in place
+     *
+     * @param rows - rows to reverse
+     */
+    private static void reverse(int[] rows) {
+        for(int i = 0, j = rows.length - 1; i < j; i++, j--) {
+            int row = rows[i];
+            rows[i] = rows[j];
+            rows[j] = row;
+        }
+    }
+
+    /**
+     * Tells the list and table listeners that rows were added
+     *
+     * @param first - first row added
+     * @param last - last row added
+     */
+    private void fireIntervalAdded(int first, int last) {
+        ListDataEvent event = new ListDataEvent(this, ListDataEvent.INTERVAL_ADDED, first, last);
+        for(ListDataListener listener: listenerList.getListeners(ListDataListener.class)) {
+            listener.intervalAdded(event);
+        }
+        fireTableRowsInserted(first, last);
+    }
+
+    /**
+     * Tells the list and table listeners that rows were removed
+     *
+     * @param first - first row removed
+     * @param last - last row removed
+     */
+    private void fireIntervalRemoved(int first, int last) {
+        ListDataEvent event = new ListDataEvent(this, ListDataEvent.INTERVAL_REMOVED, first, last);
+        for(ListDataListener listener: listenerList.getListeners(ListDataListener.class)) {
+            listener.intervalRemoved(event);
+        }
+        fireTableRowsDeleted(first, last);
+    }
+}
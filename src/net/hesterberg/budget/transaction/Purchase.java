@@ -1,6 +1,7 @@
 package net.hesterberg.budget.transaction;
 
 import net.hesterberg.budget.Date;
+import net.hesterberg.budget.utility.Money;
 
 public class Purchase implements Transaction, Comparable<Purchase> {
     private Date date;
@@ -140,7 +141,7 @@ public class Purchase implements Transaction, Comparable<Purchase> {
         str.append(" | ");
         str.append(this.description);
         str.append(" | $");
-        str.append(String.format ("%.2f", ((double)this.price / 100)));
+        Money.appendDollars(str, this.price);
         str.append(" | ");
         str.append(this.category);
 
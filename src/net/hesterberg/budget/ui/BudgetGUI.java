@@ -1,18 +1,40 @@
 package net.hesterberg.budget.ui;
 
 import net.hesterberg.budget.Date;
+import net.hesterberg.budget.budget.PurchaseStats;
+import net.hesterberg.budget.manager.BudgetChange;
+import net.hesterberg.budget.manager.BudgetListener;
 import net.hesterberg.budget.manager.BudgetManager;
+import net.hesterberg.budget.manager.CategoryListModel;
+import net.hesterberg.budget.manager.PurchaseTableModel;
 import net.hesterberg.budget.transaction.Purchase;
-import net.hesterberg.budget.transaction.Transaction;
+import net.hesterberg.budget.utility.BudgetFileIO;
+import net.hesterberg.budget.utility.CategoryException;
+import net.hesterberg.budget.utility.Money;
+import net.hesterberg.budget.utility.ProgressListener;
 import net.hesterberg.budget.utility.PurchaseFailureException;
 
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.*;
 import javax.swing.border.Border;
+import javax.swing.border.TitledBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
@@ -66,21 +88,41 @@ public class BudgetGUI extends JFrame implements ActionListener {
     private Object [][] data;
     /** The manager that modifies the underlying budget model */
     BudgetManager manager;
+    /** Controls that change the budget, disabled while a file is loaded or saved */
+    ArrayList<Component> editControls = new ArrayList<Component>();
+    /** Shows how far a load or save has got */
+    ProgressPanel progressPanel;
+    /** Load or save running in the background, or null if there is none */
+    FileWorker<?> fileWorker;
+    /** Runs loads, saves and journal compactions one at a time, so two saves never write the same file at once */
+    ExecutorService fileExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Budget files");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     //-----------The lists that store data in the JScrollList and associated Model-----------//
     //TODO: Update the comments on these to make them more accurate
     JList budgetList;
     JScrollPane budgetScrollPane;
-    DefaultListModel<Transaction> budgetListModel;
-    JList purchaseList;
+    CategoryListModel budgetListModel;
     JScrollPane purchaseScrollPane;
-    DefaultListModel<Transaction> purchaseListModel;
+    PurchaseTableModel purchaseModel;
+    JTextField searchField;
 
     public BudgetGUI() {
         super();
 
-        //Setup the budgetmanager
+        //Setup the budgetmanager - changes made during one event are delivered to the views together
         manager = BudgetManager.getBudgetManager();
+        manager.setDispatcher(SwingUtilities::invokeLater);
+        manager.setSaveExecutor(fileExecutor);
+        manager.setSaveFailureHandler(error -> JOptionPane.showMessageDialog(BudgetGUI.super.rootPane,
+                "File not saved. Your changes are still kept in the journal.", "Saving Error",
+                JOptionPane.ERROR_MESSAGE));
 
         // Set up general GUI info
         setSize(1500, 600);
@@ -125,6 +167,10 @@ public class BudgetGUI extends JFrame implements ActionListener {
         left.add(budgetButtonPanel);
         left.add(statsPanel);
 
+        //--------------------- Adds the progress bar shown while a file is loaded or saved ----------//
+        progressPanel = new ProgressPanel();
+        left.add(progressPanel);
+
         //--------------------- Adds the bottom right button panel ------------------------------//
         JPanel purchaseButtonPanel = new PurchaseButtonPanel();
         right.add(purchaseButtonPanel);
@@ -195,6 +241,10 @@ public class BudgetGUI extends JFrame implements ActionListener {
             }
         });
 
+        editControls.add(itemNewFile);
+        editControls.add(itemLoadFile);
+        editControls.add(itemSaveFile);
+
         itemQuit.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent actionEvent) {
@@ -212,28 +262,31 @@ public class BudgetGUI extends JFrame implements ActionListener {
     }
 
     private void newFile() {
-        if (manager.isChanged())
-        {
-            saveFile();
-        }
-        if (!manager.isChanged())
-        {
-
-        } else { // Did NOT save when prompted to save
-            JOptionPane.showMessageDialog(this,
-                    "Budget changes have not been saved. Your changes are lost.", "Saving Error",
-                    JOptionPane.ERROR_MESSAGE);
-        }
-
-        manager.clearBudget(budgetListModel, purchaseListModel);
+        saveIfChanged(new Runnable() {
+            @Override
+            public void run() {
+                manager.clearBudget();
+            }
+        });
     }
+
     /**
      * Method to save the budget to a file
      */
     private void saveFile() {
+        saveFile(null);
+    }
+
+    /**
+     * Method to save the budget to a file
+     * The file is written in the background, so the next step runs once the save has finished or failed
+     *
+     * @param then - runs after the save, or null
+     */
+    private void saveFile(Runnable then) {
         try {
             JFileChooser chooser = new JFileChooser("./");
-            FileNameExtensionFilter filter = new FileNameExtensionFilter("Budget files (txt)", "txt");
+            FileNameExtensionFilter filter = new FileNameExtensionFilter("Budget files (txt, bgt)", "txt", "bgt");
             chooser.setFileFilter(filter);
             chooser.setMultiSelectionEnabled(false);
             int returnVal = chooser.showSaveDialog(BudgetGUI.super.rootPane);
@@ -241,24 +294,60 @@ public class BudgetGUI extends JFrame implements ActionListener {
             {
                 String filename = chooser.getSelectedFile().getAbsolutePath();
                 if (chooser.getSelectedFile().getName().trim().equals("")
-                        || !chooser.getSelectedFile().getName().endsWith(".txt"))
+                        || !isBudgetFile(chooser.getSelectedFile().getName()))
                 {
                     throw new IllegalArgumentException();
                 }
-                manager.saveBudget(filename);
+                startFileWorker(new SaveWorker(filename, then));
+                return;
             }
         } catch (IllegalArgumentException e) {
             JOptionPane.showMessageDialog(BudgetGUI.super.rootPane, "File not saved.", "Saving Error", JOptionPane.ERROR_MESSAGE);
         }
+
+        if (then != null)
+        {
+            then.run();
+        }
     }
 
     /**
-     * Method to save the budget to a file
+     * Offers to save the budget if it has changed, then runs the next step
+     * Warns that the changes are lost if the budget still isn't saved
+     *
+     * @param then - runs after the budget is saved or the user declines
+     */
+    private void saveIfChanged(final Runnable then) {
+        Runnable warnAndContinue = new Runnable() {
+            @Override
+            public void run() {
+                if (manager.isChanged())
+                { // Did NOT save when prompted to save
+                    JOptionPane.showMessageDialog(BudgetGUI.this,
+                            "Budget changes have not been saved. Your changes are lost.", "Saving Error",
+                            JOptionPane.ERROR_MESSAGE);
+                }
+                then.run();
+            }
+        };
+
+        if (manager.isChanged())
+        {
+            saveFile(warnAndContinue);
+        } else
+        {
+            then.run();
+        }
+    }
+
+    /**
+     * Method to load the budget from a file
+     * The file is read in the background and replaces the current budget once it has been read
      */
     private void loadFile() {
         try {
             JFileChooser chooser = new JFileChooser("./");
-            FileNameExtensionFilter filter = new FileNameExtensionFilter("Budget files (txt)", "txt");
+            FileNameExtensionFilter filter = new FileNameExtensionFilter("Budget files (txt, bgt)", "txt", "bgt");
             chooser.setFileFilter(filter);
             chooser.setMultiSelectionEnabled(false);
             if (manager.getFilename() != null)
@@ -270,12 +359,11 @@ public class BudgetGUI extends JFrame implements ActionListener {
             {
                 String filename = chooser.getSelectedFile().getAbsolutePath();
                 if (chooser.getSelectedFile().getName().trim().equals("")
-                        || !chooser.getSelectedFile().getName().endsWith(".txt"))
+                        || !isBudgetFile(chooser.getSelectedFile().getName()))
                 {
                     throw new IllegalArgumentException();
                 }
-                manager.setFilename(filename);
-                manager.loadBudget(filename, budgetListModel, purchaseListModel);
+                startFileWorker(new LoadWorker(filename));
             }
         } catch (IllegalArgumentException e) {
             JOptionPane.showMessageDialog(BudgetGUI.super.rootPane, "File not loaded.", "Loading Error", JOptionPane.ERROR_MESSAGE);
@@ -283,24 +371,57 @@ public class BudgetGUI extends JFrame implements ActionListener {
     }
 
     /**
-     * Method to save the budget to a file
+     * Runs a load or save in the background, showing its progress and disabling edits until it finishes
+     * The budget must not change while it is being written, and a load replaces it anyway
+     *
+     * @param worker - load or save to run
      */
-    private void exit() {
-        if (manager.isChanged())
+    private void startFileWorker(FileWorker<?> worker) {
+        fileWorker = worker;
+        for (Component control: editControls)
         {
-            saveFile();
+            control.setEnabled(false);
         }
+        progressPanel.start(worker);
+        fileExecutor.execute(worker);
+    }
 
-        if (!manager.isChanged())
+    /**
+     * Hides the progress bar and enables edits again once a load or save has finished
+     */
+    private void finishFileWorker() {
+        fileWorker = null;
+        progressPanel.finish();
+        for (Component control: editControls)
         {
-            System.exit(NORMAL);
-        } else
-        { // Did NOT save when prompted to save
-            JOptionPane.showMessageDialog(this,
-                    "Budget changes have not been saved. Your changes are lost.", "Saving Error",
-                    JOptionPane.ERROR_MESSAGE);
-            System.exit(NORMAL);
+            control.setEnabled(true);
+        }
+    }
+
+    /**
+     * Returns whether the filename has one of the budget file extensions
+     *
+     * @param name - name of the file
+     * @return true for text and binary budget files
+     */
+    private boolean isBudgetFile(String name) {
+        return name.endsWith(BudgetFileIO.TEXT_EXTENSION) || name.endsWith(BudgetFileIO.BINARY_EXTENSION);
+    }
+
+    /**
+     * Method to save the budget to a file
+     */
+    private void exit() {
+        if (fileWorker != null)
+        {
+            fileWorker.cancel(true);
         }
+        saveIfChanged(new Runnable() {
+            @Override
+            public void run() {
+                System.exit(NORMAL);
+            }
+        });
     }
 
     /**
@@ -318,9 +439,170 @@ public class BudgetGUI extends JFrame implements ActionListener {
 
     }
 
+    /**
+     * Load or save run on a background thread
+     * Progress is published as a percentage through setProgress, which Swing coalesces onto the event dispatch thread
+     * The result is handled on the event dispatch thread only once the background thread has stopped, so a cancelled
+     * save can't still be writing the budget when edits are enabled again
+     *
+     * @param <T> - result of the load or save
+     */
+    private abstract class FileWorker<T> extends SwingWorker<Void, Void> implements ProgressListener {
+        /** Last percentage published, so reads that don't move the bar aren't published */
+        private int percent = -1;
+        /** Whether the background work has started, so a worker cancelled while it was queued still finishes */
+        private volatile boolean started = false;
+
+        /**
+         * Loads or saves the file on the background thread
+         *
+         * @return result of the load or save
+         */
+        protected abstract T work();
+
+        /**
+         * Handles the outcome on the event dispatch thread
+         *
+         * @param result - result of work, or null if it failed
+         * @param cancelled - true if the user cancelled the load or save
+         * @param error - exception thrown by work, or null
+         */
+        protected abstract void finished(T result, boolean cancelled, RuntimeException error);
+
+        @Override
+        protected final Void doInBackground() {
+            started = true;
+            T result = null;
+            RuntimeException error = null;
+
+            try {
+                result = work();
+            } catch (RuntimeException re) {
+                error = re;
+            }
+
+            final T finalResult = result;
+            final RuntimeException finalError = error;
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    finishFileWorker();
+                    finished(finalResult, isCancelled() || finalError instanceof CancellationException,
+                            finalError);
+                }
+            });
+            return null;
+        }
+
+        @Override
+        protected final void done() {
+            if (!started)
+            { //Cancelled while waiting behind another load, save or compaction
+                finishFileWorker();
+                finished(null, true, null);
+            }
+        }
+
+        @Override
+        public synchronized void progress(long done, long total) {
+            int next = total <= 0 ? 100 : (int) Math.min(100, done * 100 / total);
+            if (next > percent)
+            {
+                percent = next;
+                setProgress(next);
+            }
+        }
+    }
+
+    /**
+     * Reads a budget file on a background thread and replaces the current budget with it
+     */
+    private class LoadWorker extends FileWorker<BudgetManager.LoadedBudget> {
+        /** File to load */
+        private final String filename;
+
+        /**
+         * Builds a worker that loads the given file
+         *
+         * @param filename - file to load
+         */
+        LoadWorker(String filename) {
+            this.filename = filename;
+        }
+
+        @Override
+        protected BudgetManager.LoadedBudget work() {
+            return manager.readBudget(filename, this);
+        }
+
+        @Override
+        protected void finished(BudgetManager.LoadedBudget loaded, boolean cancelled, RuntimeException error) {
+            if (cancelled)
+            { //The current budget stays loaded
+                if (loaded != null)
+                {
+                    loaded.discard();
+                }
+            } else if (error != null)
+            {
+                JOptionPane.showMessageDialog(BudgetGUI.super.rootPane, "File not loaded.", "Loading Error", JOptionPane.ERROR_MESSAGE);
+            } else
+            {
+                manager.loadBudget(loaded);
+            }
+        }
+    }
+
+    /**
+     * Writes the budget to a file on a background thread
+     * The manager only records the save once the whole file has been written
+     */
+    private class SaveWorker extends FileWorker<Void> {
+        /** File to save to */
+        private final String filename;
+        /** Runs after the save, or null */
+        private final Runnable then;
+
+        /**
+         * Builds a worker that saves to the given file
+         *
+         * @param filename - file to save to
+         * @param then - runs after the save, or null
+         */
+        SaveWorker(String filename, Runnable then) {
+            this.filename = filename;
+            this.then = then;
+        }
+
+        @Override
+        protected Void work() {
+            manager.writeBudget(filename, this);
+            return null;
+        }
+
+        @Override
+        protected void finished(Void result, boolean cancelled, RuntimeException error) {
+            if (cancelled)
+            { //The budget is still unsaved
+            } else if (error != null)
+            {
+                JOptionPane.showMessageDialog(BudgetGUI.super.rootPane, "File not saved.", "Saving Error", JOptionPane.ERROR_MESSAGE);
+            } else
+            {
+                manager.budgetSaved(filename);
+            }
+            if (then != null)
+            {
+                then.run();
+            }
+        }
+    }
+
     public class BudgetList extends JPanel {
         public BudgetList() {
-            budgetListModel = new DefaultListModel<>();
+            budgetListModel = new CategoryListModel();
+            budgetListModel.setBudget(manager.getBudget());
+            manager.addBudgetListener(budgetListModel);
 
             budgetList = new JList(budgetListModel);
             budgetScrollPane = new JScrollPane(budgetList, JScrollPane.VERTICAL_SCROLLBAR_ALWAYS,
@@ -333,16 +615,117 @@ public class BudgetGUI extends JFrame implements ActionListener {
     public class PurchaseList extends JPanel {
 
         public PurchaseList() {
-            purchaseListModel = new DefaultListModel<>();
-            purchaseListModel.addElement(new Purchase(new Date(15, 5, 2015), "Purchase 1", 5000, "Category 1", false));
-            purchaseListModel.addElement(new Purchase(new Date(15, 5, 2015), "Purchase 2", 5000, "Category 1", false));
-            purchaseListModel.addElement(new Purchase(new Date(15, 5, 2015), "Purchase 3", 5000, "Category 1", false));
+            purchaseModel = new PurchaseTableModel();
+            purchaseModel.setBudget(manager.getBudget());
+            manager.addBudgetListener(purchaseModel);
+
+            //Fixed height rows let the table lay out a million rows without building each one
+            tablePurchases = new JTable(purchaseModel);
+            tablePurchases.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
 
-            purchaseList = new JList(purchaseListModel);
-            purchaseScrollPane = new JScrollPane(purchaseList, JScrollPane.VERTICAL_SCROLLBAR_ALWAYS,
+            //Sorts through the budget's cached orders rather than a RowSorter, which would sort every row per click
+            tablePurchases.getTableHeader().setReorderingAllowed(false);
+            tablePurchases.getTableHeader().addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent mouseEvent) {
+                    int column = tablePurchases.columnAtPoint(mouseEvent.getPoint());
+                    if(column != -1) {
+                        purchaseModel.toggleSort(column);
+                        for(int i = 0; i < purchaseModel.getColumnCount(); i++) {
+                            tablePurchases.getColumnModel().getColumn(i).setHeaderValue(purchaseModel.getColumnName(i));
+                        }
+                        tablePurchases.getTableHeader().repaint();
+                    }
+                }
+            });
+            purchaseScrollPane = new JScrollPane(tablePurchases, JScrollPane.VERTICAL_SCROLLBAR_ALWAYS,
                     JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS);
             purchaseScrollPane.setPreferredSize(new Dimension(700, 400));
-            add(purchaseScrollPane);
+
+            //Searches the descriptions as the user types
+            searchField = new JTextField(40);
+            searchField.getDocument().addDocumentListener(new DocumentListener() {
+                @Override
+                public void insertUpdate(DocumentEvent documentEvent) {
+                    purchaseModel.setSearch(searchField.getText());
+                }
+
+                @Override
+                public void removeUpdate(DocumentEvent documentEvent) {
+                    purchaseModel.setSearch(searchField.getText());
+                }
+
+                @Override
+                public void changedUpdate(DocumentEvent documentEvent) {
+                    purchaseModel.setSearch(searchField.getText());
+                }
+            });
+
+            setLayout(new BorderLayout());
+            JPanel searchPanel = new JPanel();
+            searchPanel.add(new JLabel("Search:"));
+            searchPanel.add(searchField);
+            add(searchPanel, BorderLayout.NORTH);
+            add(purchaseScrollPane, BorderLayout.CENTER);
+        }
+    }
+
+    /**
+     * Progress bar and cancel button shown while a file is loaded or saved
+     */
+    public class ProgressPanel extends JPanel {
+        /** How far the load or save has got */
+        private JProgressBar progressBar;
+
+        public ProgressPanel() {
+            setupPanel();
+        }
+
+        private void setupPanel() {
+            setLayout(new FlowLayout());
+            progressBar = new JProgressBar(0, 100);
+            progressBar.setStringPainted(true);
+            JButton cancelBtn = new JButton("Cancel");
+
+            cancelBtn.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent actionEvent) {
+                    if(fileWorker != null) {
+                        fileWorker.cancel(true);
+                    }
+                }
+            });
+
+            add(progressBar);
+            add(cancelBtn);
+            setVisible(false);
+        }
+
+        /**
+         * Shows the panel and follows the progress of a worker
+         *
+         * @param worker - load or save being run
+         */
+        public void start(FileWorker<?> worker) {
+            progressBar.setValue(0);
+            worker.addPropertyChangeListener(new PropertyChangeListener() {
+                @Override
+                public void propertyChange(PropertyChangeEvent event) {
+                    if("progress".equals(event.getPropertyName())) {
+                        progressBar.setValue((Integer) event.getNewValue());
+                    }
+                }
+            });
+            setVisible(true);
+            revalidate();
+        }
+
+        /**
+         * Hides the panel once the load or save has finished
+         */
+        public void finish() {
+            setVisible(false);
+            revalidate();
         }
     }
 
@@ -368,7 +751,7 @@ public class BudgetGUI extends JFrame implements ActionListener {
                         JOptionPane.showMessageDialog(BudgetGUI.super.rootPane, "No budget selected!");
                     }
                     else {
-                        manager.removeCategory(budgetList.getSelectedIndex(), budgetListModel, purchaseListModel);
+                        manager.removeCategory(budgetListModel.getCategoryAt(budgetList.getSelectedIndex()));
                     }
                 }
             });
@@ -379,8 +762,7 @@ public class BudgetGUI extends JFrame implements ActionListener {
                     int result = JOptionPane.showConfirmDialog(BudgetGUI.super.rootPane, budgetInput,
                             "Plese enter budget category details", JOptionPane.OK_CANCEL_OPTION);
                     if(result == JOptionPane.OK_OPTION) {
-                        manager.addCategory(budgetInput.getCategory().getText(), budgetInput.getAmount().getText(),
-                                budgetListModel);
+                        manager.addCategory(budgetInput.getCategory().getText(), budgetInput.getAmount().getText());
                     }
                 }
             });
@@ -396,41 +778,131 @@ public class BudgetGUI extends JFrame implements ActionListener {
             add(deleteBudgetBtn);
             add(updateBudgetBtn);
             add(addBudgetBtn);
+            editControls.add(deleteBudgetBtn);
+            editControls.add(updateBudgetBtn);
+            editControls.add(addBudgetBtn);
         }
     }
 
-    public class StatsPanel extends JPanel {
+    /**
+     * Shows the statistics of the selected category, or of the whole budget when no category is selected
+     * Changes are batched by the manager and refreshes are throttled by a timer, so a burst of edits redraws the
+     * labels once - every figure is a running total in the budget, so a refresh never looks at the purchases
+     */
+    public class StatsPanel extends JPanel implements BudgetListener {
+        /** Most refreshes per second */
+        private static final int REFRESH_DELAY = 100;
+        private JLabel budgetAmt;
+        private JLabel spentAmt;
+        private JLabel remainingAmt;
+        private JLabel countAmt;
+        private JLabel meanAmt;
+        private JLabel largestAmt;
+        private TitledBorder border;
+        private Timer refreshTimer;
+
         public StatsPanel() {
             setupPanel();
         }
 
         private void setupPanel() {
-            setLayout(new GridLayout(1,3));
-            JPanel overallBudget = new JPanel();
-            JPanel overallSpent = new JPanel();
-            JPanel overallRemaining = new JPanel();
-            overallBudget.setLayout(new GridLayout(1, 2));
-            overallSpent.setLayout(new GridLayout(1, 2));
-            overallRemaining.setLayout(new GridLayout(1, 2));
-
-            JLabel budgetLabel = new JLabel("Budget:");
-            JLabel budgetAmt = new JLabel("$3000");
-            overallBudget.add(budgetLabel);
-            overallBudget.add(budgetAmt);
-
-            JLabel spentLabel = new JLabel("Spent:");
-            JLabel spentAmt = new JLabel("$1000");
-            overallSpent.add(spentLabel);
-            overallSpent.add(spentAmt);
-
-            JLabel remainingLabel = new JLabel("Remaining: ");
-            JLabel remainingAmt = new JLabel("$2000");
-            overallRemaining.add(remainingLabel);
-            overallRemaining.add(remainingAmt);
-
-            add(overallBudget);
-            add(overallSpent);
-            add(overallRemaining);
+            setLayout(new GridLayout(2, 3));
+            border = BorderFactory.createTitledBorder("Overall");
+            setBorder(border);
+
+            budgetAmt = addStat("Budget:");
+            spentAmt = addStat("Spent:");
+            remainingAmt = addStat("Remaining: ");
+            countAmt = addStat("Purchases:");
+            meanAmt = addStat("Mean:");
+            largestAmt = addStat("Largest:");
+
+            refreshTimer = new Timer(REFRESH_DELAY, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent actionEvent) {
+                    refresh();
+                }
+            });
+            refreshTimer.setRepeats(false);
+
+            manager.addBudgetListener(this);
+            budgetList.addListSelectionListener(new ListSelectionListener() {
+                @Override
+                public void valueChanged(ListSelectionEvent listSelectionEvent) {
+                    scheduleRefresh();
+                }
+            });
+            refresh();
+        }
+
+        /**
+         * Adds a label and value pair
+         *
+         * @param label - text of the label
+         * @return label showing the value
+         */
+        private JLabel addStat(String label) {
+            JPanel stat = new JPanel();
+            stat.setLayout(new GridLayout(1, 2));
+            JLabel amount = new JLabel();
+            stat.add(new JLabel(label));
+            stat.add(amount);
+            add(stat);
+            return amount;
+        }
+
+        @Override
+        public void budgetChanged(BudgetChange change) {
+            scheduleRefresh();
+        }
+
+        /**
+         * Refreshes the labels once the timer fires, unless a refresh is already waiting
+         */
+        private void scheduleRefresh() {
+            if (!refreshTimer.isRunning())
+            {
+                refreshTimer.start();
+            }
+        }
+
+        /**
+         * Reads the statistics of the selected category or the whole budget into the labels
+         */
+        private void refresh() {
+            PurchaseStats stats = manager.getBudget().getStats();
+            String title = "Overall";
+            int selected = budgetList.getSelectedIndex();
+
+            if (selected != -1 && selected < budgetListModel.getSize())
+            {
+                title = budgetListModel.getCategoryAt(selected);
+                try {
+                    stats = manager.getBudget().getStats(title);
+                } catch (CategoryException ce) {
+                    //The category was removed before the list caught up, so the overall figures are shown
+                    title = "Overall";
+                }
+            }
+
+            border.setTitle(title);
+            budgetAmt.setText(dollars(stats.getBudget()));
+            spentAmt.setText(dollars(stats.getSpent()));
+            remainingAmt.setText(dollars(stats.getRemaining()));
+            countAmt.setText(Long.toString(stats.getCount()));
+            meanAmt.setText(dollars(Math.round(stats.getMean())));
+            largestAmt.setText(dollars(stats.getLargest()));
+            repaint();
+        }
+
+        /**
+         * Formats cents as dollars
+         *
+         * @param cents - amount in cents
+         * @return amount as $d.cc
+         */
+        private String dollars(long cents) {
+            return Money.toDollars(cents);
         }
     }
 
@@ -537,16 +1009,84 @@ public class BudgetGUI extends JFrame implements ActionListener {
         }
     }
 
+    public class JOptionFilterInputPanel extends JPanel {
+        private JTextField category;
+        private JTextField fromDate;
+        private JTextField toDate;
+        private JTextField minCost;
+        private JTextField maxCost;
+        private JTextField description;
+
+        /**
+         * Builds the panel with the conditions of the current filter left empty
+         */
+        public JOptionFilterInputPanel() {
+            setupPanel();
+        }
+
+        private void setupPanel() {
+            category = new JTextField();
+            fromDate = new JTextField();
+            toDate = new JTextField();
+            minCost = new JTextField();
+            maxCost = new JTextField();
+            description = new JTextField();
+
+            JPanel filterInputPanel = new JPanel();
+            filterInputPanel.setLayout(new GridLayout(6, 2));
+
+            //Empty inputs leave that condition out of the filter
+            filterInputPanel.add(new Label("Category"));
+            filterInputPanel.add(category);
+            filterInputPanel.add(new Label("From (DD/MM/YYYY)"));
+            filterInputPanel.add(fromDate);
+            filterInputPanel.add(new Label("To (DD/MM/YYYY)"));
+            filterInputPanel.add(toDate);
+            filterInputPanel.add(new Label("Min Cost ($)"));
+            filterInputPanel.add(minCost);
+            filterInputPanel.add(new Label("Max Cost ($)"));
+            filterInputPanel.add(maxCost);
+            filterInputPanel.add(new Label("Description contains"));
+            filterInputPanel.add(description);
+            add(filterInputPanel);
+        }
+
+        public JTextField getCategory() {
+            return category;
+        }
+
+        public JTextField getFromDate() {
+            return fromDate;
+        }
+
+        public JTextField getToDate() {
+            return toDate;
+        }
+
+        public JTextField getMinCost() {
+            return minCost;
+        }
+
+        public JTextField getMaxCost() {
+            return maxCost;
+        }
+
+        public JTextField getDescription() {
+            return description;
+        }
+    }
+
     public class PurchaseButtonPanel extends JPanel {
         public PurchaseButtonPanel () {
             setupPanel();
         }
 
         private void setupPanel() {
-            setLayout(new GridLayout(1, 3));
+            setLayout(new GridLayout(1, 5));
             JButton deletePurchaseBtn = new JButton("Delete Purchase");
             JButton updatePurchaseBtn = new JButton("Update Purchase");
             JButton addPurchaseBtn = new JButton("Add Purchase");
+            JButton recategorizeBtn = new JButton("Change Category");
 
             deletePurchaseBtn.setActionCommand("DeleteBudget");
             updatePurchaseBtn.setActionCommand("UpdateBudget");
@@ -556,11 +1096,33 @@ public class BudgetGUI extends JFrame implements ActionListener {
             deletePurchaseBtn.addActionListener(new ActionListener() {
                 @Override
                 public void actionPerformed(ActionEvent actionEvent) {
-                    if(purchaseList.getSelectedIndex() == -1) {
+                    if(tablePurchases.getSelectedRow() == -1) {
                         JOptionPane.showMessageDialog(BudgetGUI.super.rootPane,"No purchase selected!");
                     }
                     else {
-                        purchaseListModel.remove(purchaseList.getSelectedIndex());
+                        //Every selected purchase is deleted in one pass
+                        manager.deletePurchases(purchaseModel.getPurchaseIds(tablePurchases.getSelectedRows()));
+                    }
+                }
+            });
+
+            recategorizeBtn.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent actionEvent) {
+                    if(tablePurchases.getSelectedRow() == -1) {
+                        JOptionPane.showMessageDialog(BudgetGUI.super.rootPane,"No purchase selected!");
+                        return;
+                    }
+
+                    int[] ids = purchaseModel.getPurchaseIds(tablePurchases.getSelectedRows());
+                    String category = JOptionPane.showInputDialog(BudgetGUI.super.rootPane,
+                            "Move the " + ids.length + " selected purchases to category:");
+                    if(category != null) {
+                        try {
+                            manager.recategorize(ids, category);
+                        } catch (PurchaseFailureException pfe) {
+                            JOptionPane.showMessageDialog(BudgetGUI.super.rootPane, pfe.getMessage());
+                        }
                     }
                 }
             });
@@ -590,8 +1152,7 @@ public class BudgetGUI extends JFrame implements ActionListener {
                         try {
                             manager.addPurchase(budgetInput.getDateDay().getText(), budgetInput.getDateMonth().getText(),
                                     budgetInput.getDateYear().getText(), budgetInput.getDescription().getText(),
-                                    budgetInput.getCost().getText(), budgetInput.getCategory().getText(),
-                                    purchaseListModel, budgetListModel);
+                                    budgetInput.getCost().getText(), budgetInput.getCategory().getText());
                         } catch (PurchaseFailureException pfe) {
                             JOptionPane.showMessageDialog(BudgetGUI.super.rootPane, pfe.getMessage());
                         }
@@ -599,9 +1160,35 @@ public class BudgetGUI extends JFrame implements ActionListener {
                 }
             });
 
+            //Shows only the purchases matching the conditions entered - an empty filter shows every purchase
+            btnFilter.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent actionEvent) {
+                    JOptionFilterInputPanel filterInput = new JOptionFilterInputPanel();
+                    int result = JOptionPane.showConfirmDialog(BudgetGUI.super.rootPane, filterInput,
+                            "Please enter filter conditions", JOptionPane.OK_CANCEL_OPTION);
+                    if (result == JOptionPane.OK_OPTION) {
+                        try {
+                            purchaseModel.setFilter(manager.createFilter(filterInput.getCategory().getText(),
+                                    filterInput.getFromDate().getText(), filterInput.getToDate().getText(),
+                                    filterInput.getMinCost().getText(), filterInput.getMaxCost().getText(),
+                                    filterInput.getDescription().getText()));
+                        } catch (IllegalArgumentException iae) {
+                            JOptionPane.showMessageDialog(BudgetGUI.super.rootPane, iae.getMessage());
+                        }
+                    }
+                }
+            });
+
             add(deletePurchaseBtn);
             add(updatePurchaseBtn);
             add(addPurchaseBtn);
+            add(recategorizeBtn);
+            add(btnFilter);
+            editControls.add(deletePurchaseBtn);
+            editControls.add(updatePurchaseBtn);
+            editControls.add(addPurchaseBtn);
+            editControls.add(recategorizeBtn);
         }
     }
 }
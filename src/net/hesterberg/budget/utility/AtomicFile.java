@@ -0,0 +1,108 @@
+package net.hesterberg.budget.utility;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File that is written through a temporary file beside it and only replaces the real file once complete
+ * Used by the budget writers so a crash part way through a save never leaves a half written budget
+ *
+ * @author Nikolai Hesterberg
+ */
+class AtomicFile implements Closeable {
+    /**
+     * File being replaced
+     */
+    private final Path target;
+
+    /**
+     * Temporary file being written
+     */
+    private final Path temp;
+
+    /**
+     * Channel writing the temporary file
+     */
+    private final FileChannel channel;
+
+    /**
+     * Whether the temporary file has been moved over the target
+     */
+    private boolean committed;
+
+    /**
+     * Opens a temporary file beside the target for writing
+     *
+     * @param filename - file that will be replaced
+     * @throws IOException if the temporary file can't be created
+     */
+    AtomicFile(String filename) throws IOException {
+        this.target = Paths.get(filename).toAbsolutePath();
+        this.temp = target.resolveSibling(target.getFileName() + ".tmp");
+        this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.committed = false;
+    }
+
+    /**
+     * Writes everything in the buffer to the temporary file and empties the buffer
+     *
+     * @param buffer - buffer ready to be filled again once written
+     * @throws IOException if the file can't be written
+     */
+    void write(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the number of bytes written so far
+     *
+     * @return size of the temporary file
+     * @throws IOException if the position can't be read
+     */
+    long position() throws IOException {
+        return channel.position();
+    }
+
+    /**
+     * Forces the temporary file to disk and moves it over the target
+     *
+     * @throws IOException if the file can't be flushed or moved
+     */
+    void commit() throws IOException {
+        channel.force(true);
+        channel.close();
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException amnse) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+    }
+
+    /**
+     * Closes the channel and deletes the temporary file if it wasn't committed
+     *
+     * @throws IOException if the temporary file can't be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if(!committed) {
+            channel.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package net.hesterberg.budget.utility;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Constants and encoding helpers shared by the binary budget file reader and writer
+ *
+ * The file is laid out as
+ * header - the magic bytes BGTB, a version byte and the total budget
+ * category dictionary - the number of categories, then each category name and budget, in category id order
+ * string table - the number of distinct descriptions, then each description, in description id order
+ * purchases - the number of purchases, then each purchase sorted by date as a day delta, cents, category id and
+ * description id
+ * month index - one entry per month holding the month, its first purchase number, the file offset of its first
+ * purchase and the amount and count spent in each category that month
+ * trailer - the file offset of the month index as an 8 byte number
+ *
+ * Numbers are variable length - 7 bits per byte with the top bit set on every byte but the last - and signed
+ * numbers are zigzag encoded first so small negative numbers stay short
+ * The day delta of the first purchase in a month is counted from the first day of that month, so each month can be
+ * decoded on its own using the index
+ * Text is stored as a length followed by UTF-8 bytes
+ *
+ * @author Nikolai Hesterberg
+ */
+final class BudgetBinaryFormat {
+    /**
+     * First four bytes of every binary budget file - BGTB in ASCII
+     */
+    static final int MAGIC = 0x42475442;
+
+    /**
+     * Version of the layout written by this code
+     */
+    static final byte VERSION = 1;
+
+    /**
+     * Size of the trailer holding the month index offset
+     */
+    static final int TRAILER_SIZE = 8;
+
+    /**
+     * Private constructor - the class only holds static helpers
+     */
+    private BudgetBinaryFormat() {
+    }
+
+    /**
+     * Returns whether the file starts with the binary format's magic bytes
+     *
+     * @param filename - file to check
+     * @return true for a binary budget file, false for anything else
+     * @throws IOException if the file can't be read
+     */
+    static boolean isBinary(String filename) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while(magic.hasRemaining() && channel.read(magic) > 0) {
+                //keeps reading until the four bytes arrive or the file ends
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Returns the month key - year * 12 + month - 1 - used to order and name months in the index
+     *
+     * @param year - year of the month
+     * @param month - month between 1 and 12
+     * @return month key
+     */
+    static int monthKey(int year, int month) {
+        return year * 12 + month - 1;
+    }
+
+    /**
+     * Writes an unsigned variable length number
+     *
+     * @param buffer - buffer to write to
+     * @param value - number to write, treated as unsigned
+     */
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Writes a signed variable length number using zigzag encoding
+     *
+     * @param buffer - buffer to write to
+     * @param value - number to write
+     */
+    static void putSignedVarLong(ByteBuffer buffer, long value) {
+        putVarLong(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Reads an unsigned variable length number
+     *
+     * @param buffer - buffer to read from
+     * @return the number
+     * @throws IllegalArgumentException if the number is longer than 64 bits
+     */
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("File is corrupt");
+    }
+
+    /**
+     * Reads an unsigned variable length number that must fit in an int
+     *
+     * @param buffer - buffer to read from
+     * @return the number
+     * @throws IllegalArgumentException if the number doesn't fit in an int
+     */
+    static int getVarInt(ByteBuffer buffer) {
+        long value = getVarLong(buffer);
+
+        if(value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("File is corrupt");
+        }
+
+        return (int) value;
+    }
+
+    /**
+     * Reads a zigzag encoded signed variable length number
+     *
+     * @param buffer - buffer to read from
+     * @return the number
+     */
+    static long getSignedVarLong(ByteBuffer buffer) {
+        long value = getVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,377 @@
+package net.hesterberg.budget.utility;
+
+import net.hesterberg.budget.Date;
+import net.hesterberg.budget.budget.Budget;
+import net.hesterberg.budget.budget.PurchaseArchive;
+import net.hesterberg.budget.budget.PurchaseBatch;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reader for the binary budget file format described in BudgetBinaryFormat
+ * Maps the file into memory and decodes the dictionaries once, then decodes each month of purchases using the
+ * month index
+ * A lazy read decodes only the recent months and hands the older ones to the budget as a PurchaseArchive, which
+ * decodes them from the mapped file when they are needed
+ *
+ * @author Nikolai Hesterberg
+ */
+class BudgetBinaryReader {
+    /**
+     * Contents of the file
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Total budget in cents
+     */
+    private int totalBudget;
+
+    /**
+     * Category names in category id order
+     */
+    private String[] categoryNames;
+
+    /**
+     * Category budgets in category id order
+     */
+    private int[] categoryBudgets;
+
+    /**
+     * Descriptions in description id order
+     */
+    private String[] descriptions;
+
+    /**
+     * Number of purchases in the file
+     */
+    private int purchaseCount;
+
+    /**
+     * Month key of each month in the index
+     */
+    private int[] monthKeys;
+
+    /**
+     * Number of the first purchase of each month, with one extra entry holding the purchase count
+     */
+    private int[] monthRows;
+
+    /**
+     * File offset of the first purchase of each month
+     */
+    private long[] monthOffsets;
+
+    /**
+     * Amount spent in each category during each month, indexed by month * category count + category id
+     */
+    private long[] monthSpent;
+
+    /**
+     * Number of purchases in each category during each month, indexed like monthSpent
+     */
+    private int[] monthCounts;
+
+    /**
+     * Listener told how many bytes have been decoded, or null
+     */
+    private final ProgressListener progress;
+
+    /**
+     * Maps the file and reads the header, dictionaries and month index
+     *
+     * @param filename - file to read
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if the file isn't a valid binary budget file
+     */
+    BudgetBinaryReader(String filename) throws IOException {
+        this(filename, null);
+    }
+
+    /**
+     * Maps the file and reads the header, dictionaries and month index, reporting progress as months are decoded
+     *
+     * @param filename - file to read
+     * @param progress - listener told how many bytes have been decoded, or null
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if the file isn't a valid binary budget file
+     */
+    BudgetBinaryReader(String filename, ProgressListener progress) throws IOException {
+        this.progress = progress;
+        try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("File is too large");
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            readHeader();
+            readIndex();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("File is corrupt");
+        }
+    }
+
+    /**
+     * Builds a budget holding every category and purchase in the file
+     *
+     * @return the budget stored in the file
+     * @throws InterruptedIOException if the thread is interrupted
+     * @throws IllegalArgumentException if the file is corrupt
+     */
+    Budget read() throws InterruptedIOException {
+        return readLazy(Integer.MIN_VALUE);
+    }
+
+    /**
+     * Builds a budget holding every category, with only the purchases from the given month onwards decoded
+     * Earlier months are left in an archive over the mapped file - the budget counts their spending from the month
+     * index and decodes them when it needs them
+     *
+     * @param firstMonthKey - month key of the first month to decode now
+     * @return the budget stored in the file
+     * @throws InterruptedIOException if the thread is interrupted
+     * @throws IllegalArgumentException if the file is corrupt
+     */
+    Budget readLazy(int firstMonthKey) throws InterruptedIOException {
+        Budget budget = new Budget(totalBudget);
+
+        for(int category = 0; category < categoryNames.length; category++) {
+            budget.addBudgetBucket(categoryNames[category], categoryBudgets[category]);
+        }
+
+        int firstMonth = 0;
+        while(firstMonth < monthKeys.length && monthKeys[firstMonth] < firstMonthKey) {
+            firstMonth++;
+        }
+
+        PurchaseBatch batch = new PurchaseBatch();
+        for(int month = firstMonth; month < monthKeys.length; month++) {
+            Progress.report(progress, monthOffsets[month], buffer.limit());
+            readMonth(month, batch);
+        }
+        Progress.report(progress, buffer.limit(), buffer.limit());
+
+        try {
+            budget.addPurchases(batch);
+            if(firstMonth > 0) {
+                budget.setArchive(new Archive(firstMonth));
+            }
+        } catch (CategoryException ce) {
+            throw new IllegalArgumentException("File is corrupt");
+        }
+
+        return budget;
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Decodes the purchases of one month of the index into the batch
+     *
+     * @param month - position of the month in the index
+     * @param batch - batch to add the purchases to
+     * @throws IllegalArgumentException if the file is corrupt
+     */
+    private void readMonth(int month, PurchaseBatch batch) {
+        try {
+            ByteBuffer purchases = buffer.duplicate();
+            purchases.position((int) monthOffsets[month]);
+
+            int key = monthKeys[month];
+            int day = Date.of(1, key % 12 + 1, key / 12).toEpochDay();
+
+            for(int row = monthRows[month]; row < monthRows[month + 1]; row++) {
+                day += BudgetBinaryFormat.getVarInt(purchases);
+                int cents = (int) BudgetBinaryFormat.getSignedVarLong(purchases);
+                int category = BudgetBinaryFormat.getVarInt(purchases);
+                int description = BudgetBinaryFormat.getVarInt(purchases);
+
+                batch.visit(day, descriptions[description], cents, categoryNames[category]);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("File is corrupt");
+        }
+    }
+
+    /**
+     * Reads the header, category dictionary, string table and purchase count
+     *
+     * @throws IllegalArgumentException if the file isn't a binary budget file this code can read
+     */
+    private void readHeader() {
+        if(buffer.getInt() != BudgetBinaryFormat.MAGIC) {
+            throw new IllegalArgumentException("File is not a binary budget file");
+        }
+        if(buffer.get() != BudgetBinaryFormat.VERSION) {
+            throw new IllegalArgumentException("File was written by a newer version");
+        }
+
+        totalBudget = (int) BudgetBinaryFormat.getSignedVarLong(buffer);
+
+        int categoryCount = BudgetBinaryFormat.getVarInt(buffer);
+        categoryNames = new String[categoryCount];
+        categoryBudgets = new int[categoryCount];
+        for(int category = 0; category < categoryCount; category++) {
+            categoryNames[category] = getString();
+            categoryBudgets[category] = (int) BudgetBinaryFormat.getSignedVarLong(buffer);
+        }
+
+        int descriptionCount = BudgetBinaryFormat.getVarInt(buffer);
+        descriptions = new String[descriptionCount];
+        for(int description = 0; description < descriptionCount; description++) {
+            descriptions[description] = getString();
+        }
+
+        purchaseCount = BudgetBinaryFormat.getVarInt(buffer);
+    }
+
+    /**
+     * Reads the month index using the offset in the trailer
+     */
+    private void readIndex() {
+        ByteBuffer index = buffer.duplicate();
+        index.position((int) buffer.getLong(buffer.limit() - BudgetBinaryFormat.TRAILER_SIZE));
+
+        int months = BudgetBinaryFormat.getVarInt(index);
+        monthKeys = new int[months];
+        monthRows = new int[months + 1];
+        monthOffsets = new long[months];
+        monthSpent = new long[months * categoryNames.length];
+        monthCounts = new int[months * categoryNames.length];
+
+        for(int month = 0; month < months; month++) {
+            monthKeys[month] = BudgetBinaryFormat.getVarInt(index);
+            monthRows[month] = BudgetBinaryFormat.getVarInt(index);
+            monthOffsets[month] = BudgetBinaryFormat.getVarLong(index);
+
+            int spentCategories = BudgetBinaryFormat.getVarInt(index);
+            for(int i = 0; i < spentCategories; i++) {
+                int category = BudgetBinaryFormat.getVarInt(index);
+                monthSpent[month * categoryNames.length + category] = BudgetBinaryFormat.getSignedVarLong(index);
+                monthCounts[month * categoryNames.length + category] = BudgetBinaryFormat.getVarInt(index);
+            }
+        }
+        monthRows[months] = purchaseCount;
+    }
+
+    /**
+     * Reads a length prefixed UTF-8 string
+     *
+     * @return the string
+     */
+    private String getString() {
+        int length = BudgetBinaryFormat.getVarInt(buffer);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The months of the file before the first decoded month, decoded from the mapped file on demand
+     */
+    private class Archive implements PurchaseArchive {
+        /**
+         * Number of months in the archive - always the first months of the index
+         */
+        private final int months;
+
+        /**
+         * Builds an archive of the first months of the index
+         *
+         * @param months - number of months
+         */
+        Archive(int months) {
+            this.months = months;
+        }
+
+        /**
+         * Returns the categories of the file
+         *
+         * @return category names in category id order
+         */
+        @Override
+        public List<String> getCategories() {
+            return Arrays.asList(categoryNames);
+        }
+
+        /**
+         * Returns the number of archived months
+         *
+         * @return number of months
+         */
+        @Override
+        public int getMonthCount() {
+            return months;
+        }
+
+        /**
+         * Returns the month key of an archived month
+         *
+         * @param month - position of the month in the index
+         * @return month key
+         */
+        @Override
+        public int getMonthKey(int month) {
+            return monthKeys[month];
+        }
+
+        /**
+         * Returns the number of purchases in an archived month
+         *
+         * @param month - position of the month in the index
+         * @return number of purchases
+         */
+        @Override
+        public int getPurchaseCount(int month) {
+            return monthRows[month + 1] - monthRows[month];
+        }
+
+        /**
+         * Returns the amount spent in a category during an archived month, read from the month index
+         *
+         * @param month - position of the month in the index
+         * @param category - category id
+         * @return amount spent in cents
+         */
+        @Override
+        public long getCategorySpent(int month, int category) {
+            return monthSpent[month * categoryNames.length + category];
+        }
+
+        /**
+         * Returns the number of purchases in a category during an archived month, read from the month index
+         *
+         * @param month - position of the month in the index
+         * @param category - category id
+         * @return number of purchases
+         */
+        @Override
+        public int getCategoryCount(int month, int category) {
+            return monthCounts[month * categoryNames.length + category];
+        }
+
+        /**
+         * Decodes the purchases of an archived month from the mapped file
+         *
+         * @param month - position of the month in the index
+         * @return a new batch holding the month's purchases
+         * @throws IllegalArgumentException if the file is corrupt
+         */
+        @Override
+        public PurchaseBatch readMonth(int month) {
+            PurchaseBatch batch = new PurchaseBatch();
+            BudgetBinaryReader.this.readMonth(month, batch);
+            return batch;
+        }
+    }
+}
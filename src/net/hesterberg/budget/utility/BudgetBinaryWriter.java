@@ -0,0 +1,374 @@
+package net.hesterberg.budget.utility;
+
+import net.hesterberg.budget.Date;
+import net.hesterberg.budget.budget.Budget;
+import net.hesterberg.budget.budget.PurchaseVisitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Writer for the binary budget file format described in BudgetBinaryFormat
+ * Collects the purchases into primitive columns, sorts them by date, then streams the file through one large
+ * direct buffer into an AtomicFile
+ *
+ * @author Nikolai Hesterberg
+ */
+class BudgetBinaryWriter implements PurchaseVisitor, Closeable {
+    /**
+     * Size of the write buffer
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Longest a single encoded number can be
+     */
+    private static final int MAX_NUMBER_LENGTH = 10;
+
+    /**
+     * File the budget is written to
+     */
+    private final AtomicFile file;
+
+    /**
+     * Buffer the file is encoded into
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Category id of each category name, in the order the categories are written
+     */
+    private final HashMap<String, Integer> categoryIds;
+
+    /**
+     * Description id of each description seen
+     */
+    private final HashMap<String, Integer> descriptionIds;
+
+    /**
+     * Descriptions in description id order
+     */
+    private final ArrayList<String> descriptions;
+
+    /**
+     * Number of purchases collected
+     */
+    private int size;
+
+    /**
+     * Epoch day of each collected purchase
+     */
+    private int[] days;
+
+    /**
+     * Cost in cents of each collected purchase
+     */
+    private int[] cents;
+
+    /**
+     * Category id of each collected purchase
+     */
+    private int[] categories;
+
+    /**
+     * Description id of each collected purchase
+     */
+    private int[] descriptionColumn;
+
+    /**
+     * Listener told how far the save has got, or null
+     * Collecting and writing each purchase count as one unit of work each
+     */
+    private final ProgressListener progress;
+
+    /**
+     * Number of purchases in the budget being written
+     */
+    private int total;
+
+    /**
+     * Opens a temporary file beside the target for writing
+     *
+     * @param filename - file the budget will be saved to
+     * @throws IOException if the temporary file can't be created
+     */
+    BudgetBinaryWriter(String filename) throws IOException {
+        this(filename, null);
+    }
+
+    /**
+     * Opens a temporary file beside the target for writing, reporting progress as purchases are collected and
+     * written
+     * Writing stops and the target is left untouched if the thread is interrupted
+     *
+     * @param filename - file the budget will be saved to
+     * @param progress - listener told how far the save has got, or null
+     * @throws IOException if the temporary file can't be created
+     */
+    BudgetBinaryWriter(String filename, ProgressListener progress) throws IOException {
+        this.progress = progress;
+        this.file = new AtomicFile(filename);
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.categoryIds = new HashMap<String, Integer>();
+        this.descriptionIds = new HashMap<String, Integer>();
+        this.descriptions = new ArrayList<String>();
+        this.size = 0;
+        this.days = new int[1024];
+        this.cents = new int[1024];
+        this.categories = new int[1024];
+        this.descriptionColumn = new int[1024];
+    }
+
+    /**
+     * Writes the budget and replaces the target file with it
+     *
+     * @param budget - budget to save
+     * @throws IOException if the file can't be written
+     */
+    void write(Budget budget) throws IOException {
+        ArrayList<String> categoryNames = new ArrayList<String>(budget.getBudget().keySet());
+        for(int i = 0; i < categoryNames.size(); i++) {
+            categoryIds.put(categoryNames.get(i), i);
+        }
+
+        total = budget.getPurchaseCount();
+        try {
+            budget.forEachPurchase(this);
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+
+        //Sorts by day, keeping the row number in the low bits so the sort stays on primitives
+        long[] order = new long[size];
+        for(int row = 0; row < size; row++) {
+            order[row] = ((long) days[row] << 32) | row;
+        }
+        Arrays.sort(order);
+
+        buffer.putInt(BudgetBinaryFormat.MAGIC);
+        buffer.put(BudgetBinaryFormat.VERSION);
+        BudgetBinaryFormat.putSignedVarLong(buffer, budget.getTotalBudget());
+
+        BudgetBinaryFormat.putVarLong(buffer, categoryNames.size());
+        for(String category: categoryNames) {
+            putString(category);
+            ensureRoom(MAX_NUMBER_LENGTH);
+            BudgetBinaryFormat.putSignedVarLong(buffer, budget.getBudget().get(category));
+        }
+
+        ensureRoom(MAX_NUMBER_LENGTH);
+        BudgetBinaryFormat.putVarLong(buffer, descriptions.size());
+        for(String description: descriptions) {
+            putString(description);
+        }
+
+        ensureRoom(MAX_NUMBER_LENGTH);
+        BudgetBinaryFormat.putVarLong(buffer, size);
+
+        writePurchases(order, categoryNames.size());
+
+        flush();
+        file.commit();
+        Progress.report(progress, 2L * total, 2L * total);
+    }
+
+    /**
+     * Collects one purchase
+     *
+     * @param epochDay - date of the purchase as days since 1-Jan-1970
+     * @param description - description of the purchase
+     * @param price - price of the purchase in cents
+     * @param category - category of the purchase
+     */
+    @Override
+    public void visit(int epochDay, String description, int price, String category) {
+        if(size == days.length) {
+            days = Arrays.copyOf(days, size * 2);
+            cents = Arrays.copyOf(cents, size * 2);
+            categories = Arrays.copyOf(categories, size * 2);
+            descriptionColumn = Arrays.copyOf(descriptionColumn, size * 2);
+        }
+
+        Integer descriptionId = descriptionIds.get(description);
+        if(descriptionId == null) {
+            descriptionId = descriptions.size();
+            descriptions.add(description);
+            descriptionIds.put(description, descriptionId);
+        }
+
+        days[size] = epochDay;
+        cents[size] = price;
+        categories[size] = categoryIds.get(category);
+        descriptionColumn[size] = descriptionId;
+        size++;
+
+        if(size % Progress.PURCHASE_INTERVAL == 0) {
+            try {
+                Progress.report(progress, size, 2L * total);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+    }
+
+    /**
+     * Deletes the temporary file if the save didn't finish
+     *
+     * @throws IOException if the temporary file can't be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Writes the purchases in date order, then the month index and the trailer
+     *
+     * @param order - day and row of each purchase, sorted
+     * @param categoryCount - number of categories
+     * @throws IOException if the file can't be written
+     */
+    private void writePurchases(long[] order, int categoryCount) throws IOException {
+        int months = 0;
+        int[] monthKeys = new int[16];
+        int[] monthRows = new int[16];
+        long[] monthOffsets = new long[16];
+        long[] monthCents = new long[16 * categoryCount];
+        int[] monthCounts = new int[16 * categoryCount];
+
+        int previousDay = 0;
+        int nextMonthStart = Integer.MIN_VALUE;
+
+        for(int i = 0; i < order.length; i++) {
+            int row = (int) order[i];
+            int day = days[row];
+
+            //Starts a new index entry when the purchase falls in a later month
+            if(day >= nextMonthStart) {
+                Date date = Date.ofEpochDay(day);
+                Date monthStart = Date.of(1, date.getMonth(), date.getYear());
+
+                if(months == monthKeys.length) {
+                    monthKeys = Arrays.copyOf(monthKeys, months * 2);
+                    monthRows = Arrays.copyOf(monthRows, months * 2);
+                    monthOffsets = Arrays.copyOf(monthOffsets, months * 2);
+                    monthCents = Arrays.copyOf(monthCents, months * 2 * categoryCount);
+                    monthCounts = Arrays.copyOf(monthCounts, months * 2 * categoryCount);
+                }
+                monthKeys[months] = BudgetBinaryFormat.monthKey(date.getYear(), date.getMonth());
+                monthRows[months] = i;
+                monthOffsets[months] = offset();
+                months++;
+
+                previousDay = monthStart.toEpochDay();
+                nextMonthStart = previousDay + Date.daysInMonth(date.getMonth(), date.getYear());
+            }
+
+            if(i % Progress.PURCHASE_INTERVAL == 0) {
+                Progress.report(progress, (long) order.length + i, 2L * order.length);
+            }
+
+            ensureRoom(4 * MAX_NUMBER_LENGTH);
+            BudgetBinaryFormat.putVarLong(buffer, day - previousDay);
+            BudgetBinaryFormat.putSignedVarLong(buffer, cents[row]);
+            BudgetBinaryFormat.putVarLong(buffer, categories[row]);
+            BudgetBinaryFormat.putVarLong(buffer, descriptionColumn[row]);
+            previousDay = day;
+
+            monthCents[(months - 1) * categoryCount + categories[row]] += cents[row];
+            monthCounts[(months - 1) * categoryCount + categories[row]]++;
+        }
+
+        long indexOffset = offset();
+
+        ensureRoom(MAX_NUMBER_LENGTH);
+        BudgetBinaryFormat.putVarLong(buffer, months);
+        for(int month = 0; month < months; month++) {
+            int spentCategories = 0;
+            for(int category = 0; category < categoryCount; category++) {
+                if(monthCounts[month * categoryCount + category] > 0) {
+                    spentCategories++;
+                }
+            }
+
+            ensureRoom(4 * MAX_NUMBER_LENGTH);
+            BudgetBinaryFormat.putVarLong(buffer, monthKeys[month]);
+            BudgetBinaryFormat.putVarLong(buffer, monthRows[month]);
+            BudgetBinaryFormat.putVarLong(buffer, monthOffsets[month]);
+            BudgetBinaryFormat.putVarLong(buffer, spentCategories);
+
+            for(int category = 0; category < categoryCount; category++) {
+                int slot = month * categoryCount + category;
+                if(monthCounts[slot] > 0) {
+                    ensureRoom(3 * MAX_NUMBER_LENGTH);
+                    BudgetBinaryFormat.putVarLong(buffer, category);
+                    BudgetBinaryFormat.putSignedVarLong(buffer, monthCents[slot]);
+                    BudgetBinaryFormat.putVarLong(buffer, monthCounts[slot]);
+                }
+            }
+        }
+
+        ensureRoom(BudgetBinaryFormat.TRAILER_SIZE);
+        buffer.putLong(indexOffset);
+    }
+
+    /**
+     * Returns the file offset the next byte will be written at
+     *
+     * @return offset from the start of the file
+     * @throws IOException if the file position can't be read
+     */
+    private long offset() throws IOException {
+        return file.position() + buffer.position();
+    }
+
+    /**
+     * Writes a length prefixed UTF-8 string, splitting it across buffers if it is longer than the buffer
+     *
+     * @param text - text to write
+     * @throws IOException if the file can't be written
+     */
+    private void putString(String text) throws IOException {
+        byte[] bytes = String.valueOf(text).getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+
+        ensureRoom(MAX_NUMBER_LENGTH);
+        BudgetBinaryFormat.putVarLong(buffer, bytes.length);
+
+        while(bytes.length - offset > buffer.remaining()) {
+            int length = buffer.remaining();
+            buffer.put(bytes, offset, length);
+            offset += length;
+            flush();
+        }
+        buffer.put(bytes, offset, bytes.length - offset);
+    }
+
+    /**
+     * Writes the buffer out if it has less than the given number of bytes free
+     *
+     * @param length - number of bytes about to be encoded
+     * @throws IOException if the file can't be written
+     */
+    private void ensureRoom(int length) throws IOException {
+        if(buffer.remaining() < length) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes everything in the buffer to the file and empties the buffer
+     *
+     * @throws IOException if the file can't be written
+     */
+    private void flush() throws IOException {
+        file.write(buffer);
+    }
+}
@@ -1,80 +1,148 @@
 package net.hesterberg.budget.utility;
 
-import net.hesterberg.budget.Date;
 import net.hesterberg.budget.budget.Budget;
-import net.hesterberg.budget.transaction.Purchase;
-
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Loads and saves budgets as text or binary files
+ * Both directions stream the file through a FileChannel rather than building it in memory
+ * The binary format is described in BudgetBinaryFormat - it is smaller and faster to load than the text format
+ *
+ * @author Nikolai Hesterberg
+ */
 public class BudgetFileIO {
+    /**
+     * Extension of files saved in the binary format - any other extension is saved as text
+     */
+    public static final String BINARY_EXTENSION = ".bgt";
+
+    /**
+     * Extension of files saved in the text format
+     */
+    public static final String TEXT_EXTENSION = ".txt";
+
+    /**
+     * Size from which text files are parsed on several threads when the machine has more than one core
+     */
+    static final long PARALLEL_THRESHOLD = 8 << 20;
+
+    /**
+     * Loads the budget stored in the file
+     * Binary files are recognised by their first bytes, whatever the file is named
+     * Text files are streamed through a BudgetTextReader which parses the bytes directly into the budget
+     * Text files of PARALLEL_THRESHOLD or more are parsed by a BudgetParallelTextReader using every core
+     *
+     * @param filename - file to load
+     * @return the budget stored in the file
+     * @throws IllegalArgumentException if the file doesn't exist, can't be read, or isn't a valid budget file
+     */
     public static Budget LoadBudgetFile(String filename) throws IllegalArgumentException {
-        Budget budget;
-        String lineIn;
-        int totalBudget;
-        int bucketBudget;
-        int day;
-        int month;
-        int year;
-        String desc;
-        int cost;
-        String category;
+        return LoadBudgetFile(filename, false);
+    }
 
-        File fin = new File(filename);
-        Scanner fileReader;
-        Scanner lineReader;
+    /**
+     * Loads the budget stored in the file, optionally leaving older months on disk until they are needed
+     * A lazy load of a binary file decodes only the purchases from the current month onwards - earlier months are
+     * counted in the totals from the file's month index and decoded when the budget first needs them
+     * Text files have no month index so they are always loaded in full
+     *
+     * @param filename - file to load
+     * @param lazy - true to leave months before the current one on disk
+     * @return the budget stored in the file
+     * @throws IllegalArgumentException if the file doesn't exist, can't be read, or isn't a valid budget file
+     */
+    public static Budget LoadBudgetFile(String filename, boolean lazy) throws IllegalArgumentException {
+        return LoadBudgetFile(filename, lazy, null);
+    }
 
-        try{
-            fileReader = new Scanner(fin);
-        } catch (FileNotFoundException fnfe) {
+    /**
+     * Loads the budget stored in the file, reporting the bytes read to the listener
+     * Meant to be run off the event dispatch thread - interrupting the thread cancels the load
+     *
+     * @param filename - file to load
+     * @param lazy - true to leave months before the current one on disk
+     * @param progress - listener told how many bytes have been read, or null
+     * @return the budget stored in the file
+     * @throws IllegalArgumentException if the file doesn't exist, can't be read, or isn't a valid budget file
+     * @throws CancellationException if the thread was interrupted before the load finished
+     */
+    public static Budget LoadBudgetFile(String filename, boolean lazy, ProgressListener progress)
+            throws IllegalArgumentException {
+        try {
+            if(BudgetBinaryFormat.isBinary(filename)) {
+                BudgetBinaryReader reader = new BudgetBinaryReader(filename, progress);
+                if(lazy) {
+                    LocalDate today = LocalDate.now();
+                    return reader.readLazy(BudgetBinaryFormat.monthKey(today.getYear(), today.getMonthValue()));
+                }
+                return reader.read();
+            }
+            if(Files.size(Paths.get(filename)) >= PARALLEL_THRESHOLD
+                    && Runtime.getRuntime().availableProcessors() > 1) {
+                return new BudgetParallelTextReader(filename, progress).read();
+            }
+            try(BudgetTextReader reader = new BudgetTextReader(filename, progress)) {
+                return reader.read();
+            }
+        } catch (NoSuchFileException nsfe) {
             throw new IllegalArgumentException("File doesn't exist");
+        } catch (ClosedByInterruptException | InterruptedIOException cancelled) {
+            throw new CancellationException("Load cancelled");
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("File can't be read: " + ioe.getMessage());
         }
+    }
 
-        totalBudget = fileReader.nextInt();
-        budget = new Budget(totalBudget);
-        lineIn = fileReader.nextLine();
-
-        while(true) {
-            lineIn = fileReader.nextLine();
+    /**
+     * Saves the budget to the file in a format read by LoadBudgetFile
+     * Files ending in BINARY_EXTENSION are saved in the binary format and anything else as text
+     * Streams the budget through a writer in one pass, then atomically replaces the file
+     *
+     * @param filename - file to save to
+     * @param budget - budget to save
+     * @throws IllegalArgumentException if the file can't be written
+     */
+    public static void SaveBudgetFile(String filename, Budget budget) throws IllegalArgumentException {
+        SaveBudgetFile(filename, budget, null);
+    }
 
-            if(lineIn.equals("-")) {
-                break;
+    /**
+     * Saves the budget to the file, reporting the purchases written to the listener
+     * Meant to be run off the event dispatch thread - interrupting the thread cancels the save and leaves the file
+     * as it was
+     * The budget must not be changed while it is being saved
+     *
+     * @param filename - file to save to
+     * @param budget - budget to save
+     * @param progress - listener told how many purchases have been written, or null
+     * @throws IllegalArgumentException if the file can't be written
+     * @throws CancellationException if the thread was interrupted before the save finished
+     */
+    public static void SaveBudgetFile(String filename, Budget budget, ProgressListener progress)
+            throws IllegalArgumentException {
+        try {
+            if(filename.endsWith(BINARY_EXTENSION)) {
+                try(BudgetBinaryWriter writer = new BudgetBinaryWriter(filename, progress)) {
+                    writer.write(budget);
+                }
             }
-            lineReader = new Scanner(lineIn);
-            lineReader.useDelimiter(",");
-
-            category = lineReader.next();
-            bucketBudget = lineReader.nextInt();
-
-            budget.addBudgetBucket(category, bucketBudget);
-        }
-
-        while(fileReader.hasNextLine()) {
-            lineIn = fileReader.nextLine();
-            lineReader = new Scanner(lineIn);
-            lineReader.useDelimiter(",");
-
-            day = lineReader.nextInt();
-            month = lineReader.nextInt();
-            year = lineReader.nextInt();
-            desc = lineReader.next();
-            cost = lineReader.nextInt();
-            category = lineReader.next();
-
-            //adds the purchase
-            //if category doesn't exist, it'll be created
-            try {
-                budget.addPurchase(new Purchase(new Date(day, month, year), desc, cost, category, false));
-            } catch (CategoryException ce) {
-                budget.addBudgetBucket(category, 0);
+            else {
+                try(BudgetTextWriter writer = new BudgetTextWriter(filename, progress)) {
+                    writer.write(budget);
+                }
             }
+        } catch (ClosedByInterruptException | InterruptedIOException cancelled) {
+            throw new CancellationException("Save cancelled");
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("File can't be saved: " + ioe.getMessage());
         }
-
-        return budget;
-    }
-
-    public static void SaveBudgetFile(String filename, Budget budget) {
-
     }
 }
@@ -0,0 +1,514 @@
+package net.hesterberg.budget.utility;
+
+import net.hesterberg.budget.Date;
+import net.hesterberg.budget.budget.Budget;
+import net.hesterberg.budget.transaction.Purchase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Append only journal of the edits made to a budget since its file was last saved
+ * Each edit is one short line appended to a .journal file beside the budget file, so making an edit durable costs
+ * the same no matter how many purchases the budget holds
+ * Loading the budget replays the journal over the saved file, and saving the budget starts a new empty journal
+ *
+ * The first line records the size and modified time of the budget file the journal applies to, so a journal left
+ * behind by a crash after the budget file was rewritten is recognised as stale and ignored
+ * While the budget is being saved in the background, edits are also written to a .journal.next file whose first line
+ * is N followed by the fields of the journal's header - if the save replaces the budget file and the program stops
+ * before the journal is replaced, loading finds the journal stale but replays the next journal instead, so no edit
+ * made during the save is lost
+ * Each following line is one edit
+ * P,day,month,year,description,cost,category - purchase added
+ * D,day,month,year,description,cost,category - purchase deleted
+ * M,day,month,year,description,cost,category,new category - purchase moved to another category
+ * C,amount,category - category added
+ * R,category - category removed
+ * T,amount - total budget set
+ *
+ * @author Nikolai Hesterberg
+ */
+public class BudgetJournal implements AutoCloseable {
+    /**
+     * Extension added to the budget filename to name its journal
+     */
+    public static final String EXTENSION = ".journal";
+
+    /**
+     * Extension added to the journal's name to name the journal of the edits made during a background save
+     */
+    public static final String NEXT_EXTENSION = ".next";
+
+    /**
+     * Path of the journal file
+     */
+    private final Path path;
+
+    /**
+     * First line of the journal, identifying the budget file it applies to
+     */
+    private final String header;
+
+    /**
+     * Channel appending to the journal file
+     */
+    private final FileChannel channel;
+
+    /**
+     * Number of edits in the journal
+     */
+    private int entryCount;
+
+    /**
+     * Opens the journal file for appending
+     *
+     * @param path - path of the journal file
+     * @param header - first line of the journal
+     * @param channel - channel positioned at the end of the journal
+     * @param entryCount - number of edits already in the journal
+     */
+    private BudgetJournal(Path path, String header, FileChannel channel, int entryCount) {
+        this.path = path;
+        this.header = header;
+        this.channel = channel;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Starts a new, empty journal for the budget file, replacing any existing journal
+     * Called after the budget file has been saved
+     *
+     * @param filename - budget file the journal belongs to
+     * @return journal ready for appending
+     * @throws IOException if the journal can't be created
+     */
+    public static BudgetJournal create(String filename) throws IOException {
+        Files.deleteIfExists(nextPath(filename));
+        return start(journalPath(filename), header(filename));
+    }
+
+    /**
+     * Replays the journal for the budget file onto the freshly loaded budget and opens it for appending
+     * A stale journal is discarded and a new one started
+     * A final line cut short by a crash is ignored
+     *
+     * @param filename - budget file the journal belongs to
+     * @param budget - budget loaded from the file
+     * @return journal ready for appending
+     * @throws IOException if the journal can't be read or created
+     * @throws IllegalArgumentException if an edit in the journal can't be applied
+     */
+    public static BudgetJournal open(String filename, Budget budget) throws IOException {
+        Path path = journalPath(filename);
+        Path next = nextPath(filename);
+
+        if(!Files.exists(path)) {
+            return create(filename);
+        }
+
+        String header = header(filename);
+        String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        int start = content.indexOf('\n') + 1;
+
+        if(start > 0 && content.substring(0, start).equals(header)) {
+            //the budget file wasn't replaced, so the journal holds every edit, including any made during a save
+            Files.deleteIfExists(next);
+            int[] replayed = replay(content, start, budget);
+
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            channel.truncate(replayed[1]);
+            channel.position(replayed[1]);
+
+            return new BudgetJournal(path, header, channel, replayed[0]);
+        }
+
+        if(start > 0 && Files.exists(next)) {
+            //a background save replaced the budget file before the journal was replaced
+            String nextContent = new String(Files.readAllBytes(next), StandardCharsets.UTF_8);
+            int nextStart = nextContent.indexOf('\n') + 1;
+
+            if(nextStart > 0 && nextContent.substring(0, nextStart).equals("N" + content.substring(1, start))) {
+                int[] replayed = replay(nextContent, nextStart, budget);
+                return promote(filename, nextContent.substring(nextStart), replayed[0]);
+            }
+        }
+
+        return create(filename);
+    }
+
+    /**
+     * Starts the journal of the edits made while the budget is saved in the background
+     * Every edit made during the save must be written to both journals, and once the save has replaced the budget
+     * file the next journal is made the journal with promote
+     *
+     * @param filename - budget file this journal belongs to
+     * @return next journal ready for appending
+     * @throws IOException if the next journal can't be created
+     */
+    public BudgetJournal startNext(String filename) throws IOException {
+        return start(nextPath(filename), "N" + header.substring(1));
+    }
+
+    /**
+     * Makes this next journal the journal of the saved budget file
+     * The edits are written with the new file's header to a temporary file, which is then moved over the journal,
+     * so a crash at any point leaves either the old journal and this one, or the new journal
+     * Closes this journal
+     *
+     * @param filename - budget file that has just been saved
+     * @return journal holding the edits made during the save, ready for appending
+     * @throws IOException if the journal can't be replaced
+     */
+    public BudgetJournal promote(String filename) throws IOException {
+        channel.close();
+
+        String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        int start = content.indexOf('\n') + 1;
+        int end = content.lastIndexOf('\n') + 1;
+
+        return promote(filename, content.substring(start, Math.max(start, end)), entryCount);
+    }
+
+    /**
+     * Closes this journal and deletes its file
+     * Used to drop a next journal when the save it was kept for fails or is abandoned
+     *
+     * @throws IOException if the file can't be deleted
+     */
+    public void discard() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Returns the number of edits in the journal
+     * Used to decide when the budget should be saved and the journal compacted
+     *
+     * @return number of edits
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Records that a purchase was added
+     *
+     * @param purchase - purchase that was added
+     * @throws IOException if the journal can't be written
+     */
+    public void purchaseAdded(Purchase purchase) throws IOException {
+        appendEntry("P," + purchaseFields(purchase));
+    }
+
+    /**
+     * Records that a purchase was deleted
+     *
+     * @param purchase - purchase that was deleted
+     * @throws IOException if the journal can't be written
+     */
+    public void purchaseRemoved(Purchase purchase) throws IOException {
+        appendEntry("D," + purchaseFields(purchase));
+    }
+
+    /**
+     * Records that several purchases were deleted, forcing them to disk once
+     *
+     * @param purchases - purchases that were deleted
+     * @throws IOException if the journal can't be written
+     */
+    public void purchasesRemoved(List<Purchase> purchases) throws IOException {
+        StringBuilder entries = new StringBuilder();
+
+        for(Purchase purchase: purchases) {
+            entries.append("D,").append(purchaseFields(purchase)).append('\n');
+        }
+        appendEntries(entries.toString(), purchases.size());
+    }
+
+    /**
+     * Records that several purchases were moved to another category, forcing them to disk once
+     *
+     * @param purchases - purchases as they were before the move
+     * @param category - category they were moved to
+     * @throws IOException if the journal can't be written
+     */
+    public void purchasesRecategorized(List<Purchase> purchases, String category) throws IOException {
+        StringBuilder entries = new StringBuilder();
+
+        for(Purchase purchase: purchases) {
+            entries.append("M,").append(purchaseFields(purchase)).append(',').append(category).append('\n');
+        }
+        appendEntries(entries.toString(), purchases.size());
+    }
+
+    /**
+     * Records that a category was added
+     *
+     * @param category - name of the category
+     * @param amount - budget of the category in cents
+     * @throws IOException if the journal can't be written
+     */
+    public void categoryAdded(String category, int amount) throws IOException {
+        appendEntry("C," + amount + "," + category);
+    }
+
+    /**
+     * Records that a category was removed
+     *
+     * @param category - name of the category
+     * @throws IOException if the journal can't be written
+     */
+    public void categoryRemoved(String category) throws IOException {
+        appendEntry("R," + category);
+    }
+
+    /**
+     * Records that the total budget was set
+     *
+     * @param amount - total budget in cents
+     * @throws IOException if the journal can't be written
+     */
+    public void totalBudgetSet(int amount) throws IOException {
+        appendEntry("T," + amount);
+    }
+
+    /**
+     * Closes the journal file
+     *
+     * @throws IOException if the file fails to close
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Returns the path of the journal for the budget file
+     *
+     * @param filename - budget file
+     * @return path of the journal
+     */
+    private static Path journalPath(String filename) {
+        return Paths.get(filename + EXTENSION);
+    }
+
+    /**
+     * Returns the path of the journal of the edits made during a background save of the budget file
+     *
+     * @param filename - budget file
+     * @return path of the next journal
+     */
+    private static Path nextPath(String filename) {
+        return Paths.get(filename + EXTENSION + NEXT_EXTENSION);
+    }
+
+    /**
+     * Creates an empty journal file holding only its header, replacing any file at the path
+     *
+     * @param path - path of the journal
+     * @param header - first line of the journal
+     * @return journal ready for appending
+     * @throws IOException if the journal can't be created
+     */
+    private static BudgetJournal start(Path path, String header) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        BudgetJournal journal = new BudgetJournal(path, header, channel, 0);
+        journal.append(header);
+        channel.force(false);
+        return journal;
+    }
+
+    /**
+     * Replaces the journal of the budget file with one holding the edits, then deletes the next journal
+     *
+     * @param filename - budget file the edits apply to
+     * @param entries - edit lines, each ending with a line break
+     * @param entryCount - number of edits
+     * @return journal ready for appending
+     * @throws IOException if the journal can't be replaced
+     */
+    private static BudgetJournal promote(String filename, String entries, int entryCount) throws IOException {
+        Path path = journalPath(filename);
+        Path temp = Paths.get(filename + EXTENSION + ".tmp");
+        String header = header(filename);
+
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap((header + entries).getBytes(StandardCharsets.UTF_8));
+            while(bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException amnse) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(nextPath(filename));
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return new BudgetJournal(path, header, channel, entryCount);
+    }
+
+    /**
+     * Applies every complete edit line of a journal to the budget
+     * A final line cut short by a crash is left out
+     *
+     * @param content - text of the journal
+     * @param start - index of the first edit line, just after the header
+     * @param budget - budget to apply the edits to
+     * @return number of edits applied, followed by the length in bytes of the journal up to the last complete line
+     * @throws IllegalArgumentException if an edit can't be applied
+     */
+    private static int[] replay(String content, int start, Budget budget) {
+        int entries = 0;
+        int end = content.indexOf('\n', start);
+
+        while(end != -1) {
+            apply(content.substring(start, end), budget, entries + 2);
+            entries++;
+            start = end + 1;
+            end = content.indexOf('\n', start);
+        }
+
+        return new int[] {entries, content.substring(0, start).getBytes(StandardCharsets.UTF_8).length};
+    }
+
+    /**
+     * Builds the header line identifying the current version of the budget file
+     *
+     * @param filename - budget file
+     * @return header line
+     * @throws IOException if the budget file can't be read
+     */
+    private static String header(String filename) throws IOException {
+        Path path = Paths.get(filename);
+        return "J," + Files.size(path) + "," + Files.getLastModifiedTime(path).toMillis() + "\n";
+    }
+
+    /**
+     * Formats the fields of a purchase in the same order as a budget file line
+     *
+     * @param purchase - purchase to format
+     * @return comma separated fields
+     */
+    private static String purchaseFields(Purchase purchase) {
+        Date date = purchase.getDate();
+        return date.getDay() + "," + date.getMonth() + "," + date.getYear() + "," + purchase.getDescription() + ","
+                + purchase.getPrice() + "," + purchase.getCategory();
+    }
+
+    /**
+     * Applies one journal line to the budget
+     *
+     * @param line - journal line without its line break
+     * @param budget - budget to apply it to
+     * @param lineNumber - number of the line, used for error messages
+     * @throws IllegalArgumentException if the line can't be applied
+     */
+    private static void apply(String line, Budget budget, int lineNumber) {
+        try {
+            String fields = line.substring(2);
+
+            switch(line.charAt(0)) {
+                case 'P':
+                    budget.addPurchase(parsePurchase(fields));
+                    break;
+                case 'D':
+                    budget.removeTransaction(parsePurchase(fields));
+                    break;
+                case 'M':
+                    int last = fields.lastIndexOf(',');
+                    int id = budget.findPurchase(parsePurchase(fields.substring(0, last)));
+                    if(id != -1) {
+                        budget.recategorize(new int[] {id}, fields.substring(last + 1));
+                    }
+                    break;
+                case 'C':
+                    int comma = fields.indexOf(',');
+                    budget.addBudgetBucket(fields.substring(comma + 1), Integer.parseInt(fields.substring(0, comma)));
+                    break;
+                case 'R':
+                    budget.removeCategory(fields);
+                    break;
+                case 'T':
+                    budget.setTotalBudget(Integer.parseInt(fields));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown edit");
+            }
+        } catch (RuntimeException | CategoryException e) {
+            throw new IllegalArgumentException("Journal line " + lineNumber + " can't be applied: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses the purchase fields of a journal line
+     * The cost and category are found from the end so descriptions may contain commas
+     *
+     * @param fields - day,month,year,description,cost,category
+     * @return the purchase
+     */
+    private static Purchase parsePurchase(String fields) {
+        String[] date = fields.split(",", 4);
+        String rest = date[3];
+        int categoryComma = rest.lastIndexOf(',');
+        int costComma = rest.lastIndexOf(',', categoryComma - 1);
+
+        return new Purchase(Date.of(Integer.parseInt(date[0]), Integer.parseInt(date[1]), Integer.parseInt(date[2])),
+                rest.substring(0, costComma), Integer.parseInt(rest.substring(costComma + 1, categoryComma)),
+                rest.substring(categoryComma + 1), false);
+    }
+
+    /**
+     * Appends one edit and forces it to disk
+     *
+     * @param entry - edit line without its line break
+     * @throws IOException if the journal can't be written
+     */
+    private void appendEntry(String entry) throws IOException {
+        appendEntries(entry + "\n", 1);
+    }
+
+    /**
+     * Appends several edits and forces them to disk together
+     *
+     * @param entries - edit lines, each ending with a line break
+     * @param count - number of edits
+     * @throws IOException if the journal can't be written
+     */
+    private void appendEntries(String entries, int count) throws IOException {
+        append(entries);
+        channel.force(false);
+        entryCount += count;
+    }
+
+    /**
+     * Appends text to the journal
+     *
+     * @param text - text to append
+     * @throws IOException if the journal can't be written
+     */
+    private void append(String text) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while(bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
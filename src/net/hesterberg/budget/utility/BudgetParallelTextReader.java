@@ -0,0 +1,295 @@
+package net.hesterberg.budget.utility;
+
+import net.hesterberg.budget.budget.Budget;
+import net.hesterberg.budget.budget.PurchaseBatch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reader for the text budget file format that parses the purchase lines on several threads
+ * The header and categories are read first on the calling thread, then the purchase lines are split into byte ranges
+ * that each start at the beginning of a line
+ * Each range is read and parsed by a task on the common fork-join pool into its own PurchaseBatch, and the batches
+ * are added to the budget in file order, so the result is the same budget the single threaded reader builds
+ *
+ * If any range fails to parse the file is read again by a single BudgetTextReader, so the error names the right
+ * line of the file
+ *
+ * @author Nikolai Hesterberg
+ */
+class BudgetParallelTextReader {
+    /**
+     * Smallest range handed to one task - smaller ranges cost more in task overhead than they save
+     */
+    static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Largest range handed to one task, which bounds the memory each task reads the file into
+     */
+    private static final long MAX_CHUNK_SIZE = 64 << 20;
+
+    /**
+     * Number of bytes read at a time while looking for the end of a line
+     */
+    private static final int SCAN_SIZE = 8192;
+
+    /**
+     * Number of ranges each thread of the pool should get, so threads that finish early can take more work
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * File being read
+     */
+    private final String filename;
+
+    /**
+     * Size of the ranges, or 0 to choose from the file size and pool size
+     */
+    private final long chunkSize;
+
+    /**
+     * Listener told how many bytes have been parsed, or null
+     */
+    private final ProgressListener progress;
+
+    /**
+     * Builds a reader that chooses its range size from the file size and the number of threads
+     *
+     * @param filename - file to read
+     */
+    BudgetParallelTextReader(String filename) {
+        this(filename, 0, null);
+    }
+
+    /**
+     * Builds a reader that chooses its range size itself and reports the bytes parsed as each range finishes
+     *
+     * @param filename - file to read
+     * @param progress - listener told how many bytes have been parsed, or null
+     */
+    BudgetParallelTextReader(String filename, ProgressListener progress) {
+        this(filename, 0, progress);
+    }
+
+    /**
+     * Builds a reader that splits the purchase lines into ranges of about the given size
+     *
+     * @param filename - file to read
+     * @param chunkSize - size of each range in bytes
+     * @param progress - listener told how many bytes have been parsed, or null
+     */
+    BudgetParallelTextReader(String filename, long chunkSize, ProgressListener progress) {
+        this.filename = filename;
+        this.chunkSize = chunkSize;
+        this.progress = progress;
+    }
+
+    /**
+     * Reads the whole file into a new budget
+     * Purchases in a category that isn't listed in the file create the category with a $0 budget
+     *
+     * @return the budget stored in the file
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if the file isn't a valid budget file
+     */
+    Budget read() throws IOException {
+        Budget budget;
+        long start;
+
+        try(BudgetTextReader header = new BudgetTextReader(filename)) {
+            budget = header.readHeader();
+            start = header.getOffset();
+        }
+
+        try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] bounds = split(channel, start, size);
+            AtomicLong parsed = new AtomicLong(start);
+
+            ArrayList<ChunkTask> tasks = new ArrayList<ChunkTask>(bounds.length - 1);
+            for(int i = 0; i < bounds.length - 1; i++) {
+                tasks.add(new ChunkTask(channel, bounds[i], bounds[i + 1], parsed, size, progress));
+            }
+
+            try {
+                ForkJoinTask.invokeAll(tasks);
+            } catch (RuntimeException re) {
+                try(BudgetTextReader reader = new BudgetTextReader(filename, progress)) {
+                    return reader.read();
+                }
+            }
+            Progress.report(progress, size, size);
+
+            for(ChunkTask task: tasks) {
+                PurchaseBatch batch = task.getRawResult();
+
+                //creates any category the purchases use that the file doesn't list
+                for(String category: batch.getCategories()) {
+                    if(budget.getBudget().get(category) == null) {
+                        budget.addBudgetBucket(category, 0);
+                    }
+                }
+
+                try {
+                    budget.addPurchases(batch);
+                } catch (CategoryException unreachable) {
+                    throw new IllegalStateException(unreachable);
+                }
+            }
+        }
+
+        return budget;
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Splits the bytes between start and end into ranges that each begin at the start of a line
+     *
+     * @param channel - channel to read the file through
+     * @param start - offset of the first purchase line
+     * @param end - size of the file
+     * @return offsets of the range boundaries, starting with start and ending with end
+     * @throws IOException if the file can't be read
+     */
+    private long[] split(FileChannel channel, long start, long end) throws IOException {
+        long size = chunkSize;
+        if(size <= 0) {
+            long threads = ForkJoinPool.getCommonPoolParallelism() + 1;
+            size = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, (end - start) / (threads * CHUNKS_PER_THREAD)));
+        }
+
+        int chunks = (int) Math.max(1, (end - start + size - 1) / size);
+        long[] bounds = new long[chunks + 1];
+        bounds[0] = start;
+        bounds[chunks] = end;
+
+        for(int i = 1; i < chunks; i++) {
+            bounds[i] = lineStart(channel, Math.max(start + i * size, bounds[i - 1]), end);
+        }
+
+        return bounds;
+    }
+
+    /**
+     * Returns the offset of the first line that starts at or after the offset
+     *
+     * @param channel - channel to read the file through
+     * @param offset - offset to search from
+     * @param end - size of the file
+     * @return offset of the start of the line, or end if no line starts after the offset
+     * @throws IOException if the file can't be read
+     */
+    private static long lineStart(FileChannel channel, long offset, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+
+        //the offset starts a line when the byte before it ends one
+        long position = offset - 1;
+
+        while(position < end) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if(read <= 0) {
+                break;
+            }
+
+            for(int i = 0; i < read; i++) {
+                if(buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+
+        return end;
+    }
+
+    /**
+     * Task that reads one range of purchase lines and parses it into a batch
+     */
+    private static class ChunkTask extends RecursiveTask<PurchaseBatch> {
+        /**
+         * Channel to read the file through - positional reads are safe from several threads
+         */
+        private final FileChannel channel;
+
+        /**
+         * Offset of the first byte of the range
+         */
+        private final long start;
+
+        /**
+         * Offset after the last byte of the range
+         */
+        private final long end;
+
+        /**
+         * Number of bytes parsed by every task so far, shared by the tasks
+         */
+        private final AtomicLong parsed;
+
+        /**
+         * Size of the file, used as the total for progress reports
+         */
+        private final long size;
+
+        /**
+         * Listener told how many bytes have been parsed, or null
+         */
+        private final ProgressListener progress;
+
+        /**
+         * Builds a task for one range
+         *
+         * @param channel - channel to read the file through
+         * @param start - offset of the first byte of the range
+         * @param end - offset after the last byte of the range
+         * @param parsed - number of bytes parsed by every task so far
+         * @param size - size of the file
+         * @param progress - listener told how many bytes have been parsed, or null
+         */
+        ChunkTask(FileChannel channel, long start, long end, AtomicLong parsed, long size,
+                  ProgressListener progress) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.parsed = parsed;
+            this.size = size;
+            this.progress = progress;
+        }
+
+        /**
+         * Reads the range into memory and parses each line into a new batch
+         *
+         * @return the purchases in the range, in file order
+         */
+        @Override
+        protected PurchaseBatch compute() {
+            byte[] bytes = new byte[(int) (end - start)];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            PurchaseBatch batch = new PurchaseBatch();
+
+            try {
+                while(buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0) {
+                    //keeps reading until the range is full or the file ends
+                }
+                new BudgetTextReader(bytes, buffer.position()).readPurchases(batch);
+                Progress.report(progress, parsed.addAndGet(end - start), size);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package net.hesterberg.budget.utility;
+
+import net.hesterberg.budget.Date;
+import net.hesterberg.budget.budget.Budget;
+import net.hesterberg.budget.budget.PurchaseVisitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming reader for the text budget file format
+ * Reads the file through a FileChannel into one reusable byte buffer and parses numbers and comma separated fields
+ * straight from the bytes, so no Scanner, regex or per line String is created
+ * Categories and descriptions are decoded through a ByteStringCache so each distinct value becomes one String
+ *
+ * The format is the total budget on the first line, then one category,amount line per category, a line holding
+ * only a -, then one day,month,year,description,cost,category line per purchase
+ * A reader can also be built over bytes already in memory, which BudgetParallelTextReader uses to parse one chunk
+ * of the purchase lines on each thread
+ *
+ * @author Nikolai Hesterberg
+ */
+class BudgetTextReader implements Closeable {
+    /**
+     * Starting size of the read buffer - grows if a single line is longer
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Channel the file is read through, or null when reading bytes already in memory
+     */
+    private final FileChannel channel;
+
+    /**
+     * File offset of the first byte in the bytes array
+     */
+    private long fileOffset;
+
+    /**
+     * Buffer wrapping the bytes array so the channel can read into it
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Bytes read from the file that haven't been parsed yet
+     */
+    private byte[] bytes;
+
+    /**
+     * Index of the first unparsed byte
+     */
+    private int position;
+
+    /**
+     * Index after the last byte read from the file
+     */
+    private int limit;
+
+    /**
+     * Whether the channel has reached the end of the file
+     */
+    private boolean endOfFile;
+
+    /**
+     * Index of the first byte of the current line
+     */
+    private int lineStart;
+
+    /**
+     * Index after the last byte of the current line, not including the line break
+     */
+    private int lineEnd;
+
+    /**
+     * Number of the current line, starting at 1, used for error messages
+     */
+    private int lineNumber;
+
+    /**
+     * Shared Strings for the categories and descriptions
+     */
+    private final ByteStringCache strings;
+
+    /**
+     * Listener told how many bytes have been read, or null
+     */
+    private final ProgressListener progress;
+
+    /**
+     * Size of the file when it was opened, used as the total for progress reports
+     */
+    private final long fileSize;
+
+    /**
+     * Opens the file for reading
+     *
+     * @param filename - file to read
+     * @throws IOException if the file can't be opened
+     */
+    BudgetTextReader(String filename) throws IOException {
+        this(filename, null);
+    }
+
+    /**
+     * Opens the file for reading, reporting progress each time more of the file is read
+     * Reading stops with an InterruptedIOException or ClosedByInterruptException if the thread is interrupted
+     *
+     * @param filename - file to read
+     * @param progress - listener told how many bytes have been read, or null
+     * @throws IOException if the file can't be opened
+     */
+    BudgetTextReader(String filename, ProgressListener progress) throws IOException {
+        this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        this.progress = progress;
+        this.fileSize = channel.size();
+        this.fileOffset = 0;
+        this.bytes = new byte[BUFFER_SIZE];
+        this.buffer = ByteBuffer.wrap(bytes);
+        this.position = 0;
+        this.limit = 0;
+        this.endOfFile = false;
+        this.lineNumber = 0;
+        this.strings = new ByteStringCache();
+    }
+
+    /**
+     * Builds a reader over purchase lines already read into memory
+     * Line numbers in error messages count from the start of the bytes rather than the start of the file
+     *
+     * @param bytes - the purchase lines
+     * @param length - number of bytes of the array to read
+     */
+    BudgetTextReader(byte[] bytes, int length) {
+        this.channel = null;
+        this.progress = null;
+        this.fileSize = length;
+        this.fileOffset = 0;
+        this.bytes = bytes;
+        this.buffer = ByteBuffer.wrap(bytes);
+        this.position = 0;
+        this.limit = length;
+        this.endOfFile = true;
+        this.lineNumber = 0;
+        this.strings = new ByteStringCache();
+    }
+
+    /**
+     * Reads the whole file into a new budget
+     * Purchases in a category that isn't listed in the file create the category with a $0 budget
+     *
+     * @return the budget stored in the file
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if the file isn't a valid budget file
+     */
+    Budget read() throws IOException {
+        Budget budget = readHeader();
+        readPurchases((day, description, cost, category) ->
+                addPurchase(budget, Date.ofEpochDay(day), description, cost, category));
+
+        return budget;
+    }
+
+    /**
+     * Reads the total budget and the categories, stopping after the - line
+     * getOffset() then returns the file offset of the first purchase line
+     *
+     * @return a budget holding the total budget and categories but no purchases
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if the file isn't a valid budget file
+     */
+    Budget readHeader() throws IOException {
+        if(!nextLine()) {
+            throw new IllegalArgumentException("File is empty");
+        }
+        Budget budget = new Budget(parseInt(lineStart, lineEnd));
+
+        while(true) {
+            if(!nextLine()) {
+                throw new IllegalArgumentException("File is missing the - line after the categories");
+            }
+            if(lineStart == lineEnd) {
+                continue;
+            }
+            if(lineEnd - lineStart == 1 && bytes[lineStart] == '-') {
+                break;
+            }
+
+            int comma = indexOf(lineStart, lineEnd);
+            budget.addBudgetBucket(strings.get(bytes, lineStart, comma), parseInt(comma + 1, lineEnd));
+        }
+
+        return budget;
+    }
+
+    /**
+     * Parses every remaining line as a purchase and passes it to the visitor, skipping blank lines
+     *
+     * @param visitor - visitor called with each purchase in file order
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if a line isn't a valid purchase
+     */
+    void readPurchases(PurchaseVisitor visitor) throws IOException {
+        while(nextLine()) {
+            if(lineStart != lineEnd) {
+                readPurchase(visitor);
+            }
+        }
+    }
+
+    /**
+     * Returns the file offset of the next line to be read
+     *
+     * @return offset from the start of the file
+     */
+    long getOffset() {
+        return fileOffset + position;
+    }
+
+    /**
+     * Adds a purchase to the budget, creating its category with a $0 budget if the category doesn't exist
+     *
+     * @param budget - budget to add the purchase to
+     * @param date - date of the purchase
+     * @param description - description of the purchase
+     * @param cost - cost of the purchase in cents
+     * @param category - category of the purchase
+     */
+    static void addPurchase(Budget budget, Date date, String description, int cost, String category) {
+        try {
+            budget.addPurchase(date, description, cost, category);
+        } catch (CategoryException ce) {
+            budget.addBudgetBucket(category, 0);
+            try {
+                budget.addPurchase(date, description, cost, category);
+            } catch (CategoryException unreachable) {
+                throw new IllegalStateException(unreachable);
+            }
+        }
+    }
+
+    /**
+     * Closes the file channel
+     *
+     * @throws IOException if the channel fails to close
+     */
+    @Override
+    public void close() throws IOException {
+        if(channel != null) {
+            channel.close();
+        }
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Parses the current line as a purchase and passes it to the visitor
+     * The cost and category are found from the end of the line so descriptions may contain commas
+     *
+     * @param visitor - visitor to pass the purchase to
+     */
+    private void readPurchase(PurchaseVisitor visitor) {
+        int dayEnd = indexOf(lineStart, lineEnd);
+        int monthEnd = indexOf(dayEnd + 1, lineEnd);
+        int yearEnd = indexOf(monthEnd + 1, lineEnd);
+        int categoryStart = lastIndexOf(yearEnd + 1, lineEnd) + 1;
+        int costStart = lastIndexOf(yearEnd + 1, categoryStart - 1) + 1;
+
+        int day = parseInt(lineStart, dayEnd);
+        int month = parseInt(dayEnd + 1, monthEnd);
+        int year = parseInt(monthEnd + 1, yearEnd);
+        int cost = parseInt(costStart, categoryStart - 1);
+        String description = strings.get(bytes, yearEnd + 1, costStart - 1);
+        String category = strings.get(bytes, categoryStart, lineEnd);
+
+        Date date;
+        try {
+            date = Date.of(day, month, year);
+        } catch (IllegalArgumentException iae) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": " + iae.getMessage());
+        }
+
+        visitor.visit(date.toEpochDay(), description, cost, category);
+    }
+
+    /**
+     * Moves to the next line of the file, reading more of the file when the buffer runs out
+     *
+     * @return true if there was another line, false at the end of the file
+     * @throws IOException if the file can't be read
+     */
+    private boolean nextLine() throws IOException {
+        int searchFrom = position;
+
+        while(true) {
+            for(int i = searchFrom; i < limit; i++) {
+                if(bytes[i] == '\n') {
+                    setLine(position, i);
+                    position = i + 1;
+                    return true;
+                }
+            }
+
+            if(endOfFile) {
+                if(position < limit) {
+                    setLine(position, limit);
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+
+            searchFrom = limit - position;
+            fill();
+        }
+    }
+
+    /**
+     * Marks the current line, dropping a trailing carriage return
+     *
+     * @param start - index of the first byte of the line
+     * @param end - index of the line break
+     */
+    private void setLine(int start, int end) {
+        if(end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        lineStart = start;
+        lineEnd = end;
+        lineNumber++;
+    }
+
+    /**
+     * Moves the unparsed bytes to the front of the buffer and reads more of the file after them
+     * The buffer is doubled when a single line fills all of it
+     *
+     * @throws IOException if the file can't be read
+     */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+
+        if(remaining == bytes.length) {
+            byte[] larger = new byte[bytes.length * 2];
+            System.arraycopy(bytes, position, larger, 0, remaining);
+            bytes = larger;
+            buffer = ByteBuffer.wrap(bytes);
+        }
+        else {
+            System.arraycopy(bytes, position, bytes, 0, remaining);
+        }
+
+        fileOffset += position;
+        position = 0;
+        limit = remaining;
+
+        buffer.limit(bytes.length);
+        buffer.position(limit);
+        int read = channel.read(buffer);
+
+        if(read < 0) {
+            endOfFile = true;
+        }
+        else {
+            limit += read;
+        }
+        Progress.report(progress, fileOffset + limit, fileSize);
+    }
+
+    /**
+     * Returns the index of the first comma in the range
+     *
+     * @param from - index to start searching at
+     * @param to - index to stop searching before
+     * @return index of the comma
+     * @throws IllegalArgumentException if the range has no comma
+     */
+    private int indexOf(int from, int to) {
+        for(int i = from; i < to; i++) {
+            if(bytes[i] == ',') {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Line " + lineNumber + " is missing a field");
+    }
+
+    /**
+     * Returns the index of the last comma in the range
+     *
+     * @param from - index to stop searching at
+     * @param to - index to start searching before
+     * @return index of the comma
+     * @throws IllegalArgumentException if the range has no comma
+     */
+    private int lastIndexOf(int from, int to) {
+        for(int i = to - 1; i >= from; i--) {
+            if(bytes[i] == ',') {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Line " + lineNumber + " is missing a field");
+    }
+
+    /**
+     * Parses a whole number from the bytes in the range, ignoring surrounding spaces
+     *
+     * @param from - index of the first byte
+     * @param to - index after the last byte
+     * @return the number
+     * @throws IllegalArgumentException if the range isn't a valid int
+     */
+    private int parseInt(int from, int to) {
+        while(from < to && bytes[from] == ' ') {
+            from++;
+        }
+        while(to > from && bytes[to - 1] == ' ') {
+            to--;
+        }
+
+        boolean negative = from < to && bytes[from] == '-';
+        if(negative) {
+            from++;
+        }
+        if(from == to || to - from > 10) {
+            throw new IllegalArgumentException("Line " + lineNumber + " has an invalid number");
+        }
+
+        long value = 0;
+        for(int i = from; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if(digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Line " + lineNumber + " has an invalid number");
+            }
+            value = value * 10 + digit;
+        }
+
+        if(negative) {
+            value = -value;
+        }
+        if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Line " + lineNumber + " has an invalid number");
+        }
+
+        return (int) value;
+    }
+}
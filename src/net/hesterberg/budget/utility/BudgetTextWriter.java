@@ -0,0 +1,270 @@
+package net.hesterberg.budget.utility;
+
+import net.hesterberg.budget.Date;
+import net.hesterberg.budget.budget.Budget;
+import net.hesterberg.budget.budget.PurchaseVisitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming writer for the text budget file format read by BudgetTextReader
+ * Formats every line straight into one large direct buffer that is written to a FileChannel whenever it fills,
+ * so the file is never built up as a String
+ * Writes through an AtomicFile so a crash part way through a save never leaves a half written budget
+ *
+ * @author Nikolai Hesterberg
+ */
+class BudgetTextWriter implements PurchaseVisitor, Closeable {
+    /**
+     * Size of the write buffer
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Longest line the buffer must always have room for before a purchase is formatted, excluding the text fields
+     */
+    private static final int MAX_NUMBERS_LENGTH = 64;
+
+    /**
+     * File the budget is written to
+     */
+    private final AtomicFile file;
+
+    /**
+     * Buffer the lines are formatted into
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Scratch space used to format numbers
+     */
+    private final byte[] digits;
+
+    /**
+     * UTF-8 bytes of each category and description already written
+     * The budget shares one String per distinct value so most lines hit this cache
+     */
+    private final HashMap<String, byte[]> encoded;
+
+    /**
+     * Listener told how many purchases have been written, or null
+     */
+    private final ProgressListener progress;
+
+    /**
+     * Number of purchases written so far
+     */
+    private int written;
+
+    /**
+     * Number of purchases in the budget being written
+     */
+    private int total;
+
+    /**
+     * Opens a temporary file beside the target for writing
+     *
+     * @param filename - file the budget will be saved to
+     * @throws IOException if the temporary file can't be created
+     */
+    BudgetTextWriter(String filename) throws IOException {
+        this(filename, null);
+    }
+
+    /**
+     * Opens a temporary file beside the target for writing, reporting progress as purchases are written
+     * Writing stops and the target is left untouched if the thread is interrupted
+     *
+     * @param filename - file the budget will be saved to
+     * @param progress - listener told how many purchases have been written, or null
+     * @throws IOException if the temporary file can't be created
+     */
+    BudgetTextWriter(String filename, ProgressListener progress) throws IOException {
+        this.progress = progress;
+        this.file = new AtomicFile(filename);
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.digits = new byte[11];
+        this.encoded = new HashMap<String, byte[]>();
+    }
+
+    /**
+     * Writes the budget and replaces the target file with it
+     *
+     * @param budget - budget to save
+     * @throws IOException if the file can't be written
+     */
+    void write(Budget budget) throws IOException {
+        total = budget.getPurchaseCount();
+        putInt(budget.getTotalBudget());
+        put((byte) '\n');
+
+        for(Map.Entry<String, Integer> entry: budget.getBudget().entrySet()) {
+            byte[] categoryBytes = encode(entry.getKey());
+            ensureRoom(MAX_NUMBERS_LENGTH + categoryBytes.length);
+            put(categoryBytes);
+            put((byte) ',');
+            putInt(entry.getValue());
+            put((byte) '\n');
+        }
+        ensureRoom(2);
+        put((byte) '-');
+        put((byte) '\n');
+
+        try {
+            budget.forEachPurchase(this);
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+
+        flush();
+        file.commit();
+        Progress.report(progress, total, total);
+    }
+
+    /**
+     * Writes one purchase line
+     *
+     * @param epochDay - date of the purchase as days since 1-Jan-1970
+     * @param description - description of the purchase
+     * @param price - price of the purchase in cents
+     * @param category - category of the purchase
+     */
+    @Override
+    public void visit(int epochDay, String description, int price, String category) {
+        Date date = Date.ofEpochDay(epochDay);
+        byte[] descriptionBytes = encode(description);
+        byte[] categoryBytes = encode(category);
+
+        try {
+            ensureRoom(MAX_NUMBERS_LENGTH + descriptionBytes.length + categoryBytes.length);
+            if(++written % Progress.PURCHASE_INTERVAL == 0) {
+                Progress.report(progress, written, total);
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+
+        putInt(date.getDay());
+        put((byte) ',');
+        putInt(date.getMonth());
+        put((byte) ',');
+        putInt(date.getYear());
+        put((byte) ',');
+        put(descriptionBytes);
+        put((byte) ',');
+        putInt(price);
+        put((byte) ',');
+        put(categoryBytes);
+        put((byte) '\n');
+    }
+
+    /**
+     * Closes the channel and deletes the temporary file if the save didn't finish
+     *
+     * @throws IOException if the temporary file can't be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Returns the UTF-8 bytes of the text, encoding it only the first time it is seen
+     *
+     * @param text - text to encode
+     * @return bytes of the text
+     */
+    private byte[] encode(String text) {
+        byte[] bytes = encoded.get(text);
+
+        if(bytes == null) {
+            bytes = String.valueOf(text).getBytes(StandardCharsets.UTF_8);
+            encoded.put(text, bytes);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Writes the buffer out if it has less than the given number of bytes free
+     * Lines longer than the whole buffer are written out as they're formatted
+     *
+     * @param length - number of bytes about to be formatted
+     * @throws IOException if the file can't be written
+     */
+    private void ensureRoom(int length) throws IOException {
+        if(buffer.remaining() < length) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes everything in the buffer to the channel and empties the buffer
+     *
+     * @throws IOException if the file can't be written
+     */
+    private void flush() throws IOException {
+        file.write(buffer);
+    }
+
+    /**
+     * Adds one byte to the buffer
+     *
+     * @param b - byte to add
+     */
+    private void put(byte b) {
+        buffer.put(b);
+    }
+
+    /**
+     * Adds the bytes to the buffer, writing out full buffers for text longer than the buffer
+     * Always leaves room for the numbers that follow on the same line
+     *
+     * @param bytes - bytes to add
+     */
+    private void put(byte[] bytes) {
+        int offset = 0;
+
+        try {
+            while(bytes.length - offset > buffer.remaining()) {
+                int length = buffer.remaining();
+                buffer.put(bytes, offset, length);
+                offset += length;
+                flush();
+            }
+            buffer.put(bytes, offset, bytes.length - offset);
+            ensureRoom(MAX_NUMBERS_LENGTH);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Adds the decimal digits of the number to the buffer
+     *
+     * @param value - number to add
+     */
+    private void putInt(int value) {
+        long remaining = value;
+
+        if(remaining < 0) {
+            buffer.put((byte) '-');
+            remaining = -remaining;
+        }
+
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while(remaining > 0);
+
+        buffer.put(digits, start, digits.length - start);
+    }
+}
@@ -0,0 +1,118 @@
+package net.hesterberg.budget.utility;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Turns slices of a byte array into Strings, handing back the same String every time the same bytes are seen
+ * Budget files repeat the same categories and descriptions on thousands of lines, so the loaders decode each
+ * distinct value once instead of building a new String per line
+ * Uses open addressing with linear probing keyed on the raw UTF-8 bytes
+ *
+ * @author Nikolai Hesterberg
+ */
+class ByteStringCache {
+    /**
+     * Bytes of each cached value, null for empty slots
+     */
+    private byte[][] keys;
+
+    /**
+     * Hash of each cached value's bytes
+     */
+    private int[] hashes;
+
+    /**
+     * Decoded String of each cached value
+     */
+    private String[] values;
+
+    /**
+     * Number of cached values
+     */
+    private int size;
+
+    /**
+     * Builds an empty cache
+     */
+    ByteStringCache() {
+        this.keys = new byte[256][];
+        this.hashes = new int[256];
+        this.values = new String[256];
+        this.size = 0;
+    }
+
+    /**
+     * Returns the String for the bytes between from (inclusive) and to (exclusive)
+     *
+     * @param bytes - array holding the value
+     * @param from - index of the first byte
+     * @param to - index after the last byte
+     * @return the decoded String, shared with every earlier call for the same bytes
+     */
+    String get(byte[] bytes, int from, int to) {
+        int hash = 0;
+        for(int i = from; i < to; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+
+        int mask = keys.length - 1;
+        int slot = mix(hash) & mask;
+
+        while(keys[slot] != null) {
+            if(hashes[slot] == hash && Arrays.equals(keys[slot], 0, keys[slot].length, bytes, from, to)) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String value = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        keys[slot] = Arrays.copyOfRange(bytes, from, to);
+        hashes[slot] = hash;
+        values[slot] = value;
+
+        if(++size * 2 > keys.length) {
+            resize();
+        }
+
+        return value;
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Spreads the hash bits so similar byte strings land in different slots
+     *
+     * @param hash - raw hash of the bytes
+     * @return mixed hash
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Doubles the table size and re-inserts every cached value
+     */
+    private void resize() {
+        byte[][] oldKeys = keys;
+        int[] oldHashes = hashes;
+        String[] oldValues = values;
+
+        keys = new byte[oldKeys.length * 2][];
+        hashes = new int[oldKeys.length * 2];
+        values = new String[oldKeys.length * 2];
+
+        int mask = keys.length - 1;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != null) {
+                int slot = mix(oldHashes[i]) & mask;
+                while(keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
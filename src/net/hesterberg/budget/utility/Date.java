@@ -1,22 +1,52 @@
 package net.hesterberg.budget;
 
-import java.util.Objects;
-
 /**
  * Custom date class - used to create date objects for date stamping items
  * Contains a basic static array with month abbreviations for pretty String printing
- * Stores the year, month, and day
+ * Stores the date as a single int - the number of days since 1-Jan-1970 - so comparing and hashing are one int
+ * operation and day arithmetic is addition
+ * Dates are immutable, and the of() and ofEpochDay() factories share one instance per day for recent years
  * Implements Comparable interface for sorting
  */
 public class Date implements Comparable<Date> {
-    private int day;
-    private int month;
-    private int year;
+    private final int epochDay;
     private static String[] months = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct",
             "Nov", "Dec"};
 
+    /**
+     * Epoch day of 1-Jan-0001, the earliest date allowed
+     */
+    private static final int MIN_EPOCH_DAY = -719162;
+
+    /**
+     * Latest year allowed - later years would overflow the int epoch day
+     */
+    private static final int MAX_YEAR = 5000000;
+
+    /**
+     * Epoch day of 31-Dec-5000000, the latest date allowed
+     */
+    private static final int MAX_EPOCH_DAY = 1825493337;
+
+    /**
+     * Epoch day of 1-Jan-1900, the first day held in the instance cache
+     */
+    private static final int CACHE_FIRST_DAY = -25567;
+
+    /**
+     * Number of days in each lazily allocated block of the instance cache
+     */
+    private static final int CACHE_BLOCK_DAYS = 512;
+
+    /**
+     * Shared instances for the dates from 1900 to about 2200, allocated one block at a time as they're used
+     * Publishing a Date through a race is safe because its only field is final
+     */
+    private static final Date[][] CACHE = new Date[215][];
+
     /**
      * Date constructor - calls input validation method and sets the internal parameters.
+     * Prefer Date.of() which returns a shared instance
      *
      * @param day - day of the date
      * @param month - month of the date
@@ -24,9 +54,81 @@ public class Date implements Comparable<Date> {
      */
     public Date(int day, int month, int year) {
         validateInputs(day, month, year);
-        this.day = day;
-        this.month = month;
-        this.year = year;
+        this.epochDay = toEpochDay(day, month, year);
+    }
+
+    /**
+     * Private constructor used by the factories once the epoch day is known to be valid
+     *
+     * @param epochDay - days since 1-Jan-1970
+     */
+    private Date(int epochDay) {
+        this.epochDay = epochDay;
+    }
+
+    /**
+     * Returns the date for the day, month and year
+     * Dates in the cached range share a single instance
+     *
+     * @param day - day of the date
+     * @param month - month of the date
+     * @param year - year of the date
+     * @return date for the day, month and year
+     * @throws IllegalArgumentException if any input fails validation
+     */
+    public static Date of(int day, int month, int year) {
+        validateInputs(day, month, year);
+        return ofValidEpochDay(toEpochDay(day, month, year));
+    }
+
+    /**
+     * Builds the date that falls the given number of days after 1-Jan-1970
+     * Dates in the cached range share a single instance
+     *
+     * @param epochDay - days since 1-Jan-1970, negative for earlier dates
+     * @return date for the epoch day
+     * @throws IllegalArgumentException if the epoch day is before year 1 or after MAX_YEAR
+     */
+    public static Date ofEpochDay(int epochDay) {
+        if(epochDay < MIN_EPOCH_DAY) {
+            throw new IllegalArgumentException("Year must be greater than 0");
+        }
+
+        if(epochDay > MAX_EPOCH_DAY) {
+            throw new IllegalArgumentException("Year must be at most " + MAX_YEAR);
+        }
+
+        return ofValidEpochDay(epochDay);
+    }
+
+    /**
+     * Returns the number of days between 1-Jan-1970 and this date
+     * Used as a compact integer key for storing and indexing dates
+     *
+     * @return days since 1-Jan-1970, negative for earlier dates
+     */
+    public int toEpochDay() {
+        return epochDay;
+    }
+
+    /**
+     * Returns the date the given number of days after this date
+     *
+     * @param days - days to add, negative to go back in time
+     * @return the new date
+     */
+    public Date plusDays(int days) {
+        return ofEpochDay(epochDay + days);
+    }
+
+    /**
+     * Returns the number of days from this date until the other date
+     *
+     * @param other - date to count to
+     * @return days until the other date, negative if the other date is earlier
+     */
+    public int daysUntil(Date other) {
+        return other.epochDay - epochDay;
     }
 
     /**
@@ -34,7 +136,7 @@ public class Date implements Comparable<Date> {
      * @return day of the date
      */
     public int getDay() {
-        return day;
+        return (int) (civil(epochDay) % 100);
     }
 
     /**
@@ -42,7 +144,7 @@ public class Date implements Comparable<Date> {
      * @return month of the date
      */
     public int getMonth() {
-        return month;
+        return (int) (civil(epochDay) / 100 % 100);
     }
 
     /**
@@ -50,7 +152,7 @@ public class Date implements Comparable<Date> {
      * @return year of the date
      */
     public int getYear() {
-        return year;
+        return (int) (civil(epochDay) / 10000);
     }
 
     /**
@@ -61,12 +163,13 @@ public class Date implements Comparable<Date> {
      */
     @Override
     public String toString() {
-        return day + "-" + months[month - 1] + "-" + year;
+        long ymd = civil(epochDay);
+        return ymd % 100 + "-" + months[(int) (ymd / 100 % 100) - 1] + "-" + ymd / 10000;
     }
 
     /**
      * Compares the date object to another date object.
-     * Starts with Year comparision then month then day.
+     * Later dates have larger epoch days, so this is a single int comparison
      *
      * @param other - date object to compare to
      * @return negative if this object is less than comparable object, positive if more, and 0 if equal
@@ -77,27 +180,7 @@ public class Date implements Comparable<Date> {
         if(other == null) {
             throw new NullPointerException();
         }
-        if(other.getYear() > this.year) {
-            return -1;
-        }
-        else if(other.getYear() < this.year) {
-            return 1;
-        }
-        else if(other.getMonth() > this.month) {
-            return -1;
-        }
-        else if(other.getMonth() < this.month) {
-            return 1;
-        }
-        else if(other.getDay() > this.day) {
-            return -1;
-        }
-        else if(other.getDay() < this.day) {
-            return 1;
-        }
-        else {
-            return 0;
-        }
+        return Integer.compare(this.epochDay, other.epochDay);
     }
 
     /**
@@ -105,7 +188,7 @@ public class Date implements Comparable<Date> {
      * Compares this to object o for equality
      * If the objects are the same, they are equal
      * If objects are not same type, they are not equal
-     * If objects are same type and have equal year, month, and day - they are equal
+     * If objects are same type and fall on the same day - they are equal
      *
      * @param o - object to compare to
      * @return true if objects are equal, false if not
@@ -122,52 +205,99 @@ public class Date implements Comparable<Date> {
             return false;
         }
 
-        //cast to Date object
-        Date compare = (Date) o;
-
-        //check if day, month, and year are equal
-        //if yes, objects are the same
-        if(compare.getYear() != this.year) {
-            return false;
-        }
-        if(compare.getMonth() != this.month) {
-            return false;
-        }
-        if(compare.getDay() != this.day) {
-            return false;
-        }
-        else {
-            return true;
-        }
+        return ((Date) o).epochDay == this.epochDay;
     }
 
     /**
      * hashCode override method
-     * Generates hash code based on day, month, and year
+     * The epoch day is unique for each date so it is used directly
      *
      * @return hashcode as an integer
      */
     @Override
     public int hashCode() {
-        return Objects.hash(day, month, year);
+        return epochDay;
     }
 
     //----------------HELPER METHODS---------------------------------//
+    /**
+     * Returns the shared instance for a valid epoch day, creating it on first use
+     *
+     * @param epochDay - days since 1-Jan-1970, on or after 1-Jan-0001
+     * @return date for the epoch day
+     */
+    private static Date ofValidEpochDay(int epochDay) {
+        int offset = epochDay - CACHE_FIRST_DAY;
+
+        if(offset < 0 || offset >= CACHE.length * CACHE_BLOCK_DAYS) {
+            return new Date(epochDay);
+        }
+
+        Date[] block = CACHE[offset / CACHE_BLOCK_DAYS];
+        if(block == null) {
+            block = new Date[CACHE_BLOCK_DAYS];
+            CACHE[offset / CACHE_BLOCK_DAYS] = block;
+        }
+
+        Date date = block[offset % CACHE_BLOCK_DAYS];
+        if(date == null) {
+            date = new Date(epochDay);
+            block[offset % CACHE_BLOCK_DAYS] = date;
+        }
+
+        return date;
+    }
+
+    /**
+     * Converts a valid day, month and year into days since 1-Jan-1970
+     * Uses the era based civil calendar algorithm - eras are 400 year cycles of 146097 days
+     *
+     * @param day - day of the date
+     * @param month - month of the date
+     * @param year - year of the date
+     * @return days since 1-Jan-1970
+     */
+    private static int toEpochDay(int day, int month, int year) {
+        //Shifts the year to start in March so the leap day is the last day of the year
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Converts days since 1-Jan-1970 into the day, month and year packed as yyyymmdd
+     *
+     * @param epochDay - days since 1-Jan-1970
+     * @return the date packed as year * 10000 + month * 100 + day, as a long so years past 214748 fit
+     */
+    private static long civil(int epochDay) {
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        return year * 10000L + month * 100 + day;
+    }
+
     /**
      * Private helper method that validates the inputs
-     * Will have inaccuracy for the day - not all months have consistent days/month
+     * Checks the day against the length of the month so every date maps to exactly one epoch day
      *
-     * @param day - day to validate between 1 and 31
+     * @param day - day to validate between 1 and the number of days in the month
      * @param month - month to validate between 1 and 12
-     * @param year - year to validate greater than 0
+     * @param year - year to validate between 1 and MAX_YEAR
      * @throws IllegalArgumentException if any input fails validation
      */
-    private void validateInputs(int day, int month, int year) {
-        //This isn't 100% accurate, but a good start on validation
-        if(day < 1 || day > 31) {
-            throw new IllegalArgumentException("Day must be between 1 and 31");
-        }
-
+    private static void validateInputs(int day, int month, int year) {
         if(month < 1 || month > 12) {
             throw new IllegalArgumentException("Month must be between 1 and 12");
         }
@@ -175,5 +305,32 @@ public class Date implements Comparable<Date> {
         if(year < 1) {
             throw new IllegalArgumentException("Year must be greater than 0");
         }
+
+        if(year > MAX_YEAR) {
+            throw new IllegalArgumentException("Year must be at most " + MAX_YEAR);
+        }
+
+        int monthLength = daysInMonth(month, year);
+        if(day < 1 || day > monthLength) {
+            throw new IllegalArgumentException("Day must be between 1 and " + monthLength);
+        }
+    }
+
+    /**
+     * Returns the number of days in the month, accounting for leap years
+     *
+     * @param month - month between 1 and 12
+     * @param year - year of the month
+     * @return number of days in the month
+     */
+    public static int daysInMonth(int month, int year) {
+        if(month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        if(month == 4 || month == 6 || month == 9 || month == 11) {
+            return 30;
+        }
+        return 31;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,160 @@
+package net.hesterberg.budget.utility;
+
+/**
+ * Converts between amounts of money typed as decimal dollars and the whole cents the budget stores
+ * Parses the digits straight into cents, so 0.29 is exactly 29 cents rather than the 28 a double can truncate to
+ * Formats by appending digits to a StringBuilder the caller can reuse, so neither direction allocates
+ * Always uses '.' as the decimal point, whatever the default locale
+ *
+ * @author Nikolai Hesterberg
+ */
+public final class Money {
+    /**
+     * Utility class - not instantiated
+     */
+    private Money() {
+    }
+
+    /**
+     * Parses an amount of dollars with up to two decimal places into cents, ignoring surrounding whitespace
+     * Accepts an optional sign, for example "12", "-3.5", "+0.29" and ".75"
+     *
+     * @param text - the amount as typed
+     * @return the amount in cents
+     * @throws NumberFormatException if the text isn't a number with at most two decimal places, or doesn't fit a long
+     */
+    public static long parseCents(CharSequence text) {
+        return parseCents(text, 0, text.length());
+    }
+
+    /**
+     * Parses an amount of dollars with up to two decimal places from part of the text into cents, ignoring
+     * surrounding whitespace
+     *
+     * @param text - text holding the amount
+     * @param from - index of the first character
+     * @param to - index after the last character
+     * @return the amount in cents
+     * @throws NumberFormatException if the range isn't a number with at most two decimal places, or doesn't fit a
+     *                               long
+     */
+    public static long parseCents(CharSequence text, int from, int to) {
+        while(from < to && Character.isWhitespace(text.charAt(from))) {
+            from++;
+        }
+        while(to > from && Character.isWhitespace(text.charAt(to - 1))) {
+            to--;
+        }
+
+        boolean negative = from < to && text.charAt(from) == '-';
+        if(negative || (from < to && text.charAt(from) == '+')) {
+            from++;
+        }
+
+        //built up as a negative number so Long.MIN_VALUE cents can be parsed
+        long cents = 0;
+        int digits = 0;
+        int decimals = -1;
+        for(int i = from; i < to; i++) {
+            char c = text.charAt(i);
+
+            if(c == '.' && decimals == -1) {
+                decimals = 0;
+                continue;
+            }
+            if(c < '0' || c > '9' || decimals == 2) {
+                throw invalid(text, from, to);
+            }
+
+            cents = multiplyTen(cents, text, from, to) - (c - '0');
+            if(cents > 0) {
+                throw invalid(text, from, to);
+            }
+            digits++;
+            if(decimals != -1) {
+                decimals++;
+            }
+        }
+
+        if(digits == 0) {
+            throw invalid(text, from, to);
+        }
+        for(int i = Math.max(decimals, 0); i < 2; i++) {
+            cents = multiplyTen(cents, text, from, to);
+        }
+
+        if(negative) {
+            return cents;
+        }
+        if(cents == Long.MIN_VALUE) {
+            throw invalid(text, from, to);
+        }
+        return -cents;
+    }
+
+    /**
+     * Appends an amount of cents as dollars with two decimal places, for example -1234 as "-12.34"
+     * The dollar sign is left to the caller
+     *
+     * @param out - builder to append to
+     * @param cents - the amount in cents
+     * @return the builder, for chaining
+     */
+    public static StringBuilder appendDollars(StringBuilder out, long cents) {
+        long dollars = cents / 100;
+        int remainder = (int) (cents % 100);
+
+        if(cents < 0) {
+            out.append('-');
+            dollars = -dollars;
+            remainder = -remainder;
+        }
+
+        out.append(dollars);
+        out.append('.');
+        out.append((char) ('0' + remainder / 10));
+        out.append((char) ('0' + remainder % 10));
+
+        return out;
+    }
+
+    /**
+     * Formats an amount of cents as dollars with a dollar sign, for example -1234 as "$-12.34"
+     *
+     * @param cents - the amount in cents
+     * @return the formatted amount
+     */
+    public static String toDollars(long cents) {
+        return appendDollars(new StringBuilder(24).append('$'), cents).toString();
+    }
+
+    //----------------HELPER METHODS---------------------------------//
+    /**
+     * Multiplies a negative running value by ten, checking it still fits a long
+     *
+     * @param value - value to multiply, 0 or less
+     * @param text - text being parsed, for the error message
+     * @param from - index of the first character being parsed
+     * @param to - index after the last character being parsed
+     * @return the value times ten
+     * @throws NumberFormatException if the result doesn't fit a long
+     */
+    private static long multiplyTen(long value, CharSequence text, int from, int to) {
+        if(value < Long.MIN_VALUE / 10) {
+            throw invalid(text, from, to);
+        }
+        return value * 10;
+    }
+
+    /**
+     * Builds the error for text that isn't a valid amount
+     *
+     * @param text - text being parsed
+     * @param from - index of the first character being parsed
+     * @param to - index after the last character being parsed
+     * @return the error to throw
+     */
+    private static NumberFormatException invalid(CharSequence text, int from, int to) {
+        return new NumberFormatException("Invalid amount: \"" + text.subSequence(from, to) + "\"");
+    }
+}
@@ -0,0 +1,40 @@
+package net.hesterberg.budget.utility;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Progress reporting shared by the budget file readers and writers
+ * Every report is also a cancellation point - a load or save running on an interrupted thread stops with an
+ * InterruptedIOException, which BudgetFileIO turns into a CancellationException
+ *
+ * @author Nikolai Hesterberg
+ */
+final class Progress {
+    /**
+     * Number of purchases written between reports when saving
+     */
+    static final int PURCHASE_INTERVAL = 1 << 16;
+
+    /**
+     * Private constructor - the class only holds static helpers
+     */
+    private Progress() {
+    }
+
+    /**
+     * Tells the listener how far the work has got, stopping the work if the thread has been interrupted
+     *
+     * @param listener - listener to tell, or null if nobody is listening
+     * @param done - amount of the work done so far
+     * @param total - amount of work in total
+     * @throws InterruptedIOException if the thread has been interrupted
+     */
+    static void report(ProgressListener listener, long done, long total) throws InterruptedIOException {
+        if(Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Cancelled");
+        }
+        if(listener != null) {
+            listener.progress(done, total);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package net.hesterberg.budget.utility;
+
+/**
+ * Callback told how far a budget file load or save has got
+ * Loads count bytes of the file read and saves count purchases written
+ * May be called from any thread, including several threads at once during a parallel load
+ *
+ * @author Nikolai Hesterberg
+ */
+public interface ProgressListener {
+    /**
+     * Called as the load or save moves forward
+     *
+     * @param done - amount of the work done so far
+     * @param total - amount of work in the whole load or save
+     */
+    public void progress(long done, long total);
+}
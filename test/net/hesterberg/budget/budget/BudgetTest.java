@@ -7,7 +7,12 @@ import net.hesterberg.budget.utility.CategoryException;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -73,9 +78,11 @@ public class BudgetTest {
         budget.addPurchase(tx2);
         budget.addBudgetBucket("Category 2", 10000);
         budget.addPurchase(tx3);
-        HashMap<String, Integer> categorySpending = budget.getCategoryTotalSpent();
+        HashMap<String, Long> categorySpending = budget.getCategoryTotalSpent();
         assertEquals(10000, categorySpending.get("Category 1").intValue());
         assertEquals(5000, categorySpending.get("Category 2").intValue());
+        assertEquals(10000, budget.getCategorySpent("Category 1"));
+        assertEquals(0, budget.getCategorySpent("Category 3"));
     }
 
     /**
@@ -111,6 +118,33 @@ public class BudgetTest {
         assertEquals(15000, budget.getBudgetTotalSpent());
     }
 
+    /**
+     * Tests that totals past the range of an int are kept exactly
+     * Adds three purchases of ten million dollars each, which together overflow a 32 bit count of cents
+     *
+     * @throws CategoryException if the category doesn't exist when adding a transaction
+     */
+    @Test
+    public void largeTotals() throws CategoryException {
+        budget.addBudgetBucket("Category 1", 15000);
+        budget.addBudgetBucket("Category 2", 10000);
+        for(int i = 0; i < 3; i++) {
+            budget.addPurchase(new Purchase(new Date(5, 1, 2020), "Yacht " + i, 1000000000, "Category 1", false));
+        }
+        budget.addPurchase(tx3);
+
+        assertEquals(3000005000L, budget.getBudgetTotalSpent());
+        assertEquals(3000000000L, budget.getCategorySpent("Category 1"));
+        assertEquals(3000000000L, budget.getCategoryTotalSpent().get("Category 1").longValue());
+        assertEquals(3000005000L, budget.getStats().getSpent());
+        assertEquals(4, budget.getStats().getCount());
+
+        budget.removeTransaction(tx3);
+        budget.removeCategory("Category 1");
+        assertEquals(0, budget.getBudgetTotalSpent());
+        assertEquals(0, budget.getStats().getCount());
+    }
+
     /**
      * Tests the remove transaction method
      * Adds purchases to the budget then removes them and checks for successful removal
@@ -133,4 +167,659 @@ public class BudgetTest {
         budget.removeTransaction(tx3);
         assertEquals(0, budget.getBudgetTotalSpent());
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests removing purchases by id
+     * Removes the second of two identical purchases, then removes purchases in a random order while adding more and
+     * checks every row still has the right id as the removed rows are swept out
+     */
+    @Test
+    public void removePurchase() throws CategoryException {
+        budget.addBudgetBucket("Category 1", 15000);
+        budget.addPurchase(tx1);
+        budget.addPurchase(tx2);
+        budget.addPurchase(tx1);
+        int second = budget.getPurchaseId(2);
+
+        assertEquals("Purchase 1", budget.removePurchase(second));
+        assertEquals(2, budget.getPurchaseCount());
+        assertEquals(-1, budget.getPurchaseRow(second));
+        assertNull(budget.removePurchase(second));
+        assertEquals("Purchase 2", budget.getPurchase(1).getDescription());
+        assertEquals(10000, budget.getBudgetTotalSpent());
+
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        for(int row = 0; row < budget.getPurchaseCount(); row++) {
+            ids.add(budget.getPurchaseId(row));
+        }
+
+        Random random = new Random(42);
+        for(int i = 0; i < 2000; i++) {
+            if(ids.isEmpty() || random.nextInt(3) == 0) {
+                budget.addPurchase(tx2);
+                ids.add(budget.getPurchaseId(budget.getPurchaseCount() - 1));
+            }
+            else {
+                int id = ids.remove(random.nextInt(ids.size()));
+                assertEquals("Purchase 2".length(), budget.removePurchase(id).length());
+            }
+
+            assertEquals(ids.size(), budget.getPurchaseCount());
+            int row = random.nextInt(ids.size() + 1);
+            if(row < ids.size()) {
+                assertEquals(ids.get(row).intValue(), budget.getPurchaseId(row));
+                assertEquals(row, budget.getPurchaseRow(ids.get(row)));
+            }
+        }
+        assertEquals(ids.size() * 5000, budget.getBudgetTotalSpent());
+    }
+
+    /**
+     * Tests removing and recategorizing several purchases at once
+     * Repeated ids and ids with no purchase are skipped, and the sorted rows stay in order
+     */
+    @Test
+    public void batchEdits() throws CategoryException {
+        budget.addBudgetBucket("Category 1", 15000);
+        budget.addBudgetBucket("Category 2", 10000);
+        budget.addPurchase(tx1);
+        budget.addPurchase(tx2);
+        budget.addPurchase(tx3);
+        budget.addPurchase(tx4);
+        budget.addPurchase(new Purchase(new Date(10, 1, 2020), "Purchase 6", 5000, "Category 1", false));
+        int[] ids = {budget.getPurchaseId(0), budget.getPurchaseId(1), budget.getPurchaseId(2),
+                budget.getPurchaseId(3), budget.getPurchaseId(4)};
+        assertEquals(0, budget.getSortedRow(PurchaseSort.CATEGORY, 0));
+
+        assertEquals(2, budget.recategorize(new int[] {ids[0], ids[1], ids[2], ids[0]}, "Category 2"));
+        assertEquals("Category 2", budget.getPurchase(0).getCategory());
+        assertEquals(4, budget.getStats("Category 2").getCount());
+        assertEquals(5000, budget.getCategorySpent("Category 1"));
+        assertEquals(20000, budget.getCategorySpent("Category 2"));
+        assertEquals(4, budget.getSortedRow(PurchaseSort.CATEGORY, 0));
+
+        try {
+            budget.recategorize(ids, "Category 3");
+            fail();
+        } catch (CategoryException ce) {
+            assertEquals("Category 3 does not currently exist in the budget!", ce.getMessage());
+        }
+
+        assertEquals(2, budget.removePurchases(new int[] {ids[3], ids[1], ids[1], 1000}));
+        assertEquals(3, budget.getPurchaseCount());
+        assertEquals(15000, budget.getBudgetTotalSpent());
+        assertEquals(-1, budget.getPurchaseRow(ids[1]));
+        assertEquals(2, budget.getPurchaseRow(ids[4]));
+        assertEquals(2, budget.getSortedRow(PurchaseSort.CATEGORY, 0));
+        assertEquals(0, budget.removePurchases(new int[] {ids[1]}));
+    }
+
+    /**
+     * Tests that removing a category removes its purchases from the running totals
+     * Also checks that removing a purchase that was never added leaves the totals alone
+     */
+    @Test
+    public void removeCategory() throws CategoryException {
+        budget.addBudgetBucket("Category 1", 15000);
+        budget.addBudgetBucket("Category 2", 10000);
+        budget.addPurchase(tx1);
+        budget.addPurchase(tx2);
+        budget.addPurchase(tx3);
+        assertEquals(15000, budget.getBudgetTotalSpent());
+
+        assertNull(budget.removeTransaction(tx4));
+        assertEquals(15000, budget.getBudgetTotalSpent());
+
+        budget.removeCategory("Category 1");
+        assertEquals(5000, budget.getBudgetTotalSpent());
+        assertNull(budget.getCategoryTotalSpent().get("Category 1"));
+        assertEquals(5000, budget.getCategoryTotalSpent().get("Category 2").intValue());
+    }
+
+    /**
+     * Tests the spent over a date range method
+     * Adds purchases on different days and checks the totals of ranges that include some or all of them
+     */
+    @Test
+    public void spent() throws CategoryException {
+        budget.addBudgetBucket("Category 1", 15000);
+        budget.addBudgetBucket("Category 2", 10000);
+        budget.addPurchase(tx1);
+        budget.addPurchase(tx2);
+        budget.addPurchase(tx3);
+        budget.addPurchase(tx4);
+
+        assertEquals(10000, budget.spent("Category 1", new Date(1, 1, 2020), new Date(31, 1, 2020)));
+        assertEquals(5000, budget.spent("Category 1", new Date(6, 1, 2020), new Date(6, 1, 2020)));
+        assertEquals(0, budget.spent("Category 1", new Date(7, 1, 2020), new Date(31, 12, 2020)));
+        assertEquals(10000, budget.spent("Category 2", new Date(7, 1, 2020), new Date(31, 12, 2020)));
+        assertEquals(15000, budget.spent(new Date(6, 1, 2020), new Date(8, 1, 2020)));
+
+        //Purchases far outside the first covered range grow the index in both directions
+        Transaction early = new Purchase(new Date(1, 6, 2001), "Early", 100, "Category 1", false);
+        Transaction late = new Purchase(new Date(1, 6, 2040), "Late", 200, "Category 1", false);
+        budget.addPurchase(early);
+        budget.addPurchase(late);
+        assertEquals(10300, budget.spent("Category 1", new Date(1, 1, 2000), new Date(1, 1, 2050)));
+        assertEquals(100, budget.spent("Category 1", new Date(1, 1, 2000), new Date(1, 1, 2019)));
+
+        budget.removeTransaction(tx1);
+        assertEquals(5000, budget.spent("Category 1", new Date(1, 1, 2020), new Date(31, 1, 2020)));
+
+        budget.removeCategory("Category 2");
+        assertEquals(5000, budget.spent(new Date(1, 1, 2020), new Date(31, 1, 2020)));
+    }
+
+    /**
+     * Tests that a purchase with a mistyped far future year only adds to the days around it
+     * The indexes only store the days that have spending, so the gap between the years costs nothing
+     */
+    @Test
+    public void spentFarFutureDate() throws CategoryException {
+        budget.addBudgetBucket("Category 1", 15000);
+        budget.addPurchase(tx1);
+        Transaction typo = new Purchase(new Date(1, 1, 2020000), "Typo", 700, "Category 1", false);
+        budget.addPurchase(typo);
+        budget.addPurchase(new Purchase(new Date(1, 1, 1), "Ancient", 30, "Category 1", false));
+
+        assertEquals(5730, budget.spent("Category 1", new Date(1, 1, 1), new Date(31, 12, 2020000)));
+        assertEquals(5030, budget.spent(new Date(1, 1, 1), new Date(31, 12, 2020)));
+        assertEquals(700, budget.spent(new Date(1, 1, 3000), new Date(1, 1, 2020000)));
+        assertEquals(0, budget.spent(new Date(2, 1, 2020000), new Date(31, 12, 2020000)));
+
+        budget.removeTransaction(typo);
+        assertEquals(5030, budget.spent("Category 1", new Date(1, 1, 1), new Date(31, 12, 2020000)));
+
+        budget.removeCategory("Category 1");
+        assertEquals(0, budget.spent(new Date(1, 1, 1), new Date(31, 12, 2020000)));
+    }
+
+    /**
+     * Tests filtering the purchases by category, date, cost and description
+     * Checks each condition alone and together, and that the results follow changes to the purchases
+     */
+    @Test
+    public void filter() throws CategoryException {
+        budget.addBudgetBucket("Category 1", 15000);
+        budget.addBudgetBucket("Category 2", 10000);
+        budget.addPurchase(tx1);
+        budget.addPurchase(tx2);
+        budget.addPurchase(tx3);
+        budget.addPurchase(tx4);
+        budget.addPurchase(new Purchase(new Date(6, 1, 2020), "Groceries", 1250, "Category 2", false));
+
+        PurchaseFilter filter = new PurchaseFilter();
+        assertTrue(filter.isEmpty());
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, budget.filter(filter));
+
+        filter.addCategory("Category 2");
+        assertArrayEquals(new int[] {2, 3, 4}, budget.filter(filter));
+
+        filter.setDateRange(new Date(6, 1, 2020), new Date(7, 1, 2020));
+        assertArrayEquals(new int[] {2, 4}, budget.filter(filter));
+
+        filter.setAmountRange(0, 2000);
+        assertArrayEquals(new int[] {4}, budget.filter(filter));
+
+        filter = new PurchaseFilter();
+        filter.setDescription("PURCHASE");
+        filter.setDateRange(null, new Date(6, 1, 2020));
+        assertArrayEquals(new int[] {0, 1}, budget.filter(filter));
+
+        filter.addCategory("Not a category");
+        assertEquals(0, budget.filter(filter).length);
+
+        //the indexes follow the purchases as they change
+        filter = new PurchaseFilter();
+        filter.setDescription("purchase");
+        budget.removeTransaction(tx1);
+        assertArrayEquals(new int[] {0, 1, 2}, budget.filter(filter));
+        budget.removeCategory("Category 2");
+        assertArrayEquals(new int[] {0}, budget.filter(filter));
+        assertEquals("Purchase 2", budget.getPurchase(budget.filter(filter)[0]).getDescription());
+    }
+
+    /**
+     * Tests that the filter indexes are kept up to date as purchases are added, removed and moved
+     * Adds enough purchases after the first filter for the added ones to be merged into the sorted orders
+     */
+    @Test
+    public void filterFollowsChanges() throws CategoryException {
+        budget.addBudgetBucket("Category 1", 15000);
+        budget.addBudgetBucket("Category 2", 10000);
+        budget.addPurchase(tx1);
+        budget.addPurchase(tx2);
+
+        PurchaseFilter cheap = new PurchaseFilter();
+        cheap.setAmountRange(0, 999);
+        assertEquals(0, budget.filter(cheap).length);
+
+        for(int i = 0; i < 3000; i++) {
+            budget.addPurchase(new Date(1 + i % 28, 2, 2020), "Snack " + i % 3, 100 + i % 5, "Category 1");
+        }
+        assertEquals(3000, budget.filter(cheap).length);
+        assertEquals(2, budget.filter(cheap)[0]);
+
+        PurchaseFilter second = new PurchaseFilter();
+        second.addCategory("Category 2");
+        second.setDescription("snack 1");
+        assertEquals(0, budget.filter(second).length);
+
+        PurchaseFilter snack = new PurchaseFilter();
+        snack.setDescription("snack 1");
+        int[] ids = budget.filter(snack);
+        for(int i = 0; i < ids.length; i++) {
+            ids[i] = budget.getPurchaseId(ids[i]);
+        }
+        assertEquals(1000, budget.recategorize(ids, "Category 2"));
+        assertEquals(1000, budget.filter(second).length);
+        assertEquals(1000, budget.recategorize(ids, "Category 1"));
+        assertEquals(0, budget.filter(second).length);
+        assertEquals(1000, budget.recategorize(ids, "Category 2"));
+        assertEquals(1000, budget.filter(second).length);
+
+        budget.removeTransaction(tx1);
+        assertEquals(1, budget.filter(cheap)[0]);
+        for(int i = 0; i < 2000; i++) {
+            budget.removePurchase(budget.getPurchaseId(budget.getPurchaseCount() - 1));
+        }
+        assertEquals(1000, budget.filter(cheap).length);
+        assertEquals(1000, budget.filter(cheap)[999]);
+    }
+
+    /**
+     * Tests searching the descriptions by whole words and typed prefixes
+     * Checks the ranking and that the index follows purchases being added and removed
+     */
+    @Test
+    public void search() throws CategoryException {
+        budget.addBudgetBucket("Food", 15000);
+        Transaction smoothie = new Purchase(new Date(5, 1, 2020), "Planet Smoothie", 700, "Food", false);
+        budget.addPurchase(smoothie);
+        budget.addPurchase(new Purchase(new Date(6, 1, 2020), "Smoothie King", 800, "Food", false));
+        budget.addPurchase(new Purchase(new Date(7, 1, 2020), "Planet Smoothie", 650, "Food", false));
+        budget.addPurchase(new Purchase(new Date(8, 1, 2020), "Plants-R-Us", 2000, "Food", false));
+
+        assertEquals(Arrays.asList("Planet Smoothie"), budget.searchDescriptions("planet smo", 10));
+        assertEquals(Arrays.asList("Planet Smoothie", "Plants-R-Us"), budget.searchDescriptions("PLAN", 10));
+        assertEquals(Arrays.asList("Smoothie King", "Planet Smoothie"), budget.searchDescriptions("smoothie", 10));
+        assertEquals(Arrays.asList("Smoothie King"), budget.searchDescriptions("smoothie", 1));
+        assertTrue(budget.searchDescriptions("moothie", 10).isEmpty());
+        assertTrue(budget.searchDescriptions("  ", 10).isEmpty());
+
+        //latest purchase of the best description first
+        assertArrayEquals(new int[] {2, 0, 3}, budget.search("plan", 10));
+        assertArrayEquals(new int[] {2}, budget.search("plan", 1));
+
+        budget.addPurchase(new Purchase(new Date(9, 1, 2020), "Planetarium", 1500, "Food", false));
+        assertEquals(Arrays.asList("Planet Smoothie", "Planetarium"), budget.searchDescriptions("planet", 10));
+
+        budget.removeTransaction(smoothie);
+        budget.removeTransaction(new Purchase(new Date(7, 1, 2020), "Planet Smoothie", 650, "Food", false));
+        assertEquals(Arrays.asList("Planetarium"), budget.searchDescriptions("planet", 10));
+        assertArrayEquals(new int[] {1, 2}, budget.search("plan", 10));
+
+        //purchases added in a batch are found as well
+        PurchaseBatch batch = new PurchaseBatch();
+        batch.visit(Date.of(10, 1, 2020).toEpochDay(), "Planet Smoothie", 500, "Food");
+        budget.addPurchases(batch);
+        assertArrayEquals(new int[] {3, 1, 2}, budget.search("plan", 10));
+    }
+
+    /**
+     * Tests the rows sorted by each field, kept in order as purchases are added and removed
+     * Purchases with equal fields stay in the order they were added
+     */
+    @Test
+    public void getSortedRow() throws CategoryException {
+        budget.addBudgetBucket("Food", 15000);
+        budget.addBudgetBucket("Bills", 15000);
+        budget.addPurchase(new Purchase(new Date(9, 1, 2020), "Groceries", 700, "Food", false));
+        Transaction rent = new Purchase(new Date(1, 1, 2020), "Rent", 9000, "Bills", false);
+        budget.addPurchase(rent);
+        budget.addPurchase(new Purchase(new Date(5, 1, 2019), "Cafe", 700, "Food", false));
+
+        assertArrayEquals(new int[] {2, 1, 0}, sortedRows(PurchaseSort.DATE));
+        assertArrayEquals(new int[] {0, 2, 1}, sortedRows(PurchaseSort.AMOUNT));
+        assertArrayEquals(new int[] {1, 0, 2}, sortedRows(PurchaseSort.CATEGORY));
+        assertArrayEquals(new int[] {2, 0, 1}, sortedRows(PurchaseSort.DESCRIPTION));
+
+        budget.addPurchase(new Purchase(new Date(3, 1, 2020), "Bus", 200, "Bills", false));
+        assertArrayEquals(new int[] {2, 1, 3, 0}, sortedRows(PurchaseSort.DATE));
+        assertArrayEquals(new int[] {3, 0, 2, 1}, sortedRows(PurchaseSort.AMOUNT));
+        assertArrayEquals(new int[] {1, 3, 0, 2}, sortedRows(PurchaseSort.CATEGORY));
+        assertArrayEquals(new int[] {3, 2, 0, 1}, sortedRows(PurchaseSort.DESCRIPTION));
+
+        budget.removeTransaction(rent);
+        assertArrayEquals(new int[] {1, 2, 0}, sortedRows(PurchaseSort.DATE));
+        assertArrayEquals(new int[] {2, 0, 1}, sortedRows(PurchaseSort.AMOUNT));
+        assertArrayEquals(new int[] {2, 0, 1}, sortedRows(PurchaseSort.CATEGORY));
+        assertArrayEquals(new int[] {2, 1, 0}, sortedRows(PurchaseSort.DESCRIPTION));
+
+        //a row added after a removal, in a category added after the orders were built, is placed by its key
+        budget.addBudgetBucket("Auto", 100);
+        budget.addPurchase(new Purchase(new Date(2, 1, 2020), "Zoo", 700, "Auto", false));
+        assertArrayEquals(new int[] {1, 3, 2, 0}, sortedRows(PurchaseSort.DATE));
+        assertArrayEquals(new int[] {2, 0, 1, 3}, sortedRows(PurchaseSort.AMOUNT));
+        assertArrayEquals(new int[] {3, 2, 0, 1}, sortedRows(PurchaseSort.CATEGORY));
+        assertArrayEquals(new int[] {2, 1, 0, 3}, sortedRows(PurchaseSort.DESCRIPTION));
+        budget.removeTransaction(new Purchase(new Date(2, 1, 2020), "Zoo", 700, "Auto", false));
+
+        assertArrayEquals(new int[] {2, 0}, budget.sortRows(PurchaseSort.DATE, new int[] {0, 2}));
+    }
+
+    /**
+     * Tests that a large sort order stays sorted as purchases are added, removed and moved between categories
+     * Checks every position against the fields of the purchases
+     */
+    @Test
+    public void sortedRowsFollowChanges() throws CategoryException {
+        budget.addBudgetBucket("Food", 15000);
+        budget.addBudgetBucket("Bills", 15000);
+        for(int i = 0; i < 5000; i++) {
+            budget.addPurchase(new Date(1 + i * 7 % 28, 1, 2020), "Item " + i % 10, i * 31 % 997, "Food");
+        }
+        assertEquals(5000, sortedRows(PurchaseSort.DATE).length);
+        assertEquals(5000, sortedRows(PurchaseSort.CATEGORY).length);
+
+        for(int i = 0; i < 3000; i++) {
+            budget.addPurchase(new Date(1 + i % 28, 1, 2020), "Extra", i % 500, "Bills");
+        }
+        int[] ids = new int[2000];
+        for(int i = 0; i < ids.length; i++) {
+            ids[i] = budget.getPurchaseId(i * 3);
+        }
+        assertEquals(2000, budget.removePurchases(ids));
+        for(int i = 0; i < ids.length; i++) {
+            ids[i] = budget.getPurchaseId(i * 2);
+        }
+        budget.recategorize(ids, "Bills");
+
+        int[] byDate = sortedRows(PurchaseSort.DATE);
+        int[] byCategory = sortedRows(PurchaseSort.CATEGORY);
+        assertEquals(6000, byDate.length);
+        for(int position = 1; position < byDate.length; position++) {
+            Purchase before = budget.getPurchase(byDate[position - 1]);
+            Purchase after = budget.getPurchase(byDate[position]);
+            assertTrue(before.getDate().compareTo(after.getDate()) <= 0);
+            assertTrue(before.getDate().compareTo(after.getDate()) < 0
+                    || budget.getPurchaseId(byDate[position - 1]) < budget.getPurchaseId(byDate[position]));
+            assertTrue(budget.getPurchase(byCategory[position - 1]).getCategory()
+                    .compareTo(budget.getPurchase(byCategory[position]).getCategory()) <= 0);
+        }
+        assertEquals("Bills", budget.getPurchase(byCategory[4333]).getCategory());
+        assertEquals("Food", budget.getPurchase(byCategory[4334]).getCategory());
+    }
+
+    /**
+     * Tests the running statistics of each category and of the whole budget
+     * Removes the largest purchases to check the largest is worked out again
+     */
+    @Test
+    public void getStats() throws CategoryException {
+        budget.setTotalBudget(30000);
+        budget.addBudgetBucket("Category 1", 15000);
+        budget.addBudgetBucket("Category 2", 10000);
+        budget.addPurchase(tx1);
+        budget.addPurchase(new Purchase(new Date(6, 1, 2020), "Purchase 2", 1000, "Category 1", false));
+        budget.addPurchase(tx3);
+        budget.addPurchase(new Purchase(new Date(8, 1, 2020), "Purchase 4", 8000, "Category 2", false));
+
+        PurchaseStats total = budget.getStats();
+        assertEquals(30000, total.getBudget());
+        assertEquals(19000, total.getSpent());
+        assertEquals(11000, total.getRemaining());
+        assertEquals(4, total.getCount());
+        assertEquals(4750, total.getMean(), 0.001);
+        assertEquals(8000, total.getLargest());
+
+        PurchaseStats category = budget.getStats("Category 1");
+        assertEquals(15000, category.getBudget());
+        assertEquals(6000, category.getSpent());
+        assertEquals(9000, category.getRemaining());
+        assertEquals(2, category.getCount());
+        assertEquals(3000, category.getMean(), 0.001);
+        assertEquals(5000, category.getLargest());
+
+        budget.removeTransaction(new Purchase(new Date(8, 1, 2020), "Purchase 4", 8000, "Category 2", false));
+        assertEquals(5000, budget.getStats().getLargest());
+        assertEquals(5000, budget.getStats("Category 2").getLargest());
+        assertEquals(3, budget.getStats().getCount());
+
+        budget.removeCategory("Category 1");
+        assertEquals(1, budget.getStats().getCount());
+        assertEquals(5000, budget.getStats().getLargest());
+        budget.removeTransaction(tx3);
+        assertEquals(0, budget.getStats().getCount());
+        assertEquals(0, budget.getStats().getLargest());
+        assertEquals(0, budget.getStats("Category 2").getMean(), 0.001);
+
+        try {
+            budget.getStats("Category 1");
+            fail();
+        } catch (CategoryException ce) {
+            assertEquals("Category 1 does not currently exist in the budget!", ce.getMessage());
+        }
+    }
+
+    /**
+     * Tests that a snapshot keeps the purchases and totals it was taken with while the budget changes
+     *
+     * @throws CategoryException if a category doesn't exist when adding a transaction
+     */
+    @Test
+    public void snapshot() throws CategoryException {
+        budget.addBudgetBucket("Category 1", 15000);
+        budget.addBudgetBucket("Category 2", 10000);
+        budget.addPurchase(tx1);
+        budget.addPurchase(tx2);
+        budget.addPurchase(tx3);
+        int secondId = budget.getPurchaseId(1);
+
+        BudgetSnapshot before = budget.snapshot();
+        assertSame(before, budget.snapshot());
+
+        budget.addPurchase(tx4);
+        budget.removePurchase(budget.getPurchaseId(0));
+        budget.recategorize(new int[] {secondId}, "Category 2");
+        budget.setTotalBudget(30000);
+        assertTrue(budget.snapshot().getVersion() > before.getVersion());
+
+        assertEquals(3, before.getPurchaseCount());
+        assertEquals("Purchase 1", before.getPurchase(0).getDescription());
+        assertEquals("Category 1", before.getPurchase(1).getCategory());
+        assertEquals(secondId, before.getPurchaseId(1));
+        assertEquals(15000, before.getBudgetTotalSpent());
+        assertEquals(10000, before.getCategorySpent("Category 1"));
+        assertEquals(0, before.getTotalBudget());
+        assertEquals(3, before.getStats().getCount());
+        assertEquals(3, before.getPurchaseList().size());
+
+        budget.removeCategory("Category 2");
+        assertEquals(5000, before.getCategoryTotalSpent().get("Category 2").longValue());
+        assertEquals("Purchase 3", before.getPurchase(2).getDescription());
+
+        BudgetSnapshot after = budget.snapshot();
+        assertEquals(0, after.getPurchaseCount());
+        assertEquals(0, after.getBudgetTotalSpent());
+        assertEquals(30000, after.getTotalBudget());
+        assertFalse(after.getBudget().containsKey("Category 2"));
+        try {
+            after.getStats("Category 2");
+            fail();
+        } catch (CategoryException ce) {
+            assertEquals("Category 2 does not currently exist in the budget!", ce.getMessage());
+        }
+    }
+
+    /**
+     * Tests that snapshots read on another thread stay consistent while the budget keeps adding, removing and moving
+     * purchases
+     *
+     * @throws Exception if the reader thread fails
+     */
+    @Test
+    public void snapshotWhileChanging() throws Exception {
+        budget.addBudgetBucket("Category 1", 15000);
+        budget.addBudgetBucket("Category 2", 10000);
+        AtomicReference<BudgetSnapshot> latest = new AtomicReference<BudgetSnapshot>(budget.snapshot());
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        AtomicBoolean done = new AtomicBoolean();
+
+        Thread reader = new Thread(() -> {
+            try {
+                while(!done.get()) {
+                    BudgetSnapshot snapshot = latest.get();
+                    long[] spent = new long[1];
+                    int[] count = new int[1];
+                    snapshot.forEachPurchase((day, description, price, category) -> {
+                        spent[0] += price;
+                        count[0]++;
+                    });
+
+                    assertEquals(snapshot.getBudgetTotalSpent(), spent[0]);
+                    assertEquals(snapshot.getPurchaseCount(), count[0]);
+                    assertEquals(count[0], snapshot.getStats().getCount());
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+
+        Random random = new Random(7);
+        for(int i = 0; i < 5000; i++) {
+            budget.addPurchase(new Date(i % 28 + 1, 1, 2020), "Purchase " + i, random.nextInt(1000),
+                    i % 2 == 0 ? "Category 1" : "Category 2");
+            if(i % 3 == 1) {
+                budget.removePurchase(budget.getPurchaseId(random.nextInt(budget.getPurchaseCount())));
+            }
+            if(i % 5 == 0) {
+                budget.recategorize(new int[] {budget.getPurchaseId(random.nextInt(budget.getPurchaseCount()))},
+                        i % 2 == 0 ? "Category 2" : "Category 1");
+            }
+            latest.set(budget.snapshot());
+        }
+        done.set(true);
+        reader.join();
+
+        if(failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    /**
+     * Tests that a fork can be changed without changing its parent, and reports its changes against the parent as it
+     * was when forked
+     * Uses enough purchases to span several segments of the purchase store
+     *
+     * @throws CategoryException if a category doesn't exist when adding a transaction
+     */
+    @Test
+    public void fork() throws CategoryException {
+        budget.addBudgetBucket("Category 1", 15000);
+        budget.addBudgetBucket("Category 2", 10000);
+        for(int i = 0; i < 10000; i++) {
+            budget.addPurchase(new Date(i % 28 + 1, i % 12 + 1, 2020), "Purchase " + i, 100 + i % 50,
+                    i % 2 == 0 ? "Category 1" : "Category 2");
+        }
+        long spent = budget.getBudgetTotalSpent();
+        String fifth = budget.getPurchase(5).toString();
+        int seventhId = budget.getPurchaseId(7);
+
+        Budget scenario = budget.fork();
+        assertTrue(scenario.diff().isEmpty());
+
+        scenario.setCategoryBudget("Category 1", 13500);
+        scenario.addPurchase(new Purchase(new Date(1, 6, 2020), "Rent increase", 20000, "Category 2", false));
+        scenario.removePurchase(scenario.getPurchaseId(5));
+        scenario.recategorize(new int[] {seventhId}, "Category 1");
+        budget.addPurchase(tx1);
+
+        //the parent keeps its purchases and totals, and its later changes don't reach the fork
+        assertEquals(10001, budget.getPurchaseCount());
+        assertEquals(fifth, budget.getPurchase(5).toString());
+        assertEquals("Category 2", budget.getPurchase(budget.getPurchaseRow(seventhId)).getCategory());
+        assertEquals(15000, budget.getBudget().get("Category 1").intValue());
+        assertEquals(spent + 5000, budget.getBudgetTotalSpent());
+
+        assertEquals(10000, scenario.getPurchaseCount());
+        assertEquals(spent + 20000 - 105, scenario.getBudgetTotalSpent());
+        assertEquals(13500, scenario.getStats("Category 1").getBudget());
+        assertEquals(spent + 20000 - 105, scenario.spent(Date.of(1, 1, 2020), Date.of(31, 12, 2020)));
+        assertEquals("Category 1", scenario.getPurchase(scenario.getPurchaseRow(seventhId)).getCategory());
+
+        BudgetDiff diff = scenario.diff();
+        assertFalse(diff.isEmpty());
+        assertEquals(-1500, diff.getBudgetChange("Category 1"));
+        assertEquals(0, diff.getTotalBudgetChange());
+        assertEquals(20000 - 105, diff.getTotalSpentChange());
+        assertEquals(Arrays.asList("Category 1", "Category 2"), diff.getChangedCategories());
+        assertEquals(1, diff.getAddedPurchases().size());
+        assertEquals("Rent increase", diff.getAddedPurchases().get(0).getDescription());
+        assertEquals(1, diff.getRemovedPurchases().size());
+        assertEquals(fifth, diff.getRemovedPurchases().get(0).toString());
+        assertEquals(1, diff.getRecategorizedPurchases().size());
+        assertEquals("Category 1", diff.getRecategorizedPurchases().get(0).getCategory());
+        assertEquals(Arrays.asList("Category 2"), diff.getPreviousCategories());
+
+        //a fork of the fork compares against the first fork
+        Budget nested = scenario.fork();
+        nested.addBudgetBucket("Category 3", 500);
+        assertEquals(Arrays.asList("Category 3"), nested.diff().getAddedCategories());
+        assertTrue(nested.diff().getAddedPurchases().isEmpty());
+
+        try {
+            budget.diff();
+            fail();
+        } catch (IllegalStateException ise) {
+            assertEquals("Budget is not a fork", ise.getMessage());
+        }
+    }
+
+    /**
+     * Tests that many forks of one budget are evaluated side by side, each seeing only its own changes
+     *
+     * @throws CategoryException if a category doesn't exist when adding a transaction
+     */
+    @Test
+    public void manyForks() throws CategoryException {
+        budget.addBudgetBucket("Category 1", 100000);
+        budget.addBudgetBucket("Category 2", 10000);
+        for(int i = 0; i < 5000; i++) {
+            budget.addPurchase(new Date(i % 28 + 1, 1, 2020), "Purchase " + i % 100, 10, "Category 1");
+        }
+
+        ArrayList<Budget> scenarios = new ArrayList<Budget>();
+        for(int cut = 0; cut < 24; cut++) {
+            Budget scenario = budget.fork();
+            scenario.setCategoryBudget("Category 1", 100000 - cut * 1000);
+            scenario.addPurchase(new Date(1, 2, 2020), "Scenario " + cut, cut, "Category 2");
+            scenarios.add(scenario);
+        }
+
+        for(int cut = 0; cut < 24; cut++) {
+            Budget scenario = scenarios.get(cut);
+            assertEquals(50000 - cut * 1000, scenario.getStats("Category 1").getRemaining());
+            assertEquals(5001, scenario.getPurchaseCount());
+            assertEquals("Scenario " + cut, scenario.getPurchase(5000).getDescription());
+            assertEquals(cut, scenario.diff().getSpentChange("Category 2"));
+        }
+        assertEquals(5000, budget.getPurchaseCount());
+        assertEquals(0, budget.getCategorySpent("Category 2"));
+    }
+
+    /**
+     * Returns every row of the budget sorted by a field
+     *
+     * @param sort - field to sort by
+     * @return rows in sorted order
+     */
+    private int[] sortedRows(PurchaseSort sort) {
+        int[] rows = new int[budget.getPurchaseCount()];
+        for(int position = 0; position < rows.length; position++) {
+            rows[position] = budget.getSortedRow(sort, position);
+        }
+        return rows;
+    }
+}
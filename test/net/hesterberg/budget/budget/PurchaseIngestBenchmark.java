@@ -0,0 +1,61 @@
+package net.hesterberg.budget.budget;
+
+/**
+ * Times adding purchases through a PurchaseIngest from one writer thread and from four
+ * Run by hand on a machine with at least four processors - it isn't a test, as its timings depend on the machine
+ * Parsing happens on the writer threads and only adding each full batch is serialized, so four threads should be
+ * well over 1.5 times as fast as one
+ *
+ * @author Nikolai Hesterberg
+ */
+public class PurchaseIngestBenchmark {
+    /**
+     * Number of purchases added by each run
+     */
+    private static final int PURCHASES = 400000;
+
+    /**
+     * Prints the best of three runs with one writer thread and with four
+     *
+     * @param args - unused
+     * @throws Exception if a writer thread fails
+     */
+    public static void main(String[] args) throws Exception {
+        long single = Long.MAX_VALUE;
+        long parallel = Long.MAX_VALUE;
+
+        //best of three runs each, so JIT warm up and collections don't decide the result
+        for(int run = 0; run < 3; run++) {
+            single = Math.min(single, time(1));
+            parallel = Math.min(parallel, time(4));
+        }
+
+        System.out.println("1 thread took " + single / 1000000 + " ms, 4 threads took " + parallel / 1000000
+                + " ms, speedup " + String.format("%.2f", (double) single / parallel));
+    }
+
+    /**
+     * Times adding the purchases to a new budget
+     * Also used by PurchaseIngestTest to check that more threads are faster
+     *
+     * @param threads - number of writer threads
+     * @return time taken in nanoseconds
+     * @throws Exception if a writer thread fails
+     */
+    static long time(int threads) throws Exception {
+        Budget budget = new Budget(100000);
+        budget.addBudgetBucket("Food", 50000);
+        budget.addBudgetBucket("Automotive", 20000);
+        budget.addBudgetBucket("Bills", 20000);
+        budget.addBudgetBucket("Fun", 10000);
+
+        long start = System.nanoTime();
+        PurchaseIngestTest.ingest(new PurchaseIngest(budget), threads, PURCHASES / threads);
+        long taken = System.nanoTime() - start;
+
+        if(budget.getPurchaseCount() != PURCHASES) {
+            throw new IllegalStateException(budget.getPurchaseCount() + " purchases were added, not " + PURCHASES);
+        }
+        return taken;
+    }
+}
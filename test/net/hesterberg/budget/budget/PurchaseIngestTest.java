@@ -0,0 +1,219 @@
+package net.hesterberg.budget.budget;
+
+import net.hesterberg.budget.Date;
+import net.hesterberg.budget.utility.CategoryException;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress tests adding purchases to a budget from several threads at once
+ *
+ * @author Nikolai Hesterberg
+ */
+public class PurchaseIngestTest {
+    /**
+     * Categories the purchases are spread over - Food gets every other purchase
+     */
+    private static final String[] CATEGORIES = {"Food", "Automotive", "Food", "Bills", "Food", "Fun"};
+
+    Budget budget;
+
+    /**
+     * Builds a budget with the categories used by the tests
+     */
+    @Before
+    public void setUp() {
+        budget = new Budget(100000);
+        budget.addBudgetBucket("Food", 50000);
+        budget.addBudgetBucket("Automotive", 20000);
+        budget.addBudgetBucket("Bills", 20000);
+        budget.addBudgetBucket("Fun", 10000);
+    }
+
+    /**
+     * Tests that purchases added by eight threads at once all reach the budget with exact totals
+     *
+     * @throws Exception if a writer thread fails
+     */
+    @Test
+    public void exactTotals() throws Exception {
+        int threads = 8;
+        int perThread = 25000;
+
+        ingest(new PurchaseIngest(budget, 1000), threads, perThread);
+
+        long[] expected = new long[CATEGORIES.length];
+        long total = 0;
+        for(int n = 0; n < threads * perThread; n++) {
+            expected[n % CATEGORIES.length] += price(n);
+            total += price(n);
+        }
+
+        assertEquals(threads * perThread, budget.getPurchaseCount());
+        assertEquals(total, budget.getBudgetTotalSpent());
+        assertEquals(expected[0] + expected[2] + expected[4], budget.getCategorySpent("Food"));
+        assertEquals(expected[1], budget.getCategorySpent("Automotive"));
+        assertEquals(threads * perThread / 2, budget.getStats("Food").getCount());
+        assertEquals(total, budget.spent(Date.of(1, 1, 2020), Date.of(31, 12, 2020)));
+        assertEquals(expected[3], budget.spent("Bills", Date.of(1, 1, 2020), Date.of(31, 12, 2020)));
+    }
+
+    /**
+     * Tests that purchases count towards the totals as soon as they are added, before their batch reaches the budget
+     *
+     * @throws CategoryException if a category doesn't exist in the budget
+     */
+    @Test
+    public void countedBeforeFlush() throws CategoryException {
+        PurchaseIngest ingest = new PurchaseIngest(budget, 1000);
+
+        for(int n = 0; n < 10; n++) {
+            ingest.addPurchase(Date.of(1, 1, 2020), "Shop", price(n), "Food");
+        }
+        assertEquals(0, budget.getPurchaseCount());
+        assertEquals(55, budget.getBudgetTotalSpent());
+        assertEquals(10, budget.getStats("Food").getCount());
+
+        ingest.flush();
+        assertEquals(10, budget.getPurchaseCount());
+        assertEquals(55, budget.getBudgetTotalSpent());
+        assertEquals(10, budget.getStats().getCount());
+    }
+
+    /**
+     * Tests that a purchase in a missing category is rejected by the thread that added it
+     */
+    @Test
+    public void missingCategory() {
+        PurchaseIngest ingest = new PurchaseIngest(budget);
+
+        try {
+            ingest.addPurchase(Date.of(1, 1, 2020), "Rent", 90000, "Housing");
+            fail();
+        } catch (CategoryException ce) {
+            assertEquals("Housing does not currently exist in the budget!", ce.getMessage());
+        }
+
+        //categories added to the budget later are found
+        budget.addBudgetBucket("Housing", 90000);
+        try {
+            ingest.addPurchase(Date.of(1, 1, 2020), "Rent", 90000, "Housing");
+            ingest.flush();
+        } catch (CategoryException ce) {
+            fail(ce.getMessage());
+        }
+        assertEquals(90000, budget.getCategorySpent("Housing"));
+    }
+
+    /**
+     * Tests that purchases in a batch the budget rejects are taken back out of the totals
+     *
+     * @throws CategoryException if a category doesn't exist in the budget
+     */
+    @Test
+    public void rejectedBatchUncounted() throws CategoryException {
+        PurchaseIngest ingest = new PurchaseIngest(budget, 1000);
+
+        for(int n = 0; n < 5; n++) {
+            ingest.addPurchase(Date.of(1, 1, 2020), "Shop", 100, "Food");
+            ingest.addPurchase(Date.of(1, 1, 2020), "Cinema", 50, "Fun");
+        }
+        assertEquals(750, budget.getBudgetTotalSpent());
+
+        budget.removeCategory("Fun");
+        try {
+            ingest.flush();
+            fail();
+        } catch (CategoryException ce) {
+            assertEquals("Fun does not currently exist in the budget!", ce.getMessage());
+        }
+
+        assertEquals(0, budget.getPurchaseCount());
+        assertEquals(0, budget.getBudgetTotalSpent());
+        assertEquals(0, budget.getCategorySpent("Food"));
+        assertEquals(0, budget.getStats().getCount());
+
+        //the removed category is rejected straight away from now on
+        try {
+            ingest.addPurchase(Date.of(1, 1, 2020), "Cinema", 50, "Fun");
+            fail();
+        } catch (CategoryException ce) {
+            assertEquals(0, budget.getBudgetTotalSpent());
+        }
+    }
+
+    /**
+     * Tests that four writer threads add purchases faster than one
+     * Only checks that the threads don't slow each other down rather than the speedup PurchaseIngestBenchmark
+     * expects, so a busy machine doesn't fail it, and is skipped on machines with fewer than four processors
+     *
+     * @throws Exception if a writer thread fails
+     */
+    @Test
+    public void throughputScales() throws Exception {
+        Assume.assumeTrue(Runtime.getRuntime().availableProcessors() >= 4);
+        long single = Long.MAX_VALUE;
+        long parallel = Long.MAX_VALUE;
+
+        //best of three runs each, so JIT warm up and collections don't decide the result
+        for(int run = 0; run < 3; run++) {
+            single = Math.min(single, PurchaseIngestBenchmark.time(1));
+            parallel = Math.min(parallel, PurchaseIngestBenchmark.time(4));
+        }
+
+        assertTrue("1 thread took " + single + " ns, 4 threads took " + parallel + " ns", parallel < single);
+    }
+
+    /**
+     * Adds purchases from several threads, each parsing its purchases from text as an import would
+     *
+     * @param ingest - ingest to add the purchases through
+     * @param threads - number of writer threads
+     * @param perThread - number of purchases each thread adds
+     * @throws Exception if a writer thread fails
+     */
+    static void ingest(PurchaseIngest ingest, int threads, int perThread) throws Exception {
+        Thread[] writers = new Thread[threads];
+        AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        for(int i = 0; i < threads; i++) {
+            int first = i;
+            writers[i] = new Thread(() -> {
+                try {
+                    for(int n = first; n < threads * perThread; n += threads) {
+                        String[] fields = ((n % 28 + 1) + "," + (n % 12 + 1) + ",2020,Shop " + n % 5000 + ","
+                                + price(n) + "," + CATEGORIES[n % CATEGORIES.length]).split(",");
+                        ingest.addPurchase(Date.of(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                                Integer.parseInt(fields[2])), fields[3], Integer.parseInt(fields[4]), fields[5]);
+                    }
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            });
+            writers[i].start();
+        }
+
+        for(Thread writer: writers) {
+            writer.join();
+        }
+        if(failure.get() != null) {
+            throw failure.get();
+        }
+        ingest.flush();
+    }
+
+    /**
+     * Returns the price of the nth purchase
+     *
+     * @param n - number of the purchase
+     * @return price in cents
+     */
+    private static int price(int n) {
+        return n % 9000 + 1;
+    }
+}
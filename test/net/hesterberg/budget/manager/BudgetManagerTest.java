@@ -0,0 +1,328 @@
+package net.hesterberg.budget.manager;
+
+import net.hesterberg.budget.budget.Budget;
+import net.hesterberg.budget.utility.BudgetFileIO;
+import net.hesterberg.budget.utility.BudgetJournal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the budget manager's journaling and the changes it delivers to listeners
+ *
+ * @author Nikolai Hesterberg
+ */
+public class BudgetManagerTest {
+    BudgetManager manager;
+    File file;
+    ArrayList<BudgetChange> changes;
+    BudgetListener listener;
+
+    /**
+     * Starts each test with an empty budget that has no file, delivering events straight away
+     *
+     * @throws IOException if the temporary file can't be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("budget", ".txt");
+        manager = BudgetManager.getBudgetManager();
+        manager.setDispatcher(null);
+        manager.setSaveExecutor(null);
+        manager.setSaveFailureHandler(null);
+        manager.clearBudget();
+        manager.setFilename(null);
+        changes = new ArrayList<BudgetChange>();
+        listener = changes::add;
+        manager.addBudgetListener(listener);
+    }
+
+    /**
+     * Drops the journal and deletes the files written by the test
+     */
+    @After
+    public void tearDown() {
+        manager.removeBudgetListener(listener);
+        manager.setDispatcher(null);
+        manager.setSaveExecutor(null);
+        manager.setSaveFailureHandler(null);
+        manager.clearBudget();
+        delete(file);
+        delete(new File(file.getPath() + BudgetJournal.EXTENSION));
+        delete(new File(file.getPath() + BudgetJournal.EXTENSION + BudgetJournal.NEXT_EXTENSION));
+    }
+
+    /**
+     * Tests that the save compacting the journal runs on the save executor, and that edits made while it runs are
+     * kept in the new journal
+     *
+     * @throws Exception if a purchase can't be added or a file can't be read
+     */
+    @Test
+    public void compactionOnSaveExecutor() throws Exception {
+        ArrayList<Runnable> saves = new ArrayList<Runnable>();
+        ArrayList<Runnable> dispatched = new ArrayList<Runnable>();
+        manager.addCategory("Food", "500");
+        manager.saveBudget(file.getPath());
+        manager.setDispatcher(dispatched::add);
+        manager.setSaveExecutor(saves::add);
+
+        for(int i = 0; i < 1000; i++) {
+            manager.addPurchase("1", "2", "2020", "Purchase " + i, "1.29", "Food");
+        }
+        //the edit that filled the journal only queued the save
+        assertEquals(1, saves.size());
+        assertEquals(0, BudgetFileIO.LoadBudgetFile(file.getPath()).getPurchaseCount());
+
+        for(int i = 0; i < 5; i++) {
+            manager.addPurchase("2", "2", "2020", "Late " + i, "2.00", "Food");
+        }
+        assertEquals(1, saves.size());
+
+        saves.get(0).run();
+        assertEquals(1000, BudgetFileIO.LoadBudgetFile(file.getPath()).getPurchaseCount());
+        //a crash before the new journal replaces the old one keeps the edits made during the save
+        assertEquals(1005, crashCopy().getPurchaseCount());
+        runAll(dispatched);
+
+        //the edits made during the save aren't in the file, so the budget is still unsaved
+        assertTrue(manager.isChanged());
+        assertEquals(1005, reload().getPurchaseCount());
+        assertEquals(1000 * 129 + 5 * 200, reload().getBudgetTotalSpent());
+    }
+
+    /**
+     * Tests that a compaction run on the thread making the edit leaves the budget marked as saved
+     *
+     * @throws Exception if a purchase can't be added or a file can't be read
+     */
+    @Test
+    public void compactionMarksSaved() throws Exception {
+        manager.addCategory("Food", "500");
+        manager.saveBudget(file.getPath());
+
+        for(int i = 0; i < 1000; i++) {
+            manager.addPurchase("1", "2", "2020", "Purchase " + i, "1.00", "Food");
+        }
+
+        assertFalse(manager.isChanged());
+        assertEquals(1000, BudgetFileIO.LoadBudgetFile(file.getPath()).getPurchaseCount());
+        assertEquals(1000, reload().getPurchaseCount());
+
+        manager.addPurchase("1", "2", "2020", "One more", "1.00", "Food");
+        assertTrue(manager.isChanged());
+        assertEquals(1001, reload().getPurchaseCount());
+    }
+
+    /**
+     * Tests that a compaction that can't save is reported to the handler instead of thrown from the edit, keeps
+     * every edit in the journal and isn't tried again on the next edit
+     *
+     * @throws Exception if a purchase can't be added or a file can't be written
+     */
+    @Test
+    public void compactionFailure() throws Exception {
+        ArrayList<RuntimeException> failures = new ArrayList<RuntimeException>();
+        manager.setSaveFailureHandler(failures::add);
+        manager.addCategory("Food", "500");
+        manager.saveBudget(file.getPath());
+        File blocked = new File(file.getPath() + ".saved");
+        assertTrue(file.renameTo(blocked));
+        //a directory with a file in it can't be replaced by the saved budget
+        assertTrue(file.mkdir());
+        assertTrue(new File(file, "blocker").createNewFile());
+
+        try {
+            for(int i = 0; i < 1001; i++) {
+                manager.addPurchase("1", "2", "2020", "Purchase " + i, "1.00", "Food");
+            }
+
+            assertEquals(1, failures.size());
+            assertTrue(manager.isChanged());
+            assertEquals(1001, manager.getBudget().getPurchaseCount());
+
+            delete(file);
+            assertTrue(blocked.renameTo(file));
+            assertEquals(1001, reload().getPurchaseCount());
+        } finally {
+            delete(blocked);
+        }
+    }
+
+    /**
+     * Tests that a burst of edits made before the dispatcher runs is delivered as one change, with its events in the
+     * order the edits were made
+     *
+     * @throws Exception if a purchase can't be added
+     */
+    @Test
+    public void burstDeliveredOnce() throws Exception {
+        ArrayList<Runnable> dispatched = new ArrayList<Runnable>();
+        manager.setDispatcher(dispatched::add);
+
+        manager.addCategory("Food", "500");
+        for(int i = 0; i < 3; i++) {
+            manager.addPurchase("1", "2", "2020", "Purchase " + i, "1.00", "Food");
+        }
+        manager.deletePurchase(manager.getBudget().getPurchaseId(1));
+        assertEquals(1, dispatched.size());
+        assertEquals(0, changes.size());
+
+        runAll(dispatched);
+        assertEquals(1, changes.size());
+        BudgetChange change = changes.get(0);
+        assertFalse(change.isReset());
+        assertSame(manager.getBudget(), change.getBudget());
+
+        //the category change of each later edit is already queued, so only the first is kept
+        List<BudgetEvent> events = change.getEvents();
+        assertEquals(6, events.size());
+        assertEvent(events.get(0), BudgetEvent.Type.CATEGORY_ADDED, -1, "Food");
+        assertEvent(events.get(1), BudgetEvent.Type.PURCHASE_ADDED, 0, null);
+        assertEvent(events.get(2), BudgetEvent.Type.CATEGORY_CHANGED, -1, "Food");
+        assertEvent(events.get(3), BudgetEvent.Type.PURCHASE_ADDED, 1, null);
+        assertEvent(events.get(4), BudgetEvent.Type.PURCHASE_ADDED, 2, null);
+        assertEvent(events.get(5), BudgetEvent.Type.PURCHASE_REMOVED, 1, null);
+    }
+
+    /**
+     * Tests that more purchase events than a change holds are replaced by a single PURCHASES_CHANGED
+     *
+     * @throws Exception if a purchase can't be added
+     */
+    @Test
+    public void manyPurchasesCollapsed() throws Exception {
+        manager.addCategory("Food", "500");
+        changes.clear();
+        ArrayList<Runnable> dispatched = new ArrayList<Runnable>();
+        manager.setDispatcher(dispatched::add);
+
+        for(int i = 0; i < 300; i++) {
+            manager.addPurchase("1", "2", "2020", "Purchase " + i, "1.00", "Food");
+        }
+        runAll(dispatched);
+
+        assertEquals(1, changes.size());
+        assertFalse(changes.get(0).isReset());
+        List<BudgetEvent> events = changes.get(0).getEvents();
+        assertEquals(2, events.size());
+        assertEvent(events.get(0), BudgetEvent.Type.CATEGORY_CHANGED, -1, "Food");
+        assertEvent(events.get(1), BudgetEvent.Type.PURCHASES_CHANGED, -1, null);
+    }
+
+    /**
+     * Tests that loading a budget is delivered as a reset with no events, dropping the events queued before it
+     *
+     * @throws Exception if a purchase can't be added
+     */
+    @Test
+    public void loadDeliversReset() throws Exception {
+        manager.addCategory("Food", "500");
+        manager.addPurchase("1", "2", "2020", "Purchase", "1.00", "Food");
+        manager.saveBudget(file.getPath());
+        changes.clear();
+        ArrayList<Runnable> dispatched = new ArrayList<Runnable>();
+        manager.setDispatcher(dispatched::add);
+
+        //the purchase's events are dropped, but the purchase itself is replayed from the journal
+        manager.addPurchase("2", "2", "2020", "Journaled", "1.00", "Food");
+        manager.loadBudget(file.getPath());
+        runAll(dispatched);
+
+        assertEquals(1, changes.size());
+        assertTrue(changes.get(0).isReset());
+        assertTrue(changes.get(0).getEvents().isEmpty());
+        assertSame(manager.getBudget(), changes.get(0).getBudget());
+        assertEquals(2, changes.get(0).getBudget().getPurchaseCount());
+    }
+
+    /**
+     * Loads the budget file and replays its journal
+     *
+     * @return budget as it would be loaded
+     * @throws IOException if the journal can't be read
+     */
+    private Budget reload() throws IOException {
+        Budget budget = BudgetFileIO.LoadBudgetFile(file.getPath());
+        BudgetJournal.open(file.getPath(), budget).close();
+        return budget;
+    }
+
+    /**
+     * Checks the fields of an event
+     *
+     * @param event - event to check
+     * @param type - expected type
+     * @param row - expected row, -1 for events without one
+     * @param category - expected category, null for events without one
+     */
+    private static void assertEvent(BudgetEvent event, BudgetEvent.Type type, int row, String category) {
+        assertEquals(type, event.getType());
+        assertEquals(row, event.getRow());
+        assertEquals(category, event.getCategory());
+    }
+
+    /**
+     * Copies the budget file and its journals as they are now, as a crash would leave them, and loads the copy
+     *
+     * @return budget as it would be loaded after the crash
+     * @throws IOException if the files can't be copied or read
+     */
+    private Budget crashCopy() throws IOException {
+        File copy = new File(file.getPath() + ".crash");
+        String[] extensions = {"", BudgetJournal.EXTENSION, BudgetJournal.EXTENSION + BudgetJournal.NEXT_EXTENSION};
+
+        try {
+            for(String extension: extensions) {
+                File from = new File(file.getPath() + extension);
+                if(from.exists()) {
+                    Files.copy(from.toPath(), new File(copy.getPath() + extension).toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+
+            Budget budget = BudgetFileIO.LoadBudgetFile(copy.getPath());
+            BudgetJournal.open(copy.getPath(), budget).close();
+            return budget;
+        } finally {
+            for(String extension: extensions) {
+                delete(new File(copy.getPath() + extension));
+            }
+        }
+    }
+
+    /**
+     * Runs and removes every queued task, including tasks queued while running them
+     *
+     * @param tasks - queued tasks
+     */
+    private static void runAll(ArrayList<Runnable> tasks) {
+        while(!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    /**
+     * Deletes a file or a directory and the files in it
+     *
+     * @param target - file to delete
+     */
+    private static void delete(File target) {
+        File[] children = target.listFiles();
+        if(children != null) {
+            for(File child: children) {
+                child.delete();
+            }
+        }
+        target.delete();
+    }
+}
@@ -0,0 +1,147 @@
+package net.hesterberg.budget.manager;
+
+import net.hesterberg.budget.Date;
+import net.hesterberg.budget.budget.Budget;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests how the purchase table model turns the purchase events of a change into list events
+ *
+ * @author Nikolai Hesterberg
+ */
+public class PurchaseTableModelTest {
+    Budget budget;
+    PurchaseTableModel model;
+    ArrayList<ListDataEvent> listEvents;
+
+    /**
+     * Shows an unfiltered budget of five purchases, recording the list events the model fires
+     *
+     * @throws Exception if a purchase can't be added
+     */
+    @Before
+    public void setUp() throws Exception {
+        budget = new Budget(100000);
+        budget.addBudgetBucket("Food", 50000);
+        for(int i = 0; i < 5; i++) {
+            budget.addPurchase(Date.of(1, 2, 2020), "Purchase " + i, 100, "Food");
+        }
+
+        model = new PurchaseTableModel();
+        model.setBudget(budget);
+        listEvents = new ArrayList<ListDataEvent>();
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                listEvents.add(e);
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+                listEvents.add(e);
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                listEvents.add(e);
+            }
+        });
+    }
+
+    /**
+     * Tests that purchases added one after another are reported as one interval
+     *
+     * @throws Exception if a purchase can't be added
+     */
+    @Test
+    public void addedRowsMerged() throws Exception {
+        for(int i = 5; i < 8; i++) {
+            budget.addPurchase(Date.of(2, 2, 2020), "Purchase " + i, 100, "Food");
+        }
+
+        model.budgetChanged(change(BudgetEvent.purchase(BudgetEvent.Type.PURCHASE_ADDED, 5),
+                BudgetEvent.category(BudgetEvent.Type.CATEGORY_CHANGED, "Food"),
+                BudgetEvent.purchase(BudgetEvent.Type.PURCHASE_ADDED, 6),
+                BudgetEvent.purchase(BudgetEvent.Type.PURCHASE_ADDED, 7)));
+
+        //the category change between the first two rows splits them
+        assertEquals(2, listEvents.size());
+        assertInterval(listEvents.get(0), ListDataEvent.INTERVAL_ADDED, 5, 5);
+        assertInterval(listEvents.get(1), ListDataEvent.INTERVAL_ADDED, 6, 7);
+        assertEquals(8, model.getSize());
+        assertEquals("Purchase 7", model.getElementAt(7).getDescription());
+    }
+
+    /**
+     * Tests that purchases removed from the same row, or each from the row above the last, are reported as one
+     * interval
+     */
+    @Test
+    public void removedRowsMerged() {
+        budget.removePurchase(budget.getPurchaseId(3));
+        budget.removePurchase(budget.getPurchaseId(3));
+        budget.removePurchase(budget.getPurchaseId(2));
+
+        model.budgetChanged(change(BudgetEvent.purchase(BudgetEvent.Type.PURCHASE_REMOVED, 3),
+                BudgetEvent.purchase(BudgetEvent.Type.PURCHASE_REMOVED, 3),
+                BudgetEvent.purchase(BudgetEvent.Type.PURCHASE_REMOVED, 2)));
+
+        assertEquals(1, listEvents.size());
+        assertInterval(listEvents.get(0), ListDataEvent.INTERVAL_REMOVED, 2, 4);
+        assertEquals(2, model.getSize());
+        assertEquals("Purchase 1", model.getElementAt(1).getDescription());
+    }
+
+    /**
+     * Tests that rows added and then removed are reported as separate intervals, in order
+     *
+     * @throws Exception if a purchase can't be added
+     */
+    @Test
+    public void addedThenRemoved() throws Exception {
+        budget.addPurchase(Date.of(2, 2, 2020), "Purchase 5", 100, "Food");
+        budget.addPurchase(Date.of(2, 2, 2020), "Purchase 6", 100, "Food");
+        budget.removePurchase(budget.getPurchaseId(0));
+
+        model.budgetChanged(change(BudgetEvent.purchase(BudgetEvent.Type.PURCHASE_ADDED, 5),
+                BudgetEvent.purchase(BudgetEvent.Type.PURCHASE_ADDED, 6),
+                BudgetEvent.purchase(BudgetEvent.Type.PURCHASE_REMOVED, 0)));
+
+        assertEquals(2, listEvents.size());
+        assertInterval(listEvents.get(0), ListDataEvent.INTERVAL_ADDED, 5, 6);
+        assertInterval(listEvents.get(1), ListDataEvent.INTERVAL_REMOVED, 0, 0);
+        assertEquals(6, model.getSize());
+    }
+
+    /**
+     * Builds a change to the shown budget holding the events
+     *
+     * @param events - events of the change
+     * @return change that isn't a reset
+     */
+    private BudgetChange change(BudgetEvent... events) {
+        return new BudgetChange(budget, false, new ArrayList<BudgetEvent>(Arrays.asList(events)));
+    }
+
+    /**
+     * Checks the type and rows of a list event
+     *
+     * @param event - event to check
+     * @param type - expected type
+     * @param first - expected first row
+     * @param last - expected last row
+     */
+    private static void assertInterval(ListDataEvent event, int type, int first, int last) {
+        assertEquals(type, event.getType());
+        assertEquals(first, event.getIndex0());
+        assertEquals(last, event.getIndex1());
+    }
+}
@@ -0,0 +1,451 @@
+package net.hesterberg.budget.utility;
+
+import net.hesterberg.budget.Date;
+import net.hesterberg.budget.budget.Budget;
+import net.hesterberg.budget.budget.BudgetSnapshot;
+import net.hesterberg.budget.budget.PurchaseSort;
+import net.hesterberg.budget.transaction.Purchase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests loading and saving budget files
+ *
+ * @author Nikolai Hesterberg
+ */
+public class BudgetFileIOTest {
+    File file;
+
+    /**
+     * Creates a temporary file for each test to write to
+     *
+     * @throws IOException if the file can't be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("budget", ".txt");
+    }
+
+    /**
+     * Deletes the temporary file
+     */
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Tests loading a budget file with categories and purchases
+     *
+     * @throws IOException if the test file can't be written
+     */
+    @Test
+    public void loadBudgetFile() throws IOException {
+        write("500000\n"
+                + "Automotive,50000\n"
+                + "Food,60000\n"
+                + "-\n"
+                + "5,5,2020,Gas,4000,Automotive\n"
+                + "5,6,2020,Groceries,5565,Food\n"
+                + "5,7,2020,Planet Smoothie,535,Food\n");
+
+        Budget budget = BudgetFileIO.LoadBudgetFile(file.getPath());
+
+        assertEquals(500000, budget.getTotalBudget());
+        assertEquals(2, budget.getBudget().size());
+        assertEquals(60000, budget.getBudget().get("Food").intValue());
+        assertEquals(3, budget.getPurchaseCount());
+        assertEquals(6100, budget.getCategoryTotalSpent().get("Food").intValue());
+        assertEquals(10100, budget.getBudgetTotalSpent());
+
+        ArrayList<Purchase> purchases = budget.getPurchaseList();
+        assertEquals("Planet Smoothie", purchases.get(0).getDescription());
+        assertEquals(Date.of(5, 7, 2020), purchases.get(0).getDate());
+    }
+
+    /**
+     * Tests the loader handles windows line endings, a missing final line break, commas in descriptions and
+     * purchases in categories that weren't listed
+     *
+     * @throws IOException if the test file can't be written
+     */
+    @Test
+    public void loadBudgetFileEdgeCases() throws IOException {
+        write("1000\r\n"
+                + "Food,600\r\n"
+                + "-\r\n"
+                + "5,6,2020,Groceries, milk and eggs,55,Food\r\n"
+                + "\r\n"
+                + "1,2,2020,Gas,40,Automotive");
+
+        Budget budget = BudgetFileIO.LoadBudgetFile(file.getPath());
+
+        assertEquals(1000, budget.getTotalBudget());
+        assertEquals(2, budget.getPurchaseCount());
+        assertEquals(0, budget.getBudget().get("Automotive").intValue());
+        assertEquals(40, budget.getCategoryTotalSpent().get("Automotive").intValue());
+        assertEquals("Groceries, milk and eggs", budget.getPurchaseList().get(1).getDescription());
+    }
+
+    /**
+     * Tests that invalid files are reported with an IllegalArgumentException
+     *
+     * @throws IOException if the test file can't be written
+     */
+    @Test
+    public void loadInvalidBudgetFile() throws IOException {
+        try {
+            BudgetFileIO.LoadBudgetFile(file.getPath() + ".missing");
+            fail("Should not load a file that doesn't exist");
+        } catch (IllegalArgumentException e) {
+            assertEquals("File doesn't exist", e.getMessage());
+        }
+
+        write("1000\nFood,600\n-\n30,2,2020,Groceries,55,Food\n");
+        try {
+            BudgetFileIO.LoadBudgetFile(file.getPath());
+            fail("Should not load an invalid date");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Line 4: Day must be between 1 and 29", e.getMessage());
+        }
+
+        write("1000\nFood,600\n-\n1,2,2020,Groceries,5x5,Food\n");
+        try {
+            BudgetFileIO.LoadBudgetFile(file.getPath());
+            fail("Should not load an invalid cost");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Line 4 has an invalid number", e.getMessage());
+        }
+    }
+
+    /**
+     * Tests that a saved budget loads back with the same categories and purchases
+     * Also checks the temporary file used for the atomic save is cleaned up
+     *
+     * @throws Exception if the purchases can't be added
+     */
+    @Test
+    public void saveBudgetFile() throws Exception {
+        Budget budget = new Budget(500000);
+        budget.addBudgetBucket("Food", 60000);
+        budget.addBudgetBucket("Automotive", 50000);
+        budget.addPurchase(new Purchase(Date.of(5, 6, 2020), "Groceries, milk", 5565, "Food", false));
+        budget.addPurchase(new Purchase(Date.of(5, 7, 2020), "Planet Smoothie", 535, "Food", false));
+        budget.addPurchase(new Purchase(Date.of(31, 12, 1999), "Gas", -4000, "Automotive", false));
+
+        BudgetFileIO.SaveBudgetFile(file.getPath(), budget);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        Budget loaded = BudgetFileIO.LoadBudgetFile(file.getPath());
+        assertEquals(budget.getTotalBudget(), loaded.getTotalBudget());
+        assertEquals(budget.getBudget(), loaded.getBudget());
+        assertEquals(budget.getCategoryTotalSpent(), loaded.getCategoryTotalSpent());
+        assertEquals(budget.getPurchaseList().toString(), loaded.getPurchaseList().toString());
+
+        //Saving again replaces the old file rather than adding to it
+        budget.removeCategory("Automotive");
+        BudgetFileIO.SaveBudgetFile(file.getPath(), budget);
+        loaded = BudgetFileIO.LoadBudgetFile(file.getPath());
+        assertEquals(2, loaded.getPurchaseCount());
+        assertEquals(1, loaded.getBudget().size());
+    }
+
+    /**
+     * Tests that a budget saved in the binary format loads back the same, and that the format is detected from the
+     * file contents rather than the name
+     *
+     * @throws Exception if the purchases can't be added
+     */
+    @Test
+    public void binaryBudgetFile() throws Exception {
+        File binary = new File(file.getPath() + BudgetFileIO.BINARY_EXTENSION);
+        Budget budget = new Budget(500000);
+        budget.addBudgetBucket("Food", 60000);
+        budget.addBudgetBucket("Automotive", 50000);
+        budget.addBudgetBucket("Pets", 5000);
+        budget.addPurchase(new Purchase(Date.of(5, 7, 2020), "Planet Smoothie", 535, "Food", false));
+        budget.addPurchase(new Purchase(Date.of(31, 12, 1969), "Gas", -4000, "Automotive", false));
+        budget.addPurchase(new Purchase(Date.of(5, 6, 2020), "Groceries, milk", 5565, "Food", false));
+        budget.addPurchase(new Purchase(Date.of(1, 7, 2020), "Planet Smoothie", 535, "Food", false));
+        budget.addPurchase(new Purchase(Date.of(31, 7, 2020), "Gas", 3000, "Automotive", false));
+
+        try {
+            BudgetFileIO.SaveBudgetFile(binary.getPath(), budget);
+            assertFalse(BudgetBinaryFormat.isBinary(file.getPath()));
+            assertTrue(BudgetBinaryFormat.isBinary(binary.getPath()));
+            assertTrue(binary.renameTo(file));
+
+            Budget loaded = BudgetFileIO.LoadBudgetFile(file.getPath());
+            assertEquals(budget.getTotalBudget(), loaded.getTotalBudget());
+            assertEquals(budget.getBudget(), loaded.getBudget());
+            assertEquals(budget.getCategoryTotalSpent(), loaded.getCategoryTotalSpent());
+            assertEquals(purchaseStrings(budget), purchaseStrings(loaded));
+        } finally {
+            binary.delete();
+        }
+    }
+
+    /**
+     * Tests that a lazily loaded binary budget reports the same totals, purchases and period spending as a full
+     * load, and that edits to archived months behave as they would on a full load
+     *
+     * @throws Exception if the purchases can't be added
+     */
+    @Test
+    public void lazyBinaryLoad() throws Exception {
+        File binary = new File(file.getPath() + BudgetFileIO.BINARY_EXTENSION);
+        Budget budget = new Budget(500000);
+        budget.addBudgetBucket("Food", 60000);
+        budget.addBudgetBucket("Automotive", 50000);
+        for(int i = 0; i < 400; i++) {
+            budget.addPurchase(new Purchase(Date.of(i % 28 + 1, i % 12 + 1, 2018 + i % 3), "Groceries " + i % 7,
+                    100 + i, i % 4 == 0 ? "Automotive" : "Food", false));
+        }
+
+        try {
+            BudgetFileIO.SaveBudgetFile(binary.getPath(), budget);
+            Budget full = BudgetFileIO.LoadBudgetFile(binary.getPath());
+            Budget lazy = new BudgetBinaryReader(binary.getPath()).readLazy(BudgetBinaryFormat.monthKey(2020, 6));
+
+            assertEquals(400, lazy.getPurchaseCount());
+            assertEquals(full.getBudgetTotalSpent(), lazy.getBudgetTotalSpent());
+            assertEquals(full.getStats("Food").getCount(), lazy.getStats("Food").getCount());
+            assertEquals(full.getStats().getLargest(), lazy.getStats().getLargest());
+            assertEquals(full.getCategoryTotalSpent(), lazy.getCategoryTotalSpent());
+            assertEquals(full.spent(Date.of(1, 1, 2019), Date.of(31, 12, 2019)),
+                    lazy.spent(Date.of(1, 1, 2019), Date.of(31, 12, 2019)));
+            assertEquals(full.spent("Food", Date.of(15, 3, 2018), Date.of(10, 8, 2019)),
+                    lazy.spent("Food", Date.of(15, 3, 2018), Date.of(10, 8, 2019)));
+            assertEquals(purchaseStrings(full), purchaseStrings(lazy));
+
+            int lastArchivedRow = lazy.getArchivedPurchaseCount() - 1;
+            int lastArchivedId = lazy.getPurchaseId(lastArchivedRow);
+            String lastArchived = lazy.getPurchase(lastArchivedRow).toString();
+            ArrayList<String> original = purchaseStrings(full);
+            BudgetSnapshot snapshot = lazy.snapshot();
+
+            //a fork moves its own copy of an archived month, leaving the parent's archive as it was
+            Budget scenario = lazy.fork();
+            Purchase first = new Purchase(Date.of(1, 1, 2018), "Groceries 0", 100, "Automotive", false);
+            assertEquals("Groceries 0", scenario.removeTransaction(first));
+            assertEquals(399, scenario.getPurchaseCount());
+            assertEquals(400, lazy.getPurchaseCount());
+            assertEquals(lazy.getArchivedPurchaseCount(), lastArchivedRow + 1);
+            assertEquals(1, scenario.diff().getRemovedPurchases().size());
+            assertEquals(first.toString(), scenario.diff().getRemovedPurchases().get(0).toString());
+            assertTrue(scenario.diff().getAddedPurchases().isEmpty());
+            assertEquals(-100, scenario.diff().getSpentChange("Automotive"));
+
+            Purchase archived = new Purchase(Date.of(26, 2, 2019), "Groceries 4", 125, "Food", false);
+            assertEquals("Groceries 4", full.removeTransaction(archived));
+            assertEquals("Groceries 4", lazy.removeTransaction(archived));
+            assertEquals(399, lazy.getPurchaseCount());
+
+            //moving the month renumbered the rows, but the id still finds the same purchase
+            assertTrue(lazy.getPurchaseRow(lastArchivedId) < lastArchivedRow);
+            assertEquals(lastArchived, lazy.getPurchase(lazy.getPurchaseRow(lastArchivedId)).toString());
+            assertEquals(lastArchivedId, lazy.getPurchaseId(lazy.getPurchaseRow(lastArchivedId)));
+            assertEquals(full.getBudgetTotalSpent(), lazy.getBudgetTotalSpent());
+            assertEquals(purchaseStrings(full), purchaseStrings(lazy));
+
+            full.removeCategory("Automotive");
+            lazy.removeCategory("Automotive");
+            assertEquals(full.getPurchaseCount(), lazy.getPurchaseCount());
+            assertEquals(full.getCategoryTotalSpent(), lazy.getCategoryTotalSpent());
+            assertEquals(full.spent(Date.of(1, 1, 2018), Date.of(31, 12, 2020)),
+                    lazy.spent(Date.of(1, 1, 2018), Date.of(31, 12, 2020)));
+
+            //the snapshot still reads the archived months as they were before they were moved and changed
+            assertEquals(400, snapshot.getPurchaseCount());
+            assertEquals(lastArchived, snapshot.getPurchase(lastArchivedRow).toString());
+            assertEquals(lastArchivedId, snapshot.getPurchaseId(lastArchivedRow));
+            ArrayList<String> snapshotStrings = new ArrayList<String>();
+            for(Purchase purchase: snapshot.getPurchaseList()) {
+                snapshotStrings.add(purchase.toString());
+            }
+            Collections.sort(snapshotStrings);
+            assertEquals(original, snapshotStrings);
+        } finally {
+            binary.delete();
+        }
+    }
+
+    /**
+     * Tests sorting a lazily loaded budget by description, when some descriptions are only used by archived months
+     * Checks the order stays sorted as an archived month moves into the store and purchases are added
+     *
+     * @throws Exception if the purchases can't be added
+     */
+    @Test
+    public void lazyDescriptionOrder() throws Exception {
+        File binary = new File(file.getPath() + BudgetFileIO.BINARY_EXTENSION);
+        Budget budget = new Budget(500000);
+        budget.addBudgetBucket("Food", 60000);
+        budget.addPurchase(new Purchase(Date.of(3, 1, 2018), "Zoo", 900, "Food", false));
+        budget.addPurchase(new Purchase(Date.of(4, 2, 2018), "Apple", 100, "Food", false));
+        budget.addPurchase(new Purchase(Date.of(5, 7, 2020), "Bus", 200, "Food", false));
+        budget.addPurchase(new Purchase(Date.of(6, 7, 2020), "Apple", 300, "Food", false));
+
+        try {
+            BudgetFileIO.SaveBudgetFile(binary.getPath(), budget);
+            Budget lazy = new BudgetBinaryReader(binary.getPath()).readLazy(BudgetBinaryFormat.monthKey(2020, 6));
+            assertEquals(2, lazy.getArchivedPurchaseCount());
+            assertEquals("[Apple, Apple, Bus, Zoo]", sortedDescriptions(lazy).toString());
+
+            assertEquals("Zoo", lazy.removeTransaction(new Purchase(Date.of(3, 1, 2018), "Zoo", 900, "Food", false)));
+            lazy.addPurchase(new Purchase(Date.of(7, 7, 2020), "Cafe", 400, "Food", false));
+            lazy.addPurchase(new Purchase(Date.of(8, 7, 2020), "Zoo", 500, "Food", false));
+            assertEquals("[Apple, Apple, Bus, Cafe, Zoo]", sortedDescriptions(lazy).toString());
+        } finally {
+            binary.delete();
+        }
+    }
+
+    /**
+     * Tests that parsing the purchase lines in many small ranges builds the same budget as reading the file on one
+     * thread, and reports errors against the right line
+     *
+     * @throws IOException if the test file can't be written
+     */
+    @Test
+    public void parallelLoad() throws IOException {
+        StringBuilder text = new StringBuilder("500000\nFood,60000\nAutomotive,50000\n-\n");
+        for(int i = 0; i < 5000; i++) {
+            text.append(i % 28 + 1).append(',').append(i % 12 + 1).append(',').append(2000 + i % 20).append(',');
+            text.append(i % 3 == 0 ? "Gas, premium" : "Groceries " + i % 50).append(',').append(i * 7 - 300);
+            text.append(',').append(i % 5 == 0 ? "Automotive" : i % 7 == 0 ? "Pets" : "Food");
+            text.append(i % 11 == 0 ? "\r\n" : "\n");
+            if(i % 997 == 0) {
+                text.append('\n');
+            }
+        }
+        write(text.toString());
+
+        Budget parallel = new BudgetParallelTextReader(file.getPath(), 1000, null).read();
+        Budget sequential;
+        try(BudgetTextReader reader = new BudgetTextReader(file.getPath())) {
+            sequential = reader.read();
+        }
+
+        assertEquals(5000, parallel.getPurchaseCount());
+        assertEquals(sequential.getBudget(), parallel.getBudget());
+        assertEquals(sequential.getCategoryTotalSpent(), parallel.getCategoryTotalSpent());
+        assertEquals(sequential.getBudgetTotalSpent(), parallel.getBudgetTotalSpent());
+        for(int row = 0; row < 5000; row++) {
+            assertEquals(sequential.getPurchase(row).toString(), parallel.getPurchase(row).toString());
+        }
+
+        write(text.append("5,5,2020,Gas,40x0,Automotive\n").toString());
+        try {
+            new BudgetParallelTextReader(file.getPath(), 1000, null).read();
+            fail();
+        } catch (IllegalArgumentException iae) {
+            assertEquals("Line 5011 has an invalid number", iae.getMessage());
+        }
+    }
+
+    /**
+     * Tests that loads and saves report their progress and stop when the thread is interrupted
+     *
+     * @throws Exception if the test files can't be written
+     */
+    @Test
+    public void progressAndCancel() throws Exception {
+        Budget budget = new Budget(500000);
+        budget.addBudgetBucket("Food", 60000);
+        for(int i = 0; i < 200; i++) {
+            budget.addPurchase(new Purchase(Date.of(i % 28 + 1, 3, 2019), "Groceries", 100 + i, "Food", false));
+        }
+        final long[] last = {0, -1};
+        ProgressListener listener = new ProgressListener() {
+            @Override
+            public void progress(long done, long total) {
+                assertTrue(done >= last[0]);
+                last[0] = done;
+                last[1] = total;
+            }
+        };
+
+        BudgetFileIO.SaveBudgetFile(file.getPath(), budget, listener);
+        assertEquals(last[1], last[0]);
+        last[0] = 0;
+        Budget loaded = BudgetFileIO.LoadBudgetFile(file.getPath(), false, listener);
+        assertEquals(200, loaded.getPurchaseCount());
+        assertEquals(file.length(), last[0]);
+        assertEquals(file.length(), last[1]);
+
+        Thread.currentThread().interrupt();
+        try {
+            BudgetFileIO.LoadBudgetFile(file.getPath(), false, listener);
+            fail();
+        } catch (CancellationException ce) {
+            assertEquals("Load cancelled", ce.getMessage());
+        } finally {
+            Thread.interrupted();
+        }
+
+        Thread.currentThread().interrupt();
+        try {
+            BudgetFileIO.SaveBudgetFile(file.getPath(), new Budget(100), listener);
+            fail();
+        } catch (CancellationException ce) {
+            assertEquals("Save cancelled", ce.getMessage());
+        } finally {
+            Thread.interrupted();
+        }
+        //the cancelled save leaves the old file in place
+        assertEquals(200, BudgetFileIO.LoadBudgetFile(file.getPath()).getPurchaseCount());
+    }
+
+    /**
+     * Returns the purchases of the budget as sorted strings
+     * The binary format stores purchases by date, so purchases that sort equally may come back in another order
+     *
+     * @param budget - budget to list
+     * @return string of each purchase, sorted
+     */
+    private ArrayList<String> purchaseStrings(Budget budget) {
+        ArrayList<String> strings = new ArrayList<String>();
+        for(Purchase purchase: budget.getPurchaseList()) {
+            strings.add(purchase.toString());
+        }
+        Collections.sort(strings);
+        return strings;
+    }
+
+    /**
+     * Returns the descriptions of the budget's purchases in the budget's description order
+     *
+     * @param budget - budget to list
+     * @return description of each purchase, in sorted order
+     */
+    private ArrayList<String> sortedDescriptions(Budget budget) {
+        ArrayList<String> descriptions = new ArrayList<String>();
+        for(int position = 0; position < budget.getPurchaseCount(); position++) {
+            int row = budget.getSortedRow(PurchaseSort.DESCRIPTION, position);
+            descriptions.add(budget.getPurchase(row).getDescription());
+        }
+        return descriptions;
+    }
+
+    /**
+     * Replaces the contents of the test file
+     *
+     * @param contents - text to write
+     * @throws IOException if the file can't be written
+     */
+    private void write(String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,226 @@
+package net.hesterberg.budget.utility;
+
+import net.hesterberg.budget.Date;
+import net.hesterberg.budget.budget.Budget;
+import net.hesterberg.budget.transaction.Purchase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests recording edits in the journal and replaying them when the budget is loaded
+ *
+ * @author Nikolai Hesterberg
+ */
+public class BudgetJournalTest {
+    File file;
+    File journalFile;
+    File nextFile;
+    Budget budget;
+    Purchase gas;
+    Purchase groceries;
+
+    /**
+     * Saves a small budget to a temporary file for each test
+     *
+     * @throws Exception if the file can't be created
+     */
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("budget", ".txt");
+        journalFile = new File(file.getPath() + BudgetJournal.EXTENSION);
+        nextFile = new File(journalFile.getPath() + BudgetJournal.NEXT_EXTENSION);
+
+        gas = new Purchase(Date.of(5, 5, 2020), "Gas", 4000, "Automotive", false);
+        groceries = new Purchase(Date.of(5, 6, 2020), "Groceries, milk", 5565, "Food", false);
+
+        budget = new Budget(100000);
+        budget.addBudgetBucket("Automotive", 50000);
+        budget.addPurchase(gas);
+        BudgetFileIO.SaveBudgetFile(file.getPath(), budget);
+    }
+
+    /**
+     * Deletes the temporary files
+     */
+    @After
+    public void tearDown() {
+        file.delete();
+        journalFile.delete();
+        nextFile.delete();
+    }
+
+    /**
+     * Tests that every kind of edit is replayed onto the saved budget
+     *
+     * @throws IOException if the journal can't be written
+     */
+    @Test
+    public void replay() throws IOException {
+        try(BudgetJournal journal = BudgetJournal.create(file.getPath())) {
+            journal.categoryAdded("Food", 60000);
+            journal.purchaseAdded(groceries);
+            journal.purchaseRemoved(gas);
+            journal.categoryRemoved("Automotive");
+            journal.totalBudgetSet(90000);
+            assertEquals(5, journal.getEntryCount());
+        }
+
+        Budget loaded = BudgetFileIO.LoadBudgetFile(file.getPath());
+        try(BudgetJournal journal = BudgetJournal.open(file.getPath(), loaded)) {
+            assertEquals(5, journal.getEntryCount());
+        }
+
+        assertEquals(90000, loaded.getTotalBudget());
+        assertEquals(1, loaded.getBudget().size());
+        assertEquals(60000, loaded.getBudget().get("Food").intValue());
+        assertEquals(1, loaded.getPurchaseCount());
+        assertEquals("Groceries, milk", loaded.getPurchase(0).getDescription());
+        assertEquals(5565, loaded.getBudgetTotalSpent());
+    }
+
+    /**
+     * Tests that edits recorded together are each replayed, including purchases moved to another category
+     *
+     * @throws IOException if the journal can't be written
+     */
+    @Test
+    public void batchEdits() throws IOException {
+        try(BudgetJournal journal = BudgetJournal.create(file.getPath())) {
+            journal.categoryAdded("Food", 60000);
+            journal.purchaseAdded(groceries);
+            journal.purchaseAdded(groceries);
+            journal.purchasesRecategorized(Arrays.asList(gas), "Food");
+            journal.purchasesRemoved(Arrays.asList(groceries, groceries));
+            assertEquals(6, journal.getEntryCount());
+        }
+
+        Budget loaded = BudgetFileIO.LoadBudgetFile(file.getPath());
+        try(BudgetJournal journal = BudgetJournal.open(file.getPath(), loaded)) {
+            assertEquals(6, journal.getEntryCount());
+        }
+
+        assertEquals(1, loaded.getPurchaseCount());
+        assertEquals("Food", loaded.getPurchase(0).getCategory());
+        assertEquals(0, loaded.getCategorySpent("Automotive"));
+        assertEquals(4000, loaded.getCategorySpent("Food"));
+    }
+
+    /**
+     * Tests that a line cut short by a crash is dropped and later edits are appended after the last complete line
+     *
+     * @throws IOException if the journal can't be written
+     */
+    @Test
+    public void truncatedLine() throws IOException {
+        try(BudgetJournal journal = BudgetJournal.create(file.getPath())) {
+            journal.categoryAdded("Food", 60000);
+        }
+        Files.write(journalFile.toPath(), "P,5,6,2020,Gro".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        Budget loaded = BudgetFileIO.LoadBudgetFile(file.getPath());
+        try(BudgetJournal journal = BudgetJournal.open(file.getPath(), loaded)) {
+            assertEquals(1, journal.getEntryCount());
+            journal.purchaseAdded(groceries);
+        }
+
+        loaded = BudgetFileIO.LoadBudgetFile(file.getPath());
+        try(BudgetJournal journal = BudgetJournal.open(file.getPath(), loaded)) {
+            assertEquals(2, journal.getEntryCount());
+        }
+        assertEquals(9565, loaded.getBudgetTotalSpent());
+    }
+
+    /**
+     * Tests that a journal written for an older version of the budget file is ignored
+     *
+     * @throws Exception if the journal can't be written
+     */
+    @Test
+    public void staleJournal() throws Exception {
+        try(BudgetJournal journal = BudgetJournal.create(file.getPath())) {
+            journal.purchaseRemoved(gas);
+        }
+
+        //Saving the budget again without starting a new journal, as a crash after the save would
+        budget.addBudgetBucket("Food", 60000);
+        BudgetFileIO.SaveBudgetFile(file.getPath(), budget);
+        file.setLastModified(file.lastModified() + 2000);
+
+        Budget loaded = BudgetFileIO.LoadBudgetFile(file.getPath());
+        try(BudgetJournal journal = BudgetJournal.open(file.getPath(), loaded)) {
+            assertEquals(0, journal.getEntryCount());
+        }
+        assertEquals(4000, loaded.getBudgetTotalSpent());
+    }
+
+    /**
+     * Tests that edits made during a background save are replayed from the next journal when the save replaced the
+     * budget file but the journal wasn't replaced before a crash
+     *
+     * @throws Exception if the journal can't be written
+     */
+    @Test
+    public void saveReplacedFile() throws Exception {
+        try(BudgetJournal journal = BudgetJournal.create(file.getPath())) {
+            journal.categoryAdded("Food", 60000);
+            try(BudgetJournal next = journal.startNext(file.getPath())) {
+                journal.purchaseAdded(groceries);
+                next.purchaseAdded(groceries);
+            }
+        }
+
+        //The background save held the budget as it was when the next journal was started
+        budget.addBudgetBucket("Food", 60000);
+        BudgetFileIO.SaveBudgetFile(file.getPath(), budget);
+        file.setLastModified(file.lastModified() + 2000);
+
+        Budget loaded = BudgetFileIO.LoadBudgetFile(file.getPath());
+        try(BudgetJournal journal = BudgetJournal.open(file.getPath(), loaded)) {
+            assertEquals(1, journal.getEntryCount());
+        }
+        assertEquals(9565, loaded.getBudgetTotalSpent());
+        assertFalse(nextFile.exists());
+
+        //the replayed edits now form the journal of the new file
+        loaded = BudgetFileIO.LoadBudgetFile(file.getPath());
+        try(BudgetJournal journal = BudgetJournal.open(file.getPath(), loaded)) {
+            assertEquals(1, journal.getEntryCount());
+        }
+        assertEquals(9565, loaded.getBudgetTotalSpent());
+    }
+
+    /**
+     * Tests that the next journal is ignored when the background save didn't replace the budget file, as the journal
+     * already holds its edits
+     *
+     * @throws Exception if the journal can't be written
+     */
+    @Test
+    public void saveNotFinished() throws Exception {
+        try(BudgetJournal journal = BudgetJournal.create(file.getPath())) {
+            journal.categoryAdded("Food", 60000);
+            try(BudgetJournal next = journal.startNext(file.getPath())) {
+                journal.purchaseAdded(groceries);
+                next.purchaseAdded(groceries);
+            }
+        }
+
+        Budget loaded = BudgetFileIO.LoadBudgetFile(file.getPath());
+        try(BudgetJournal journal = BudgetJournal.open(file.getPath(), loaded)) {
+            assertEquals(2, journal.getEntryCount());
+        }
+        assertEquals(9565, loaded.getBudgetTotalSpent());
+        assertFalse(nextFile.exists());
+    }
+}
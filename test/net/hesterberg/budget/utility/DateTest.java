@@ -50,6 +50,25 @@ public class DateTest {
         } catch (IllegalArgumentException e) {
         }
 
+        //test upper fail bound for year input, past which the epoch day would overflow
+        try {
+            date = new Date(1, 1, 6000000);
+            fail("Should not allow 6000000 year");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            Date.of(1, 1, 5000001);
+            fail("Should not allow 5000001 year");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(5000000, Date.of(31, 12, 5000000).getYear());
+        assertEquals("31-Dec-5000000", Date.of(31, 12, 5000000).toString());
+        try {
+            Date.ofEpochDay(Date.of(31, 12, 5000000).toEpochDay() + 1);
+            fail("Should not allow 5000001 year");
+        } catch (IllegalArgumentException e) {
+        }
+
         //test a good constructor
         date = new Date(1, 1, 2020);
         assertNotNull(date);
@@ -247,4 +266,92 @@ public class DateTest {
         assertEquals(date1.hashCode(), date2.hashCode());
         assertEquals(date2.hashCode(), date1.hashCode());
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that the day is checked against the length of the month
+     */
+    @Test
+    public void daysInMonth() {
+        try {
+            new Date(30, 2, 2020);
+            fail("Should not allow 30 February");
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            new Date(29, 2, 2019);
+            fail("Should not allow 29 February outside a leap year");
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            new Date(31, 4, 2020);
+            fail("Should not allow 31 April");
+        } catch (IllegalArgumentException e) {
+        }
+
+        assertEquals(29, new Date(29, 2, 2020).getDay());
+        assertEquals(29, Date.daysInMonth(2, 2000));
+        assertEquals(28, Date.daysInMonth(2, 1900));
+    }
+
+    /**
+     * Test the conversion to and from epoch days
+     */
+    @Test
+    public void epochDay() {
+        assertEquals(0, new Date(1, 1, 1970).toEpochDay());
+        assertEquals(-1, new Date(31, 12, 1969).toEpochDay());
+        assertEquals(18387, new Date(5, 5, 2020).toEpochDay());
+
+        assertEquals(new Date(29, 2, 2020), Date.ofEpochDay(new Date(29, 2, 2020).toEpochDay()));
+        assertEquals(new Date(1, 1, 1), Date.ofEpochDay(new Date(1, 1, 1).toEpochDay()));
+
+        //Check every day over a few centuries makes the round trip
+        for(int epochDay = -80000; epochDay < 80000; epochDay++) {
+            assertEquals(epochDay, Date.ofEpochDay(epochDay).toEpochDay());
+        }
+    }
+
+    /**
+     * Test that the factory methods share one instance per date
+     */
+    @Test
+    public void of() {
+        Date date = Date.of(15, 6, 2019);
+
+        assertSame(date, Date.of(15, 6, 2019));
+        assertSame(date, Date.ofEpochDay(date.toEpochDay()));
+        assertEquals(new Date(15, 6, 2019), date);
+
+        //Dates outside the cached years still work, they're just not shared
+        assertEquals(new Date(1, 1, 1500), Date.of(1, 1, 1500));
+        assertEquals(new Date(1, 1, 2500), Date.of(1, 1, 2500));
+
+        try {
+            Date.of(31, 6, 2019);
+            fail("Should not allow 31 June");
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            Date.ofEpochDay(new Date(1, 1, 1).toEpochDay() - 1);
+            fail("Should not allow year 0");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Test the day arithmetic methods
+     */
+    @Test
+    public void plusDays() {
+        Date date = Date.of(28, 2, 2020);
+
+        assertEquals(Date.of(29, 2, 2020), date.plusDays(1));
+        assertEquals(Date.of(1, 3, 2020), date.plusDays(2));
+        assertEquals(Date.of(31, 12, 2019), date.plusDays(-59));
+        assertEquals(366, Date.of(1, 1, 2020).daysUntil(Date.of(1, 1, 2021)));
+        assertEquals(-1, date.daysUntil(Date.of(27, 2, 2020)));
+    }
+}
@@ -0,0 +1,82 @@
+package net.hesterberg.budget.utility;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests parsing and formatting amounts of money
+ *
+ * @author Nikolai Hesterberg
+ */
+public class MoneyTest {
+
+    /**
+     * Tests that decimal amounts are parsed to exact cents
+     */
+    @Test
+    public void parseCents() {
+        assertEquals(29, Money.parseCents("0.29"));
+        assertEquals(1999, Money.parseCents("19.99"));
+        assertEquals(1200, Money.parseCents("12"));
+        assertEquals(1200, Money.parseCents("12."));
+        assertEquals(350, Money.parseCents("3.5"));
+        assertEquals(75, Money.parseCents(".75"));
+        assertEquals(-4000, Money.parseCents("-40.00"));
+        assertEquals(101, Money.parseCents(" +1.01 "));
+        assertEquals(0, Money.parseCents("-0"));
+        assertEquals(Long.MAX_VALUE, Money.parseCents("92233720368547758.07"));
+        assertEquals(Long.MIN_VALUE, Money.parseCents("-92233720368547758.08"));
+        assertEquals(535, Money.parseCents("Planet Smoothie,5.35,Food", 16, 20));
+
+        //every two decimal amount is exact, unlike going through a double
+        for(int cents = 0; cents < 100000; cents++) {
+            String text = (cents / 100) + "." + (cents % 100 < 10 ? "0" : "") + cents % 100;
+            assertEquals(cents, Money.parseCents(text));
+        }
+    }
+
+    /**
+     * Tests that text that isn't an amount with at most two decimal places is rejected
+     */
+    @Test
+    public void parseInvalidCents() {
+        String[] invalid = {"", " ", "-", ".", "1.234", "1.2.3", "1,000", "$5", "1e3", "NaN", "--1", "12a",
+                "92233720368547758.08", "-92233720368547758.09", "100000000000000000000"};
+
+        for(String text: invalid) {
+            try {
+                Money.parseCents(text);
+                fail("Should not parse " + text);
+            } catch (NumberFormatException nfe) {
+            }
+        }
+    }
+
+    /**
+     * Tests formatting cents as dollars into a builder that is reused
+     */
+    @Test
+    public void appendDollars() {
+        StringBuilder str = new StringBuilder();
+
+        assertEquals("12.34", Money.appendDollars(str, 1234).toString());
+        str.setLength(0);
+        assertEquals("0.05", Money.appendDollars(str, 5).toString());
+        str.setLength(0);
+        assertEquals("-0.05", Money.appendDollars(str, -5).toString());
+        str.setLength(0);
+        assertEquals("-40.00", Money.appendDollars(str, -4000).toString());
+        str.setLength(0);
+        assertEquals("-92233720368547758.08", Money.appendDollars(str, Long.MIN_VALUE).toString());
+
+        assertEquals("$0.00", Money.toDollars(0));
+        assertEquals("$-12.30", Money.toDollars(-1230));
+
+        //formatting and parsing give back the same amount
+        for(long cents = -100000; cents <= 100000; cents += 7) {
+            str.setLength(0);
+            assertEquals(cents, Money.parseCents(Money.appendDollars(str, cents)));
+        }
+    }
+}